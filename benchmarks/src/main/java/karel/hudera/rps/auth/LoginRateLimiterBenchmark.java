@@ -0,0 +1,43 @@
+package karel.hudera.rps.auth;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of one rate limit check in front of every login, with 8 threads
+ * hitting the same limiter: spread over many keys as in a reconnect storm, and on a single
+ * key that has run out of tokens as in a credential-stuffing burst.
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class LoginRateLimiterBenchmark {
+
+    private LoginRateLimiter generous;
+    private LoginRateLimiter exhausted;
+
+    @Setup
+    public void setup() {
+        generous = new LoginRateLimiter(4096, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        exhausted = new LoginRateLimiter(4096, 1, 1);
+        exhausted.tryAcquire(42);
+    }
+
+    @Benchmark
+    public boolean manyKeys() {
+        return generous.tryAcquire(ThreadLocalRandom.current().nextInt());
+    }
+
+    @Benchmark
+    public boolean exhaustedKey() {
+        return exhausted.tryAcquire(42);
+    }
+}
@@ -0,0 +1,85 @@
+package karel.hudera.rps.auth;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.utils.ServerLogger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Measures the credential check done by {@link LoginService} for each login attempt,
+ * for the plain properties store, the indexed store with hashed passwords and the
+ * indexed store behind the verified-login cache.
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginServiceBenchmark {
+
+    private static final int ACCOUNTS = 1024;
+
+    @Param({"properties", "indexed", "indexed-cached"})
+    public String store;
+
+    private LoginService loginService;
+    private Path storeFile;
+
+    @Setup
+    public void setup() throws IOException {
+        ServerLogger.INSTANCE.setLevel(Level.OFF);
+
+        Map<String, String> accounts = new HashMap<>();
+        StringBuilder properties = new StringBuilder();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.put("user" + i, "password" + i);
+            properties.append("user").append(i).append("=password").append(i).append('\n');
+        }
+
+        CredentialStore credentials;
+        if (store.equals("properties")) {
+            credentials = PropertiesCredentialStore.load(new ByteArrayInputStream(properties.toString().getBytes()));
+        } else {
+            storeFile = Files.createTempFile("rps-bench-users", IndexedCredentialStore.FILE_EXTENSION);
+            CredentialStoreWriter.write(accounts, storeFile, Constants.CREDENTIAL_HASH_ITERATIONS);
+            credentials = IndexedCredentialStore.open(storeFile);
+            if (store.equals("indexed-cached")) {
+                credentials = new CachingCredentialStore(credentials, Constants.CREDENTIAL_CACHE_SIZE);
+            }
+        }
+        loginService = new LoginService(credentials);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (storeFile != null) {
+            Files.deleteIfExists(storeFile);
+        }
+    }
+
+    @Benchmark
+    public boolean validCredentials() {
+        return loginService.isValidUser("user42", "password42");
+    }
+
+    @Benchmark
+    public boolean wrongPassword() {
+        return loginService.isValidUser("user42", "wrong-password");
+    }
+
+    @Benchmark
+    public boolean unknownUser() {
+        return loginService.isValidUser("nobody", "password");
+    }
+}
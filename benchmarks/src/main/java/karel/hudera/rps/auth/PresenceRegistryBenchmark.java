@@ -0,0 +1,107 @@
+package karel.hudera.rps.auth;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.server.ClientHandler;
+import karel.hudera.rps.utils.ServerLogger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Measures login bookkeeping under a reconnect storm: every thread repeatedly claims,
+ * releases and resumes its own users while all threads share one {@link PresenceRegistry}.
+ * With {@code presence = shared} the registry also keeps a {@link SharedPresenceTable}, as servers
+ * sharing a host do, which shows what the cross-process check adds to a local lookup.
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class PresenceRegistryBenchmark {
+
+    private static final int USERS_PER_THREAD = 1024;
+
+    @Param({"local", "shared"})
+    public String presence;
+
+    private PresenceRegistry registry;
+    private Path tableFile;
+
+    @State(Scope.Thread)
+    public static class Player {
+        private static int nextThread;
+
+        String[] usernames;
+        ClientHandler connection;
+        String[] tokens;
+        int next;
+
+        @Setup
+        public void setup() {
+            int thread;
+            synchronized (Player.class) {
+                thread = nextThread++;
+            }
+            usernames = new String[USERS_PER_THREAD];
+            tokens = new String[USERS_PER_THREAD];
+            for (int i = 0; i < USERS_PER_THREAD; i++) {
+                usernames[i] = "player" + thread + "_" + i;
+            }
+            connection = new ClientHandler(new Socket());
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        ServerLogger.INSTANCE.setLevel(Level.OFF);
+        SharedPresenceTable shared = null;
+        if (presence.equals("shared")) {
+            tableFile = Files.createTempFile("rps-presence", ".table");
+            shared = SharedPresenceTable.open(tableFile, Constants.PRESENCE_TABLE_SLOTS);
+        }
+        registry = new PresenceRegistry(false, shared);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (tableFile != null) {
+            Files.delete(tableFile);
+        }
+    }
+
+    @Benchmark
+    public String claimAndRelease(Player player) {
+        String username = player.usernames[player.next++ & (USERS_PER_THREAD - 1)];
+        String token = registry.claim(username, player.connection);
+        registry.release(username, player.connection, false);
+        return token;
+    }
+
+    @Benchmark
+    public AuthenticatedSession disconnectAndResume(Player player) {
+        int i = player.next++ & (USERS_PER_THREAD - 1);
+        String username = player.usernames[i];
+        if (player.tokens[i] == null) {
+            player.tokens[i] = registry.claim(username, player.connection);
+        }
+        registry.release(username, player.connection, true);
+        AuthenticatedSession session = registry.resume(player.tokens[i], player.connection);
+        player.tokens[i] = session != null ? session.resumeToken() : null;
+        return session;
+    }
+
+    @Benchmark
+    public boolean presenceCheck(Player player) {
+        return registry.isOnline(player.usernames[player.next++ & (USERS_PER_THREAD - 1)]);
+    }
+}
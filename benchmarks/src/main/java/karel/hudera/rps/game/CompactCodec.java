@@ -0,0 +1,159 @@
+package karel.hudera.rps.game;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Hand-written binary encoding of the {@link GameMessage} subclasses.
+ * <p>
+ * Used only by {@link MessageSerializationBenchmark} as the alternative to Java
+ * serialization: one tag byte followed by the fields, with enums written as
+ * their ordinal and strings as modified UTF-8. A move is written as its ordinal + 1,
+ * so a blitz round lost on time keeps its null move, and a {@link GameEvent} starts
+ * with the id of its game.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class CompactCodec {
+
+    private static final byte LOGIN_REQUEST = 1;
+    private static final byte LOGIN_RESPONSE = 2;
+    private static final byte GAME_START = 3;
+    private static final byte GAME_MOVE = 4;
+    private static final byte ROUND_RESULT = 5;
+    private static final byte GAME_RESULT = 6;
+    private static final byte OPPONENT_DISCONNECTED = 7;
+    private static final byte TERMINATE = 8;
+    private static final byte GAME_ACTION = 9;
+
+    private static final Move[] MOVES = Move.values();
+    private static final Result[] RESULTS = Result.values();
+    private static final MatchFormat.Kind[] KINDS = MatchFormat.Kind.values();
+
+    private CompactCodec() {
+    }
+
+    static void write(DataOutputStream out, GameMessage message) throws IOException {
+        if (message instanceof LoginRequest m) {
+            out.writeByte(LOGIN_REQUEST);
+            out.writeUTF(m.getUsername());
+            out.writeUTF(m.getPassword());
+        } else if (message instanceof LoginResponse m) {
+            out.writeByte(LOGIN_RESPONSE);
+            out.writeBoolean(m.isSuccess());
+            out.writeUTF(m.getMessage());
+        } else if (message instanceof GameStart m) {
+            out.writeByte(GAME_START);
+            out.writeLong(m.getGameId());
+            out.writeUTF(m.getOpponentUsername());
+            writeFormat(out, m.getFormat());
+        } else if (message instanceof GameMove m) {
+            out.writeByte(GAME_MOVE);
+            out.writeLong(m.getGameId());
+            out.writeShort(m.getRound());
+            writeMove(out, m.getMove());
+        } else if (message instanceof RoundResult m) {
+            out.writeByte(ROUND_RESULT);
+            out.writeLong(m.getGameId());
+            writeMove(out, m.getYourMove());
+            writeMove(out, m.getOpponentMove());
+            out.writeByte(m.getRoundResult().ordinal());
+            out.writeShort(m.getPlayer1Score());
+            out.writeShort(m.getPlayer2Score());
+        } else if (message instanceof GameResult m) {
+            out.writeByte(GAME_RESULT);
+            out.writeLong(m.getGameId());
+            out.writeUTF(m.getPlayer1());
+            out.writeUTF(m.getMove1());
+            out.writeUTF(m.getPlayer2());
+            out.writeUTF(m.getMove2());
+            out.writeUTF(m.getResult());
+        } else if (message instanceof OpponentDisconnected m) {
+            out.writeByte(OPPONENT_DISCONNECTED);
+            out.writeLong(m.getGameId());
+            out.writeUTF(m.getDisconnectedPlayerName());
+        } else if (message instanceof TerminateMessage) {
+            out.writeByte(TERMINATE);
+        } else if (message instanceof GameAction m) {
+            out.writeByte(GAME_ACTION);
+            out.writeUTF(m.getPlayerId());
+            out.writeByte(m.getChoice().ordinal());
+        } else {
+            throw new IOException("Unsupported message: " + message.getClass().getName());
+        }
+    }
+
+    static GameMessage read(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        return switch (tag) {
+            case LOGIN_REQUEST -> new LoginRequest(in.readUTF(), in.readUTF());
+            case LOGIN_RESPONSE -> new LoginResponse(in.readBoolean(), in.readUTF());
+            case GAME_START -> {
+                long gameId = in.readLong();
+                yield forGame(new GameStart(in.readUTF(), readFormat(in)), gameId);
+            }
+            case GAME_MOVE -> new GameMove(in.readLong(), in.readShort(), readMove(in));
+            case ROUND_RESULT -> {
+                long gameId = in.readLong();
+                yield forGame(new RoundResult(readMove(in), readMove(in),
+                        RESULTS[in.readByte()], in.readShort(), in.readShort()), gameId);
+            }
+            case GAME_RESULT -> {
+                long gameId = in.readLong();
+                yield forGame(new GameResult(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF()), gameId);
+            }
+            case OPPONENT_DISCONNECTED -> {
+                long gameId = in.readLong();
+                yield forGame(new OpponentDisconnected(in.readUTF()), gameId);
+            }
+            case TERMINATE -> new TerminateMessage();
+            case GAME_ACTION -> new GameAction(in.readUTF(), MOVES[in.readByte()]);
+            default -> throw new IOException("Unknown message tag: " + tag);
+        };
+    }
+
+    /**
+     * The messages of the main game, id 0, are used as decoded; only those of another game are copied.
+     */
+    private static GameMessage forGame(GameEvent event, long gameId) {
+        return gameId == 0 ? event : event.forGame(gameId);
+    }
+
+    private static void writeMove(DataOutputStream out, Move move) throws IOException {
+        out.writeByte(move == null ? 0 : move.ordinal() + 1);
+    }
+
+    private static Move readMove(DataInputStream in) throws IOException {
+        int code = in.readByte();
+        return code == 0 ? null : MOVES[code - 1];
+    }
+
+    /**
+     * Writes the kind as its ordinal + 1, 0 for no format, then the target and the seconds per move.
+     */
+    private static void writeFormat(DataOutputStream out, MatchFormat format) throws IOException {
+        if (format == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(format.getKind().ordinal() + 1);
+        out.writeByte(format.getTarget());
+        out.writeByte((int) (format.getMoveMillis() / 1_000));
+    }
+
+    private static MatchFormat readFormat(DataInputStream in) throws IOException {
+        int kind = in.readByte();
+        if (kind == 0) {
+            return null;
+        }
+        int target = in.readByte();
+        int moveSeconds = in.readByte();
+        return switch (KINDS[kind - 1]) {
+            case BEST_OF -> MatchFormat.bestOf(target);
+            case FIRST_TO -> MatchFormat.firstTo(target);
+            case BLITZ -> MatchFormat.blitz(target, moveSeconds);
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package karel.hudera.rps.game;
+
+import karel.hudera.rps.server.ClientHandler;
+import karel.hudera.rps.utils.ServerLogger;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.Socket;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Measures enqueue and pairing throughput of the {@link GameManager} waiting queue.
+ * <p>
+ * The manager is created without its background threads, so every pair is formed
+ * by {@link GameManager#pollPairs()} on the benchmark thread. The handlers wrap
+ * unconnected sockets, which still count as connected for matchmaking, and get
+ * their round-trip times from a map instead of a measurement.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GameManagerBenchmark {
+
+    private GameManager gameManager;
+
+    @State(Scope.Thread)
+    public static class Players {
+        ClientHandler first;
+        ClientHandler second;
+
+        @Setup
+        public void setup() {
+            first = new ClientHandler(new Socket());
+            second = new ClientHandler(new Socket());
+        }
+    }
+
+    /**
+     * A crowd of waiting players with round-trip times spread over every latency band.
+     */
+    @State(Scope.Thread)
+    public static class Crowd {
+        @Param({"100", "1000"})
+        public int waiting;
+
+        GameManager gameManager;
+        ClientHandler[] players;
+
+        @Setup
+        public void setup() {
+            Map<ClientHandler, Long> roundTrips = new IdentityHashMap<>();
+            Random random = new Random(42);
+            players = new ClientHandler[waiting];
+            for (int i = 0; i < waiting; i++) {
+                players[i] = new ClientHandler(new Socket());
+                // 0 to 1 s, about as many players in every band
+                roundTrips.put(players[i], random.nextInt(1 << random.nextInt(11)) * 1_000L);
+            }
+            gameManager = new GameManager(false, player -> roundTrips.getOrDefault(player, -1L));
+        }
+    }
+
+    @Setup
+    public void setup() {
+        ServerLogger.INSTANCE.setLevel(Level.OFF);
+        gameManager = new GameManager(false, player -> 0);
+    }
+
+    @Benchmark
+    public List<PlayerConnection[]> enqueueAndPair(Players players) {
+        gameManager.addWaitingPlayer(players.first);
+        gameManager.addWaitingPlayer(players.second);
+        return gameManager.pollPairs();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<PlayerConnection[]> enqueueAndPairContended(Players players) {
+        gameManager.addWaitingPlayer(players.first);
+        gameManager.addWaitingPlayer(players.second);
+        return gameManager.pollPairs();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<PlayerConnection[]> pairMixedBands(Crowd crowd) {
+        for (ClientHandler player : crowd.players) {
+            crowd.gameManager.addWaitingPlayer(player);
+        }
+        return crowd.gameManager.pollPairs();
+    }
+}
@@ -0,0 +1,51 @@
+package karel.hudera.rps.game;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures round resolution as done by {@link GameSession#play()}:
+ * deciding the round and building the two {@link RoundResult} messages.
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameSessionBenchmark {
+
+    private static final Move[] MOVES = Move.values();
+
+    private int index;
+
+    @Benchmark
+    public Result resolveRound() {
+        int i = nextIndex();
+        return GameSession.resolveRound(MOVES[i % 3], MOVES[(i / 3) % 3]);
+    }
+
+    @Benchmark
+    public void resolveRoundAndBuildResults(Blackhole blackhole) {
+        int i = nextIndex();
+        Move move1 = MOVES[i % 3];
+        Move move2 = MOVES[(i / 3) % 3];
+        Result result1 = GameSession.resolveRound(move1, move2);
+        Result result2 = GameSession.opposite(result1);
+        blackhole.consume(new RoundResult(move1, move2, result1, 1, 0));
+        blackhole.consume(new RoundResult(move2, move1, result2, 0, 1));
+    }
+
+    /**
+     * Cycles through the nine move pairs. A plain counter overflows within a run and goes negative.
+     */
+    private int nextIndex() {
+        int i = index;
+        index = i == 8 ? 0 : i + 1;
+        return i;
+    }
+}
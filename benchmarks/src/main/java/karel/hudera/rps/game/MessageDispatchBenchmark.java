@@ -0,0 +1,115 @@
+package karel.hudera.rps.game;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * Measures picking the handler for a message the way the server reader does: by its type id in a
+ * {@link MessageDispatcher}, compared to the instanceof chain it replaced and to a map keyed by the message
+ * class, which the client used. The messages are a mix of the types a client sends, including one no
+ * handler accepts.
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageDispatchBenchmark {
+
+    private final GameMessage[] messages = {
+            new GameMove(Move.ROCK), new Pong(1), new QueueRequest(0), new HistoryRequest("adela", 5),
+            new StatsRequest(null), new JoinRoomRequest("room"), new SpectateRequest("adela"),
+            new ReplayRequest(1, 1), new RoomListRequest(null), new TerminateMessage(), new GameAction("karel", Move.ROCK)
+    };
+
+    private final MessageDispatcher<int[]> dispatcher = new MessageDispatcher<>();
+    private final Map<Class<? extends GameMessage>, ToIntFunction<GameMessage>> byClass = new HashMap<>();
+    private int next;
+
+    @Setup
+    public void setup() {
+        MessageType<?>[] clientTypes = {
+                MessageType.PONG, MessageType.PING, MessageType.TERMINATE, MessageType.QUEUE_REQUEST,
+                MessageType.GAME_MOVE, MessageType.CREATE_ROOM_REQUEST, MessageType.JOIN_ROOM_REQUEST,
+                MessageType.ROOM_LIST_REQUEST, MessageType.SPECTATE_REQUEST, MessageType.HISTORY_REQUEST,
+                MessageType.STATS_REQUEST, MessageType.REPLAY_REQUEST
+        };
+        for (MessageType<?> type : clientTypes) {
+            register(type);
+        }
+        for (GameMessage message : messages) {
+            int typeId = message.getTypeId();
+            for (MessageType<?> type : clientTypes) {
+                if (type.id() == typeId) {
+                    byClass.put(message.getClass(), handled -> typeId);
+                }
+            }
+        }
+    }
+
+    private <M extends GameMessage> void register(MessageType<M> type) {
+        int typeId = type.id();
+        dispatcher.on(type, (int[] handled, M message) -> {
+            handled[0] += typeId;
+            return true;
+        });
+    }
+
+    private GameMessage nextMessage() {
+        GameMessage message = messages[next];
+        next = next + 1 == messages.length ? 0 : next + 1;
+        return message;
+    }
+
+    @Benchmark
+    public int typeIdTable() throws Exception {
+        int[] handled = new int[1];
+        dispatcher.dispatch(handled, nextMessage());
+        return handled[0];
+    }
+
+    @Benchmark
+    public int instanceofChain() {
+        GameMessage message = nextMessage();
+        if (message instanceof Pong) {
+            return MessageType.PONG.id();
+        } else if (message instanceof Ping) {
+            return MessageType.PING.id();
+        } else if (message instanceof TerminateMessage) {
+            return MessageType.TERMINATE.id();
+        } else if (message instanceof QueueRequest) {
+            return MessageType.QUEUE_REQUEST.id();
+        } else if (message instanceof GameMove) {
+            return MessageType.GAME_MOVE.id();
+        } else if (message instanceof CreateRoomRequest) {
+            return MessageType.CREATE_ROOM_REQUEST.id();
+        } else if (message instanceof JoinRoomRequest) {
+            return MessageType.JOIN_ROOM_REQUEST.id();
+        } else if (message instanceof RoomListRequest) {
+            return MessageType.ROOM_LIST_REQUEST.id();
+        } else if (message instanceof SpectateRequest) {
+            return MessageType.SPECTATE_REQUEST.id();
+        } else if (message instanceof HistoryRequest) {
+            return MessageType.HISTORY_REQUEST.id();
+        } else if (message instanceof StatsRequest) {
+            return MessageType.STATS_REQUEST.id();
+        } else if (message instanceof ReplayRequest) {
+            return MessageType.REPLAY_REQUEST.id();
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public int classMap() {
+        GameMessage message = nextMessage();
+        ToIntFunction<GameMessage> handler = byClass.get(message.getClass());
+        return handler != null ? handler.applyAsInt(message) : -1;
+    }
+}
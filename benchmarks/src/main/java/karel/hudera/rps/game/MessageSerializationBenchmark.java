@@ -0,0 +1,126 @@
+package karel.hudera.rps.game;
+
+import karel.hudera.rps.constants.Constants;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of putting each {@link GameMessage} subclass on the wire.
+ * <p>
+ * The server and client exchange messages with Java serialization. This benchmark
+ * compares it with {@link CompactCodec}, a hand-written binary encoding, for both
+ * encoding and decoding. Run with {@code -prof gc} to see the allocation rate per message.
+ * </p>
+ * <p>
+ * Like a connection, the Java side keeps one object stream open and resets it every
+ * {@link Constants#STREAM_RESET_MESSAGES} messages, so the stream header and the class
+ * descriptors are paid once per reset rather than per message. Each message of a reset
+ * window is a distinct object, as it is on a connection, so none is written as a back reference.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageSerializationBenchmark {
+
+    @Param({"LoginRequest", "LoginResponse", "GameStart", "GameMove", "RoundResult",
+            "GameResult", "OpponentDisconnected", "TerminateMessage", "GameAction"})
+    public String messageType;
+
+    // One reset window of distinct messages of the same type
+    private final GameMessage[] messages = new GameMessage[Constants.STREAM_RESET_MESSAGES];
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+    private ObjectOutputStream objectOut;
+    private DataOutputStream dataOut;
+    private int written;
+
+    // A reset window as the Java side writes it, read back by one object stream until it is used up
+    private byte[] javaWindow;
+    private ObjectInputStream objectIn;
+    private int read;
+    private byte[] compactBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = createMessage(messageType);
+        }
+        objectOut = new ObjectOutputStream(buffer);
+        for (GameMessage message : messages) {
+            objectOut.writeObject(message);
+        }
+        objectOut.reset();
+        objectOut.flush();
+        javaWindow = buffer.toByteArray();
+        read = messages.length;
+
+        // The encoding benchmarks start on a fresh stream, its header is already written
+        buffer.reset();
+        objectOut = new ObjectOutputStream(buffer);
+        objectOut.flush();
+        dataOut = new DataOutputStream(buffer);
+        compactEncode();
+        compactBytes = buffer.toByteArray();
+    }
+
+    @Benchmark
+    public int javaSerializationEncode() throws IOException {
+        buffer.reset();
+        if (written == messages.length) {
+            objectOut.reset();
+            written = 0;
+        }
+        objectOut.writeObject(messages[written++]);
+        objectOut.flush();
+        return buffer.size();
+    }
+
+    @Benchmark
+    public Object javaSerializationDecode() throws IOException, ClassNotFoundException {
+        if (read == messages.length) {
+            objectIn = new ObjectInputStream(new ByteArrayInputStream(javaWindow));
+            read = 0;
+        }
+        read++;
+        return objectIn.readObject();
+    }
+
+    @Benchmark
+    public int compactEncodeBenchmark() throws IOException {
+        return compactEncode();
+    }
+
+    @Benchmark
+    public GameMessage compactDecode() throws IOException {
+        return CompactCodec.read(new DataInputStream(new ByteArrayInputStream(compactBytes)));
+    }
+
+    private int compactEncode() throws IOException {
+        buffer.reset();
+        CompactCodec.write(dataOut, messages[0]);
+        dataOut.flush();
+        return buffer.size();
+    }
+
+    static GameMessage createMessage(String type) {
+        return switch (type) {
+            case "LoginRequest" -> new LoginRequest("karel", "password");
+            case "LoginResponse" -> new LoginResponse(true, "Logged in successfully!");
+            case "GameStart" -> new GameStart("adela", MatchFormat.STANDARD);
+            case "GameMove" -> new GameMove(0, 1, Move.PAPER);
+            case "RoundResult" -> new RoundResult(Move.PAPER, Move.ROCK, Result.WIN, 2, 1);
+            case "GameResult" -> new GameResult("karel", "2", "adela", "1", Constants.MSG_GAME_WIN);
+            case "OpponentDisconnected" -> new OpponentDisconnected("adela");
+            case "TerminateMessage" -> new TerminateMessage();
+            case "GameAction" -> new GameAction("karel", Move.SCISSORS);
+            default -> throw new IllegalArgumentException("Unknown message type: " + type);
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package karel.hudera.rps.game;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.server.ClientHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link RoomDirectory} with many open rooms: two friends meeting in a new private room,
+ * from creating it to being paired and leaving, and listing a page of public rooms from a random name.
+ * Both should cost the same with a hundred rooms as with a hundred thousand.
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoomDirectoryBenchmark {
+
+    @Param({"100", "100000"})
+    public int rooms;
+
+    private RoomDirectory directory;
+    private String[] names;
+
+    @State(Scope.Thread)
+    public static class Friends {
+        ClientHandler host;
+        ClientHandler guest;
+
+        @Setup
+        public void setup() {
+            host = new ClientHandler(new Socket());
+            guest = new ClientHandler(new Socket());
+        }
+    }
+
+    @Setup
+    public void setup() {
+        directory = new RoomDirectory();
+        names = new String[rooms];
+        for (int i = 0; i < rooms; i++) {
+            names[i] = "room" + i;
+            // Every public room has a member waiting, and as many private rooms are open
+            ClientHandler owner = new ClientHandler(new Socket());
+            directory.create(owner, names[i], false, MatchFormat.STANDARD).pairOrWait(owner);
+            directory.create(new ClientHandler(new Socket()), null, true, MatchFormat.STANDARD);
+        }
+    }
+
+    @Benchmark
+    public PlayerConnection meetInPrivateRoom(Friends friends) {
+        RoomDirectory.Room room = directory.create(friends.host, null, true, MatchFormat.STANDARD);
+        room.pairOrWait(friends.host);
+        directory.join(friends.guest, room.getInviteCode());
+        PlayerConnection opponent = room.pairOrWait(friends.guest);
+        directory.leave(friends.host);
+        directory.leave(friends.guest);
+        return opponent;
+    }
+
+    @Benchmark
+    public List<RoomSummary> listPage() {
+        return directory.list(names[ThreadLocalRandom.current().nextInt(rooms)], Constants.ROOM_LIST_PAGE);
+    }
+}
@@ -0,0 +1,101 @@
+package karel.hudera.rps.game;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the work a game thread does to send one {@link RoundResult} to its spectators:
+ * encoding it once and offering the buffer to every spectator through a {@link SpectatorFeed},
+ * compared to serializing it for every spectator separately.
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpectatorFeedBenchmark {
+
+    @Param({"10", "1000"})
+    public int spectators;
+
+    private SpectatorFeed feed;
+    private final RoundResult event = new RoundResult(Move.ROCK, Move.PAPER, Result.LOSE, 0, 1);
+
+    /**
+     * A connected spectator that keeps the last event offered to it.
+     */
+    private static final class Viewer implements Spectator {
+        EncodedMessage last;
+
+        @Override
+        public boolean offer(EncodedMessage message) {
+            last = message;
+            return true;
+        }
+
+        @Override
+        public String getUsername() {
+            return "viewer";
+        }
+
+        @Override
+        public String getClientInfo() {
+            return "viewer";
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void sendMessage(GameMessage message) {
+        }
+
+        @Override
+        public GameMessage observeMessage() {
+            return null;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public long getRoundTripMicros() {
+            return -1;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        feed = new SpectatorFeed();
+        for (int i = 0; i < spectators; i++) {
+            feed.add(new Viewer(), 1);
+        }
+    }
+
+    @Benchmark
+    public void encodeOnce() {
+        feed.broadcast(1, event);
+    }
+
+    @Benchmark
+    public void encodePerSpectator(Blackhole blackhole) throws IOException {
+        for (int i = 0; i < spectators; i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(event);
+            }
+            blackhole.consume(bytes.toByteArray());
+        }
+    }
+}
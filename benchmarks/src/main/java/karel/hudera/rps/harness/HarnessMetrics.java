@@ -0,0 +1,32 @@
+package karel.hudera.rps.harness;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measurements collected by the {@link ScriptedPlayer}s of one harness phase.
+ *
+ * @author Karel Hudera
+ */
+final class HarnessMetrics {
+
+    // From connecting until the LoginResponse arrives
+    final LatencyRecorder login = new LatencyRecorder();
+    // From a successful login until GameStart
+    final LatencyRecorder match = new LatencyRecorder();
+    // From sending a GameMove until the RoundResult arrives
+    final LatencyRecorder round = new LatencyRecorder();
+    // From GameStart until GameResult
+    final LatencyRecorder game = new LatencyRecorder();
+
+    final AtomicInteger completedPlayerGames = new AtomicInteger();
+    final AtomicInteger failedPlayerGames = new AtomicInteger();
+
+    /**
+     * Every game is finished by two players.
+     *
+     * @return the number of completed games
+     */
+    int completedGames() {
+        return completedPlayerGames.get() / 2;
+    }
+}
@@ -0,0 +1,110 @@
+package karel.hudera.rps.harness;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Flat set of named metrics produced by one {@link LoadHarness} run.
+ * <p>
+ * Serialized as a single JSON object of {@code "metric": number} pairs so that
+ * a stored baseline can be read back without a JSON library. Metrics ending
+ * in {@value #HIGHER_IS_BETTER_SUFFIX} are throughput figures; all other metrics are
+ * latencies where lower is better.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class HarnessReport {
+
+    static final String HIGHER_IS_BETTER_SUFFIX = "_per_sec";
+
+    private static final Pattern ENTRY = Pattern.compile("\"([^\"]+)\"\\s*:\\s*(-?[0-9][0-9.eE+-]*)");
+
+    private final Map<String, Double> metrics = new LinkedHashMap<>();
+
+    void put(String name, double value) {
+        metrics.put(name, value);
+    }
+
+    Map<String, Double> metrics() {
+        return metrics;
+    }
+
+    /**
+     * Adds p50/p99/p999 of a recorder under the given prefix.
+     */
+    void putPercentiles(String prefix, LatencyRecorder recorder) {
+        put(prefix + "_p50_ms", recorder.percentileMillis(50));
+        put(prefix + "_p99_ms", recorder.percentileMillis(99));
+        put(prefix + "_p999_ms", recorder.percentileMillis(99.9));
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        int i = 0;
+        for (Map.Entry<String, Double> entry : metrics.entrySet()) {
+            json.append("  \"").append(entry.getKey()).append("\": ")
+                    .append(String.format(Locale.ROOT, "%.3f", entry.getValue()));
+            json.append(++i < metrics.size() ? ",\n" : "\n");
+        }
+        return json.append("}\n").toString();
+    }
+
+    static HarnessReport fromJson(String json) {
+        HarnessReport report = new HarnessReport();
+        Matcher matcher = ENTRY.matcher(json);
+        while (matcher.find()) {
+            report.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+        }
+        return report;
+    }
+
+    /**
+     * Compares this report against a baseline.
+     *
+     * A metric of the baseline that this report lacks counts as a regression. A baseline of 0 has no
+     * percentage, so such a metric is compared by the absolute difference instead.
+     *
+     * @param baseline          the stored baseline
+     * @param defaultPercent    allowed regression in percent for metrics without an explicit threshold
+     * @param thresholds        per-metric allowed regression in percent
+     * @param zeroBaselineDelta allowed regression, in the metric's unit, for metrics whose baseline is 0
+     * @return human-readable descriptions of every metric that regressed beyond its threshold
+     */
+    List<String> regressionsAgainst(HarnessReport baseline, double defaultPercent, Map<String, Double> thresholds,
+                                    double zeroBaselineDelta) {
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : baseline.metrics.entrySet()) {
+            String name = entry.getKey();
+            Double current = metrics.get(name);
+            double expected = entry.getValue();
+            if (current == null) {
+                regressions.add(String.format(Locale.ROOT, "%s: %.3f -> missing", name, expected));
+                continue;
+            }
+            boolean higherIsBetter = name.endsWith(HIGHER_IS_BETTER_SUFFIX);
+            if (expected <= 0) {
+                double delta = current - expected;
+                if (higherIsBetter ? -delta > zeroBaselineDelta : delta > zeroBaselineDelta) {
+                    regressions.add(String.format(Locale.ROOT, "%s: %.3f -> %.3f (%+.3f, allowed %.3f)",
+                            name, expected, current, delta, zeroBaselineDelta));
+                }
+                continue;
+            }
+
+            double allowed = thresholds.getOrDefault(name, defaultPercent);
+            double change = (current - expected) / expected * 100.0;
+            boolean regressed = higherIsBetter ? -change > allowed : change > allowed;
+            if (regressed) {
+                regressions.add(String.format(Locale.ROOT, "%s: %.3f -> %.3f (%+.1f%%, allowed %.1f%%)",
+                        name, expected, current, change, allowed));
+            }
+        }
+        return regressions;
+    }
+}
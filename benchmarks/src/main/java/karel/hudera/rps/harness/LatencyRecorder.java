@@ -0,0 +1,46 @@
+package karel.hudera.rps.harness;
+
+import java.util.Arrays;
+
+/**
+ * Thread-safe collector of latency samples with nearest-rank percentiles.
+ *
+ * @author Karel Hudera
+ */
+final class LatencyRecorder {
+
+    private long[] samples = new long[1024];
+    private int count;
+
+    /**
+     * Records one sample.
+     *
+     * @param nanos the measured latency in nanoseconds
+     */
+    synchronized void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    /**
+     * Returns the given percentile in milliseconds.
+     *
+     * @param percentile a value in (0, 100]
+     * @return the percentile, or 0 when there are no samples
+     */
+    synchronized double percentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return sorted[Math.max(0, Math.min(count, rank) - 1)] / 1_000_000.0;
+    }
+}
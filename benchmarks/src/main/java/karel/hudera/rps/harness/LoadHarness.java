@@ -0,0 +1,261 @@
+package karel.hudera.rps.harness;
+
+import karel.hudera.rps.auth.CredentialStoreWriter;
+import karel.hudera.rps.auth.IndexedCredentialStore;
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.server.Server;
+import karel.hudera.rps.utils.ServerLogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end latency and throughput harness with regression gates.
+ * <p>
+ * Starts a {@link Server} on an ephemeral port inside this JVM and drives it with
+ * {@link ScriptedPlayer}s that connect through the regular client. The run has two parts:
+ * </p>
+ * <ol>
+ *     <li>a latency phase that plays a fixed number of games and reports p50/p99/p999
+ *     for login, time-to-match, round round-trip and the full game, and</li>
+ *     <li>a throughput ramp that plays for a fixed time at increasing concurrency and
+ *     reports the highest games/sec reached while the game p99 stayed within its limit.</li>
+ * </ol>
+ * <p>
+ * The results are written as JSON and compared with a stored baseline; the process exits
+ * with status 1 when any metric regressed beyond its threshold, and with status 2 before running
+ * anything when the baseline is missing. Only {@code --update-baseline} writes a baseline.
+ * </p>
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar karel.hudera.rps.harness.LoadHarness \
+ *      --baseline benchmarks/baseline/e2e-baseline.json --max-regression 15 --threshold round_p99_ms=25
+ * </pre>
+ *
+ * @author Karel Hudera
+ */
+public class LoadHarness {
+
+    private static final String HOST = "127.0.0.1";
+    private static final String PASSWORD = "bench";
+
+    private int games = 200;
+    private int concurrency = 4;
+    private int[] ramp = {1, 2, 4, 8, 16};
+    private int phaseSeconds = 10;
+    private double maxGameP99Millis = 5000;
+    private int accounts = 100_000;
+    // Far below the production default, so that writing the accounts takes seconds rather than minutes
+    private int hashIterations = 1_000;
+    private Path output = Path.of("target", "e2e-result.json");
+    private Path baseline = Path.of("benchmarks", "baseline", "e2e-baseline.json");
+    private double maxRegressionPercent = 15;
+    private final Map<String, Double> thresholds = new LinkedHashMap<>();
+    // Allowed regression of a metric whose baseline is 0, in its own unit; 0 fails e.g. on a single failed game
+    private double zeroBaselineDelta = 0;
+    private boolean updateBaseline;
+    private Level serverLogLevel = Level.WARNING;
+
+    private final AtomicInteger nextAccount = new AtomicInteger();
+    private final Logger clientLogger = Logger.getLogger("HarnessClient");
+    private int port;
+
+    public static void main(String[] args) throws Exception {
+        LoadHarness harness = new LoadHarness();
+        harness.parseArguments(args);
+        System.exit(harness.run());
+    }
+
+    private int run() throws IOException, InterruptedException {
+        if (!updateBaseline && !Files.exists(baseline)) {
+            System.err.println("No baseline at " + baseline.toAbsolutePath()
+                    + ", pass --baseline with an existing file or --update-baseline to write one");
+            return 2;
+        }
+        Path usersFile = writeAccounts();
+        System.setProperty(Constants.USERS_FILE_PROPERTY, usersFile.toString());
+        Path dataDirectory = Files.createTempDirectory("rps-harness-data");
+        System.setProperty(Constants.DATA_DIR_PROPERTY, dataDirectory.toString());
+        // Every scripted player connects from this host, the per-address login limit would throttle the run
+        System.setProperty(Constants.LOGIN_ADDRESS_BURST_PROPERTY, String.valueOf(Integer.MAX_VALUE));
+        System.setProperty(Constants.LOGIN_ADDRESS_RATE_PROPERTY, String.valueOf(Integer.MAX_VALUE));
+        // Hundreds of accounts log in per second and share the username buckets, which would reject some of them
+        System.setProperty(Constants.LOGIN_USERNAME_BURST_PROPERTY, String.valueOf(Integer.MAX_VALUE));
+        System.setProperty(Constants.LOGIN_USERNAME_RATE_PROPERTY, String.valueOf(Integer.MAX_VALUE));
+        ServerLogger.INSTANCE.setLevel(serverLogLevel);
+        clientLogger.setLevel(Level.WARNING);
+
+        Server server = new Server(0);
+        Thread serverThread = new Thread(server::initialize, "HarnessServer");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        while (server.getLocalPort() < 0) {
+            Thread.sleep(10);
+        }
+        port = server.getLocalPort();
+        System.out.println("Server listening on port " + port);
+
+        HarnessReport report = new HarnessReport();
+        try {
+            HarnessMetrics latency = runPhase(concurrency, games, 0);
+            report.putPercentiles("login", latency.login);
+            report.putPercentiles("match", latency.match);
+            report.putPercentiles("round", latency.round);
+            report.putPercentiles("game", latency.game);
+            report.put("latency_phase_failed_games", latency.failedPlayerGames.get() / 2.0);
+
+            double peak = 0;
+            for (int pairs : ramp) {
+                HarnessMetrics load = runPhase(pairs, Integer.MAX_VALUE, phaseSeconds * 1000L);
+                double gamesPerSecond = load.completedGames() / (double) phaseSeconds;
+                double gameP99 = load.game.percentileMillis(99);
+                boolean sustainable = load.failedPlayerGames.get() == 0 && gameP99 <= maxGameP99Millis;
+                System.out.printf("%3d concurrent games: %.1f games/sec, game p99 %.1f ms%s%n",
+                        pairs, gamesPerSecond, gameP99, sustainable ? "" : " (not sustainable)");
+                if (sustainable) {
+                    peak = Math.max(peak, gamesPerSecond);
+                }
+            }
+            report.put("peak_games" + HarnessReport.HIGHER_IS_BETTER_SUFFIX, peak);
+        } finally {
+            server.stop();
+            Files.deleteIfExists(usersFile);
+            deleteRecursively(dataDirectory);
+        }
+
+        writeReport(output, report);
+        System.out.print(report.toJson());
+        System.out.println("Results written to " + output.toAbsolutePath());
+
+        if (updateBaseline) {
+            writeReport(baseline, report);
+            System.out.println("Baseline written to " + baseline.toAbsolutePath());
+            return 0;
+        }
+
+        HarnessReport stored = HarnessReport.fromJson(Files.readString(baseline));
+        List<String> regressions = report.regressionsAgainst(stored, maxRegressionPercent, thresholds, zeroBaselineDelta);
+        if (regressions.isEmpty()) {
+            System.out.println("No regressions against " + baseline);
+            return 0;
+        }
+        System.out.println("Regressions against " + baseline + ":");
+        regressions.forEach(regression -> System.out.println("  " + regression));
+        return 1;
+    }
+
+    /**
+     * Runs {@code 2 * pairs} players until {@code gameLimit} games were started or the duration ran out.
+     *
+     * @param pairs          number of games played at the same time
+     * @param gameLimit      number of games to play
+     * @param durationMillis how long to keep starting games, or 0 for no time limit
+     */
+    private HarnessMetrics runPhase(int pairs, int gameLimit, long durationMillis) throws InterruptedException {
+        HarnessMetrics metrics = new HarnessMetrics();
+        AtomicInteger remainingPlayerGames = new AtomicInteger(gameLimit == Integer.MAX_VALUE ? gameLimit : gameLimit * 2);
+        long deadline = durationMillis > 0 ? System.currentTimeMillis() + durationMillis : Long.MAX_VALUE;
+
+        List<ScriptedPlayer> players = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < pairs * 2; i++) {
+            ScriptedPlayer player = new ScriptedPlayer(clientLogger, HOST, port, metrics);
+            Thread thread = new Thread(() -> {
+                while (System.currentTimeMillis() < deadline && remainingPlayerGames.getAndDecrement() > 0) {
+                    int account = nextAccount.getAndIncrement();
+                    if (account >= accounts) {
+                        break;
+                    }
+                    if (player.playOneGame("bench" + account, PASSWORD)) {
+                        metrics.completedPlayerGames.incrementAndGet();
+                    } else if (System.currentTimeMillis() < deadline) {
+                        metrics.failedPlayerGames.incrementAndGet();
+                    }
+                }
+            }, "HarnessPlayer-" + i);
+            players.add(player);
+            threads.add(thread);
+            thread.start();
+        }
+
+        // Players left waiting for an opponent after the others stopped would wait forever
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            long alive = threads.stream().filter(Thread::isAlive).count();
+            if (System.currentTimeMillis() >= deadline || alive == 1) {
+                players.forEach(ScriptedPlayer::abandonIfWaiting);
+            }
+            Thread.sleep(100);
+        }
+        return metrics;
+    }
+
+    private Path writeAccounts() throws IOException {
+        Map<String, String> passwords = new HashMap<>();
+        for (int i = 0; i < accounts; i++) {
+            passwords.put("bench" + i, PASSWORD);
+        }
+        Path file = Files.createTempFile("rps-harness-users", IndexedCredentialStore.FILE_EXTENSION);
+        CredentialStoreWriter.write(passwords, file, hashIterations);
+        return file;
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void writeReport(Path path, HarnessReport report) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(path, report.toJson());
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--update-baseline")) {
+                updateBaseline = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--games" -> games = Integer.parseInt(value);
+                case "--concurrency" -> concurrency = Integer.parseInt(value);
+                case "--ramp" -> ramp = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--phase-seconds" -> phaseSeconds = Integer.parseInt(value);
+                case "--max-game-p99-ms" -> maxGameP99Millis = Double.parseDouble(value);
+                case "--accounts" -> accounts = Integer.parseInt(value);
+                case "--hash-iterations" -> hashIterations = Integer.parseInt(value);
+                case "--output" -> output = Path.of(value);
+                case "--baseline" -> baseline = Path.of(value);
+                case "--max-regression" -> maxRegressionPercent = Double.parseDouble(value);
+                case "--threshold" -> {
+                    String[] parts = value.split("=", 2);
+                    thresholds.put(parts[0], Double.parseDouble(parts[1]));
+                }
+                case "--zero-baseline-delta" -> zeroBaselineDelta = Double.parseDouble(value);
+                case "--server-log-level" -> serverLogLevel = Level.parse(value);
+                default -> throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package karel.hudera.rps.harness;
+
+import karel.hudera.rps.game.*;
+import karel.hudera.rps.sdk.ClientListener;
+import karel.hudera.rps.sdk.GameClient;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+/**
+ * A bot that plays one complete game through {@link GameClient} and records its timings.
+ * <p>
+ * The player logs in, waits for {@link GameStart}, answers every round with a random
+ * move until the match format says the game is decided and stops when the {@link GameResult} arrives. The client's listener puts the received
+ * messages into an inbox the player thread takes them from.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class ScriptedPlayer {
+
+    private static final Move[] MOVES = Move.values();
+
+    // Put into the inbox when the connection ends
+    private static final GameMessage DISCONNECTED = new TerminateMessage();
+
+    private final Logger clientLogger;
+    private final String host;
+    private final int port;
+    private final HarnessMetrics metrics;
+
+    private volatile GameClient client;
+    private volatile boolean awaitingMatch;
+
+    ScriptedPlayer(Logger clientLogger, String host, int port, HarnessMetrics metrics) {
+        this.clientLogger = clientLogger;
+        this.host = host;
+        this.port = port;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Plays one game with the given account.
+     *
+     * @return true if the game finished with a {@link GameResult}
+     */
+    boolean playOneGame(String username, String password) {
+        GameClient current = new GameClient(clientLogger, host, port);
+        BlockingQueue<GameMessage> inbox = new LinkedBlockingQueue<>();
+        current.setListener(new ClientListener() {
+            @Override
+            public void onMessage(GameMessage message) {
+                inbox.add(message);
+            }
+
+            @Override
+            public void onDisconnected(Exception cause) {
+                inbox.add(DISCONNECTED);
+            }
+        });
+        client = current;
+        try {
+            long loginStart = System.nanoTime();
+            if (!current.login(username, password).get().isSuccess()) {
+                return false;
+            }
+            long loggedIn = System.nanoTime();
+            metrics.login.record(loggedIn - loginStart);
+
+            awaitingMatch = true;
+            GameMessage message = inbox.take();
+            awaitingMatch = false;
+            if (!(message instanceof GameStart start)) {
+                return false;
+            }
+            MatchFormat format = start.getFormat() != null ? start.getFormat() : MatchFormat.STANDARD;
+            long gameStart = System.nanoTime();
+            metrics.match.record(gameStart - loggedIn);
+
+            int rounds = 0;
+            int yourScore = 0;
+            int opponentScore = 0;
+            while (!format.isOver(rounds, yourScore, opponentScore)) {
+                long moveSent = System.nanoTime();
+                current.send(new GameMove(MOVES[ThreadLocalRandom.current().nextInt(MOVES.length)]));
+                if (!(inbox.take() instanceof RoundResult result)) {
+                    return false;
+                }
+                metrics.round.record(System.nanoTime() - moveSent);
+                rounds++;
+                yourScore = result.getPlayer1Score();
+                opponentScore = result.getPlayer2Score();
+            }
+
+            if (!(inbox.take() instanceof GameResult)) {
+                return false;
+            }
+            metrics.game.record(System.nanoTime() - gameStart);
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            awaitingMatch = false;
+            current.close();
+            client = null;
+        }
+    }
+
+    /**
+     * Closes the connection if the player is still waiting for an opponent.
+     * Used at the end of a phase, when no more opponents will arrive.
+     */
+    void abandonIfWaiting() {
+        GameClient current = client;
+        if (awaitingMatch && current != null) {
+            current.close();
+        }
+    }
+}
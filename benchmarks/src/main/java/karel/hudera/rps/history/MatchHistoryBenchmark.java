@@ -0,0 +1,103 @@
+package karel.hudera.rps.history;
+
+import karel.hudera.rps.game.HistoryRequest;
+import karel.hudera.rps.game.HistoryResponse;
+import karel.hudera.rps.game.MatchFormat;
+import karel.hudera.rps.game.Move;
+import karel.hudera.rps.utils.ServerLogger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * Measures appending a finished game to the {@link MatchHistoryStore} and answering history
+ * queries from the {@link MatchHistoryIndex} over a history of {@value #GAMES} games.
+ * <p>
+ * Appends write to disk, so they run in fixed batches: every iteration adds {@value #APPEND_BATCH}
+ * games and the reported time is per game.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MatchHistoryBenchmark {
+
+    private static final int GAMES = 200_000;
+    private static final int PLAYERS = 2_000;
+    private static final int APPEND_BATCH = 100_000;
+
+    private static final List<MatchRecord.Round> ROUNDS = List.of(
+            new MatchRecord.Round(Move.ROCK, Move.PAPER, 900, 1200),
+            new MatchRecord.Round(Move.PAPER, Move.PAPER, 700, 800),
+            new MatchRecord.Round(Move.SCISSORS, Move.PAPER, 1500, 600));
+
+    private Path directory;
+    private MatchHistoryStore store;
+    private MatchHistoryIndex index;
+
+    @Setup
+    public void setup() throws IOException {
+        ServerLogger.INSTANCE.setLevel(Level.OFF);
+        directory = Files.createTempDirectory("rps-bench-history");
+        store = new MatchHistoryStore(directory, 1 << 18, false);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < GAMES; i++) {
+            int player1 = random.nextInt(PLAYERS);
+            int player2 = (player1 + 1 + random.nextInt(PLAYERS - 1)) % PLAYERS;
+            store.append(game("player" + player1, "player" + player2));
+        }
+        index = new MatchHistoryIndex(store);
+        store.forEach(1, index::add);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(APPEND_BATCH)
+    public long append() throws IOException {
+        long sequence = 0;
+        for (int i = 0; i < APPEND_BATCH; i++) {
+            sequence = store.append(game("player" + (i % PLAYERS), "player" + ((i + 1) % PLAYERS)));
+        }
+        return sequence;
+    }
+
+    @Benchmark
+    public HistoryResponse lastGamesOfPlayer() {
+        String player = "player" + ThreadLocalRandom.current().nextInt(PLAYERS);
+        return index.query(player, new HistoryRequest(null, 50));
+    }
+
+    @Benchmark
+    public HistoryResponse headToHead() {
+        int player = ThreadLocalRandom.current().nextInt(PLAYERS);
+        return index.query("player" + player, new HistoryRequest("player" + ((player + 1) % PLAYERS), 5));
+    }
+
+    private static MatchRecord game(String player1, String player2) {
+        long now = System.currentTimeMillis();
+        return new MatchRecord(0, now - 5_000, now, player1, player2, 1, 1, false, MatchFormat.STANDARD, ROUNDS);
+    }
+}
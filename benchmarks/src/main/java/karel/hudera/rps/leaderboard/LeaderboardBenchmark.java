@@ -0,0 +1,80 @@
+package karel.hudera.rps.leaderboard;
+
+import karel.hudera.rps.game.MatchFormat;
+import karel.hudera.rps.history.MatchRecord;
+import karel.hudera.rps.utils.ServerLogger;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Measures recording games on the {@link Leaderboard}, republishing its snapshot, and answering
+ * rank and top-N queries from a snapshot of {@value #PLAYERS} players.
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LeaderboardBenchmark {
+
+    private static final int PLAYERS = 100_000;
+    private static final int GAMES = 500_000;
+
+    private Leaderboard leaderboard;
+    private LeaderboardSnapshot snapshot;
+    private String[] names;
+    private long sequence;
+
+    @Setup
+    public void setup() {
+        ServerLogger.INSTANCE.setLevel(Level.OFF);
+        names = new String[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            names[i] = "player" + i;
+        }
+        leaderboard = new Leaderboard(false);
+        for (int i = 0; i < GAMES; i++) {
+            leaderboard.record(randomGame());
+        }
+        leaderboard.publish();
+        snapshot = leaderboard.snapshot();
+    }
+
+    @Benchmark
+    public void recordGame() {
+        leaderboard.record(randomGame());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public LeaderboardSnapshot publish() {
+        leaderboard.publish();
+        return leaderboard.snapshot();
+    }
+
+    @Benchmark
+    public LeaderboardEntry rankOfPlayer() {
+        return snapshot.entry(names[ThreadLocalRandom.current().nextInt(PLAYERS)]);
+    }
+
+    @Benchmark
+    public List<LeaderboardEntry> top10() {
+        return snapshot.top(10);
+    }
+
+    private MatchRecord randomGame() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int player1 = random.nextInt(PLAYERS);
+        int player2 = (player1 + 1 + random.nextInt(PLAYERS - 1)) % PLAYERS;
+        long now = System.currentTimeMillis();
+        return new MatchRecord(++sequence, now - 5_000, now, names[player1], names[player2],
+                random.nextInt(4), random.nextInt(4), false, MatchFormat.STANDARD, List.of());
+    }
+}
@@ -0,0 +1,169 @@
+package karel.hudera.rps.router;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.game.LoginRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures the {@link Router}: looking up the backend of a username on the {@link ConsistentHashRing},
+ * and the latency the router adds to a round trip of a {@value #MESSAGE_BYTES}-byte message compared to
+ * talking to the backend directly. The backend is an echo server that skips the PROXY header and the login.
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RouterBenchmark {
+
+    private static final int MESSAGE_BYTES = 64;
+    private static final int USERS = 10_000;
+
+    @Param({"3", "16"})
+    public int backends;
+
+    private ConsistentHashRing ring;
+    private String[] usernames;
+
+    private ServerSocket echoServer;
+    private Router router;
+    private Socket direct;
+    private Socket routed;
+    private final byte[] message = new byte[MESSAGE_BYTES];
+
+    @Setup
+    public void setup() throws IOException {
+        List<Backend> ringBackends = new ArrayList<>();
+        for (int i = 0; i < backends; i++) {
+            ringBackends.add(Backend.parse("10.0.0." + i + ":9090"));
+        }
+        ring = new ConsistentHashRing(ringBackends, Constants.ROUTER_VIRTUAL_NODES);
+        usernames = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            usernames[i] = "player" + i;
+        }
+
+        byte[] login = loginBytes();
+        echoServer = new ServerSocket(0);
+        Thread echoThread = new Thread(() -> echo(login.length), "EchoBackend");
+        echoThread.setDaemon(true);
+        echoThread.start();
+
+        Logger logger = Logger.getLogger("RouterBenchmark");
+        logger.setLevel(Level.OFF);
+        router = new Router(logger, 0, List.of("localhost:" + echoServer.getLocalPort()));
+        router.start();
+
+        direct = connect(echoServer.getLocalPort(), "PROXY UNKNOWN\r\n", login);
+        routed = connect(router.getLocalPort(), "", login);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        direct.close();
+        routed.close();
+        router.close();
+        echoServer.close();
+    }
+
+    @Benchmark
+    public Backend backendForUsername() {
+        return ring.backendFor(usernames[ThreadLocalRandom.current().nextInt(USERS)]);
+    }
+
+    @Benchmark
+    public byte[] roundTripDirect() throws IOException {
+        return roundTrip(direct);
+    }
+
+    @Benchmark
+    public byte[] roundTripRouted() throws IOException {
+        return roundTrip(routed);
+    }
+
+    private byte[] roundTrip(Socket socket) throws IOException {
+        socket.getOutputStream().write(message);
+        new DataInputStream(socket.getInputStream()).readFully(message);
+        return message;
+    }
+
+    /**
+     * Connects like a client: reads the stream header, sends the login and waits until the backend is ready.
+     */
+    private static Socket connect(int port, String proxyHeader, byte[] login) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setTcpNoDelay(true);
+        new DataInputStream(socket.getInputStream()).readFully(new byte[4]);
+        OutputStream out = socket.getOutputStream();
+        out.write(proxyHeader.getBytes(StandardCharsets.US_ASCII));
+        out.write(login);
+        byte[] ready = new byte[1];
+        out.write(ready);
+        new DataInputStream(socket.getInputStream()).readFully(ready);
+        return socket;
+    }
+
+    /**
+     * Object stream header followed by a LoginRequest, as a client sends it.
+     */
+    private static byte[] loginBytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new LoginRequest("karel", "password"));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Accepts connections; for each writes a stream header, skips the PROXY header and the login, then echoes.
+     */
+    private void echo(int loginLength) {
+        while (!echoServer.isClosed()) {
+            try {
+                Socket socket = echoServer.accept();
+                socket.setTcpNoDelay(true);
+                Thread thread = new Thread(() -> {
+                    try (socket) {
+                        OutputStream out = socket.getOutputStream();
+                        out.write(new byte[]{(byte) 0xAC, (byte) 0xED, 0x00, 0x05});
+                        InputStream in = socket.getInputStream();
+                        while (in.read() != '\n') {
+                            // PROXY header
+                        }
+                        new DataInputStream(in).readFully(new byte[loginLength]);
+                        byte[] buffer = new byte[MESSAGE_BYTES];
+                        int read;
+                        while ((read = in.read(buffer)) > 0) {
+                            out.write(buffer, 0, read);
+                        }
+                    } catch (IOException e) {
+                        // Connection closed in tearDown
+                    }
+                }, "EchoConnection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                // Server socket closed in tearDown
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package karel.hudera.rps.state;
+
+import karel.hudera.rps.game.MatchFormat;
+import karel.hudera.rps.game.Move;
+import karel.hudera.rps.history.MatchHistoryStore;
+import karel.hudera.rps.history.MatchRecord;
+import karel.hudera.rps.utils.ServerLogger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+/**
+ * Measures server startup: opening the match history and restoring the {@link ServerState}, either by
+ * replaying the whole history or from a snapshot plus the last {@value #TAIL_GAMES} games, as the
+ * history grows.
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServerStateBenchmark {
+
+    private static final int PLAYERS = 5_000;
+    private static final int TAIL_GAMES = 1_000;
+    private static final List<MatchRecord.Round> ROUNDS = List.of(
+            new MatchRecord.Round(Move.ROCK, Move.PAPER, 900, 1200),
+            new MatchRecord.Round(Move.PAPER, Move.PAPER, 700, 800),
+            new MatchRecord.Round(Move.SCISSORS, Move.PAPER, 1500, 600));
+
+    @Param({"10000", "100000", "1000000"})
+    public int games;
+
+    @Param({"replay", "snapshot"})
+    public String recovery;
+
+    private Path directory;
+    private Path snapshotFile;
+
+    @Setup
+    public void setup() throws IOException {
+        ServerLogger.INSTANCE.setLevel(Level.OFF);
+        directory = Files.createTempDirectory("rps-bench-state");
+        snapshotFile = directory.resolve("state.snap");
+
+        Random random = new Random(42);
+        try (MatchHistoryStore store = new MatchHistoryStore(directory.resolve("history"), 1 << 18, false)) {
+            appendGames(store, games - TAIL_GAMES, random);
+            if (recovery.equals("snapshot")) {
+                new ServerState(store, snapshotFile, false).writeSnapshot();
+            }
+            appendGames(store, TAIL_GAMES, random);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public long startup() throws IOException {
+        try (MatchHistoryStore store = new MatchHistoryStore(directory.resolve("history"), 1 << 18, false)) {
+            return new ServerState(store, snapshotFile, false).getAppliedThrough();
+        }
+    }
+
+    private static void appendGames(MatchHistoryStore store, int count, Random random) throws IOException {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            int player1 = random.nextInt(PLAYERS);
+            int player2 = (player1 + 1 + random.nextInt(PLAYERS - 1)) % PLAYERS;
+            store.append(new MatchRecord(0, now - 5_000, now, "player" + player1, "player" + player2,
+                    random.nextInt(4), random.nextInt(4), false, MatchFormat.STANDARD, ROUNDS));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package karel.hudera.rps.stats;
+
+import karel.hudera.rps.game.MatchFormat;
+import karel.hudera.rps.game.Move;
+import karel.hudera.rps.history.MatchRecord;
+import karel.hudera.rps.utils.ServerLogger;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Measures counting the rounds of a recorded game in the {@link PlayerStatsAggregator}, one game at a time
+ * as the server state applies them, folding the counted rounds into the per-player table, and reading a
+ * player's statistics.
+ *
+ * @author Karel Hudera
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlayerStatsBenchmark {
+
+    private static final int PLAYERS = 10_000;
+    private static final Move[] MOVES = Move.values();
+
+    private PlayerStatsAggregator aggregator;
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        ServerLogger.INSTANCE.setLevel(Level.OFF);
+        names = new String[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            names[i] = "player" + i;
+        }
+        aggregator = new PlayerStatsAggregator(false);
+        for (int i = 0; i < PLAYERS * 5; i++) {
+            recordRandomGame();
+        }
+        aggregator.fold();
+    }
+
+    @Benchmark
+    public void recordGame() {
+        recordRandomGame();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(PLAYERS)
+    public void recordAndFold() {
+        for (int i = 0; i < PLAYERS; i++) {
+            recordRandomGame();
+        }
+        aggregator.fold();
+    }
+
+    @Benchmark
+    public PlayerStats readStats() {
+        return aggregator.get(names[ThreadLocalRandom.current().nextInt(PLAYERS)]);
+    }
+
+    private void recordRandomGame() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int player1 = random.nextInt(PLAYERS);
+        int player2 = (player1 + 1 + random.nextInt(PLAYERS - 1)) % PLAYERS;
+        List<MatchRecord.Round> rounds = List.of(
+                new MatchRecord.Round(MOVES[random.nextInt(MOVES.length)], MOVES[random.nextInt(MOVES.length)],
+                        random.nextInt(3_000), random.nextInt(3_000)),
+                new MatchRecord.Round(MOVES[random.nextInt(MOVES.length)], MOVES[random.nextInt(MOVES.length)],
+                        random.nextInt(3_000), random.nextInt(3_000)));
+        aggregator.recordGame(new MatchRecord(0, 0, 0, names[player1], names[player2], 1, 1, false,
+                MatchFormat.STANDARD, rounds));
+    }
+}
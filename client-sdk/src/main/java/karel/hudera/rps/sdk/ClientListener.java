@@ -0,0 +1,40 @@
+package karel.hudera.rps.sdk;
+
+import karel.hudera.rps.game.GameMessage;
+
+/**
+ * Receives the messages the server sends to a {@link GameClient}.
+ * <p>
+ * Callbacks run on the connection's reader thread, one at a time and in the order the messages arrived.
+ * They should hand the message over and return quickly, the next message is not read before they do.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public interface ClientListener {
+
+    /**
+     * Called for every message received after login, except the {@code LoginResponse} itself
+     * and the pings and pongs the client handles on its own.
+     *
+     * @param message the received message
+     */
+    void onMessage(GameMessage message);
+
+    /**
+     * Called whenever the server reports a new round-trip estimate with its ping, every few seconds.
+     *
+     * @param roundTripMicros the smoothed round-trip time in microseconds
+     * @param jitterMicros    its mean deviation in microseconds
+     */
+    default void onRoundTripTime(long roundTripMicros, long jitterMicros) {
+    }
+
+    /**
+     * Called once when the connection ends.
+     *
+     * @param cause why the connection was lost, or null if it was closed by {@link GameClient#close()}
+     */
+    default void onDisconnected(Exception cause) {
+    }
+}
@@ -0,0 +1,412 @@
+package karel.hudera.rps.sdk;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.game.GameMessage;
+import karel.hudera.rps.game.LoginRequest;
+import karel.hudera.rps.game.LoginResponse;
+import karel.hudera.rps.game.Ping;
+import karel.hudera.rps.game.Pong;
+import karel.hudera.rps.game.TerminateMessage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless client of the Rock-Paper-Scissors server, without any UI dependency.
+ * <p>
+ * Nothing blocks the caller: {@link #login} connects and authenticates in the background and completes
+ * its future with the server's {@link LoginResponse}, received messages are delivered to the
+ * {@link ClientListener}, and {@link #send} only queues the message. Messages queued while the previous
+ * ones are still being written go out together with a single flush, so a caller can pipeline several
+ * requests without waiting for the answers.
+ * </p>
+ * <p>
+ * The server pings every connection; the client answers on its own and keeps the round-trip time the
+ * server measured, see {@link #getRoundTripMicros()}. If the server stays silent for
+ * {@link Constants#PEER_TIMEOUT_MS}, the connection is treated as lost without waiting for TCP.
+ * </p>
+ * <p>
+ * Every connection is served by virtual threads, a reader that lives as long as the connection and a
+ * writer that only exists while there is something to send, so one JVM can drive thousands of sessions.
+ * Routine traffic is logged at {@link Level#FINE} only.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class GameClient implements AutoCloseable {
+
+    private static final ThreadFactory READERS = Thread.ofVirtual().name("GameClientReader-", 0).factory();
+    private static final ThreadFactory WRITERS = Thread.ofVirtual().name("GameClientWriter-", 0).factory();
+
+    private final Logger logger;
+    private final String serverAddress;
+    private final int serverPort;
+
+    // Logged-in connection, null before login and after the connection ended
+    private final AtomicReference<Connection> connection = new AtomicReference<>();
+
+    private volatile String username;
+    private volatile String resumeToken;
+
+    // Latest estimate the server sent with its ping, -1 until the first one
+    private volatile long roundTripMicros = -1;
+    private volatile long jitterMicros = -1;
+
+    // Messages received before a listener was set, delivered to it in order once it is
+    private final ReentrantLock listenerLock = new ReentrantLock();
+    private final ArrayDeque<GameMessage> undelivered = new ArrayDeque<>();
+    private ClientListener listener;
+
+    /**
+     * Creates a client of the server at the default address and port.
+     *
+     * @param logger where the client logs
+     */
+    public GameClient(Logger logger) {
+        this(logger, Constants.SERVER_ADDRESS, Constants.PORT);
+    }
+
+    /**
+     * Creates a client of the given server. Nothing is connected before {@link #login}.
+     *
+     * @param logger        where the client logs
+     * @param serverAddress host name or address of the server
+     * @param serverPort    port of the server
+     */
+    public GameClient(Logger logger, String serverAddress, int serverPort) {
+        this.logger = logger;
+        this.serverAddress = serverAddress;
+        this.serverPort = serverPort;
+    }
+
+    /**
+     * One socket with its object streams and the messages waiting to be written to it.
+     */
+    private final class Connection {
+        final Socket socket;
+        final ObjectOutputStream output;
+        final ObjectInputStream input;
+        final ConcurrentLinkedQueue<GameMessage> outbox = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean writerScheduled = new AtomicBoolean();
+        // Messages written since the stream was last reset, only touched by the scheduled writer
+        private int writtenSinceReset;
+
+        // Set when the connection ends on purpose, so its end is not reported as a failure
+        volatile boolean closedByClient;
+        volatile boolean replaced;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            // The server waits for the stream header before it writes its own
+            output.flush();
+            input = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        void enqueue(GameMessage message) {
+            outbox.add(message);
+            if (writerScheduled.compareAndSet(false, true)) {
+                WRITERS.newThread(this::writeQueued).start();
+            }
+        }
+
+        /**
+         * Writes everything in the outbox and flushes once, until the outbox stays empty.
+         */
+        private void writeQueued() {
+            try {
+                boolean terminated = false;
+                do {
+                    GameMessage message;
+                    while ((message = outbox.poll()) != null) {
+                        GameMessage sent = message;
+                        logger.fine(() -> "Sending " + sent.getClass().getSimpleName() + ": " + sent);
+                        if (message instanceof Pong) {
+                            output.writeUnshared(message);
+                        } else {
+                            output.writeObject(message);
+                        }
+                        // The server's stream keeps a handle to every object it read until the stream is reset
+                        if (++writtenSinceReset == Constants.STREAM_RESET_MESSAGES) {
+                            output.reset();
+                            writtenSinceReset = 0;
+                        }
+                        terminated |= message instanceof TerminateMessage;
+                    }
+                    output.flush();
+                    writerScheduled.set(false);
+                } while (!outbox.isEmpty() && writerScheduled.compareAndSet(false, true));
+
+                // The server ends the game only after reading the TerminateMessage, not on a dropped socket
+                if (terminated) {
+                    closeSocket();
+                }
+            } catch (IOException e) {
+                // The reader fails on the closed socket and reports the lost connection
+                logger.fine(() -> "Failed to send to server: " + e.getMessage());
+                closeSocket();
+            }
+        }
+
+        void closeSocket() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing socket: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Connects to the server and logs in with a password.
+     *
+     * @param username the account name
+     * @param password the account password
+     * @return completes with the server's answer once it arrives, or exceptionally if the server
+     * cannot be reached; a refused login completes normally with an unsuccessful response
+     */
+    public CompletableFuture<LoginResponse> login(String username, String password) {
+        return open(username, new LoginRequest(username, password));
+    }
+
+    /**
+     * Reconnects after a lost connection and continues the interrupted game with the token from the
+     * last successful login, without the password. A connection that is still open is dropped first.
+     *
+     * @return completes with the server's answer; unsuccessful if there is no session to resume
+     */
+    public CompletableFuture<LoginResponse> resume() {
+        String token = resumeToken;
+        if (token == null) {
+            return CompletableFuture.completedFuture(new LoginResponse(false, "No session to resume"));
+        }
+        // Dropped without a TerminateMessage, the server would otherwise end the game
+        Connection old = connection.getAndSet(null);
+        if (old != null) {
+            old.replaced = true;
+            old.closeSocket();
+        }
+        return open(username, new LoginRequest(username, null, token));
+    }
+
+    private CompletableFuture<LoginResponse> open(String username, LoginRequest request) {
+        CompletableFuture<LoginResponse> result = new CompletableFuture<>();
+        READERS.newThread(() -> connectAndRead(username, request, result)).start();
+        return result;
+    }
+
+    /**
+     * Runs on the connection's reader thread: connects, logs in, then reads messages until the connection ends.
+     */
+    private void connectAndRead(String username, LoginRequest request, CompletableFuture<LoginResponse> result) {
+        Connection current;
+        try {
+            logger.fine(() -> "Connecting to " + serverAddress + ":" + serverPort + " as " + username);
+            current = new Connection(new Socket(serverAddress, serverPort));
+        } catch (IOException e) {
+            logger.warning(String.format(Constants.ERROR_LOGIN_FAILED, e.getMessage()));
+            result.completeExceptionally(e);
+            return;
+        }
+
+        try {
+            current.output.writeObject(request);
+            current.output.flush();
+            Object reply = current.input.readObject();
+            if (!(reply instanceof LoginResponse response)) {
+                throw new IOException("Unexpected reply to login: " + reply.getClass().getName());
+            }
+            if (!response.isSuccess()) {
+                logger.warning(Constants.LOG_AUTH_FAIL + username + ": " + response.getMessage());
+                current.closeSocket();
+                result.complete(response);
+                return;
+            }
+            this.username = username;
+            this.resumeToken = response.getResumeToken();
+            // The server pings a logged-in connection regularly, silence means it is gone
+            current.socket.setSoTimeout(Constants.PEER_TIMEOUT_MS);
+            connection.set(current);
+            logger.fine(() -> Constants.LOG_AUTH_SUCCESS + username);
+            result.complete(response);
+        } catch (IOException | ClassNotFoundException e) {
+            logger.warning(String.format(Constants.ERROR_LOGIN_FAILED, e.getMessage()));
+            current.closeSocket();
+            result.completeExceptionally(e);
+            return;
+        }
+
+        readMessages(current);
+    }
+
+    private void readMessages(Connection current) {
+        Exception cause;
+        try {
+            while (true) {
+                Object received = current.input.readObject();
+                if (received instanceof Ping ping) {
+                    current.enqueue(new Pong(ping.getSentAtNanos()));
+                    roundTripMicros = ping.getRoundTripMicros();
+                    jitterMicros = ping.getJitterMicros();
+                    notifyRoundTrip(ping.getRoundTripMicros(), ping.getJitterMicros());
+                } else if (received instanceof Pong) {
+                    // Answer to a ping of ours, the client does not measure its own round trips
+                    continue;
+                } else if (received instanceof GameMessage message) {
+                    logger.fine(() -> Constants.LOG_RECEIVED_MESSAGE + message.getClass().getSimpleName());
+                    deliver(message);
+                } else {
+                    logger.warning(Constants.LOG_RECEIVED_MESSAGE + "unexpected type " + received.getClass().getName());
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            cause = e;
+        }
+
+        current.closeSocket();
+        connection.compareAndSet(current, null);
+        if (current.replaced) {
+            return;
+        }
+        if (current.closedByClient) {
+            logger.fine(Constants.LOG_CLIENT_CLOSED);
+            notifyDisconnected(null);
+        } else if (cause instanceof SocketTimeoutException) {
+            logger.warning("No message from server for " + Constants.PEER_TIMEOUT_MS + " ms, connection lost");
+            notifyDisconnected(cause);
+        } else {
+            logger.warning("Connection to server lost: " + cause.getMessage());
+            notifyDisconnected(cause);
+        }
+    }
+
+    /**
+     * Sets the listener that receives the server's messages. Messages received before it was set are
+     * delivered to it first, so none are lost between the login and the listener being ready.
+     *
+     * @param listener the new listener
+     */
+    public void setListener(ClientListener listener) {
+        listenerLock.lock();
+        try {
+            this.listener = listener;
+            GameMessage message;
+            while ((message = undelivered.poll()) != null) {
+                listener.onMessage(message);
+            }
+        } finally {
+            listenerLock.unlock();
+        }
+    }
+
+    private void deliver(GameMessage message) {
+        listenerLock.lock();
+        try {
+            if (listener == null) {
+                undelivered.add(message);
+            } else {
+                listener.onMessage(message);
+            }
+        } finally {
+            listenerLock.unlock();
+        }
+    }
+
+    private void notifyDisconnected(Exception cause) {
+        ClientListener current = currentListener();
+        if (current != null) {
+            current.onDisconnected(cause);
+        }
+    }
+
+    private void notifyRoundTrip(long roundTripMicros, long jitterMicros) {
+        ClientListener current = currentListener();
+        if (current != null && roundTripMicros >= 0) {
+            current.onRoundTripTime(roundTripMicros, jitterMicros);
+        }
+    }
+
+    private ClientListener currentListener() {
+        listenerLock.lock();
+        try {
+            return listener;
+        } finally {
+            listenerLock.unlock();
+        }
+    }
+
+    /**
+     * Queues a message for the server and returns without waiting for it to be written.
+     * If writing fails, the listener is told that the connection was lost.
+     *
+     * @param message the message to send
+     * @return false if the client is not logged in and the message was dropped
+     */
+    public boolean send(GameMessage message) {
+        Connection current = connection.get();
+        if (current == null) {
+            logger.fine(() -> "Not connected, dropping " + message.getClass().getSimpleName());
+            return false;
+        }
+        current.enqueue(message);
+        return true;
+    }
+
+    /**
+     * @return whether the client is logged in and the connection is open
+     */
+    public boolean isConnected() {
+        return connection.get() != null;
+    }
+
+    /**
+     * @return the smoothed round-trip time the server measured on this connection in microseconds,
+     * or -1 if it has not measured any yet
+     */
+    public long getRoundTripMicros() {
+        return roundTripMicros;
+    }
+
+    /**
+     * @return the mean deviation of the round-trip time in microseconds, or -1 if not measured yet
+     */
+    public long getJitterMicros() {
+        return jitterMicros;
+    }
+
+    /**
+     * @return the name the client last logged in with, or null
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Tells the server the player is leaving and closes the connection once the messages queued before
+     * were written. The listener's {@link ClientListener#onDisconnected} is called with null.
+     */
+    @Override
+    public void close() {
+        resumeToken = null;
+        Connection current = connection.getAndSet(null);
+        if (current != null) {
+            current.closedByClient = true;
+            current.enqueue(new TerminateMessage());
+        }
+    }
+}
@@ -0,0 +1,9 @@
+module karel.hudera.rps.sdk {
+    // GameClient takes the caller's Logger
+    requires transitive java.logging;
+
+    // shared module, its messages are part of the SDK API
+    requires transitive karel.hudera.rps.shared;
+
+    exports karel.hudera.rps.sdk;
+}
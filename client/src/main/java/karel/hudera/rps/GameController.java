@@ -9,13 +9,17 @@ import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.layout.VBox;
 import javafx.util.Duration;
-import karel.hudera.rps.client.Client;
 import karel.hudera.rps.constants.Constants;
 import karel.hudera.rps.game.*;
+import karel.hudera.rps.sdk.ClientListener;
+import karel.hudera.rps.sdk.GameClient;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ResourceBundle;
-import java.util.logging.Level;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 
@@ -44,23 +48,47 @@ public class GameController implements Initializable {
     @FXML private VBox finalResultOverlayContainer;
     @FXML private Label finalGameOutcomeLabel;
     @FXML private Label finalGameScoreLabel;
+    @FXML private Label finalHistoryLabel;
+    @FXML private Label finalStatsLabel;
 
     @FXML private Button rockButton;
     @FXML private Button paperButton;
     @FXML private Button scissorsButton;
     @FXML private Button disconnectButton;
+    @FXML private Label roundTripLabel;
     //logování událostí hry
-    private Client client;
+    private GameClient client;
     private String loggedInUsername;
     private String opponentUsername;
 
     // Skóre
     private int yourScore = 0;
     private int opponentScore = 0;
-    private final int CLIENT_MAX_ROUNDS = 3; // <-- Hardcoded na klientovi, podle serveru
+    // Formát zápasu podle GameStart, určuje, kdy hra skončí
+    private MatchFormat format = MatchFormat.STANDARD;
     private int clientCurrentRound = 0;
-
-    public GameController() {}
+    // Počet posledních her se soupeřem zobrazených po skončení hry
+    private static final int HISTORY_GAMES_SHOWN = 5;
+
+    // Obnovení relace po výpadku spojení
+    private static final int RESUME_ATTEMPTS = 3;
+    private static final long RESUME_RETRY_DELAY_MS = 1000;
+    private volatile boolean userDisconnected = false;
+
+    // Tabulka obsluh přijatých zpráv podle id jejich typu
+    private final MessageDispatcher<GameController> messageHandlers = new MessageDispatcher<>();
+    // Zprávy přečtené ze socketu, které UI vlákno ještě nezpracovalo
+    private final ConcurrentLinkedQueue<GameMessage> pendingMessages = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean uiUpdateScheduled = new AtomicBoolean();
+
+    public GameController() {
+        onMessage(MessageType.GAME_START, this::handleGameStart);
+        onMessage(MessageType.SESSION_RESUMED, this::handleSessionResumed);
+        onMessage(MessageType.ROUND_RESULT, this::handleRoundResult);
+        onMessage(MessageType.GAME_RESULT, this::handleGameResult);
+        onMessage(MessageType.HISTORY_RESPONSE, this::handleHistoryResponse);
+        onMessage(MessageType.STATS_RESPONSE, this::handleStatsResponse);
+    }
 
     @Override
     public void initialize(URL url, ResourceBundle resourceBundle) {
@@ -83,156 +111,297 @@ public class GameController implements Initializable {
     }
 
     /**
-     * Spouští vlákno pro poslech zpráv, řeší vyjímky, neznámé objekty, přerušení vlákna...
+     * Zaregistruje obsluhu zpráv u klienta. Klient je čte ve vlastním vlákně a volá ji pro každou zprávu,
+     * takže zpráva jde do UI hned, jak dorazí. Zprávy přijaté ještě před registrací klient doručí hned po ní.
      * **/
     private void startMessageListener() {
-        logger.info("GameController: Entering startMessageListener. Value of 'this.client' is: " + (this.client != null ? "NOT NULL" : "NULL"));
+        if (this.client == null) {
+            logger.severe("GameController: client is NULL when trying to start the message listener. This is unexpected.");
+            return;
+        }
 
+        client.setListener(new ClientListener() {
+            @Override
+            public void onMessage(GameMessage message) {
+                postToUi(message);
+            }
 
-        if (this.client != null) {
-            logger.info("GameController: CHECKING client.isConnected() BEFORE THREAD START: " + this.client.isConnected());
-        } else {
-            logger.severe("GameController: client is NULL when trying to check isConnected() before thread start. This is unexpected.");
+            @Override
+            public void onRoundTripTime(long roundTripMicros, long jitterMicros) {
+                Platform.runLater(() -> showRoundTripTime(roundTripMicros, jitterMicros));
+            }
+
+            @Override
+            public void onDisconnected(Exception cause) {
+                handleConnectionLost(cause);
+            }
+        });
+    }
+
+    /**
+     * Zobrazí dobu odezvy spojení, kterou změřil server.
+     * **/
+    private void showRoundTripTime(long roundTripMicros, long jitterMicros) {
+        roundTripLabel.setText(String.format("Ping %.0f ms ± %.0f ms", roundTripMicros / 1000.0, jitterMicros / 1000.0));
+    }
+
+    /**
+     * Běží ve vlákně klienta po skončení spojení. Pokud spojení nezavřel hráč, pokusí se obnovit relaci.
+     * **/
+    private void handleConnectionLost(Exception cause) {
+        if (cause == null) {
+            logger.info("Client message listener stopped.");
+            return;
+        }
+        if (cause instanceof ClassNotFoundException) {
+            logger.severe("Received unknown object from server: " + cause.getMessage());
+            Platform.runLater(() -> statusMessageLabel.setText("Communication error."));
             return;
         }
+        try {
+            if (resumeAfterConnectionLoss()) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Reconnecting interrupted.");
+        }
+        logger.severe("Connection lost: " + cause.getMessage());
+        Platform.runLater(() -> {
+            statusMessageLabel.setText("Connection lost. Please restart.");
+            setMoveButtonsEnabled(false);
+            if (disconnectButton != null) disconnectButton.setDisable(true);
+        });
+    }
 
+    /**
+     * Předá zprávu do UI vlákna. Zprávy, které dorazí, než UI vlákno zpracuje předchozí,
+     * se přidají do stejné dávky, takže na jeden snímek připadá nejvýš jedno 'Platform.runLater'.
+     * **/
+    private void postToUi(GameMessage message) {
+        pendingMessages.add(message);
+        if (uiUpdateScheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::dispatchPendingMessages);
+        }
+    }
 
-        new Thread(() -> {
-            logger.info("GameController: ClientMessageListener thread started. Value of 'client' (captured by lambda) is: " + (client != null ? "NOT NULL" : "NULL"));
+    /**
+     * Běží v UI vlákně, zpracuje všechny čekající zprávy v pořadí, v jakém přišly.
+     * **/
+    private void dispatchPendingMessages() {
+        // Příznak se shodí před čtením fronty, aby se neztratila zpráva přidaná během zpracování
+        uiUpdateScheduled.set(false);
+        GameMessage message;
+        while ((message = pendingMessages.poll()) != null) {
             try {
-                while (client.isConnected()) {
-                    GameMessage message = client.readServerMessage();
-                    if (message != null) {
-                        Platform.runLater(() -> handleIncomingMessage(message));
-                    }
-                    Thread.sleep(50);
+                if (!messageHandlers.dispatch(this, message)) {
+                    logger.fine("Ignoring message without handler: " + message.getClass().getSimpleName());
                 }
             } catch (IOException e) {
-                logger.severe("Connection lost: " + e.getMessage());
-                Platform.runLater(() -> {
-                    statusMessageLabel.setText("Connection lost. Please restart.");
-                    setMoveButtonsEnabled(false);
-                    if (disconnectButton != null) disconnectButton.setDisable(true);
-                });
-            } catch (ClassNotFoundException e) {
-                logger.severe("Received unknown object from server: " + e.getMessage());
-                Platform.runLater(() -> statusMessageLabel.setText("Communication error."));
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.warning("Message listener interrupted.");
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Unexpected error in ClientMessageListener thread: " + e.getMessage(), e);
-                Platform.runLater(() -> {
-                    statusMessageLabel.setText("Critical error. Please restart.");
-                    setMoveButtonsEnabled(false);
-                    if (disconnectButton != null) disconnectButton.setDisable(true);
-                });
-            }finally {
-                logger.info("Client message listener stopped.");
+                logger.warning("Failed to handle " + message.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Zaregistruje obsluhu jednoho typu zprávy do tabulky obsluh.
+     * **/
+    private <T extends GameMessage> void onMessage(MessageType<T> type, Consumer<T> handler) {
+        messageHandlers.on(type, (GameController controller, T message) -> {
+            handler.accept(message);
+            return true;
+        });
+    }
+
+    /**
+     * Po výpadku spojení se několikrát pokusí obnovit relaci na serveru, aby hráč nepřišel o rozehranou hru.
+     * **/
+    private boolean resumeAfterConnectionLoss() throws InterruptedException {
+        if (userDisconnected) {
+            return false;
+        }
+        Platform.runLater(() -> statusMessageLabel.setText("Connection lost. Reconnecting..."));
+        for (int attempt = 1; attempt <= RESUME_ATTEMPTS; attempt++) {
+            try {
+                if (client.resume().get().isSuccess()) {
+                    return true;
+                }
+            } catch (ExecutionException e) {
+                logger.warning("Failed to resume session: " + e.getCause().getMessage());
             }
-        }, "ClientMessageListener").start();
+            Thread.sleep(RESUME_RETRY_DELAY_MS * attempt);
+        }
+        return false;
+    }
+
+    /**
+     * Soupeř byl nalezen, začíná nová hra.
+     * **/
+    private void handleGameStart(GameStart gameStartMessage) {
+        opponentUsername = gameStartMessage.getOpponentUsername();
+        format = gameStartMessage.getFormat() != null ? gameStartMessage.getFormat() : MatchFormat.STANDARD;
+        clientCurrentRound = 0;
+
+        setMoveButtonsEnabled(true); // Povol tlačítka pro tah
+
+        statusMessageLabel.setText("Game Started!");
+        opponentUsernameLabel.setText(opponentUsername);
+        yourScore = 0;
+        opponentScore = 0;
+        yourScoreLabel.setText("0");
+        opponentScoreLabel.setText("0");
+        roundResultLabel.setText("");
+        waitingForOpponentMoveLabel.setText("Pick your move!");
+    }
+
+    /**
+     * Relace byla po výpadku spojení obnovena, hra pokračuje rozehraným kolem.
+     * **/
+    private void handleSessionResumed(SessionResumed resumed) {
+        opponentUsername = resumed.getOpponentUsername();
+        yourScore = resumed.getYourScore();
+        opponentScore = resumed.getOpponentScore();
+        clientCurrentRound = resumed.getRound() - 1;
+
+        opponentUsernameLabel.setText(opponentUsername);
+        yourScoreLabel.setText(String.valueOf(yourScore));
+        opponentScoreLabel.setText(String.valueOf(opponentScore));
+        statusMessageLabel.setText("Reconnected!");
+        waitingForOpponentMoveLabel.setText("Pick your move for round " + resumed.getRound() + "!");
+
+        resultOverlayContainer.setVisible(false);
+        waitingOverlayContainer.setVisible(false);
+        gameContentContainer.setVisible(true);
+        setMoveButtonsEnabled(true);
+    }
+
+    /**
+     * Hra skončila a je uložená v historii.
+     * **/
+    private void handleGameResult(GameResult gameResult) {
+        // Hra je uložená v historii, vyžádej si bilanci se soupeřem a vlastní statistiky pro závěrečný overlay
+        finalHistoryLabel.setText("");
+        finalStatsLabel.setText("");
+        // Oba požadavky odejdou najednou, na odpověď prvního se nečeká
+        if (!client.send(new HistoryRequest(opponentUsername, HISTORY_GAMES_SHOWN))
+                || !client.send(new StatsRequest(null))) {
+            logger.warning("Failed to request match history: not connected.");
+        }
+    }
+
+    /**
+     * Zobrazí bilanci se soupeřem v závěrečném overlayi.
+     * **/
+    private void handleHistoryResponse(HistoryResponse history) {
+        StringBuilder text = new StringBuilder(String.format("Against %s: %d W / %d L / %d D",
+                history.getOpponentUsername(), history.getWins(), history.getLosses(), history.getDraws()));
+        for (MatchSummary game : history.getGames()) {
+            text.append(String.format("%n#%d  %d : %d%s", game.getGameId(),
+                    game.getYourScore(), game.getOpponentScore(), game.isAbandoned() ? " (abandoned)" : ""));
+        }
+        finalHistoryLabel.setText(text.toString());
+    }
+
+    /**
+     * Zobrazí hodnocení a statistiky tahů v závěrečném overlayi.
+     * **/
+    private void handleStatsResponse(StatsResponse stats) {
+        StringBuilder text = new StringBuilder(stats.getRank() > 0
+                ? String.format("Rating %d, rank #%d", stats.getRating(), stats.getRank())
+                : String.format("Rating %d", stats.getRating()));
+        if (stats.getRounds() > 0) {
+            for (Move move : Move.values()) {
+                text.append(String.format("%n%s: %.0f %% of moves, %.0f %% won", move.name(),
+                        100.0 * stats.getPlays(move) / stats.getRounds(), 100 * stats.getWinRate(move)));
+            }
+            text.append(String.format("%nAverage decision time: %.1f s", stats.getAverageDecisionMillis() / 1000.0));
+        }
+        finalStatsLabel.setText(text.toString());
+    }
+
+    /**
+     * Vrátí text tahu pro zobrazení, nebo "TIME OUT", pokud hráč v bleskové hře nestihl táhnout.
+     * **/
+    private static String moveText(Move move) {
+        return move == null ? "TIME OUT" : move.name();
     }
 
     /**
      * Zpracuje přijatou zprávu od serveru s výsledkem kola.
      * Podle toho, jetli se bude hrát ještě jedno kolo, se zobrazí příslušný overlay okna.
      * **/
-    private void handleIncomingMessage(GameMessage message) {
-        logger.info("Received message in GameController: " + message.getClass().getSimpleName() + " - " + message.toString());
-
-        if (message instanceof GameStart) {
-            GameStart gameStartMessage = (GameStart) message;
-            opponentUsername = gameStartMessage.getOpponentUsername();
-
-            logger.info("GameStart received. Before enabling buttons - Rock button disabled: " + rockButton.isDisable());
-            setMoveButtonsEnabled(true); // Povol tlačítka pro tah
-            logger.info("GameStart received. After enabling buttons - Rock button disabled: " + rockButton.isDisable());
-            logger.info("GameStart received. gameContentContainer visible: " + gameContentContainer.isVisible() + ", waitingOverlayContainer visible: " + waitingOverlayContainer.isVisible() + ", resultOverlayContainer visible: " + resultOverlayContainer.isVisible() + ", finalResultOverlayContainer visible: " + finalResultOverlayContainer.isVisible());
-
-            statusMessageLabel.setText("Game Started!");
-            opponentUsernameLabel.setText(opponentUsername);
-            yourScore = 0;
-            opponentScore = 0;
-            yourScoreLabel.setText("0");
-            opponentScoreLabel.setText("0");
-            roundResultLabel.setText("");
-            waitingForOpponentMoveLabel.setText("Pick your move!");
-
-
-        } else if (message instanceof RoundResult) {
-            RoundResult roundResult = (RoundResult) message;
-
-            yourScore = roundResult.getPlayer1Score();
-            opponentScore = roundResult.getPlayer2Score();
-            yourScoreLabel.setText(String.valueOf(yourScore));
-            opponentScoreLabel.setText(String.valueOf(opponentScore));
-
-            // Zobrazení tahů
-            finalYourMoveLabel.setText("You: " + roundResult.getYourMove().name());
-            finalOpponentMoveLabel.setText("Opponent: " + roundResult.getOpponentMove().name());
-
-
-            // Zobrazení výsledku kola
-            String resultText = "";
-            if (roundResult.getRoundResult() == Result.WIN) {
-                resultText = "YOU WIN this round!";
-                roundResultLabel.setStyle("-fx-text-fill: green; -fx-font-weight: bold;");
-            } else if (roundResult.getRoundResult() == Result.LOSE) {
-                resultText = "YOU LOSE this round!";
-                roundResultLabel.setStyle("-fx-text-fill: red; -fx-font-weight: bold;");
-            } else { // DRAW
-                resultText = "IT'S A DRAW!";
-                roundResultLabel.setStyle("-fx-text-fill: orange; -fx-font-weight: bold;");
-            }
-            finalRoundResultLabel.setText(resultText);
+    private void handleRoundResult(RoundResult roundResult) {
+        yourScore = roundResult.getPlayer1Score();
+        opponentScore = roundResult.getPlayer2Score();
+        yourScoreLabel.setText(String.valueOf(yourScore));
+        opponentScoreLabel.setText(String.valueOf(opponentScore));
+
+        // Zobrazení tahů
+        // V bleskové hře hráč, kterému došel čas, žádný tah nemá
+        finalYourMoveLabel.setText("You: " + moveText(roundResult.getYourMove()));
+        finalOpponentMoveLabel.setText("Opponent: " + moveText(roundResult.getOpponentMove()));
+
+        // Zobrazení výsledku kola
+        String resultText = "";
+        if (roundResult.getRoundResult() == Result.WIN) {
+            resultText = "YOU WIN this round!";
+            roundResultLabel.setStyle("-fx-text-fill: green; -fx-font-weight: bold;");
+        } else if (roundResult.getRoundResult() == Result.LOSE) {
+            resultText = "YOU LOSE this round!";
+            roundResultLabel.setStyle("-fx-text-fill: red; -fx-font-weight: bold;");
+        } else { // DRAW
+            resultText = "IT'S A DRAW!";
+            roundResultLabel.setStyle("-fx-text-fill: orange; -fx-font-weight: bold;");
+        }
+        finalRoundResultLabel.setText(resultText);
 
-            // Skryj herní a čekací overlay, zobraz výsledkový overlay
-            gameContentContainer.setVisible(false);
-            waitingOverlayContainer.setVisible(false);
-            resultOverlayContainer.setVisible(true);
+        // Skryj herní a čekací overlay, zobraz výsledkový overlay
+        gameContentContainer.setVisible(false);
+        waitingOverlayContainer.setVisible(false);
+        resultOverlayContainer.setVisible(true);
 
-            setMoveButtonsEnabled(false);
+        setMoveButtonsEnabled(false);
+
+        clientCurrentRound++;
+
+        if (!format.isOver(clientCurrentRound, yourScore, opponentScore)) {
+            PauseTransition delay = new PauseTransition(Duration.seconds(2));
+            delay.setOnFinished(event -> {
+                resultOverlayContainer.setVisible(false); // Skryj výsledkový overlay
+                gameContentContainer.setVisible(true);   // Zobraz hlavní herní obrazovku
+                waitingForOpponentMoveLabel.setText("Pick your move for round " + (clientCurrentRound + 1) + "!");
+                roundResultLabel.setText("");
+                setMoveButtonsEnabled(true);
+            });
+            delay.play();
+        } else {
+            PauseTransition finalDelay = new PauseTransition(Duration.seconds(3));
+            finalDelay.setOnFinished(event -> {
 
-            clientCurrentRound++;
-
-            if (clientCurrentRound < CLIENT_MAX_ROUNDS) {
-                PauseTransition delay = new PauseTransition(Duration.seconds(2));
-                delay.setOnFinished(event -> {
-                    resultOverlayContainer.setVisible(false); // Skryj výsledkový overlay
-                    gameContentContainer.setVisible(true);   // Zobraz hlavní herní obrazovku
-                    waitingForOpponentMoveLabel.setText("Pick your move for round " + (clientCurrentRound + 1) + "!");
-                    roundResultLabel.setText("");
-                    setMoveButtonsEnabled(true);
-                });
-                delay.play();
-            } else {
-                PauseTransition finalDelay = new PauseTransition(Duration.seconds(3));
-                finalDelay.setOnFinished(event -> {
-
-                    gameContentContainer.setVisible(false);
-                    waitingOverlayContainer.setVisible(false);
-                    resultOverlayContainer.setVisible(false);
-
-                    finalResultOverlayContainer.setVisible(true);
-
-                    String finalOutcomeText;
-                    String finalOutcomeStyle = "";
-                    if (yourScore > opponentScore) {
-                        finalOutcomeText = "YOU WIN THE GAME!";
-                        finalOutcomeStyle = "-fx-text-fill: #28a745;";
-                    } else if (opponentScore > yourScore) {
-                        finalOutcomeText = "YOU LOSE THE GAME!";
-                        finalOutcomeStyle = "-fx-text-fill: #dc3545;";
-                    } else {
-                        finalOutcomeText = "IT'S A TIE GAME!";
-                        finalOutcomeStyle = "-fx-text-fill: #ffc107;";
-                    }
-                    finalGameOutcomeLabel.setText(finalOutcomeText);
-                    finalGameOutcomeLabel.setStyle(finalOutcomeStyle);
-                    finalGameScoreLabel.setText(String.format("Final Score: You %d - Opponent %d", yourScore, opponentScore));
-                });
-                finalDelay.play();
-        } }
+                gameContentContainer.setVisible(false);
+                waitingOverlayContainer.setVisible(false);
+                resultOverlayContainer.setVisible(false);
+
+                finalResultOverlayContainer.setVisible(true);
+
+                String finalOutcomeText;
+                String finalOutcomeStyle = "";
+                if (yourScore > opponentScore) {
+                    finalOutcomeText = "YOU WIN THE GAME!";
+                    finalOutcomeStyle = "-fx-text-fill: #28a745;";
+                } else if (opponentScore > yourScore) {
+                    finalOutcomeText = "YOU LOSE THE GAME!";
+                    finalOutcomeStyle = "-fx-text-fill: #dc3545;";
+                } else {
+                    finalOutcomeText = "IT'S A TIE GAME!";
+                    finalOutcomeStyle = "-fx-text-fill: #ffc107;";
+                }
+                finalGameOutcomeLabel.setText(finalOutcomeText);
+                finalGameOutcomeLabel.setStyle(finalOutcomeStyle);
+                finalGameScoreLabel.setText(String.format("Final Score: You %d - Opponent %d", yourScore, opponentScore));
+            });
+            finalDelay.play();
+        }
     }
 
     /**
@@ -255,29 +424,25 @@ public class GameController implements Initializable {
             move = Move.SCISSORS;
         }
 
-        try {
-            GameMove gameMove = new GameMove(move);
-            client.sendToServer(gameMove);
-            statusMessageLabel.setText("You chose " + moveName + ".");
-            waitingForOpponentMoveLabel.setText("Waiting for opponent's move...");
-            setMoveButtonsEnabled(false);
-            roundResultLabel.setText("");
-
-            // změna UI
-            Platform.runLater(() -> {
-                gameContentContainer.setVisible(false);
-                waitingOverlayContainer.setVisible(true);
-                resultOverlayContainer.setVisible(false);
-                waitingForOpponentMoveLabel.setText("Waiting for opponent's move...");
-            });
-
-            setMoveButtonsEnabled(false);
-            roundResultLabel.setText("");
-        } catch (IOException e) {
-            logger.severe("Failed to send move: " + e.getMessage());
+        // Číslo kola, aby server v bleskovém zápase zahodil tah, který dorazí po konci kola
+        if (!client.send(new GameMove(0, clientCurrentRound + 1, move))) {
+            logger.severe("Failed to send move: not connected.");
             statusMessageLabel.setText("Error sending move. Connection lost?");
             setMoveButtonsEnabled(false);
+            return;
         }
+        statusMessageLabel.setText("You chose " + moveName + ".");
+        waitingForOpponentMoveLabel.setText("Waiting for opponent's move...");
+        setMoveButtonsEnabled(false);
+        roundResultLabel.setText("");
+
+        // změna UI
+        Platform.runLater(() -> {
+            gameContentContainer.setVisible(false);
+            waitingOverlayContainer.setVisible(true);
+            resultOverlayContainer.setVisible(false);
+            waitingForOpponentMoveLabel.setText("Waiting for opponent's move...");
+        });
     }
 
     /**
@@ -286,7 +451,8 @@ public class GameController implements Initializable {
      * **/
     @FXML
     private void handleDisconnect(ActionEvent event) {
-        client.closeConnection();
+        userDisconnected = true;
+        client.close();
         Platform.runLater(() -> {
             statusMessageLabel.setText("Disconnected from server.");
             setMoveButtonsEnabled(false);
@@ -307,7 +473,7 @@ public class GameController implements Initializable {
     /**
      * Použito při předávání instance klienta LoginControllerem
      * **/
-    public void setClient(karel.hudera.rps.client.Client client) {
+    public void setClient(GameClient client) {
         this.client = client;
         startMessageListener();
     }
@@ -318,6 +484,11 @@ public class GameController implements Initializable {
      * **/
     public void handlePlayAgain(ActionEvent actionEvent) {
         logger.info("Play again");
+        // Id 0 je hlavní hra spojení, server hráče zařadí zpět do fronty
+        if (!client.send(new QueueRequest(0))) {
+            logger.severe("Failed to join the queue: not connected.");
+            statusMessageLabel.setText("Error joining the queue. Connection lost?");
+        }
     }
 }
 
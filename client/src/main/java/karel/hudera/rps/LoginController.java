@@ -2,7 +2,7 @@ package karel.hudera.rps;
 
 import javafx.animation.FadeTransition;
 import javafx.animation.PauseTransition;
-import javafx.concurrent.Task;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -11,7 +11,7 @@ import javafx.scene.control.*;
 import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
 import javafx.util.Duration;
-import karel.hudera.rps.client.Client;
+import karel.hudera.rps.sdk.GameClient;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -20,7 +20,7 @@ public class LoginController {
 
     //logger a instance klienta
     private static final Logger logger = Logger.getLogger("ClientLogger");
-    private Client gameClient;
+    private GameClient gameClient;
 
     //UI prvky
     @FXML
@@ -41,7 +41,7 @@ public class LoginController {
         passwordField.textProperty().addListener((observable, oldValue, newValue) -> hideMessages());
 
         messageContainer.setVisible(false);
-        gameClient = new Client(logger);
+        gameClient = new GameClient(logger);
     }
 
     /**
@@ -65,40 +65,19 @@ public class LoginController {
         loginButton.setDisable(true);
         showMessage(successBox, successLabel, "Attempting to log in...");
 
-        // Asynchronní volání autentizace
-        Task<Boolean> loginTask = new Task<>() {
-            String loginMessage = "";
-
-            @Override
-            protected Boolean call() {
-                boolean success = gameClient.authenticate(username, password);
-                if (!success) {
-                    loginMessage = "Login failed. Invalid username or other error.";
-                }
-                return success;
-            }
-        };
-
-        // Callback pro úspěšný login
-        loginTask.setOnSucceeded(event -> {
+        // Asynchronní volání autentizace, odpověď se zpracuje v UI vlákně
+        gameClient.login(username, password).whenComplete((response, error) -> Platform.runLater(() -> {
             loginButton.setDisable(false);
-            if (loginTask.getValue()) {
+            if (error != null) {
+                logger.log(Level.SEVERE, "Login failed: " + error.getMessage(), error);
+                showMessage(errorBox, errorLabel, "An unexpected error occurred during login. See logs.");
+            } else if (response.isSuccess()) {
                 showMessage(successBox, successLabel, "Login successful!");
                 proceedToGameScreen();
             } else {
-                showMessage(errorBox, errorLabel, loginTask.getMessage());
-                gameClient.closeConnection();
+                showMessage(errorBox, errorLabel, "Login failed: " + response.getMessage());
             }
-        });
-
-        // Callback pro failed login
-        loginTask.setOnFailed(event -> {
-            loginButton.setDisable(false);
-            logger.log(Level.SEVERE, "Login task failed: " + loginTask.getException().getMessage(), loginTask.getException());
-            showMessage(errorBox, errorLabel, "An unexpected error occurred during login. See logs.");
-            gameClient.closeConnection();
-        });
-        new Thread(loginTask).start();
+        }));
     }
 
     /**
@@ -133,7 +112,7 @@ public class LoginController {
             logger.severe("Failed to load game-view.fxml: " + e.getMessage());
             e.printStackTrace();
             showMessage(errorBox, errorLabel, "Failed to load game. Please restart.");
-            gameClient.closeConnection();
+            gameClient.close();
         }
     }
 
@@ -4,7 +4,6 @@ import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
-import karel.hudera.rps.client.Client;
 import karel.hudera.rps.constants.Constants;
 import karel.hudera.rps.utils.Logging;
 
@@ -13,7 +12,7 @@ import java.util.logging.Logger;
 
 /**
  *      Toto je hlavní spouštěcí třída pro klientskou JavaFX aplikaci.
- *      Inicializuje logovací systém, tvoří instanci herního klienta
+ *      Inicializuje logovací systém
  *      a nastavuje a zobrazuje počáteční uživatelské rozhraní (přihlašovací obrazovku).
  */
 public class StartClient extends Application {
@@ -24,8 +23,6 @@ public class StartClient extends Application {
 
         Logging.configureLogger(logger, Constants.LOG_FILE_C);
 
-        Client client = new Client(logger);
-
         launch();
     }
 
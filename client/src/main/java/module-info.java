@@ -5,8 +5,9 @@ module karel.hudera.rps {
     requires org.controlsfx.controls;
     requires java.logging;
 
-    // shared module
+    // shared module a headless klient
     requires karel.hudera.rps.shared;
+    requires karel.hudera.rps.sdk;
 
     opens karel.hudera.rps to javafx.fxml;
     exports karel.hudera.rps;
@@ -0,0 +1,64 @@
+package karel.hudera.rps.router;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A game server behind the router.
+ *
+ * @author Karel Hudera
+ */
+final class Backend {
+
+    private final String name;
+    private final InetSocketAddress address;
+    private volatile boolean healthy = true;
+
+    /**
+     * @param name    host:port as configured, also used to place the backend on the hash ring
+     * @param address the address to connect to
+     */
+    Backend(String name, InetSocketAddress address) {
+        this.name = name;
+        this.address = address;
+    }
+
+    /**
+     * Parses a host:port backend address.
+     *
+     * @param hostAndPort the address
+     * @return the backend
+     * @throws IllegalArgumentException if the address has no port
+     */
+    static Backend parse(String hostAndPort) {
+        int separator = hostAndPort.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Backend address needs host:port: " + hostAndPort);
+        }
+        return new Backend(hostAndPort, InetSocketAddress.createUnresolved(hostAndPort.substring(0, separator),
+                Integer.parseInt(hostAndPort.substring(separator + 1))));
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the address, resolved on every call so a backend that moved is found again
+     */
+    InetSocketAddress getAddress() {
+        return new InetSocketAddress(address.getHostString(), address.getPort());
+    }
+
+    boolean isHealthy() {
+        return healthy;
+    }
+
+    void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,82 @@
+package karel.hudera.rps.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable consistent hash ring that maps usernames to backends.
+ * <p>
+ * Every backend is placed on the ring at a number of pseudo-random points, its virtual nodes; a username
+ * belongs to the backend of the first point at or after the username's hash. Many points per backend spread
+ * the players evenly, and when a backend goes down only its own players move, each to the backend that
+ * follows its point, while everyone else stays where they are. The router builds a new ring whenever the
+ * set of healthy backends changes.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class ConsistentHashRing {
+
+    // Sorted ring points and the backend owning each point
+    private final long[] points;
+    private final Backend[] owners;
+
+    private record Point(long hash, Backend owner) {
+    }
+
+    /**
+     * @param backends     the backends to place on the ring
+     * @param virtualNodes points per backend
+     */
+    ConsistentHashRing(List<Backend> backends, int virtualNodes) {
+        List<Point> ring = new ArrayList<>(backends.size() * virtualNodes);
+        for (Backend backend : backends) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.add(new Point(hash(backend.getName() + "#" + i), backend));
+            }
+        }
+        ring.sort(Comparator.comparingLong(Point::hash));
+
+        points = new long[ring.size()];
+        owners = new Backend[ring.size()];
+        for (int i = 0; i < ring.size(); i++) {
+            points[i] = ring.get(i).hash();
+            owners[i] = ring.get(i).owner();
+        }
+    }
+
+    /**
+     * @param username the player's username, case does not matter
+     * @return the backend responsible for the player, or null if the ring is empty
+     */
+    Backend backendFor(String username) {
+        if (points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(points, hash(username.toLowerCase(Locale.ROOT)));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, finished with the MurmurHash3 mix so that similar names land far apart.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
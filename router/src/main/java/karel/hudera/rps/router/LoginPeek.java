@@ -0,0 +1,49 @@
+package karel.hudera.rps.router;
+
+import karel.hudera.rps.game.LoginRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+
+/**
+ * Reads the username from the first bytes a client sends, without consuming them.
+ * <p>
+ * Clients start with an object stream whose first object is a {@link LoginRequest}. The router collects
+ * bytes until that object can be read from a copy of them, then forwards the original bytes unchanged.
+ * Only a {@link LoginRequest} may be deserialized here, so a client cannot make the router build
+ * arbitrary objects.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class LoginPeek {
+
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "karel.hudera.rps.game.LoginRequest;karel.hudera.rps.game.GameMessage;java.lang.String;maxdepth=3;!*");
+
+    private LoginPeek() {
+    }
+
+    /**
+     * @param bytes  the bytes received so far
+     * @param length how many of them are valid
+     * @return the username, or null if the LoginRequest is not complete yet
+     * @throws IOException if the bytes are not an object stream starting with a LoginRequest
+     */
+    static String username(byte[] bytes, int length) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes, 0, length))) {
+            in.setObjectInputFilter(FILTER);
+            if (in.readObject() instanceof LoginRequest request && request.getUsername() != null) {
+                return request.getUsername();
+            }
+            throw new IOException("First message is not a LoginRequest");
+        } catch (EOFException e) {
+            return null;
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
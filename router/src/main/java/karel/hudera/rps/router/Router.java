@@ -0,0 +1,326 @@
+package karel.hudera.rps.router;
+
+import karel.hudera.rps.constants.Constants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Front door that spreads clients over several game servers.
+ * <p>
+ * Clients wait for the server's object stream header before they log in, so the router answers with that
+ * header itself and later drops the one the server sends. It then reads the first bytes of the client
+ * until the {@code LoginRequest} is complete, picks the
+ * backend for the username on a {@link ConsistentHashRing} and connects to it. It sends a PROXY protocol
+ * header with the client's address, so the server's login limits apply per client and not to the router,
+ * then the bytes it already read, and from then on only copies bytes: each direction runs on its own
+ * virtual thread and moves data through a direct buffer, so the payload is never copied onto the heap.
+ * A player always lands on the same server, which is what lets an interrupted game be resumed.
+ * </p>
+ * <p>
+ * A backend that refuses a connection, or does not answer with its stream header within
+ * {@link Constants#ROUTER_BACKEND_HANDSHAKE_TIMEOUT_MS}, is taken off the ring and its players go to the
+ * next backend on the ring; it is probed every {@link Constants#ROUTER_PROBE_INTERVAL_MS} and put back once it accepts
+ * a connection and answers with its stream header again. Healthy backends are not probed, the connections of real clients show they are up.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class Router implements AutoCloseable {
+
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    // Every object stream starts with these four bytes, the server's as well as the client's
+    private static final byte[] STREAM_HEADER = ByteBuffer.allocate(4)
+            .putShort(ObjectStreamConstants.STREAM_MAGIC).putShort(ObjectStreamConstants.STREAM_VERSION).array();
+
+    private final Logger logger;
+    private final int port;
+    private final List<Backend> backends;
+    private final ThreadFactory threads = Thread.ofVirtual().name("RouterConnection-", 0).factory();
+    private volatile ConsistentHashRing ring;
+    private volatile ServerSocketChannel serverChannel;
+
+    /**
+     * @param logger   the logger
+     * @param port     the port clients connect to, 0 for any free port
+     * @param backends host:port of every game server
+     */
+    public Router(Logger logger, int port, List<String> backends) {
+        this.logger = logger;
+        this.port = port;
+        this.backends = backends.stream().map(Backend::parse).toList();
+        this.ring = new ConsistentHashRing(this.backends, Constants.ROUTER_VIRTUAL_NODES);
+    }
+
+    /**
+     * Binds the port and starts accepting clients and probing backends that are down.
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open().bind(new InetSocketAddress(port));
+        logger.info(String.format(Constants.LOG_ROUTER_LISTENING, getLocalPort(), backends.size()));
+
+        Thread acceptThread = new Thread(this::acceptClients, "RouterAcceptThread");
+        acceptThread.start();
+
+        Thread probeThread = new Thread(this::probePeriodically, "RouterProbeThread");
+        probeThread.setDaemon(true);
+        probeThread.start();
+    }
+
+    /**
+     * @return the port clients connect to, -1 if not started
+     */
+    public int getLocalPort() {
+        ServerSocketChannel channel = serverChannel;
+        return channel != null ? channel.socket().getLocalPort() : -1;
+    }
+
+    /**
+     * Stops accepting clients. Connections already routed stay open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+    }
+
+    private void acceptClients() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel client = serverChannel.accept();
+                threads.newThread(() -> route(client)).start();
+            } catch (IOException e) {
+                if (serverChannel.isOpen()) {
+                    logger.warning(String.format(Constants.ERROR_ROUTER_START, e.getMessage()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the login of a client, connects it to its backend and copies bytes until either side closes.
+     */
+    private void route(SocketChannel client) {
+        String clientName = String.valueOf(client.socket().getRemoteSocketAddress());
+        try (client) {
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            writeFully(client, ByteBuffer.wrap(STREAM_HEADER));
+            byte[] login = new byte[Constants.ROUTER_LOGIN_MAX_BYTES];
+            int length = 0;
+            String username;
+            try {
+                Socket socket = client.socket();
+                socket.setSoTimeout(Constants.ROUTER_LOGIN_TIMEOUT_MS);
+                InputStream in = socket.getInputStream();
+                while ((username = LoginPeek.username(login, length)) == null) {
+                    if (length == login.length) {
+                        throw new IOException("LoginRequest too long");
+                    }
+                    int read = in.read(login, length, login.length - length);
+                    if (read < 0) {
+                        throw new IOException("Connection closed");
+                    }
+                    length += read;
+                }
+            } catch (SocketTimeoutException e) {
+                logger.fine(String.format(Constants.ERROR_ROUTER_LOGIN, clientName, e.getMessage()));
+                return;
+            } catch (IOException e) {
+                logger.warning(String.format(Constants.ERROR_ROUTER_LOGIN, clientName, e.getMessage()));
+                return;
+            }
+
+            byte[] proxyHeader = proxyHeader((InetSocketAddress) client.getRemoteAddress(),
+                    (InetSocketAddress) client.getLocalAddress());
+            try (SocketChannel backend = connect(username, proxyHeader, login, length)) {
+                if (backend == null) {
+                    logger.warning(String.format(Constants.ERROR_ROUTER_NO_BACKEND, clientName));
+                    return;
+                }
+
+                Thread toClient = threads.newThread(() -> splice(backend, client));
+                toClient.start();
+                splice(client, backend);
+                toClient.join();
+            }
+        } catch (IOException e) {
+            logger.fine("Routed connection of " + clientName + " ended: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Connects to the backend of the player, sends it the PROXY header and the login and skips its stream
+     * header. Backends that refuse, fail or do not answer in time are taken off the ring and the next one is tried.
+     *
+     * @return the connected channel, or null if no backend is up
+     */
+    private SocketChannel connect(String username, byte[] proxyHeader, byte[] login, int length) {
+        while (true) {
+            Backend backend = ring.backendFor(username);
+            if (backend == null) {
+                return null;
+            }
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.socket().connect(backend.getAddress(), Constants.ROUTER_CONNECT_TIMEOUT_MS);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                // One write, so the header and the login leave in the same segment
+                ByteBuffer[] first = {ByteBuffer.wrap(proxyHeader), ByteBuffer.wrap(login, 0, length)};
+                while (first[1].hasRemaining()) {
+                    channel.write(first);
+                }
+                skipStreamHeader(channel);
+                return channel;
+            } catch (IOException e) {
+                closeQuietly(channel);
+                markDown(backend, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Copies bytes from one channel to the other until the source ends, then closes both,
+     * which also ends the copy in the other direction.
+     */
+    private void splice(SocketChannel from, SocketChannel to) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Constants.ROUTER_BUFFER_BYTES);
+        try {
+            while (from.read(buffer) >= 0) {
+                buffer.flip();
+                writeFully(to, buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // The other direction closed the channels, or the connection failed
+        } finally {
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    /**
+     * Reads the server's object stream header, which the client already got from the router. Reads through
+     * the socket's stream, because only that honours the read timeout; the channel stays blocking for the copy.
+     *
+     * @throws SocketTimeoutException if the header does not arrive within {@link Constants#ROUTER_BACKEND_HANDSHAKE_TIMEOUT_MS}
+     */
+    private static void skipStreamHeader(SocketChannel backend) throws IOException {
+        Socket socket = backend.socket();
+        socket.setSoTimeout(Constants.ROUTER_BACKEND_HANDSHAKE_TIMEOUT_MS);
+        byte[] header = socket.getInputStream().readNBytes(STREAM_HEADER.length);
+        if (header.length < STREAM_HEADER.length) {
+            throw new IOException("Backend closed the connection");
+        }
+        if (!Arrays.equals(header, STREAM_HEADER)) {
+            throw new IOException("Backend is not a game server");
+        }
+        socket.setSoTimeout(0);
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Builds a PROXY protocol v1 header with the client's address, for example
+     * {@code PROXY TCP4 203.0.113.7 10.0.0.1 51234 9090}.
+     */
+    private static byte[] proxyHeader(InetSocketAddress source, InetSocketAddress destination) {
+        String family = source.getAddress() instanceof Inet6Address ? "TCP6" : "TCP4";
+        byte[] line = String.format("PROXY %s %s %s %d %d", family,
+                source.getAddress().getHostAddress(), destination.getAddress().getHostAddress(),
+                source.getPort(), destination.getPort()).getBytes(StandardCharsets.US_ASCII);
+        byte[] header = Arrays.copyOf(line, line.length + CRLF.length);
+        System.arraycopy(CRLF, 0, header, line.length, CRLF.length);
+        return header;
+    }
+
+    private synchronized void markDown(Backend backend, String reason) {
+        if (backend.isHealthy()) {
+            backend.setHealthy(false);
+            rebuildRing();
+            logger.warning(String.format(Constants.LOG_ROUTER_BACKEND_DOWN, backend, reason));
+        }
+    }
+
+    private synchronized void markUp(Backend backend) {
+        if (!backend.isHealthy()) {
+            backend.setHealthy(true);
+            rebuildRing();
+            logger.info(String.format(Constants.LOG_ROUTER_BACKEND_UP, backend));
+        }
+    }
+
+    private void rebuildRing() {
+        List<Backend> healthy = new ArrayList<>();
+        for (Backend backend : backends) {
+            if (backend.isHealthy()) {
+                healthy.add(backend);
+            }
+        }
+        ring = new ConsistentHashRing(healthy, Constants.ROUTER_VIRTUAL_NODES);
+    }
+
+    /**
+     * Tries to connect to every backend that is down and puts the ones that answer with their stream header
+     * back on the ring. The probe introduces itself with a PROXY header, as a routed client would.
+     */
+    private void probePeriodically() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(Constants.ROUTER_PROBE_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (Backend backend : backends) {
+                if (backend.isHealthy()) {
+                    continue;
+                }
+                try (SocketChannel probe = SocketChannel.open()) {
+                    probe.socket().connect(backend.getAddress(), Constants.ROUTER_CONNECT_TIMEOUT_MS);
+                    writeFully(probe, ByteBuffer.wrap(proxyHeader((InetSocketAddress) probe.getLocalAddress(),
+                            (InetSocketAddress) probe.getRemoteAddress())));
+                    skipStreamHeader(probe);
+                    markUp(backend);
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Backend " + backend + " still down: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package karel.hudera.rps.router;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.utils.Logging;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Entry point for starting the router in front of several Rock-Paper-Scissors servers.
+ * <p>
+ * The router listens on <b>port 9090</b>, or the port given by the {@code rps.port} system property,
+ * and routes to the servers listed in {@code rps.router.backends}, e.g.
+ * {@code -Drps.router.backends=localhost:9091,localhost:9092}.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public class StartRouter {
+
+    static final Logger logger = Logger.getLogger("RouterLogger");
+
+    /**
+     * The main method that starts the router.
+     *
+     * @param args Command line arguments (not used)
+     */
+    public static void main(String[] args) {
+        Logging.configureLogger(logger, Constants.LOG_FILE_R);
+
+        List<String> backends = Arrays.stream(System.getProperty(Constants.ROUTER_BACKENDS_PROPERTY, "").split(","))
+                .map(String::strip)
+                .filter(backend -> !backend.isEmpty())
+                .toList();
+        if (backends.isEmpty()) {
+            logger.severe(String.format(Constants.ERROR_ROUTER_START, "no backends in " + Constants.ROUTER_BACKENDS_PROPERTY));
+            return;
+        }
+
+        try {
+            new Router(logger, Integer.getInteger(Constants.PORT_PROPERTY, Constants.PORT), backends).start();
+        } catch (IOException | IllegalArgumentException e) {
+            logger.severe(String.format(Constants.ERROR_ROUTER_START, e.getMessage()));
+        }
+    }
+}
@@ -6,7 +6,8 @@ import karel.hudera.rps.server.Server;
 /**
  * Entry point for starting the Rock-Paper-Scissors server.
  * <p>
- * This class initializes and starts the server on <b>port 9090</b>.
+ * This class initializes and starts the server on <b>port 9090</b>, or the port given by the
+ * {@code rps.port} system property.
  * </p>
  *
  * @author Karel Hudera
@@ -15,12 +16,14 @@ public class StartServer {
 
     /**
      * The main method that starts the Rock-Paper-Scissors server.
-     * Creates a new server instance and initializes it.
+     * Creates a new server instance and initializes it. Exits with status 1 if the server refuses to start.
      *
      * @param args Command line arguments (not used)
      */
     public static void main(String[] args) {
-        Server server = new Server(Constants.PORT);
-        server.initialize();
+        Server server = new Server(Integer.getInteger(Constants.PORT_PROPERTY, Constants.PORT));
+        if (!server.initialize()) {
+            System.exit(1);
+        }
     }
 }
\ No newline at end of file
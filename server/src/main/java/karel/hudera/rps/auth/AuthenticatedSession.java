@@ -0,0 +1,11 @@
+package karel.hudera.rps.auth;
+
+/**
+ * Outcome of a successful login.
+ *
+ * @param username    the authenticated username as sent by the client
+ * @param resumeToken the token the client can use to resume the session after a disconnect
+ * @param resumed     whether the login resumed an earlier session with a token
+ */
+public record AuthenticatedSession(String username, String resumeToken, boolean resumed) {
+}
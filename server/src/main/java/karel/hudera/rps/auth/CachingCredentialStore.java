@@ -0,0 +1,80 @@
+package karel.hudera.rps.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers recently verified logins so that a reconnecting player does not pay for
+ * a full password hash again.
+ * <p>
+ * The cache is a fixed-size, direct-mapped table: each username has exactly one slot and a newer
+ * login simply overwrites it. Slots hold a SHA-256 digest of the password keyed with a random
+ * per-process secret, never the password itself. Only successful checks are cached, and a reloaded
+ * store gets a fresh cache, so a changed password takes effect immediately.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class CachingCredentialStore implements CredentialStore {
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required of every Java platform
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private record Entry(String username, byte[] digest) {
+    }
+
+    private final CredentialStore delegate;
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+    private final byte[] secret = new byte[32];
+
+    /**
+     * @param delegate the store that checks the passwords
+     * @param size     number of slots, rounded up to a power of two
+     */
+    CachingCredentialStore(CredentialStore delegate, int size) {
+        this.delegate = delegate;
+        int slots = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.entries = new AtomicReferenceArray<>(slots);
+        this.mask = slots - 1;
+        new SecureRandom().nextBytes(secret);
+    }
+
+    @Override
+    public boolean verify(String username, String password) {
+        byte[] digest = digest(username, password);
+        int slot = username.hashCode() & mask;
+        Entry entry = entries.get(slot);
+        if (entry != null && entry.username().equals(username) && MessageDigest.isEqual(entry.digest(), digest)) {
+            return true;
+        }
+
+        if (!delegate.verify(username, password)) {
+            return false;
+        }
+        entries.set(slot, new Entry(username, digest));
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    private byte[] digest(String username, String password) {
+        MessageDigest sha = SHA_256.get();
+        sha.update(secret);
+        sha.update(username.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        return sha.digest(password.getBytes(StandardCharsets.UTF_8));
+    }
+}
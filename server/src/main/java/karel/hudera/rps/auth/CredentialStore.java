@@ -0,0 +1,60 @@
+package karel.hudera.rps.auth;
+
+import karel.hudera.rps.constants.Constants;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Source of the accounts that {@link LoginService} checks passwords against.
+ * <p>
+ * Two formats are supported: the plain {@code users.properties} file with the demo accounts,
+ * read by {@link PropertiesCredentialStore}, and the indexed file with salted password hashes
+ * written by {@link CredentialStoreWriter} and read by {@link IndexedCredentialStore}.
+ * Implementations must be safe to use from many handler threads at once.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public interface CredentialStore {
+
+    /**
+     * Checks a password.
+     *
+     * @param username the lower-case username
+     * @param password the password sent by the client
+     * @return true if the account exists and the password matches
+     */
+    boolean verify(String username, String password);
+
+    /**
+     * @return the number of accounts in the store
+     */
+    int size();
+
+    /**
+     * Checks that a username fits the history records, see {@link Constants#USERNAME_MAX_BYTES}.
+     * Stores refuse files with longer names and logins with them are rejected.
+     *
+     * @param username the username
+     * @return true if the username is not longer than the limit
+     */
+    static boolean isValidUsername(String username) {
+        return username.getBytes(StandardCharsets.UTF_8).length <= Constants.USERNAME_MAX_BYTES;
+    }
+
+    /**
+     * Opens a credential file, choosing the format by its extension.
+     *
+     * @param file a {@value IndexedCredentialStore#FILE_EXTENSION} file or a properties file
+     * @return the opened store
+     * @throws IOException if the file cannot be read or is not a valid store
+     */
+    static CredentialStore open(Path file) throws IOException {
+        if (file.getFileName().toString().endsWith(IndexedCredentialStore.FILE_EXTENSION)) {
+            return IndexedCredentialStore.open(file);
+        }
+        return PropertiesCredentialStore.load(file);
+    }
+}
@@ -0,0 +1,126 @@
+package karel.hudera.rps.auth;
+
+import karel.hudera.rps.constants.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes {@link IndexedCredentialStore} files.
+ * <p>
+ * Converts a {@code users.properties} file into an indexed store with salted password hashes:
+ * </p>
+ * <pre>
+ * java -cp server.jar karel.hudera.rps.auth.CredentialStoreWriter users.properties users.idx [iterations]
+ * </pre>
+ * The file is written next to the target and moved over it in one step, so a running server
+ * that watches the target never sees a half-written store.
+ *
+ * @author Karel Hudera
+ */
+public final class CredentialStoreWriter {
+
+    private CredentialStoreWriter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CredentialStoreWriter <users.properties> <target" + IndexedCredentialStore.FILE_EXTENSION
+                    + "> [iterations]");
+            System.exit(2);
+        }
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : Constants.CREDENTIAL_HASH_ITERATIONS;
+        Map<String, String> accounts = PropertiesCredentialStore.load(Path.of(args[0])).accounts();
+        write(accounts, Path.of(args[1]), iterations);
+        System.out.println("Wrote " + accounts.size() + " accounts to " + args[1]);
+    }
+
+    /**
+     * Writes a store.
+     *
+     * @param accounts   plain-text passwords by username
+     * @param target     the store file to create or replace
+     * @param iterations PBKDF2 iteration count
+     * @throws IOException if the file cannot be written or a username is longer than the limit
+     * @throws IllegalArgumentException if the iteration count is outside the range the store accepts
+     */
+    public static void write(Map<String, String> accounts, Path target, int iterations) throws IOException {
+        // Checked here as well as when the file is opened, so a store that could never be loaded is not written
+        if (iterations < IndexedCredentialStore.MIN_ITERATIONS || iterations > IndexedCredentialStore.MAX_ITERATIONS) {
+            throw new IllegalArgumentException("Iterations must be between " + IndexedCredentialStore.MIN_ITERATIONS
+                    + " and " + IndexedCredentialStore.MAX_ITERATIONS + ": " + iterations);
+        }
+        for (String username : accounts.keySet()) {
+            if (!CredentialStore.isValidUsername(username.toLowerCase())) {
+                throw new IOException("Invalid username, at most " + Constants.USERNAME_MAX_BYTES + " bytes: " + username);
+            }
+        }
+        // Hashing dominates the run time, so it runs in parallel before anything is written
+        List<Map.Entry<String, String>> entries = new ArrayList<>(accounts.entrySet());
+        byte[][] records = entries.parallelStream()
+                .map(entry -> record(entry.getKey().toLowerCase(), entry.getValue(), iterations))
+                .toArray(byte[][]::new);
+
+        int slotCount = Integer.highestOneBit(Math.max(1, records.length * 2 - 1)) << 1;
+        long size = IndexedCredentialStore.HEADER_SIZE + (long) slotCount * IndexedCredentialStore.SLOT_SIZE;
+        for (byte[] record : records) {
+            size += record.length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Too many accounts for one credential store");
+        }
+
+        ByteBuffer file = ByteBuffer.allocate((int) size);
+        file.putInt(IndexedCredentialStore.MAGIC)
+                .putInt(IndexedCredentialStore.VERSION)
+                .putInt(slotCount)
+                .putInt(records.length)
+                .putInt(iterations);
+
+        int mask = slotCount - 1;
+        int recordOffset = IndexedCredentialStore.HEADER_SIZE + slotCount * IndexedCredentialStore.SLOT_SIZE;
+        for (int i = 0; i < records.length; i++) {
+            String username = entries.get(i).getKey().toLowerCase();
+            int hash = IndexedCredentialStore.keyHash(username);
+            int slot = hash & mask;
+            while (file.getInt(IndexedCredentialStore.HEADER_SIZE + slot * IndexedCredentialStore.SLOT_SIZE + 4) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            int position = IndexedCredentialStore.HEADER_SIZE + slot * IndexedCredentialStore.SLOT_SIZE;
+            file.putInt(position, hash).putInt(position + 4, recordOffset);
+            file.put(recordOffset, records[i]);
+            recordOffset += records[i].length;
+        }
+
+        Path directory = target.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            file.rewind();
+            while (file.hasRemaining()) {
+                channel.write(file);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] record(String username, String password, int iterations) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        byte[] salt = PasswordHasher.newSalt();
+        return ByteBuffer.allocate(2 + name.length + PasswordHasher.SALT_LENGTH + PasswordHasher.HASH_LENGTH)
+                .putShort((short) name.length)
+                .put(name)
+                .put(salt)
+                .put(PasswordHasher.hash(password, salt, iterations))
+                .array();
+    }
+}
@@ -0,0 +1,192 @@
+package karel.hudera.rps.auth;
+
+import karel.hudera.rps.constants.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Read-only credential store in a memory-mapped file with a hash index.
+ * <p>
+ * The file is mapped, so hundreds of thousands of accounts cost almost no heap. Opening it reads the
+ * slot table and the record headers once to check every offset and length, so lookups never leave the
+ * file whatever it contains. A lookup hashes the username, probes the
+ * slot table and compares the name of at most a few records. Passwords are stored as
+ * salted PBKDF2 hashes, see {@link PasswordHasher}.
+ * </p>
+ * <pre>
+ * header   int magic, int version, int slotCount, int recordCount, int iterations, 12 bytes reserved
+ * slots    slotCount x (int keyHash, int recordOffset), recordOffset 0 marks an empty slot
+ * records  short nameLength, UTF-8 lower-case name, 16 bytes salt, 32 bytes hash
+ * </pre>
+ * The slot count is a power of two at least twice the record count, collisions are resolved
+ * by linear probing. Files are written by {@link CredentialStoreWriter}.
+ *
+ * @author Karel Hudera
+ */
+public final class IndexedCredentialStore implements CredentialStore {
+
+    public static final String FILE_EXTENSION = ".idx";
+
+    static final int MAGIC = 0x52505343; // "RPSC"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int SLOT_SIZE = 8;
+    // PBKDF2 iteration counts accepted from a file, more would let one login occupy a handler for minutes
+    static final int MIN_ITERATIONS = 1;
+    static final int MAX_ITERATIONS = 10_000_000;
+    private static final int SECRET_SIZE = PasswordHasher.SALT_LENGTH + PasswordHasher.HASH_LENGTH;
+
+    private final ByteBuffer buffer;
+    private final int slotMask;
+    private final int recordCount;
+    private final int iterations;
+
+    private IndexedCredentialStore(ByteBuffer buffer, int slotCount, int recordCount, int iterations) {
+        this.buffer = buffer;
+        this.slotMask = slotCount - 1;
+        this.recordCount = recordCount;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Maps a store file.
+     *
+     * @param file the file written by {@link CredentialStoreWriter}
+     * @return the store
+     * @throws IOException if the file cannot be mapped, is not a credential store or is corrupt
+     */
+    public static IndexedCredentialStore open(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a credential store: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a credential store: " + file);
+        }
+        int slotCount = buffer.getInt(8);
+        int recordCount = buffer.getInt(12);
+        int iterations = buffer.getInt(16);
+        if (slotCount <= 0 || Integer.bitCount(slotCount) != 1
+                || (long) HEADER_SIZE + (long) slotCount * SLOT_SIZE > buffer.capacity()) {
+            throw corrupt(file, "slot count " + slotCount);
+        }
+        // At least half of the slots are empty, so every probe sequence ends at an empty slot
+        if (recordCount < 0 || recordCount > slotCount / 2) {
+            throw corrupt(file, "record count " + recordCount);
+        }
+        if (iterations < MIN_ITERATIONS || iterations > MAX_ITERATIONS) {
+            throw corrupt(file, "iteration count " + iterations);
+        }
+        validateRecords(file, buffer, slotCount, recordCount);
+        return new IndexedCredentialStore(buffer, slotCount, recordCount, iterations);
+    }
+
+    /**
+     * Checks that every slot points to a whole record after the slot table, with a name that fits the
+     * username limit, and that the slots hold as many records as the header says.
+     */
+    private static void validateRecords(Path file, ByteBuffer buffer, int slotCount, int recordCount) throws IOException {
+        int recordsStart = HEADER_SIZE + slotCount * SLOT_SIZE;
+        int used = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            int record = buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4);
+            if (record == 0) {
+                continue;
+            }
+            used++;
+            if (record < recordsStart || record > buffer.capacity() - 2) {
+                throw corrupt(file, "record offset " + record + " in slot " + slot);
+            }
+            int nameLength = buffer.getShort(record);
+            if (nameLength < 0 || nameLength > Constants.USERNAME_MAX_BYTES
+                    || (long) record + 2 + nameLength + SECRET_SIZE > buffer.capacity()) {
+                throw corrupt(file, "name length " + nameLength + " at offset " + record);
+            }
+        }
+        if (used != recordCount) {
+            throw corrupt(file, used + " records in the slots, " + recordCount + " in the header");
+        }
+    }
+
+    private static IOException corrupt(Path file, String reason) {
+        return new IOException("Corrupt credential store " + file + ": " + reason);
+    }
+
+    @Override
+    public boolean verify(String username, String password) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        int record = find(name, keyHash(username));
+        if (record < 0) {
+            return false;
+        }
+
+        int saltOffset = record + 2 + name.length;
+        byte[] salt = new byte[PasswordHasher.SALT_LENGTH];
+        byte[] expected = new byte[PasswordHasher.HASH_LENGTH];
+        buffer.get(saltOffset, salt);
+        buffer.get(saltOffset + PasswordHasher.SALT_LENGTH, expected);
+        return MessageDigest.isEqual(expected, PasswordHasher.hash(password, salt, iterations));
+    }
+
+    @Override
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * Finds the record of a user.
+     *
+     * @return the offset of the record, or -1 if the user is not in the store
+     */
+    private int find(byte[] name, int hash) {
+        for (int probe = 0, slot = hash & slotMask; probe <= slotMask; probe++, slot = (slot + 1) & slotMask) {
+            int position = HEADER_SIZE + slot * SLOT_SIZE;
+            int record = buffer.getInt(position + 4);
+            if (record == 0) {
+                return -1;
+            }
+            if (buffer.getInt(position) == hash && nameEquals(record, name)) {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(int record, byte[] name) {
+        if (buffer.getShort(record) != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(record + 2 + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash of a lower-case username used to place it in the slot table.
+     * Derived from {@link String#hashCode()}, which is specified and therefore stable between runs.
+     */
+    static int keyHash(String username) {
+        int h = username.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,71 @@
+package karel.hudera.rps.auth;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token-bucket rate limiter for login attempts, keyed by a hash of the client address or username.
+ * <p>
+ * Buckets are striped: a key is hashed onto one of a fixed number of buckets, so memory stays constant
+ * no matter how many addresses or usernames show up, at the price of two rare keys occasionally
+ * sharing a bucket. Each bucket is a single {@code long} holding the time at which it will be full again
+ * (the "theoretical arrival time" of the generic cell rate algorithm, which behaves exactly like a token
+ * bucket). Refill is therefore lazy, a check is one read and at most one compare-and-set, and no thread
+ * ever blocks. Buckets sit on separate cache lines so that attempts on different stripes do not contend.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class LoginRateLimiter {
+
+    // 8 longs = 64 bytes between two buckets, one cache line
+    private static final int PADDING_SHIFT = 3;
+
+    private final AtomicLongArray buckets;
+    private final int stripeMask;
+    // Time one attempt adds to a bucket
+    private final long intervalNanos;
+    // How far ahead of now a bucket may be, burst attempts allowed back to back
+    private final long burstNanos;
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param stripes           number of buckets, rounded up to a power of two
+     * @param burst             attempts allowed at once from a full bucket
+     * @param attemptsPerMinute sustained rate at which the bucket refills
+     */
+    LoginRateLimiter(int stripes, int burst, int attemptsPerMinute) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.buckets = new AtomicLongArray(size << PADDING_SHIFT);
+        this.stripeMask = size - 1;
+        this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / Math.max(1, attemptsPerMinute);
+        this.burstNanos = intervalNanos * Math.max(1, burst);
+    }
+
+    /**
+     * Takes one token from the bucket of a key.
+     *
+     * @param keyHash hash of the address or username
+     * @return true if the attempt may proceed, false if the bucket is empty
+     */
+    boolean tryAcquire(int keyHash) {
+        int index = stripe(keyHash) << PADDING_SHIFT;
+        // Relative to origin, so that an untouched bucket (0) counts as full
+        long now = System.nanoTime() - origin;
+        while (true) {
+            long fullAt = buckets.get(index);
+            long next = Math.max(fullAt, now) + intervalNanos;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (buckets.compareAndSet(index, fullAt, next)) {
+                return true;
+            }
+        }
+    }
+
+    private int stripe(int keyHash) {
+        int h = keyHash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & stripeMask;
+    }
+}
@@ -1,41 +1,95 @@
 package karel.hudera.rps.auth;
 
+import karel.hudera.rps.constants.Constants;
 import karel.hudera.rps.game.LoginRequest;
 import karel.hudera.rps.game.LoginResponse;
+import karel.hudera.rps.server.ClientHandler;
 import karel.hudera.rps.utils.ServerLogger;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.*;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.logging.Logger;
 
+/**
+ * Checks the login of every new connection against the configured {@link CredentialStore}.
+ * <p>
+ * The store is read from the file named by the {@value Constants#USERS_FILE_PROPERTY} system property,
+ * or from the bundled {@code users.properties}. A file given by the property is watched and reloaded
+ * when it changes, without restarting the server; connections that are already logged in are not affected.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
 public class LoginService {
 
     private static final Logger logger = ServerLogger.INSTANCE;
 
-    private static final Map<String, String> DEMO_USERS = new HashMap<>();
-    private static final Set<String> loggedInUsers = Collections.synchronizedSet(new HashSet<>());
+    // Singleton instance
+    private static LoginService instance;
 
-    static {
-        try (InputStream input = LoginService.class.getClassLoader().getResourceAsStream("users.properties")) {
-            if (input == null) {
-                logger.warning("Unable to find users.properties");
-            } else {
-                Properties props = new Properties();
-                props.load(input);
-                for (String key : props.stringPropertyNames()) {
-                    DEMO_USERS.put(key.toLowerCase(), props.getProperty(key));
-                }
-                logger.info("Loaded users from users.properties");
-            }
-        } catch (IOException e) {
-            logger.warning("Error loading users.properties: " + e.getMessage());
+    // Sent to every rejected attempt, built once so that a flood of attempts costs no allocations
+    private static final LoginResponse RATE_LIMITED = new LoginResponse(false, Constants.MSG_LOGIN_RATE_LIMITED);
+
+    private final PresenceRegistry presence = PresenceRegistry.getInstance();
+    private final LoginRateLimiter addressLimiter = new LoginRateLimiter(Constants.LOGIN_RATE_LIMIT_STRIPES,
+            Integer.getInteger(Constants.LOGIN_ADDRESS_BURST_PROPERTY, Constants.LOGIN_ADDRESS_BURST),
+            Integer.getInteger(Constants.LOGIN_ADDRESS_RATE_PROPERTY, Constants.LOGIN_ADDRESS_ATTEMPTS_PER_MINUTE));
+    private final LoginRateLimiter usernameLimiter = new LoginRateLimiter(Constants.LOGIN_RATE_LIMIT_STRIPES,
+            Integer.getInteger(Constants.LOGIN_USERNAME_BURST_PROPERTY, Constants.LOGIN_USERNAME_BURST),
+            Integer.getInteger(Constants.LOGIN_USERNAME_RATE_PROPERTY, Constants.LOGIN_USERNAME_ATTEMPTS_PER_MINUTE));
+    private volatile CredentialStore credentials;
+
+    /**
+     * Private constructor for a singleton pattern.
+     */
+    private LoginService() {
+        String usersFile = System.getProperty(Constants.USERS_FILE_PROPERTY);
+        if (usersFile == null) {
+            this.credentials = loadBundledUsers();
+            return;
+        }
+
+        Path file = Path.of(usersFile).toAbsolutePath();
+        // No accounts until the file can be read, it is picked up by the watcher once it appears
+        this.credentials = PropertiesCredentialStore.empty();
+        reload(file);
+
+        Thread watcherThread = new Thread(() -> watchUsersFile(file), "UsersFileWatcherThread");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    /**
+     * Creates a login service for the given store, without watching any file.
+     * Only the benchmarks create instances this way.
+     *
+     * @param credentials the accounts to check logins against
+     */
+    LoginService(CredentialStore credentials) {
+        this.credentials = credentials;
+    }
+
+    /**
+     * Gets the singleton instance of the LoginService.
+     *
+     * @return The LoginService instance
+     */
+    public static synchronized LoginService getInstance() {
+        if (instance == null) {
+            instance = new LoginService();
         }
+        return instance;
     }
 
-    public String authenticate(ObjectInputStream in, ObjectOutputStream out, String clientInfo) {
+    public AuthenticatedSession authenticate(ClientHandler connection, ObjectInputStream in, ObjectOutputStream out) {
+        String clientInfo = connection.getClientInfo();
         try {
             Object obj = in.readObject();
             if (!(obj instanceof LoginRequest loginRequest)) {
@@ -44,22 +98,49 @@ public class LoginService {
                 return null;
             }
 
+            // Throttle before any lookup, a flood of attempts must not reach the credential store or the log
+            if (!addressLimiter.tryAcquire(connection.getRemoteAddress().hashCode())) {
+                return rejectRateLimited(out, clientInfo);
+            }
+
+            if (loginRequest.getResumeToken() != null) {
+                return resume(loginRequest.getResumeToken(), connection, out, clientInfo);
+            }
+
             String username = loginRequest.getUsername();
             String password = loginRequest.getPassword();
+            if (username == null || password == null) {
+                out.writeObject(new LoginResponse(false, "Wrong username or password"));
+                return null;
+            }
+            // No account has a longer name, and the name must not reach the rate limiter or the log
+            if (!CredentialStore.isValidUsername(username)) {
+                out.writeObject(new LoginResponse(false, Constants.MSG_USERNAME_TOO_LONG));
+                return null;
+            }
+            if (!usernameLimiter.tryAcquire(username.toLowerCase().hashCode())) {
+                return rejectRateLimited(out, clientInfo);
+            }
 
             logger.info("Received LOGIN request from " + username + " at " + clientInfo);
 
-            if (isUserAlreadyLoggedIn(username)) {
+            if (presence.isOnline(username)) {
                 out.writeObject(new LoginResponse(false, "User is already logged in elsewhere"));
                 logger.warning("Duplicate login attempt for user: " + username + " from " + clientInfo);
                 return null;
             }
 
             if (isValidUser(username, password)) {
-                loggedInUsers.add(username.toLowerCase());
-                out.writeObject(new LoginResponse(true, "Logged in successfully!"));
+                String token = presence.claim(username.toLowerCase(), connection);
+                if (token == null) {
+                    // Lost the race against a concurrent login of the same user
+                    out.writeObject(new LoginResponse(false, "User is already logged in elsewhere"));
+                    logger.warning("Duplicate login attempt for user: " + username + " from " + clientInfo);
+                    return null;
+                }
+                out.writeObject(new LoginResponse(true, "Logged in successfully!", token));
                 logger.info("Authentication successful for user: " + username + " from " + clientInfo);
-                return username;
+                return new AuthenticatedSession(username, token, false);
             } else {
                 out.writeObject(new LoginResponse(false, "Wrong username or password"));
                 logger.warning("Authentication failed for user: " + username + " from " + clientInfo);
@@ -72,13 +153,104 @@ public class LoginService {
         }
     }
 
-    private boolean isValidUser(String username, String password) {
+    private AuthenticatedSession rejectRateLimited(ObjectOutputStream out, String clientInfo) throws IOException {
+        out.writeObject(RATE_LIMITED);
+        logger.fine("Rate limited login attempt from " + clientInfo);
+        return null;
+    }
+
+    /**
+     * Logs a client back in with the resume token it received at its previous login.
+     * The token replaces the password, so a reconnecting client does not have to ask the user again.
+     * An old connection of the same user that the server still considers open is superseded.
+     */
+    private AuthenticatedSession resume(String resumeToken, ClientHandler connection,
+                                        ObjectOutputStream out, String clientInfo) throws IOException {
+        AuthenticatedSession session = presence.resume(resumeToken, connection);
+        if (session == null) {
+            out.writeObject(new LoginResponse(false, Constants.MSG_SESSION_EXPIRED));
+            logger.warning("Rejected expired resume token from " + clientInfo);
+            return null;
+        }
+
+        out.writeObject(new LoginResponse(true, Constants.MSG_SESSION_RESUMED, session.resumeToken()));
+        logger.info("Session resumed for user: " + session.username() + " from " + clientInfo);
+        return session;
+    }
+
+    /**
+     * Releases the login of a closed connection. Unless the client left voluntarily, the resume token
+     * stays valid for the grace period. Does nothing if the user has already logged in on another connection.
+     *
+     * @param session    the session returned by {@link #authenticate}
+     * @param connection the connection that closed
+     * @param terminated whether the client sent TerminateMessage before closing
+     */
+    public void logout(AuthenticatedSession session, ClientHandler connection, boolean terminated) {
+        presence.release(session.username().toLowerCase(), connection, !terminated);
+    }
+
+    boolean isValidUser(String username, String password) {
         if (username == null || password == null) return false;
-        String expectedPassword = DEMO_USERS.get(username.toLowerCase());
-        return expectedPassword != null && expectedPassword.equals(password);
+        return credentials.verify(username.toLowerCase(), password);
+    }
+
+    private static CredentialStore loadBundledUsers() {
+        try (InputStream input = LoginService.class.getClassLoader().getResourceAsStream("users.properties")) {
+            if (input == null) {
+                logger.warning("Unable to find users.properties");
+                return PropertiesCredentialStore.empty();
+            }
+            CredentialStore store = PropertiesCredentialStore.load(input);
+            logger.info(String.format(Constants.LOG_CREDENTIALS_LOADED, store.size(), "users.properties"));
+            return store;
+        } catch (IOException e) {
+            logger.warning(String.format(Constants.ERROR_CREDENTIALS_LOAD, "users.properties", e.getMessage()));
+            return PropertiesCredentialStore.empty();
+        }
+    }
+
+    /**
+     * Opens the users file and swaps it in. Logins keep using the previous store if the file cannot be read.
+     */
+    private void reload(Path file) {
+        try {
+            CredentialStore store = CredentialStore.open(file);
+            credentials = new CachingCredentialStore(store, Constants.CREDENTIAL_CACHE_SIZE);
+            logger.info(String.format(Constants.LOG_CREDENTIALS_LOADED, store.size(), file));
+        } catch (IOException e) {
+            logger.warning(String.format(Constants.ERROR_CREDENTIALS_LOAD, file, e.getMessage()));
+        }
     }
 
-    private boolean isUserAlreadyLoggedIn(String username) {
-        return loggedInUsers.contains(username.toLowerCase());
+    /**
+     * Reloads the users file whenever it is created, replaced or modified.
+     */
+    private void watchUsersFile(Path file) {
+        Path directory = file.getParent();
+        try (WatchService watcher = directory.getFileSystem().newWatchService()) {
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watcher.take();
+                // Let an editor finish writing before the file is read
+                Thread.sleep(Constants.USERS_FILE_RELOAD_DELAY_MS);
+
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= file.getFileName().equals(event.context());
+                }
+                if (changed) {
+                    reload(file);
+                }
+                if (!key.reset()) {
+                    logger.warning(String.format(Constants.ERROR_CREDENTIALS_WATCH, directory, "directory no longer accessible"));
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.warning(String.format(Constants.ERROR_CREDENTIALS_WATCH, directory, e.getMessage()));
+        }
     }
-}
\ No newline at end of file
+}
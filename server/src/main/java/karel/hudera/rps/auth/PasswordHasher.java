@@ -0,0 +1,49 @@
+package karel.hudera.rps.auth;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Salted PBKDF2 password hashes stored in {@link IndexedCredentialStore} files.
+ *
+ * @author Karel Hudera
+ */
+final class PasswordHasher {
+
+    static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    static final int SALT_LENGTH = 16;
+    static final int HASH_LENGTH = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PasswordHasher() {
+    }
+
+    static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Derives the hash stored for a password.
+     *
+     * @param password   the password
+     * @param salt       the per-account salt
+     * @param iterations the PBKDF2 iteration count of the store
+     * @return {@value #HASH_LENGTH} bytes of hash
+     */
+    static byte[] hash(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH * 8);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            // PBKDF2WithHmacSHA256 is required of every Java platform
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
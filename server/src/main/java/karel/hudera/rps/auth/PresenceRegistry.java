@@ -0,0 +1,342 @@
+package karel.hudera.rps.auth;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.server.ClientHandler;
+import karel.hudera.rps.utils.ServerLogger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of which users are logged in and on which connection.
+ * <p>
+ * Every logged-in user has one presence entry holding its connection and the resume token
+ * handed out in {@code LoginResponse}. Entries are claimed and released atomically per user,
+ * so logins of different users never wait for each other. When a connection closes, its entry
+ * is detached instead of removed: the resume token stays valid for
+ * {@link Constants#SESSION_RESUME_GRACE_MS} and the user may log in again with it or with a password.
+ * </p>
+ * <p>
+ * A background thread removes detached entries once their grace period is over and closes
+ * connections that sent nothing for {@link Constants#PRESENCE_IDLE_TIMEOUT_MS}.
+ * </p>
+ * <p>
+ * With {@link Constants#PRESENCE_TABLE_PROPERTY} set, the users online here are also entered into a
+ * {@link SharedPresenceTable}, so a user online at another server process on the same host cannot log in
+ * here. A user holds its shared entry only while attached; the entry is updated inside the same atomic
+ * per-user step that changes the local entry.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class PresenceRegistry {
+
+    private static final Logger logger = ServerLogger.INSTANCE;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Singleton instance
+    private static PresenceRegistry instance;
+
+    // Presence entries by lower-case username
+    private final Map<String, Presence> presenceByUser = new ConcurrentHashMap<>();
+
+    // Lower-case username by resume token
+    private final Map<String, String> usersByToken = new ConcurrentHashMap<>();
+
+    // Users online at the other server processes on this host, null if not shared
+    private final SharedPresenceTable shared;
+
+    /**
+     * One user's presence. Everything but {@link #lastSeen} is immutable, state changes replace the entry.
+     */
+    private static final class Presence {
+        // null while the user is detached
+        final ClientHandler connection;
+        final String token;
+        // Long.MAX_VALUE while attached
+        final long expiresAt;
+        volatile long lastSeen;
+
+        Presence(ClientHandler connection, String token, long expiresAt) {
+            this.connection = connection;
+            this.token = token;
+            this.expiresAt = expiresAt;
+            this.lastSeen = System.currentTimeMillis();
+        }
+
+        boolean isOnline() {
+            return connection != null && connection.isConnected();
+        }
+
+        boolean isExpired(long now) {
+            return connection == null && now > expiresAt;
+        }
+    }
+
+    /**
+     * Private constructor for a singleton pattern.
+     *
+     * @throws IOException if the shared presence table is configured but cannot be mapped
+     */
+    private PresenceRegistry() throws IOException {
+        this(true, openSharedTable());
+    }
+
+    /**
+     * Creates a registry, optionally without its sweeper thread.
+     * Only the benchmarks create instances with {@code startSweeper == false}.
+     *
+     * @param startSweeper whether to start the thread that expires detached and idle entries
+     */
+    PresenceRegistry(boolean startSweeper) {
+        this(startSweeper, null);
+    }
+
+    /**
+     * Creates a registry that also enters its users into a presence table shared with other processes.
+     *
+     * @param startSweeper whether to start the thread that expires detached and idle entries
+     * @param shared       the shared table, null to keep presence local to this process
+     */
+    PresenceRegistry(boolean startSweeper, SharedPresenceTable shared) {
+        this.shared = shared;
+        if (startSweeper) {
+            Thread sweeperThread = new Thread(this::sweepExpiredEntries, "PresenceSweeperThread");
+            sweeperThread.setDaemon(true);
+            sweeperThread.start();
+        }
+    }
+
+    /**
+     * Creates the singleton instance of the PresenceRegistry if it does not exist yet.
+     * The server calls this before it accepts connections, so that it does not start
+     * with presence silently local to the process when a shared table was asked for.
+     *
+     * @return The PresenceRegistry instance
+     * @throws IOException if the shared presence table is configured but cannot be mapped
+     */
+    public static synchronized PresenceRegistry open() throws IOException {
+        if (instance == null) {
+            instance = new PresenceRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the singleton instance of the PresenceRegistry.
+     *
+     * @return The PresenceRegistry instance
+     * @throws IllegalStateException if it was not opened yet and the shared presence table cannot be mapped
+     */
+    public static synchronized PresenceRegistry getInstance() {
+        try {
+            return open();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Maps the table named by {@link Constants#PRESENCE_TABLE_PROPERTY}.
+     *
+     * @return the table, or null if the property is not set
+     * @throws IOException if the property is set but the table cannot be mapped
+     */
+    private static SharedPresenceTable openSharedTable() throws IOException {
+        String file = System.getProperty(Constants.PRESENCE_TABLE_PROPERTY);
+        if (file == null || file.isBlank()) {
+            return null;
+        }
+        SharedPresenceTable table;
+        try {
+            table = SharedPresenceTable.open(Path.of(file), Constants.PRESENCE_TABLE_SLOTS);
+        } catch (IOException | RuntimeException e) {
+            throw new IOException(String.format(Constants.ERROR_PRESENCE_TABLE, file, e.getMessage()), e);
+        }
+        logger.info(String.format(Constants.LOG_PRESENCE_TABLE, file));
+        return table;
+    }
+
+    /**
+     * Claims the user for a connection that logged in with a password.
+     * Fails if the user is online on another connection, here or at another process sharing the presence table;
+     * a detached session of the user is replaced.
+     *
+     * @param username   the lower-case username
+     * @param connection the connection that logged in
+     * @return the new resume token, or null if the user is already logged in elsewhere
+     */
+    String claim(String username, ClientHandler connection) {
+        String token = newToken();
+        Presence[] replaced = new Presence[1];
+        Presence claimed = presenceByUser.compute(username, (key, current) -> {
+            if (current != null && current.isOnline() && current.connection != connection) {
+                return current;
+            }
+            if (shared != null && !shared.acquire(key)) {
+                return current;
+            }
+            replaced[0] = current;
+            return new Presence(connection, token, Long.MAX_VALUE);
+        });
+        if (claimed == null || claimed.token != token) {
+            return null;
+        }
+
+        usersByToken.put(token, username);
+        if (replaced[0] != null) {
+            usersByToken.remove(replaced[0].token, username);
+        }
+        return token;
+    }
+
+    /**
+     * Claims the user for a connection that logged in with a resume token. The token is consumed
+     * and a connection of the same user that the server still considers open is closed.
+     *
+     * @param token      the resume token sent by the client
+     * @param connection the connection that logged in
+     * @return the resumed session, or null if the token is unknown or expired
+     */
+    AuthenticatedSession resume(String token, ClientHandler connection) {
+        String username = usersByToken.remove(token);
+        if (username == null) {
+            return null;
+        }
+
+        String newToken = newToken();
+        long now = System.currentTimeMillis();
+        Presence[] superseded = new Presence[1];
+        Presence resumed = presenceByUser.compute(username, (key, current) -> {
+            if (current == null || !current.token.equals(token) || current.isExpired(now)) {
+                return current;
+            }
+            if (current.connection == null && shared != null && !shared.acquire(key)) {
+                // Logged in at another process meanwhile
+                return current;
+            }
+            superseded[0] = current;
+            return new Presence(connection, newToken, Long.MAX_VALUE);
+        });
+        if (resumed == null || resumed.token != newToken) {
+            return null;
+        }
+
+        usersByToken.put(newToken, username);
+        ClientHandler previous = superseded[0].connection;
+        if (previous != null && previous != connection) {
+            previous.disconnect();
+        }
+        return new AuthenticatedSession(username, newToken, true);
+    }
+
+    /**
+     * Releases the user when its connection closes. Does nothing if the user has meanwhile
+     * logged in on another connection.
+     *
+     * @param username   the lower-case username
+     * @param connection the connection that closed
+     * @param resumable  whether the resume token should stay valid for the grace period;
+     *                   false when the client left voluntarily
+     */
+    void release(String username, ClientHandler connection, boolean resumable) {
+        long expiresAt = System.currentTimeMillis() + Constants.SESSION_RESUME_GRACE_MS;
+        Presence[] removed = new Presence[1];
+        presenceByUser.computeIfPresent(username, (key, current) -> {
+            if (current.connection != connection) {
+                return current;
+            }
+            if (shared != null) {
+                shared.release(key);
+            }
+            if (!resumable) {
+                removed[0] = current;
+                return null;
+            }
+            return new Presence(null, current.token, expiresAt);
+        });
+        if (removed[0] != null) {
+            usersByToken.remove(removed[0].token, username);
+        }
+    }
+
+    /**
+     * Records activity of the user, postponing its idle timeout.
+     *
+     * @param username the username, in any case
+     */
+    public void touch(String username) {
+        if (username == null) {
+            return;
+        }
+        Presence presence = presenceByUser.get(username.toLowerCase());
+        if (presence != null) {
+            presence.lastSeen = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Checks whether the user is logged in on an open connection, here or at another process sharing the presence table.
+     *
+     * @param username the username, in any case
+     * @return true if the user is online
+     */
+    public boolean isOnline(String username) {
+        String key = username.toLowerCase();
+        Presence presence = presenceByUser.get(key);
+        if (presence != null && presence.isOnline()) {
+            return true;
+        }
+        return shared != null && shared.isHeldElsewhere(key);
+    }
+
+    /**
+     * @return the number of users with a presence entry, including detached ones
+     */
+    public int size() {
+        return presenceByUser.size();
+    }
+
+    /**
+     * Periodically removes detached entries whose grace period is over and closes idle connections.
+     */
+    private void sweepExpiredEntries() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(Constants.PRESENCE_SWEEP_INTERVAL_MS);
+                sweep(System.currentTimeMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warning(String.format(Constants.ERROR_PRESENCE_SWEEP, e.getMessage()));
+            } catch (Exception e) {
+                logger.severe(String.format(Constants.ERROR_PRESENCE_SWEEP, e.getMessage()));
+            }
+        }
+    }
+
+    void sweep(long now) {
+        for (Map.Entry<String, Presence> entry : presenceByUser.entrySet()) {
+            Presence presence = entry.getValue();
+            if (presence.isExpired(now)) {
+                if (presenceByUser.remove(entry.getKey(), presence)) {
+                    usersByToken.remove(presence.token, entry.getKey());
+                }
+            } else if (presence.connection != null && now - presence.lastSeen > Constants.PRESENCE_IDLE_TIMEOUT_MS) {
+                logger.info(String.format(Constants.LOG_PRESENCE_IDLE, entry.getKey()));
+                // The handler releases the entry once its connection is closed
+                presence.connection.disconnect();
+            }
+        }
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[24];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,91 @@
+package karel.hudera.rps.auth;
+
+import karel.hudera.rps.constants.Constants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Credential store backed by a {@code username=password} properties file with plain-text passwords.
+ * <p>
+ * Kept for the bundled demo accounts and small local setups. The whole file is held on the heap,
+ * so large account lists belong in an {@link IndexedCredentialStore}.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class PropertiesCredentialStore implements CredentialStore {
+
+    private final Map<String, byte[]> passwords;
+
+    private PropertiesCredentialStore(Map<String, byte[]> passwords) {
+        this.passwords = passwords;
+    }
+
+    /**
+     * @return a store without any accounts
+     */
+    public static PropertiesCredentialStore empty() {
+        return new PropertiesCredentialStore(Map.of());
+    }
+
+    /**
+     * Reads a properties file.
+     *
+     * @param file the properties file
+     * @return the store
+     * @throws IOException if the file cannot be read
+     */
+    public static PropertiesCredentialStore load(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            return load(input);
+        }
+    }
+
+    /**
+     * Reads properties from a stream, e.g. the bundled {@code users.properties} resource.
+     *
+     * @param input the stream, not closed by this method
+     * @return the store
+     * @throws IOException if the stream cannot be read or contains a username that is too long
+     */
+    public static PropertiesCredentialStore load(InputStream input) throws IOException {
+        Properties props = new Properties();
+        props.load(input);
+        Map<String, byte[]> passwords = new HashMap<>();
+        for (String key : props.stringPropertyNames()) {
+            if (!CredentialStore.isValidUsername(key)) {
+                throw new IOException("Invalid username, at most " + Constants.USERNAME_MAX_BYTES + " bytes: " + key);
+            }
+            passwords.put(key.toLowerCase(), props.getProperty(key).getBytes(StandardCharsets.UTF_8));
+        }
+        return new PropertiesCredentialStore(passwords);
+    }
+
+    @Override
+    public boolean verify(String username, String password) {
+        byte[] expected = passwords.get(username);
+        return expected != null && MessageDigest.isEqual(expected, password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public int size() {
+        return passwords.size();
+    }
+
+    /**
+     * @return the accounts with their plain-text passwords, used to convert the file into an indexed store
+     */
+    Map<String, String> accounts() {
+        Map<String, String> accounts = new HashMap<>();
+        passwords.forEach((username, password) -> accounts.put(username, new String(password, StandardCharsets.UTF_8)));
+        return accounts;
+    }
+}
@@ -0,0 +1,273 @@
+package karel.hudera.rps.auth;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.utils.ServerLogger;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Presence table shared by all server processes on one host through a memory-mapped file.
+ * <p>
+ * The file is an open-addressing hash table of {@code slots} entries of two longs: the 64-bit hash of the
+ * lower-case username and the process id of the server the user is online at, 0 if none. All access goes
+ * through a {@link VarHandle} view of the mapping, so claiming a known user is a compare-and-set on shared
+ * memory and a lookup is a few volatile reads, without locks or system calls.
+ * </p>
+ * <p>
+ * A slot never becomes empty again, so probe sequences never break, but a slot whose owner is 0 or dead is
+ * reused for a new user: the table only has to hold the users online at the same time, not every user that
+ * ever logged in. Entering a new user takes a lock in the file header, so two processes never enter the same
+ * user twice. While a slot changes its user its owner reads {@code REKEYING}. If every slot on a user's probe
+ * sequence belongs to a user online at a running process, the table is full and the login is rejected.
+ * </p>
+ * <p>
+ * A server that dies leaves its users behind. The id of the owner is only checked when another process
+ * finds a user taken: if no process with that id runs anymore, the entry is stale and taken over. On start
+ * a process clears entries carrying its own id, left by an earlier process that had the same id.
+ * Two usernames with the same 64-bit hash would share an entry; with far fewer users than 2^32 this does
+ * not happen in practice.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class SharedPresenceTable {
+
+    private static final Logger logger = ServerLogger.INSTANCE;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    // Header: magic and number of slots, so processes configured differently do not share a file,
+    // and the process id holding the insert lock, 0 if none
+    private static final long MAGIC = 0x5250_5350_5245_5302L;
+    private static final int LOCK_OFFSET = 16;
+    private static final int HEADER_BYTES = 24;
+    private static final int SLOT_BYTES = 16;
+    // Owner of a slot that is being reused for another user; never a process id
+    private static final long REKEYING = -1L;
+
+    private final MappedByteBuffer buffer;
+    private final int mask;
+    private final long pid;
+
+    private SharedPresenceTable(MappedByteBuffer buffer, int slots, long pid) {
+        this.buffer = buffer;
+        this.mask = slots - 1;
+        this.pid = pid;
+    }
+
+    /**
+     * Maps the table, creating the file if it does not exist yet.
+     *
+     * @param file  the file, preferably on a memory file system such as {@code /dev/shm}
+     * @param slots number of entries, a power of two; every process sharing the file must use the same
+     * @return the table
+     * @throws IOException if the file cannot be mapped or was created with a different size
+     */
+    static SharedPresenceTable open(Path file, int slots) throws IOException {
+        if (Integer.bitCount(slots) != 1 || slots > (Integer.MAX_VALUE - HEADER_BYTES) / SLOT_BYTES) {
+            throw new IllegalArgumentException("Slots must be a power of two below 2^27: " + slots);
+        }
+        long size = HEADER_BYTES + (long) slots * SLOT_BYTES;
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // A new file reads as zeros, which is an empty table
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        if (!LONGS.compareAndSet(buffer, 0, 0L, MAGIC) && (long) LONGS.getVolatile(buffer, 0) != MAGIC) {
+            throw new IOException("Not a presence table: " + file);
+        }
+        if (!LONGS.compareAndSet(buffer, 8, 0L, (long) slots) && (long) LONGS.getVolatile(buffer, 8) != slots) {
+            throw new IOException("Presence table " + file + " has " + LONGS.getVolatile(buffer, 8) + " slots, not " + slots);
+        }
+
+        SharedPresenceTable table = new SharedPresenceTable(buffer, slots, ProcessHandle.current().pid());
+        table.clearOwnLeftovers();
+        return table;
+    }
+
+    /**
+     * Marks the user as online at this process.
+     *
+     * @param username the lower-case username
+     * @return true if the user is now online here, false if it is online at another running process
+     * or the table has no slot left for it
+     */
+    boolean acquire(String username) {
+        long hash = hash(username);
+        while (true) {
+            int slot = find(hash);
+            if (slot < 0 || owner(slot) == REKEYING) {
+                slot = insert(hash);
+                if (slot < 0) {
+                    logger.severe(String.format(Constants.ERROR_PRESENCE_TABLE_FULL, username, mask + 1));
+                    return false;
+                }
+            }
+            int keyOffset = offset(slot);
+            long owner = owner(slot);
+            if (owner == REKEYING) {
+                continue;
+            }
+            if (owner == pid || owner != 0 && isAlive(owner)) {
+                // The slot may have been reused for another user since it was found
+                if ((long) LONGS.getVolatile(buffer, keyOffset) != hash) {
+                    continue;
+                }
+                return owner == pid;
+            }
+            if (LONGS.compareAndSet(buffer, keyOffset + 8, owner, pid)) {
+                if ((long) LONGS.getVolatile(buffer, keyOffset) == hash) {
+                    return true;
+                }
+                // Took a slot that meanwhile went to another user and was released again; give it back
+                LONGS.compareAndSet(buffer, keyOffset + 8, pid, 0L);
+            }
+        }
+    }
+
+    /**
+     * Marks the user as no longer online at this process. Does nothing if another process holds it.
+     *
+     * @param username the lower-case username
+     */
+    void release(String username) {
+        int slot = find(hash(username));
+        if (slot >= 0) {
+            LONGS.compareAndSet(buffer, offset(slot) + 8, pid, 0L);
+        }
+    }
+
+    /**
+     * @param username the lower-case username
+     * @return true if the user is online at another running process
+     */
+    boolean isHeldElsewhere(String username) {
+        int slot = find(hash(username));
+        if (slot < 0) {
+            return false;
+        }
+        long owner = owner(slot);
+        return owner != 0 && owner != pid && owner != REKEYING && isAlive(owner);
+    }
+
+    /**
+     * @return the slot holding the hash, or -1 if the hash is not in the table
+     */
+    private int find(long hash) {
+        for (int probe = 0, slot = (int) hash & mask; probe <= mask; probe++, slot = (slot + 1) & mask) {
+            long key = (long) LONGS.getVolatile(buffer, offset(slot));
+            if (key == hash) {
+                return slot;
+            }
+            if (key == 0) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Enters the hash under the insert lock, into the first slot on its probe sequence that is empty or whose
+     * owner is 0 or dead. A reused slot is owned by this process right away, so no other process can take it
+     * for its old user in between.
+     *
+     * @return the slot holding the hash, -1 if the table is full
+     */
+    private int insert(long hash) {
+        lock();
+        try {
+            int slot = find(hash);
+            if (slot >= 0) {
+                // Only a process that died while reusing the slot can have left it rekeying
+                LONGS.compareAndSet(buffer, offset(slot) + 8, REKEYING, 0L);
+                return slot;
+            }
+            // Few processes share the table, so each owner is looked up once rather than once per slot
+            Map<Long, Boolean> alive = new HashMap<>();
+            for (int probe = 0, candidate = (int) hash & mask; probe <= mask; probe++, candidate = (candidate + 1) & mask) {
+                int keyOffset = offset(candidate);
+                if ((long) LONGS.getVolatile(buffer, keyOffset) == 0) {
+                    LONGS.setVolatile(buffer, keyOffset, hash);
+                    return candidate;
+                }
+                long owner = owner(candidate);
+                if ((owner == 0 || owner == REKEYING || !alive.computeIfAbsent(owner, SharedPresenceTable::isAlive))
+                        && LONGS.compareAndSet(buffer, keyOffset + 8, owner, REKEYING)) {
+                    LONGS.setVolatile(buffer, keyOffset, hash);
+                    LONGS.setVolatile(buffer, keyOffset + 8, pid);
+                    return candidate;
+                }
+            }
+            return -1;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Takes the insert lock, breaking it if the process holding it died.
+     */
+    private void lock() {
+        for (int spins = 1; !LONGS.compareAndSet(buffer, LOCK_OFFSET, 0L, pid); spins++) {
+            if (spins % 1024 == 0) {
+                long holder = (long) LONGS.getVolatile(buffer, LOCK_OFFSET);
+                if (holder != 0 && !isAlive(holder) && LONGS.compareAndSet(buffer, LOCK_OFFSET, holder, pid)) {
+                    return;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private void unlock() {
+        LONGS.setVolatile(buffer, LOCK_OFFSET, 0L);
+    }
+
+    private long owner(int slot) {
+        return (long) LONGS.getVolatile(buffer, offset(slot) + 8);
+    }
+
+    private void clearOwnLeftovers() {
+        LONGS.compareAndSet(buffer, LOCK_OFFSET, pid, 0L);
+        for (int slot = 0; slot <= mask; slot++) {
+            LONGS.compareAndSet(buffer, offset(slot) + 8, pid, 0L);
+        }
+    }
+
+    private static int offset(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    private static boolean isAlive(long pid) {
+        return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, finished with the MurmurHash3 mix; never 0, which marks an empty slot.
+     */
+    static long hash(String username) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < username.length(); i++) {
+            hash ^= username.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+}
@@ -0,0 +1,155 @@
+package karel.hudera.rps.cluster;
+
+import karel.hudera.rps.game.GameMessage;
+import karel.hudera.rps.game.SessionSnapshot;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Messages exchanged between the nodes of a cluster.
+ * <p>
+ * A node announces its waiting players to every node with a lower id. Such a node may pair one of them
+ * with its own player: it claims the player, and if the owning node still has the player waiting, the
+ * game runs on the claiming node, the host, while the owning node relays the player's messages.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+sealed interface ClusterMessage extends Serializable {
+
+    /**
+     * First message on every connection, in both directions.
+     *
+     * @param nodeId    id of the sending node
+     * @param address   host:port other nodes reach the sending node at
+     * @param challenge random bytes the receiving node proves the cluster secret with, see {@link Proof}
+     */
+    record Hello(String nodeId, String address, byte[] challenge) implements ClusterMessage {
+    }
+
+    /**
+     * Second message on every connection, in both directions: proves the sending node knows the cluster secret.
+     *
+     * @param mac HMAC of the challenge the receiving node sent and the sending node's id, keyed by the secret
+     */
+    record Proof(byte[] mac) implements ClusterMessage {
+    }
+
+    /**
+     * Gossip of the cluster members the sending node knows, including itself.
+     *
+     * @param addresses host:port of every known node
+     */
+    record Members(List<String> addresses) implements ClusterMessage {
+    }
+
+    /**
+     * A player of the sending node waits for an opponent, or its round-trip time was measured.
+     *
+     * @param username        the player
+     * @param roundTripMicros round-trip time between the player and its node, negative if not measured yet
+     */
+    record Waiting(String username, long roundTripMicros) implements ClusterMessage {
+    }
+
+    /**
+     * A player of the sending node is no longer waiting.
+     *
+     * @param username the player
+     */
+    record NotWaiting(String username) implements ClusterMessage {
+    }
+
+    /**
+     * The sending node wants to host a game between a waiting player of the receiving node and its own player.
+     *
+     * @param claimId  id of the claim, repeated in the result
+     * @param username the claimed player
+     * @param opponent the player of the sending node
+     */
+    record Claim(long claimId, String username, String opponent) implements ClusterMessage {
+    }
+
+    /**
+     * Answer to a {@link Claim}; accepted if the player was still waiting.
+     *
+     * @param claimId  id of the claim
+     * @param username the claimed player
+     * @param accepted whether the player now belongs to the game on the claiming node
+     */
+    record ClaimResult(long claimId, String username, boolean accepted) implements ClusterMessage {
+    }
+
+    /**
+     * A message of the host's game session for a player of the receiving node.
+     *
+     * @param username the player
+     * @param message  the message
+     */
+    record ToPlayer(String username, GameMessage message) implements ClusterMessage {
+    }
+
+    /**
+     * A message a player of the sending node sent to the game on the receiving node.
+     *
+     * @param username the player
+     * @param message  the message
+     */
+    record FromPlayer(String username, GameMessage message) implements ClusterMessage {
+    }
+
+    /**
+     * The connection of a player in a game on the receiving node closed.
+     *
+     * @param username the player
+     */
+    record Left(String username) implements ClusterMessage {
+    }
+
+    /**
+     * The host is done with a claimed player, the owning node takes care of it again.
+     *
+     * @param username the player
+     */
+    record Released(String username) implements ClusterMessage {
+    }
+
+    /**
+     * The sending node took over games of a lost node that wait for these players to log in again.
+     *
+     * @param usernames the players
+     */
+    record Resumable(List<String> usernames) implements ClusterMessage {
+    }
+
+    /**
+     * A player logged in at the sending node, which asks to attach it to its game taken over by the receiving node.
+     *
+     * @param requestId       id of the request, repeated in the result
+     * @param username        the player
+     * @param roundTripMicros round-trip time between the player and its node, negative if not measured yet
+     */
+    record Resume(long requestId, String username, long roundTripMicros) implements ClusterMessage {
+    }
+
+    /**
+     * Answer to a {@link Resume}; accepted if the player is back in its game on the answering node.
+     *
+     * @param requestId id of the request
+     * @param username  the player
+     * @param accepted  whether the player now belongs to the game on the answering node
+     */
+    record ResumeResult(long requestId, String username, boolean accepted) implements ClusterMessage {
+    }
+
+    /**
+     * Running games of the sending node, for the receiving node to take over if the sending node is lost.
+     *
+     * @param sessions games started or changed since the last batch, or all running games if {@code full}
+     * @param ended    ids of the games that ended since the last batch
+     * @param full     whether {@code sessions} replaces every game the receiving node holds for the sender
+     */
+    record Replicate(List<SessionSnapshot> sessions, List<Long> ended, boolean full) implements ClusterMessage {
+    }
+}
@@ -0,0 +1,589 @@
+package karel.hudera.rps.cluster;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.game.GameManager;
+import karel.hudera.rps.game.PlayerConnection;
+import karel.hudera.rps.game.SessionSnapshot;
+import karel.hudera.rps.server.ClientHandler;
+import karel.hudera.rps.utils.ServerLogger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This server's membership in a cluster of servers, so players connected to different nodes can play each other.
+ * <p>
+ * Every node listens on {@link Constants#CLUSTER_PORT_PROPERTY} of {@link Constants#CLUSTER_HOST_PROPERTY}
+ * and dials the addresses in
+ * {@link Constants#CLUSTER_PEERS_PROPERTY}. Each {@link Constants#CLUSTER_GOSSIP_INTERVAL_MS} it tells one
+ * random peer all the members it knows and dials the ones it is not connected to, so every node ends up
+ * connected to every other node, whichever it was pointed at. Two nodes that dial each other at the same
+ * time keep the connection dialed by the node with the lower id. Nodes only talk to nodes that know the
+ * shared {@link Constants#CLUSTER_SECRET_PROPERTY}.
+ * </p>
+ * <p>
+ * Matchmaking works across nodes without a coordinator. A node announces its waiting players to the nodes
+ * with a lower id, which put them into their own matchmaking queue as {@link RemotePlayer}s. When such a
+ * node pairs a remote player with a local one, it claims the remote player. The owning node accepts if the
+ * player is still waiting, which it decides under the same lock its own matchmaking uses, so a player
+ * never ends up in two games. The claiming node then hosts the game and the owning node relays the
+ * player's messages through a {@link ProxiedPlayer}. Because claims only go from lower to higher ids, two
+ * nodes never claim each other's players at the same time.
+ * </p>
+ * <p>
+ * Every node replicates its running games to its standby, the connected node with the next higher id
+ * (wrapping around to the lowest), through a {@link SessionReplicator}. When the connection to a node is lost
+ * and no other connection to it remains, its standby takes over the games it holds for it: each waits for
+ * its players to log in again and resume it, see {@link GameManager#takeOverSession(SessionSnapshot)}.
+ * A router spreads the lost node's players over all remaining nodes by their names, so the standby tells
+ * every node which players its games wait for. A node such a player logs in at asks the standby to attach
+ * the player to its game and then relays the player's messages, as it does for a claimed player.
+ * </p>
+ * <p>
+ * Without {@link Constants#CLUSTER_PORT_PROPERTY} the node is disabled and every method does nothing.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class ClusterNode {
+
+    private static final Logger logger = ServerLogger.INSTANCE;
+
+    // Singleton instance
+    private static ClusterNode instance;
+
+    private final int port;
+    private final String host;
+    private final String address;
+    private final String nodeId;
+    private final String secret;
+
+    // host:port of every known node except this one
+    private final Set<String> members = ConcurrentHashMap.newKeySet();
+    // Connected peers by node id
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    // Local waiting players announced to the peers, by lower-case username
+    private final Map<String, ClientHandler> localWaiting = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<Boolean>> pendingClaims = new ConcurrentHashMap<>();
+    // Players whose games a peer took over from a lost node, by lower-case username, and pending resume requests
+    private final Map<String, Peer> resumable = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<Boolean>> pendingResumes = new ConcurrentHashMap<>();
+    private final AtomicLong claimIds = new AtomicLong();
+    private final SessionReplicator replicator = new SessionReplicator(this::standby);
+
+    /**
+     * Private constructor for a singleton pattern. Reads the cluster configuration from the system properties.
+     */
+    private ClusterNode() {
+        this.port = Integer.getInteger(Constants.CLUSTER_PORT_PROPERTY, 0);
+        this.host = System.getProperty(Constants.CLUSTER_HOST_PROPERTY, "localhost");
+        this.address = host + ":" + port;
+        this.nodeId = System.getProperty(Constants.CLUSTER_NODE_ID_PROPERTY, address);
+        this.secret = System.getProperty(Constants.CLUSTER_SECRET_PROPERTY, "");
+        for (String peer : System.getProperty(Constants.CLUSTER_PEERS_PROPERTY, "").split(",")) {
+            if (!peer.isBlank() && !peer.strip().equals(address)) {
+                members.add(peer.strip());
+            }
+        }
+    }
+
+    /**
+     * Gets the singleton instance of the ClusterNode.
+     *
+     * @return The ClusterNode instance
+     */
+    public static synchronized ClusterNode getInstance() {
+        if (instance == null) {
+            instance = new ClusterNode();
+        }
+        return instance;
+    }
+
+    /**
+     * @return true if the server was started as a cluster node
+     */
+    public boolean isEnabled() {
+        return port > 0;
+    }
+
+    /**
+     * Starts listening for peers and gossiping with them. Does nothing if the node is disabled.
+     *
+     * @throws IOException if the cluster port cannot be bound or no cluster secret is set
+     */
+    public void start() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        if (secret.isEmpty()) {
+            throw new IOException(Constants.ERROR_CLUSTER_NO_SECRET);
+        }
+        // Only the interface other nodes reach this one at, not every interface of the machine
+        ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName(host));
+        logger.info(String.format(Constants.LOG_CLUSTER_LISTENING, nodeId, port));
+
+        Thread acceptThread = new Thread(() -> acceptPeers(serverSocket), "ClusterAcceptThread");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        Thread gossipThread = new Thread(this::gossipPeriodically, "ClusterGossipThread");
+        gossipThread.setDaemon(true);
+        gossipThread.start();
+
+        replicator.start();
+    }
+
+    /**
+     * Announces a local player that waits for an opponent to the peers that may claim it.
+     *
+     * @param player the player
+     */
+    public void playerWaiting(PlayerConnection player) {
+        if (!isEnabled() || !(player instanceof ClientHandler handler)) {
+            return;
+        }
+        localWaiting.put(key(handler.getUsername()), handler);
+        announce(new ClusterMessage.Waiting(handler.getUsername(), handler.getRoundTripMicros()));
+    }
+
+    /**
+     * Tells the peers that a local player no longer waits: it was paired, claimed or left.
+     *
+     * @param player the player
+     */
+    public void playerNotWaiting(PlayerConnection player) {
+        if (!isEnabled() || player.isRemote()) {
+            return;
+        }
+        if (localWaiting.remove(key(player.getUsername()), player)) {
+            announce(new ClusterMessage.NotWaiting(player.getUsername()));
+        }
+    }
+
+    /**
+     * Announces the first round-trip time of a waiting local player, so the peers can put it into a latency band.
+     *
+     * @param player the player
+     */
+    public void roundTripMeasured(PlayerConnection player) {
+        if (isEnabled() && localWaiting.get(key(player.getUsername())) == player) {
+            announce(new ClusterMessage.Waiting(player.getUsername(), player.getRoundTripMicros()));
+        }
+    }
+
+    /**
+     * Asks the node of a remote player for the player, to host its game against a local player here.
+     *
+     * @param remote   the remote player, paired by matchmaking
+     * @param opponent the local player
+     * @return completes with true if the player's node handed it over, false if the player was gone,
+     * the node did not answer in time or the connection was lost
+     */
+    public CompletableFuture<Boolean> claim(RemotePlayer remote, PlayerConnection opponent) {
+        long claimId = claimIds.incrementAndGet();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        pendingClaims.put(claimId, result);
+        remote.markClaimed();
+        remote.getPeer().send(new ClusterMessage.Claim(claimId, remote.getUsername(), opponent.getUsername()));
+        return result.completeOnTimeout(false, Constants.CLUSTER_CLAIM_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((accepted, e) -> {
+                    pendingClaims.remove(claimId);
+                    if (Boolean.TRUE.equals(accepted)) {
+                        logger.info(String.format(Constants.LOG_CLUSTER_REMOTE_MATCH,
+                                opponent.getUsername(), remote.getUsername(), remote.getPeer()));
+                    } else {
+                        remote.discard();
+                    }
+                });
+    }
+
+    /**
+     * Attaches a player that just logged in to its game, if a peer took the game over from a lost node.
+     * Blocks until the peer answers, at most {@link Constants#CLUSTER_CLAIM_TIMEOUT_MS}.
+     *
+     * @param player the local player
+     * @return true if the player is back in its game, which the peer hosts from now on
+     */
+    public boolean resumeRemote(ClientHandler player) {
+        String key = key(player.getUsername());
+        Peer host = isEnabled() ? resumable.remove(key) : null;
+        if (host == null) {
+            return false;
+        }
+        long requestId = claimIds.incrementAndGet();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        pendingResumes.put(requestId, result);
+        // Registered first: the game may write to the player before the answer arrives
+        ProxiedPlayer proxy = new ProxiedPlayer(player, host, null);
+        host.proxies.put(key, proxy);
+        host.send(new ClusterMessage.Resume(requestId, player.getUsername(), player.getRoundTripMicros()));
+        boolean accepted = result.completeOnTimeout(false, Constants.CLUSTER_CLAIM_TIMEOUT_MS, TimeUnit.MILLISECONDS).join();
+        pendingResumes.remove(requestId);
+        if (!accepted) {
+            host.proxies.remove(key, proxy);
+            // In case the answer was just late, the game must not keep waiting for the player's moves
+            host.send(new ClusterMessage.Left(player.getUsername()));
+            return false;
+        }
+        proxy.start();
+        logger.info(String.format(Constants.LOG_CLUSTER_REMOTE_RESUME, player.getUsername(), host));
+        return true;
+    }
+
+    /**
+     * Records the state of a running game after a round or a move, to be replicated to the standby.
+     * Returns immediately, the replication thread sends it.
+     *
+     * @param snapshot the game's state
+     */
+    public void sessionUpdated(SessionSnapshot snapshot) {
+        if (isEnabled()) {
+            replicator.updated(snapshot);
+        }
+    }
+
+    /**
+     * Tells the standby that a game ended, so it no longer takes it over.
+     *
+     * @param sessionId the id of the game
+     */
+    public void sessionEnded(long sessionId) {
+        if (isEnabled()) {
+            replicator.ended(sessionId);
+        }
+    }
+
+    /**
+     * @return the connected peer with the next higher id after this node's, wrapping around; null if there is none
+     */
+    private Peer standby() {
+        Peer next = null;
+        Peer lowest = null;
+        for (Peer peer : peers.values()) {
+            String id = peer.getNodeId();
+            if (id.compareTo(nodeId) > 0 && (next == null || id.compareTo(next.getNodeId()) < 0)) {
+                next = peer;
+            }
+            if (lowest == null || id.compareTo(lowest.getNodeId()) < 0) {
+                lowest = peer;
+            }
+        }
+        return next != null ? next : lowest;
+    }
+
+    /**
+     * Accepts peer connections until the socket is closed.
+     */
+    private void acceptPeers(ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                startPeer(new Peer(socket, false));
+            } catch (IOException e) {
+                logger.warning(String.format(Constants.ERROR_CLUSTER_START, e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Dials the members that are not connected and gossips the member list to a random peer.
+     */
+    private void gossipPeriodically() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                for (String member : members) {
+                    if (!isConnected(member)) {
+                        dial(member);
+                    }
+                }
+
+                List<Peer> connected = new ArrayList<>(peers.values());
+                if (!connected.isEmpty()) {
+                    List<String> known = new ArrayList<>(members);
+                    known.add(address);
+                    connected.get(ThreadLocalRandom.current().nextInt(connected.size()))
+                            .send(new ClusterMessage.Members(known));
+                }
+
+                Thread.sleep(Constants.CLUSTER_GOSSIP_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warning(String.format(Constants.ERROR_CLUSTER_GOSSIP, e.getMessage()));
+            } catch (Exception e) {
+                logger.severe(String.format(Constants.ERROR_CLUSTER_GOSSIP, e.getMessage()));
+            }
+        }
+    }
+
+    private boolean isConnected(String member) {
+        for (Peer peer : peers.values()) {
+            if (member.equals(peer.getAddress())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dial(String member) {
+        int separator = member.lastIndexOf(':');
+        try {
+            Socket socket = new Socket();
+            socket.connect(new InetSocketAddress(member.substring(0, separator),
+                    Integer.parseInt(member.substring(separator + 1))), Constants.CLUSTER_CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            startPeer(new Peer(socket, true));
+        } catch (IOException | RuntimeException e) {
+            // Retried every gossip interval, the member may just not be up yet
+            logger.log(Level.FINE, String.format(Constants.ERROR_CLUSTER_CONNECT, member, e.getMessage()));
+        }
+    }
+
+    private void startPeer(Peer peer) {
+        Thread thread = new Thread(() -> runPeer(peer), "ClusterPeerThread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Introduces this node, registers the peer and handles its messages until the connection is lost.
+     */
+    private void runPeer(Peer peer) {
+        String reason = "connection closed";
+        try {
+            try {
+                peer.handshake(nodeId, address, secret.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                logger.warning(String.format(Constants.ERROR_CLUSTER_HANDSHAKE, peer, e.getMessage()));
+                throw e;
+            }
+            if (!register(peer)) {
+                return;
+            }
+            while (true) {
+                handle(peer, peer.read());
+            }
+        } catch (IOException e) {
+            reason = e.getMessage();
+        } finally {
+            peer.close();
+            if (peer.getNodeId() != null && peers.remove(peer.getNodeId(), peer)) {
+                logger.info(String.format(Constants.LOG_CLUSTER_PEER_LOST, peer, reason));
+            }
+            peerLost(peer);
+        }
+    }
+
+    /**
+     * Adds a peer after the handshake and sends it the state it needs.
+     *
+     * @return false if the connection is not needed, because it leads to this node or another one is kept
+     */
+    private synchronized boolean register(Peer peer) {
+        if (peer.getNodeId().equals(nodeId)) {
+            return false;
+        }
+        Peer existing = peers.get(peer.getNodeId());
+        if (existing != null && existing.isOutbound() != peer.isOutbound()
+                && peer.isOutbound() != nodeId.compareTo(peer.getNodeId()) < 0) {
+            // Both nodes dialed each other; both keep the connection dialed by the lower id
+            return false;
+        }
+        if (existing != null) {
+            existing.close();
+        }
+        peers.put(peer.getNodeId(), peer);
+        members.add(peer.getAddress());
+        logger.info(String.format(Constants.LOG_CLUSTER_PEER_CONNECTED, peer, peer.getAddress()));
+
+        if (peer.getNodeId().compareTo(nodeId) < 0) {
+            for (ClientHandler player : localWaiting.values()) {
+                peer.send(new ClusterMessage.Waiting(player.getUsername(), player.getRoundTripMicros()));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends a message about local waiting players to every peer with a lower id.
+     */
+    private void announce(ClusterMessage message) {
+        for (Peer peer : peers.values()) {
+            if (peer.getNodeId().compareTo(nodeId) < 0) {
+                peer.send(message);
+            }
+        }
+    }
+
+    private void handle(Peer peer, ClusterMessage message) {
+        GameManager gameManager = GameManager.getInstance();
+        switch (message) {
+            case ClusterMessage.Hello hello -> {
+            }
+            case ClusterMessage.Proof proof -> {
+            }
+            case ClusterMessage.Members gossip -> {
+                for (String member : gossip.addresses()) {
+                    if (!member.equals(address)) {
+                        members.add(member);
+                    }
+                }
+            }
+            case ClusterMessage.Waiting waiting -> {
+                String key = key(waiting.username());
+                RemotePlayer known = peer.remotePlayers.get(key);
+                if (known != null && known.isWaiting()) {
+                    known.setRoundTripMicros(waiting.roundTripMicros());
+                    gameManager.roundTripMeasured(known);
+                } else {
+                    RemotePlayer player = new RemotePlayer(peer, waiting.username(), waiting.roundTripMicros());
+                    peer.remotePlayers.put(key, player);
+                    gameManager.addWaitingPlayer(player);
+                }
+            }
+            case ClusterMessage.NotWaiting notWaiting -> {
+                RemotePlayer player = peer.remotePlayers.get(key(notWaiting.username()));
+                // A claimed player is settled by the claim result
+                if (player != null && !player.isClaimed()) {
+                    gameManager.removeWaitingPlayer(player);
+                    player.discard();
+                }
+            }
+            case ClusterMessage.Claim claim -> claimed(peer, claim);
+            case ClusterMessage.ClaimResult result -> {
+                CompletableFuture<Boolean> pending = pendingClaims.remove(result.claimId());
+                if (pending != null) {
+                    pending.complete(result.accepted());
+                } else if (result.accepted()) {
+                    // The claim timed out here, give the player back
+                    peer.send(new ClusterMessage.Released(result.username()));
+                }
+            }
+            case ClusterMessage.FromPlayer fromPlayer -> {
+                RemotePlayer player = peer.remotePlayers.get(key(fromPlayer.username()));
+                if (player != null) {
+                    player.deliver(fromPlayer.message());
+                }
+            }
+            case ClusterMessage.Left left -> {
+                RemotePlayer player = peer.remotePlayers.remove(key(left.username()));
+                if (player != null) {
+                    player.close();
+                }
+            }
+            case ClusterMessage.ToPlayer toPlayer -> {
+                ProxiedPlayer proxy = peer.proxies.get(key(toPlayer.username()));
+                if (proxy != null) {
+                    proxy.deliver(toPlayer.message());
+                }
+            }
+            case ClusterMessage.Released released -> {
+                ProxiedPlayer proxy = peer.proxies.get(key(released.username()));
+                if (proxy != null) {
+                    proxy.finish();
+                }
+            }
+            case ClusterMessage.Resumable resumableGames -> {
+                for (String username : resumableGames.usernames()) {
+                    resumable.put(key(username), peer);
+                }
+            }
+            case ClusterMessage.Resume resume -> {
+                RemotePlayer player = new RemotePlayer(peer, resume.username(), resume.roundTripMicros());
+                // Playing, not waiting; registered first so the player's first messages find it
+                player.markClaimed();
+                peer.remotePlayers.put(key(resume.username()), player);
+                boolean accepted = gameManager.resumeSession(player);
+                if (!accepted) {
+                    player.discard();
+                }
+                peer.send(new ClusterMessage.ResumeResult(resume.requestId(), resume.username(), accepted));
+            }
+            case ClusterMessage.ResumeResult result -> {
+                CompletableFuture<Boolean> pending = pendingResumes.remove(result.requestId());
+                if (pending != null) {
+                    pending.complete(result.accepted());
+                }
+            }
+            case ClusterMessage.Replicate replicate -> {
+                if (replicate.full()) {
+                    peer.replicas.clear();
+                }
+                for (SessionSnapshot snapshot : replicate.sessions()) {
+                    peer.replicas.put(snapshot.sessionId(), snapshot);
+                }
+                for (Long sessionId : replicate.ended()) {
+                    peer.replicas.remove(sessionId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands a waiting local player over to the peer that claims it, if it is still waiting.
+     */
+    private void claimed(Peer host, ClusterMessage.Claim claim) {
+        String key = key(claim.username());
+        ClientHandler player = localWaiting.get(key);
+        boolean accepted = player != null && GameManager.getInstance().removeWaitingPlayer(player);
+        if (accepted) {
+            ProxiedPlayer proxy = new ProxiedPlayer(player, host, claim.opponent());
+            host.proxies.put(key, proxy);
+            proxy.start();
+        }
+        host.send(new ClusterMessage.ClaimResult(claim.claimId(), claim.username(), accepted));
+    }
+
+    /**
+     * Drops the players shared with a peer whose connection was lost and takes over its replicated games,
+     * unless the node is still connected through another connection.
+     */
+    private void peerLost(Peer peer) {
+        GameManager gameManager = GameManager.getInstance();
+        if (!peer.replicas.isEmpty() && !peers.containsKey(peer.getNodeId())) {
+            logger.info(String.format(Constants.LOG_CLUSTER_TAKEOVER, peer.replicas.size(), peer));
+            List<String> waitingFor = new ArrayList<>();
+            for (SessionSnapshot snapshot : peer.replicas.values()) {
+                gameManager.takeOverSession(snapshot);
+                waitingFor.add(snapshot.player1());
+                waitingFor.add(snapshot.player2());
+            }
+            peer.replicas.clear();
+            // The router sends the players to any node, which then resumes them here
+            for (Peer other : peers.values()) {
+                other.send(new ClusterMessage.Resumable(waitingFor));
+            }
+        }
+        resumable.values().removeIf(host -> host == peer);
+        for (RemotePlayer player : peer.remotePlayers.values()) {
+            if (!player.isClaimed()) {
+                gameManager.removeWaitingPlayer(player);
+            }
+            player.close();
+        }
+        peer.remotePlayers.clear();
+        for (ProxiedPlayer proxy : peer.proxies.values()) {
+            proxy.hostLost();
+        }
+    }
+
+    static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
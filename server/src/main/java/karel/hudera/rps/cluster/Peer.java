@@ -0,0 +1,195 @@
+package karel.hudera.rps.cluster;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.game.SessionSnapshot;
+import karel.hudera.rps.utils.ServerLogger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * A connection to another node of the cluster.
+ * <p>
+ * Besides the connection it holds the players shared with that node: its players that wait for or play
+ * a game hosted here, and the local players whose game that node hosts. Both are keyed by the lower-case
+ * username and dropped when the connection is lost. If this node is the standby of that node, it also holds
+ * the replicas of that node's running games.
+ * </p>
+ * <p>
+ * Both nodes prove they know the cluster secret before anything else is read, and only cluster messages and
+ * the game classes they carry may be deserialized, so whoever reaches the cluster port cannot make the node
+ * build arbitrary objects.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class Peer {
+
+    private static final Logger logger = ServerLogger.INSTANCE;
+
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "karel.hudera.rps.cluster.ClusterMessage$*;karel.hudera.rps.game.*;karel.hudera.rps.history.MatchRecord$Round;"
+                    + "java.lang.Enum;java.lang.Number;java.lang.Long;java.lang.Integer;java.lang.String;"
+                    + "java.util.ArrayList;java.util.ImmutableCollections$*;java.util.CollSer;java.lang.Object;"
+                    + "maxdepth=10;maxarray=1000000;!*");
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Socket socket;
+    private final boolean outbound;
+    private ObjectOutputStream out;
+    private ObjectInputStream in;
+    private int writtenSinceReset;
+    // Guards the output stream; a lock rather than a monitor, so game sessions on virtual threads sending to
+    // this peer do not pin their carrier threads while the socket write blocks
+    private final ReentrantLock sendLock = new ReentrantLock();
+
+    private volatile String nodeId;
+    private volatile String address;
+
+    // Players of that node that wait for or play a game hosted here
+    final Map<String, RemotePlayer> remotePlayers = new ConcurrentHashMap<>();
+    // Local players whose game that node hosts
+    final Map<String, ProxiedPlayer> proxies = new ConcurrentHashMap<>();
+    // Running games of that node by session id, only touched by the thread reading from the peer
+    final Map<Long, SessionSnapshot> replicas = new HashMap<>();
+
+    /**
+     * @param socket   the connected socket
+     * @param outbound true if this node dialed the connection
+     */
+    Peer(Socket socket, boolean outbound) {
+        this.socket = socket;
+        this.outbound = outbound;
+    }
+
+    /**
+     * Opens the streams, exchanges {@link ClusterMessage.Hello} messages and checks that the other side knows
+     * the cluster secret. Gives up if the other side takes longer than {@link Constants#CLUSTER_CONNECT_TIMEOUT_MS}
+     * for a message.
+     *
+     * @param nodeId  id of this node
+     * @param address host:port other nodes reach this node at
+     * @param secret  the cluster secret
+     * @throws IOException if the connection fails, the other side does not start with a hello or its proof is wrong
+     */
+    void handshake(String nodeId, String address, byte[] secret) throws IOException {
+        byte[] challenge = new byte[32];
+        RANDOM.nextBytes(challenge);
+        socket.setSoTimeout(Constants.CLUSTER_CONNECT_TIMEOUT_MS);
+        out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        send(new ClusterMessage.Hello(nodeId, address, challenge));
+        in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        in.setObjectInputFilter(FILTER);
+        if (!(read() instanceof ClusterMessage.Hello theirs) || theirs.challenge() == null) {
+            throw new IOException("Peer did not introduce itself");
+        }
+        send(new ClusterMessage.Proof(mac(secret, theirs.challenge(), nodeId)));
+        if (!(read() instanceof ClusterMessage.Proof proof)
+                || !MessageDigest.isEqual(proof.mac(), mac(secret, challenge, theirs.nodeId()))) {
+            throw new IOException("Peer does not know the cluster secret");
+        }
+        socket.setSoTimeout(0);
+        this.nodeId = theirs.nodeId();
+        this.address = theirs.address();
+    }
+
+    /**
+     * The node id is part of the MAC, so a node cannot pass a challenge on to another node and reuse its proof.
+     */
+    private static byte[] mac(byte[] secret, byte[] challenge, String nodeId) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            mac.update(challenge);
+            return mac.doFinal(nodeId.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads the next message, blocking until one arrives.
+     *
+     * @return the message
+     * @throws IOException if the connection fails or an unknown object arrives
+     */
+    ClusterMessage read() throws IOException {
+        try {
+            if (in.readObject() instanceof ClusterMessage message) {
+                return message;
+            }
+            throw new IOException("Unexpected object from peer");
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Sends a message. A failure closes the connection; the reader notices and cleans up.
+     *
+     * @param message the message
+     * @return false if the message could not be sent
+     */
+    boolean send(ClusterMessage message) {
+        sendLock.lock();
+        try {
+            out.writeObject(message);
+            if (++writtenSinceReset == Constants.STREAM_RESET_MESSAGES) {
+                out.reset();
+                writtenSinceReset = 0;
+            }
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            logger.warning(String.format("Failed to send message to cluster peer %s - %s", this, e.getMessage()));
+            close();
+            return false;
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the connection.
+     */
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.fine("Failed to close cluster peer connection: " + e.getMessage());
+        }
+    }
+
+    boolean isOutbound() {
+        return outbound;
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    String getAddress() {
+        return address;
+    }
+
+    @Override
+    public String toString() {
+        return nodeId != null ? nodeId : socket.getRemoteSocketAddress().toString();
+    }
+}
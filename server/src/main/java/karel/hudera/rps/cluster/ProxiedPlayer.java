@@ -0,0 +1,111 @@
+package karel.hudera.rps.cluster;
+
+import karel.hudera.rps.game.GameManager;
+import karel.hudera.rps.game.GameMessage;
+import karel.hudera.rps.game.GameResult;
+import karel.hudera.rps.game.GameStart;
+import karel.hudera.rps.game.OpponentDisconnected;
+import karel.hudera.rps.game.SessionResumed;
+import karel.hudera.rps.server.ClientHandler;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A local player whose game is hosted by another node.
+ * <p>
+ * While the game runs, the player's messages are forwarded to the host and the host's messages are
+ * written to the player. When the game ends, or the host releases or loses the player, forwarding stops
+ * and this node handles the player again: after a game it may ask for its history or play again,
+ * if the game never started it goes back to the waiting queue. A player that resumed a game the host took
+ * over from a lost node is relayed the same way; it learns its opponent from the host's {@link SessionResumed}.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class ProxiedPlayer {
+
+    private final ClientHandler player;
+    private final Peer host;
+    private volatile String opponent;
+    private final String key;
+    private volatile boolean started;
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    /**
+     * @param player   the local player
+     * @param host     the node hosting the game
+     * @param opponent the opponent on the host, null until the host tells it for a resumed game
+     */
+    ProxiedPlayer(ClientHandler player, Peer host, String opponent) {
+        this.player = player;
+        this.host = host;
+        this.opponent = opponent;
+        this.key = ClusterNode.key(player.getUsername());
+    }
+
+    /**
+     * Starts forwarding the player's messages to the host.
+     */
+    void start() {
+        player.forwardMessages(this::forward);
+    }
+
+    private void forward(GameMessage message) {
+        if (message != null) {
+            host.send(new ClusterMessage.FromPlayer(player.getUsername(), message));
+        } else if (finished.compareAndSet(false, true)) {
+            // The connection closed, the host treats the player as disconnected
+            host.proxies.remove(key, this);
+            host.send(new ClusterMessage.Left(player.getUsername()));
+        }
+    }
+
+    /**
+     * Writes a message of the host's game to the player.
+     *
+     * @param message the message
+     */
+    void deliver(GameMessage message) {
+        if (message instanceof GameStart) {
+            started = true;
+        } else if (message instanceof SessionResumed resumed) {
+            started = true;
+            opponent = resumed.getOpponentUsername();
+        }
+        if (message instanceof GameResult || message instanceof OpponentDisconnected) {
+            // Whatever the player answers belongs to this node again
+            finish();
+        }
+        player.sendMessage(message);
+    }
+
+    /**
+     * The host lost its connection; a running game is over for the player.
+     */
+    void hostLost() {
+        boolean playing = started && !finished.get();
+        finish();
+        if (playing && opponent != null) {
+            player.sendMessage(new OpponentDisconnected(opponent));
+        }
+    }
+
+    /**
+     * Stops forwarding and hands the player back to this node's game manager.
+     */
+    void finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        player.forwardMessages(null);
+        host.proxies.remove(key, this);
+        if (!player.isConnected()) {
+            return;
+        }
+        if (started) {
+            GameManager.getInstance().returnFromRemoteGame(player);
+        } else {
+            GameManager.getInstance().addWaitingPlayer(player);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package karel.hudera.rps.cluster;
+
+import karel.hudera.rps.game.GameMessage;
+import karel.hudera.rps.game.GameMove;
+import karel.hudera.rps.game.PlayerConnection;
+import karel.hudera.rps.game.TerminateMessage;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A player connected to another node that waits in the local matchmaking queue or plays a game hosted here.
+ * <p>
+ * Messages for the player are relayed through its node; the messages it sends arrive the same way and are
+ * put into an inbox, just like a {@code ClientHandler} does with messages read from its socket.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class RemotePlayer implements PlayerConnection {
+
+    // Put into the inbox when the player is gone
+    private static final GameMessage CLOSED = new TerminateMessage();
+
+    private final Peer peer;
+    private final String username;
+    private final BlockingQueue<GameMessage> inbox = new LinkedBlockingQueue<>();
+    private volatile long roundTripMicros;
+    private volatile boolean connected = true;
+    // Set once matchmaking paired the player; from then on the claim decides what happens to it
+    private volatile boolean claimed;
+
+    RemotePlayer(Peer peer, String username, long roundTripMicros) {
+        this.peer = peer;
+        this.username = username;
+        this.roundTripMicros = roundTripMicros;
+    }
+
+    /**
+     * Puts a message the player sent into the inbox.
+     *
+     * @param message the message
+     */
+    void deliver(GameMessage message) {
+        if (message instanceof TerminateMessage) {
+            // The player is leaving, the game must see it as disconnected
+            connected = false;
+        } else if (message instanceof GameMove move) {
+            // Stamped by this node's clock; the stamp of the player's node is not serialized
+            move.markReceived(System.currentTimeMillis());
+        }
+        inbox.add(message);
+    }
+
+    /**
+     * Marks the player as gone, a game reading from it gets null.
+     */
+    void close() {
+        connected = false;
+        inbox.add(CLOSED);
+    }
+
+    /**
+     * Hands the player back to its node after the game.
+     */
+    public void release() {
+        peer.remotePlayers.remove(ClusterNode.key(username), this);
+        if (connected) {
+            peer.send(new ClusterMessage.Released(username));
+        }
+        close();
+    }
+
+    /**
+     * Drops the player after a claim was rejected or not answered.
+     */
+    void discard() {
+        peer.remotePlayers.remove(ClusterNode.key(username), this);
+        close();
+    }
+
+    void markClaimed() {
+        claimed = true;
+    }
+
+    boolean isClaimed() {
+        return claimed;
+    }
+
+    /**
+     * @return true while the player waits for an opponent and was not paired yet
+     */
+    boolean isWaiting() {
+        return connected && !claimed;
+    }
+
+    void setRoundTripMicros(long roundTripMicros) {
+        this.roundTripMicros = roundTripMicros;
+    }
+
+    Peer getPeer() {
+        return peer;
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public String getClientInfo() {
+        return username + "@" + peer;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void sendMessage(GameMessage message) {
+        if (connected) {
+            peer.send(new ClusterMessage.ToPlayer(username, message));
+        }
+    }
+
+    @Override
+    public GameMessage observeMessage() {
+        GameMessage message;
+        try {
+            message = inbox.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (message == CLOSED) {
+            // Leave it for the next caller, the player stays gone
+            inbox.add(CLOSED);
+            return null;
+        }
+        return message;
+    }
+
+    @Override
+    public GameMessage observeMessage(long timeoutMillis) {
+        GameMessage message;
+        try {
+            message = inbox.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (message == CLOSED) {
+            inbox.add(CLOSED);
+            return null;
+        }
+        return message;
+    }
+
+    @Override
+    public void disconnect() {
+        close();
+    }
+
+    @Override
+    public long getRoundTripMicros() {
+        return roundTripMicros;
+    }
+
+    @Override
+    public boolean isRemote() {
+        return true;
+    }
+}
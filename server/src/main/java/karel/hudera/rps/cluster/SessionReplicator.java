@@ -0,0 +1,114 @@
+package karel.hudera.rps.cluster;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.game.SessionSnapshot;
+import karel.hudera.rps.utils.ServerLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Replicates the running games of this node to its standby node.
+ * <p>
+ * A game only records its latest snapshot here, which is two map updates, so the round never waits for the
+ * network. Every {@link Constants#CLUSTER_REPLICATION_INTERVAL_MS} the replication thread sends the snapshots
+ * changed since the last tick and the games that ended in one {@link ClusterMessage.Replicate}. When the
+ * standby changes, or a send failed, the next tick sends all running games, replacing what the standby had.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class SessionReplicator {
+
+    private static final Logger logger = ServerLogger.INSTANCE;
+
+    private final Supplier<Peer> standby;
+
+    // Latest snapshot of every running game, and of the games changed since the last tick, by session id
+    private final Map<Long, SessionSnapshot> running = new ConcurrentHashMap<>();
+    private final Map<Long, SessionSnapshot> changed = new ConcurrentHashMap<>();
+    private final Queue<Long> ended = new ConcurrentLinkedQueue<>();
+
+    // Only used by the replication thread
+    private Peer replicatingTo;
+
+    /**
+     * @param standby gives the peer to replicate to, null while there is none
+     */
+    SessionReplicator(Supplier<Peer> standby) {
+        this.standby = standby;
+    }
+
+    /**
+     * Starts the replication thread.
+     */
+    void start() {
+        Thread thread = new Thread(this::replicatePeriodically, "ClusterReplicationThread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void updated(SessionSnapshot snapshot) {
+        running.put(snapshot.sessionId(), snapshot);
+        changed.put(snapshot.sessionId(), snapshot);
+    }
+
+    void ended(long sessionId) {
+        running.remove(sessionId);
+        changed.remove(sessionId);
+        ended.add(sessionId);
+    }
+
+    private void replicatePeriodically() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(Constants.CLUSTER_REPLICATION_INTERVAL_MS);
+                replicate();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warning(String.format(Constants.ERROR_CLUSTER_REPLICATION, e.getMessage()));
+            } catch (Exception e) {
+                logger.severe(String.format(Constants.ERROR_CLUSTER_REPLICATION, e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Sends one batch to the standby: everything if the standby is new, otherwise what changed.
+     */
+    private void replicate() {
+        Peer peer = standby.get();
+        if (peer == null) {
+            replicatingTo = null;
+            return;
+        }
+
+        boolean full = peer != replicatingTo;
+        if (full) {
+            logger.info(String.format(Constants.LOG_CLUSTER_STANDBY, peer));
+        }
+        List<Long> endedBatch = new ArrayList<>();
+        for (Long sessionId; (sessionId = ended.poll()) != null; ) {
+            endedBatch.add(sessionId);
+        }
+        List<SessionSnapshot> batch = new ArrayList<>();
+        for (SessionSnapshot snapshot : (full ? running : changed).values()) {
+            batch.add(snapshot);
+        }
+        // A game updated meanwhile stays changed and goes out with the next batch
+        for (SessionSnapshot snapshot : batch) {
+            changed.remove(snapshot.sessionId(), snapshot);
+        }
+        if (!full && batch.isEmpty() && endedBatch.isEmpty()) {
+            return;
+        }
+
+        replicatingTo = peer.send(new ClusterMessage.Replicate(batch, endedBatch, full)) ? peer : null;
+    }
+}
@@ -0,0 +1,50 @@
+package karel.hudera.rps.game;
+
+/**
+ * Stands in for a player of a game taken over from a lost cluster node until the player logs in here
+ * and resumes the game. It is never connected, so the game waits for the player to reattach.
+ *
+ * @author Karel Hudera
+ */
+final class DetachedPlayer implements PlayerConnection {
+
+    private final String username;
+
+    DetachedPlayer(String username) {
+        this.username = username;
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public String getClientInfo() {
+        return username + " (detached)";
+    }
+
+    @Override
+    public boolean isConnected() {
+        return false;
+    }
+
+    @Override
+    public void sendMessage(GameMessage message) {
+        // Nobody to send to until the player resumes
+    }
+
+    @Override
+    public GameMessage observeMessage() {
+        return null;
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public long getRoundTripMicros() {
+        return -1;
+    }
+}
@@ -0,0 +1,82 @@
+package karel.hudera.rps.game;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * A message serialized once, to be written as it is to any number of connections.
+ * <p>
+ * The bytes are a reset marker followed by the message as a fresh object stream writes it, with every class
+ * description included. The reset makes the receiving {@code ObjectInputStream} forget the objects it read
+ * before, so the message reads correctly in the middle of any connection's stream, whatever was written
+ * there earlier. A connection that wrote such a message must reset its own {@code ObjectOutputStream}
+ * before writing to it again.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class EncodedMessage {
+
+    private final GameMessage message;
+    private final byte[] bytes;
+
+    private EncodedMessage(GameMessage message, byte[] bytes) {
+        this.message = message;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Serializes a message.
+     *
+     * @param message the message
+     * @return the encoded message
+     */
+    public static EncodedMessage encode(GameMessage message) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        buffer.write(ObjectStreamConstants.TC_RESET);
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot serialize " + message, e);
+        }
+        byte[] written = buffer.toByteArray();
+        // Drop the stream header the object stream wrote after the reset marker
+        byte[] bytes = new byte[written.length - 4];
+        bytes[0] = ObjectStreamConstants.TC_RESET;
+        System.arraycopy(written, 5, bytes, 1, written.length - 5);
+        return new EncodedMessage(message, bytes);
+    }
+
+    /**
+     * Writes the encoded bytes. The caller flushes.
+     *
+     * @param out the connection's stream
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    /**
+     * @return the message that was encoded
+     */
+    public GameMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the number of encoded bytes
+     */
+    public int size() {
+        return bytes.length;
+    }
+
+    @Override
+    public String toString() {
+        return message + " (" + bytes.length + " bytes)";
+    }
+}
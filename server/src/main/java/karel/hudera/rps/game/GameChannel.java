@@ -0,0 +1,135 @@
+package karel.hudera.rps.game;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One of several games a player plays over the same connection.
+ * <p>
+ * A connection plays its main game itself. For every {@link QueueRequest} with a non-zero id it opens a
+ * channel, which matchmaking and the game see as a player of its own. The channel sends through the
+ * connection, stamping its id on every {@link GameEvent}, and the connection hands it the moves that carry
+ * its id. A channel plays a single game and closes when the game ends or the connection closes; such a game
+ * cannot be resumed on a new connection.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class GameChannel implements PlayerConnection {
+
+    // Put into the inbox when the channel closes
+    private static final GameMessage CLOSED = new TerminateMessage();
+
+    private final PlayerConnection connection;
+    private final long gameId;
+    private final Consumer<GameChannel> onClose;
+    private final BlockingQueue<GameMessage> inbox = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+    /**
+     * @param connection the player's connection
+     * @param gameId     the id the client chose for the game, not 0
+     * @param onClose    called once when the channel closes
+     */
+    public GameChannel(PlayerConnection connection, long gameId, Consumer<GameChannel> onClose) {
+        this.connection = connection;
+        this.gameId = gameId;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Hands the channel a message the client sent for its game.
+     *
+     * @param message the message
+     */
+    public void deliver(GameMessage message) {
+        if (!closed) {
+            inbox.add(message);
+        }
+    }
+
+    /**
+     * Closes the channel; a game reading from it sees the player leave.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        inbox.add(CLOSED);
+        onClose.accept(this);
+    }
+
+    @Override
+    public long getGameId() {
+        return gameId;
+    }
+
+    @Override
+    public String getUsername() {
+        return connection.getUsername();
+    }
+
+    @Override
+    public String getClientInfo() {
+        return connection.getClientInfo() + "#" + gameId;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed && connection.isConnected();
+    }
+
+    @Override
+    public void sendMessage(GameMessage message) {
+        connection.sendMessage(message instanceof GameEvent event ? event.forGame(gameId) : message);
+    }
+
+    @Override
+    public GameMessage observeMessage() {
+        GameMessage message;
+        try {
+            message = inbox.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (message == CLOSED) {
+            // Leave it for the next caller, the channel stays closed
+            inbox.add(CLOSED);
+            return null;
+        }
+        return message;
+    }
+
+    @Override
+    public GameMessage observeMessage(long timeoutMillis) {
+        GameMessage message;
+        try {
+            message = inbox.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (message == CLOSED) {
+            inbox.add(CLOSED);
+            return null;
+        }
+        return message;
+    }
+
+    /**
+     * Closes only this channel, the connection's other games go on.
+     */
+    @Override
+    public void disconnect() {
+        close();
+    }
+
+    @Override
+    public long getRoundTripMicros() {
+        return connection.getRoundTripMicros();
+    }
+}
@@ -1,15 +1,21 @@
 package karel.hudera.rps.game;
 
+import karel.hudera.rps.cluster.ClusterNode;
+import karel.hudera.rps.cluster.RemotePlayer;
 import karel.hudera.rps.constants.Constants;
-import karel.hudera.rps.server.ClientHandler;
+import karel.hudera.rps.history.ReplayService;
+import karel.hudera.rps.state.ServerState;
 import karel.hudera.rps.utils.ServerLogger;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.ToLongFunction;
 import java.util.logging.Logger;
 
 /**
@@ -17,10 +23,17 @@ import java.util.logging.Logger;
  * This class is responsible for:
  * <ul>
  *   <li>Maintaining a queue of waiting players</li>
- *   <li>Matching players to create game sessions</li>
+ *   <li>Matching players with a similar round-trip time to create game sessions</li>
  *   <li>Managing active game sessions</li>
  *   <li>Handling player reconnection to the waiting queue after a game</li>
+ *   <li>Attaching spectators to running games</li>
+ *   <li>Pairing players inside rooms, see {@link RoomDirectory}</li>
  * </ul>
+ * Players are only paired with players that want the same {@link MatchFormat}: every format has its own
+ * queue and matchmaking thread, created when the first player asks for the format.
+ * The queue of the standard format is the one shared with the cluster.
+ * In a cluster, the queue also holds players waiting on other nodes; a game against one of them is only
+ * created once its node handed the player over, see {@link ClusterNode}.
  *
  * @author Karel Hudera
  */
@@ -30,27 +43,106 @@ public class GameManager {
     // Singleton instance
     private static GameManager instance;
 
-    // Queue for waiting players
-    private final ConcurrentLinkedQueue<ClientHandler> waitingPlayers;
+    // Waiting players of the standard format, paired by latency band
+    private final MatchmakingQueue waitingPlayers;
+
+    // Waiting players of the other formats, one queue per format
+    private final Map<MatchFormat, MatchmakingQueue> formatQueues = new ConcurrentHashMap<>();
+    private final ToLongFunction<PlayerConnection> roundTripMicros;
+    private final boolean backgroundThreads;
+
+    // Rooms, whose members are paired among themselves instead of through waitingPlayers
+    private final RoomDirectory rooms = new RoomDirectory();
 
     // List of active game sessions
     private final List<GameSession> activeSessions;
 
-    // Thread pool for running game sessions
+    // Running game sessions by lower-case username, used to resume a session after a reconnect
+    private final Map<String, GameSession> sessionsByPlayer = new ConcurrentHashMap<>();
+
+    // Runs every game session and every player's after-game handling on a virtual thread of its own. A session
+    // mostly waits for moves and a finished player for its next request, so a thread per task costs little,
+    // and a connection playing many games at once cannot starve the others of threads.
     private final ExecutorService gameExecutor;
 
+    // Connections in spectator mode and the game each one watches. Their messages are handled on their
+    // reader threads, so thousands of spectators do not take threads from the pool.
+    private final Map<Spectator, Watching> spectators = new ConcurrentHashMap<>();
+
+    /**
+     * @param session the watched game, null between games
+     */
+    private record Watching(GameSession session) {
+    }
+
+    /**
+     * A player between games.
+     *
+     * @param player     the player
+     * @param lastFormat the format of the game that ended
+     */
+    private record AfterGame(PlayerConnection player, MatchFormat lastFormat) {
+    }
+
+    // History, stats and replay requests, answered in spectator mode and after a game
+    private final MessageDispatcher<PlayerConnection> queries = new MessageDispatcher<PlayerConnection>()
+            .on(MessageType.HISTORY_REQUEST, this::answerHistory)
+            .on(MessageType.STATS_REQUEST, this::answerStats)
+            .on(MessageType.REPLAY_REQUEST, this::answerReplay);
+
+    // What a player may ask during its game. A replay is not started, it would mix with the game's messages
+    private final MessageDispatcher<PlayerConnection> inGame = new MessageDispatcher<PlayerConnection>()
+            .on(MessageType.HISTORY_REQUEST, this::answerHistory)
+            .on(MessageType.STATS_REQUEST, this::answerStats);
+
+    // What a player may do after a game besides asking queries; each of these ends the after-game handling
+    private final MessageDispatcher<AfterGame> afterGame = new MessageDispatcher<AfterGame>()
+            .on(MessageType.QUEUE_REQUEST, this::playAgain)
+            .on(MessageType.CREATE_ROOM_REQUEST, this::enterRoomAfterGame)
+            .on(MessageType.JOIN_ROOM_REQUEST, this::enterRoomAfterGame)
+            .on(MessageType.SPECTATE_REQUEST, this::watchAfterGame)
+            .on(MessageType.TERMINATE, (state, message) -> true);
+
     /**
      * Private constructor for a singleton pattern.
      */
     private GameManager() {
-        this.waitingPlayers = new ConcurrentLinkedQueue<>();
+        this(true);
+    }
+
+    /**
+     * Creates a game manager, optionally without its background threads.
+     * Only the benchmarks create instances with {@code startBackgroundThreads == false}
+     * so that they can drive {@link #pollPairs()} themselves.
+     *
+     * @param startBackgroundThreads whether to start the matchmaking and cleanup threads
+     */
+    GameManager(boolean startBackgroundThreads) {
+        this(startBackgroundThreads, PlayerConnection::getRoundTripMicros);
+    }
+
+    /**
+     * Creates a game manager that matches players by the given round-trip times.
+     * The benchmarks use it to place unconnected handlers into latency bands.
+     *
+     * @param startBackgroundThreads whether to start the matchmaking and cleanup threads
+     * @param roundTripMicros        gives the smoothed round-trip time of a player in microseconds, negative if unknown
+     */
+    GameManager(boolean startBackgroundThreads, ToLongFunction<PlayerConnection> roundTripMicros) {
+        this.waitingPlayers = new MatchmakingQueue(roundTripMicros);
+        this.roundTripMicros = roundTripMicros;
+        this.backgroundThreads = startBackgroundThreads;
         this.activeSessions = Collections.synchronizedList(new ArrayList<>());
 
-        // Thread pool
-        this.gameExecutor = Executors.newFixedThreadPool(100);
+        this.gameExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("GameSession-", 0).factory());
+
+        if (!startBackgroundThreads) {
+            return;
+        }
 
         // Start the matchmaking thread
-        Thread matchmakingThread = new Thread(this::performMatchmaking, "MatchmakingThread");
+        Thread matchmakingThread = new Thread(() -> performMatchmaking(waitingPlayers, MatchFormat.STANDARD),
+                "MatchmakingThread");
         matchmakingThread.setDaemon(true);
         matchmakingThread.start();
 
@@ -75,52 +167,309 @@ public class GameManager {
     }
 
     /**
-     * Adds a player to the waiting queue.
+     * Adds a player to the waiting queue of the standard format, or to its room if it is in one.
+     *
+     * @param player The player to add
+     */
+    public void addWaitingPlayer(PlayerConnection player) {
+        addWaitingPlayer(player, MatchFormat.STANDARD);
+    }
+
+    /**
+     * Adds a player to the waiting queue of a format, or to its room if it is in one.
+     * In a room the player is paired at once if another member waits, and plays the room's format.
      *
-     * @param clientHandler The client handler for the player to add
+     * @param player The player to add
+     * @param format The format the player wants to play; null or an unsupported one means the standard format
      */
-    public void addWaitingPlayer(ClientHandler clientHandler) {
-        waitingPlayers.add(clientHandler);
-        logger.info(String.format(Constants.LOG_PLAYER_WAITING, clientHandler.getClientInfo()));
+    public void addWaitingPlayer(PlayerConnection player, MatchFormat format) {
+        RoomDirectory.Room room = rooms.roomOf(player);
+        if (room != null) {
+            PlayerConnection opponent = room.pairOrWait(player);
+            if (opponent != null) {
+                createGameSession(opponent, player, room.getFormat());
+            } else {
+                logger.info(String.format(Constants.LOG_PLAYER_WAITING_IN_ROOM, player.getClientInfo(), room));
+            }
+            return;
+        }
+        if (format == null || !format.isSupported() || format.equals(MatchFormat.STANDARD)) {
+            waitingPlayers.add(player, System.currentTimeMillis());
+            logger.info(String.format(Constants.LOG_PLAYER_WAITING, player.getClientInfo()));
+            ClusterNode.getInstance().playerWaiting(player);
+            return;
+        }
+        queueOf(format).add(player, System.currentTimeMillis());
+        logger.info(String.format(Constants.LOG_PLAYER_WAITING_FOR_FORMAT, player.getClientInfo(), format));
+    }
+
+    /**
+     * Moves a waiting player to the queue of the format it asked for.
+     * A player that is not waiting is not handled here; after a game its request goes to the after-game handling.
+     *
+     * @param player  the player
+     * @param request the request it sent
+     * @return true if the player was waiting and now waits for the format
+     */
+    public boolean requeue(PlayerConnection player, QueueRequest request) {
+        if (!removeWaitingPlayer(player)) {
+            return false;
+        }
+        addWaitingPlayer(player, request.getFormat());
+        return true;
+    }
+
+    /**
+     * Gets the queue of a format other than the standard one, creating it and its matchmaking thread
+     * for the first player that asks for the format.
+     */
+    private MatchmakingQueue queueOf(MatchFormat format) {
+        return formatQueues.computeIfAbsent(format, key -> {
+            MatchmakingQueue queue = new MatchmakingQueue(roundTripMicros);
+            if (backgroundThreads) {
+                Thread thread = new Thread(() -> performMatchmaking(queue, key), "MatchmakingThread-" + key);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            return queue;
+        });
     }
 
     /**
      * Removes a player from the waiting queue.
      *
-     * @param clientHandler The client handler for the player to remove
+     * @param player The player to remove
+     * @return true if the player was waiting
      */
-    public void removeWaitingPlayer(ClientHandler clientHandler) {
-        boolean removed = waitingPlayers.remove(clientHandler);
+    public boolean removeWaitingPlayer(PlayerConnection player) {
+        if (rooms.removeWaiting(player)) {
+            return true;
+        }
+        boolean removed = waitingPlayers.remove(player);
         if (removed) {
-            logger.info(String.format(Constants.LOG_PLAYER_LEFT_QUEUE, clientHandler.getClientInfo()));
+            logger.info(String.format(Constants.LOG_PLAYER_LEFT_QUEUE, player.getClientInfo()));
+            ClusterNode.getInstance().playerNotWaiting(player);
+            return true;
+        }
+        for (MatchmakingQueue queue : formatQueues.values()) {
+            if (queue.remove(player)) {
+                logger.info(String.format(Constants.LOG_PLAYER_LEFT_QUEUE, player.getClientInfo()));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handles the room messages of a waiting player or a spectator: creating or joining a room moves it
+     * there, leaving one moves it to the global queue, and the public rooms are listed to anyone.
+     * A player in or after a game is not moved here; its request goes to the after-game handling.
+     *
+     * @param player  the connection
+     * @param message the message it sent
+     * @return true if the message was handled here
+     */
+    public boolean handleRoomMessage(PlayerConnection player, GameMessage message) {
+        if (message instanceof RoomListRequest request) {
+            player.sendMessage(new RoomListResponse(rooms.list(request.getAfter(), Constants.ROOM_LIST_PAGE)));
+            return true;
+        }
+        if (!(message instanceof CreateRoomRequest) && !(message instanceof JoinRoomRequest)) {
+            return false;
+        }
+        boolean spectating = player instanceof Spectator spectator && spectators.containsKey(spectator);
+        if (!spectating && !removeWaitingPlayer(player)) {
+            return false;
+        }
+        if (player instanceof Spectator spectator) {
+            stopWatching(spectator);
+        }
+        stopReplay(player);
+        enterRoom(player, message);
+        return true;
+    }
+
+    /**
+     * Takes a player out of its room, e.g. when its connection closes.
+     *
+     * @param player the player
+     */
+    public void leaveRoom(PlayerConnection player) {
+        rooms.leave(player);
+    }
+
+    /**
+     * Carries out a room request of a player that waits nowhere, answers it and lets the player wait
+     * where it is now. If the request fails the player stays in the room it was in.
+     */
+    private void enterRoom(PlayerConnection player, GameMessage message) {
+        RoomDirectory.Room room;
+        if (message instanceof CreateRoomRequest create) {
+            MatchFormat format = create.getFormat() != null && create.getFormat().isSupported()
+                    ? create.getFormat() : MatchFormat.STANDARD;
+            room = rooms.create(player, create.getName(), create.isPrivateRoom(), format);
+            if (room != null) {
+                logger.info(String.format(Constants.LOG_ROOM_CREATED, room, player.getClientInfo()));
+            }
+        } else {
+            String name = ((JoinRoomRequest) message).getRoom();
+            if (name == null) {
+                rooms.leave(player);
+            }
+            room = rooms.join(player, name);
         }
+
+        RoomDirectory.Room current = room != null ? room : rooms.roomOf(player);
+        player.sendMessage(current != null
+                ? new RoomResponse(current.getName(), current.getInviteCode(), room != null)
+                : new RoomResponse(null, null, message instanceof JoinRoomRequest join && join.getRoom() == null));
+        addWaitingPlayer(player);
+    }
+
+    /**
+     * Attaches a reconnected player to the game that was interrupted by the disconnect.
+     *
+     * @param clientHandler The new connection
+     * @return true if the player has a running game and was attached to it
+     */
+    public boolean resumeSession(PlayerConnection clientHandler) {
+        GameSession session = sessionsByPlayer.get(clientHandler.getUsername().toLowerCase());
+        return session != null && session.reattach(clientHandler);
     }
 
     /**
-     * Continuously matches waiting players and creates game sessions.
+     * Continues a game of a lost cluster node from the state it replicated to this node.
+     * The game waits for its players to log in here and resume it.
+     *
+     * @param snapshot the last replicated state of the game
      */
-    private void performMatchmaking() {
+    public void takeOverSession(SessionSnapshot snapshot) {
+        runSession(new GameSession(snapshot));
+    }
+
+    /**
+     * Handles a message of a connection that watches games or asks to. A waiting player that sends a
+     * {@link SpectateRequest} leaves the queue and becomes a spectator. A spectator may switch to another game,
+     * ask for history and stats, or send anything else to stop watching and join the queue.
+     * A player in or after a game is not handled here; its request goes to the game or the after-game handling.
+     *
+     * @param spectator the connection
+     * @param message   the message it sent
+     * @return true if the message was handled here
+     */
+    public boolean handleSpectatorMessage(Spectator spectator, GameMessage message) {
+        boolean isSpectator = spectators.containsKey(spectator);
+        if (message instanceof SpectateRequest request) {
+            if (!isSpectator && !removeWaitingPlayer(spectator)) {
+                return false;
+            }
+            stopReplay(spectator);
+            watch(spectator, request.getUsername());
+            return true;
+        }
+        if (!isSpectator || message instanceof TerminateMessage) {
+            return false;
+        }
+        try {
+            if (queries.dispatch(spectator, message)) {
+                return true;
+            }
+        } catch (IOException e) {
+            logger.warning(String.format(Constants.ERROR_SPECTATOR_QUERY, spectator.getClientInfo(), e.getMessage()));
+            return true;
+        }
+        stopWatching(spectator);
+        stopReplay(spectator);
+        addWaitingPlayer(spectator, message instanceof QueueRequest request ? request.getFormat() : null);
+        return true;
+    }
+
+    /**
+     * Handles a message other than a move that a player sent during its game, or while it waited for it.
+     * History and stats requests are answered; anything else, such as a replay or room request, is dropped
+     * and the player may send it again after the game. A {@link TerminateMessage} is not handled here,
+     * the player is leaving the game.
+     *
+     * @param player  the player
+     * @param message the message it sent
+     * @return true if the message was handled here and the game goes on reading the player's move
+     */
+    public boolean handleInGameMessage(PlayerConnection player, GameMessage message) {
+        if (message instanceof TerminateMessage) {
+            return false;
+        }
+        try {
+            if (!inGame.dispatch(player, message)) {
+                logger.fine(String.format(Constants.LOG_MESSAGE_DROPPED, player.getClientInfo(), message));
+            }
+        } catch (IOException e) {
+            logger.warning(String.format(Constants.ERROR_IN_GAME_QUERY, player.getClientInfo(), e.getMessage()));
+        }
+        return true;
+    }
+
+    /**
+     * Ends spectator mode of a connection, e.g. when it closes.
+     *
+     * @param spectator the connection
+     */
+    public void stopWatching(Spectator spectator) {
+        Watching watching = spectators.remove(spectator);
+        if (watching != null && watching.session() != null) {
+            watching.session().removeSpectator(spectator);
+        }
+    }
+
+    /**
+     * Attaches a spectator to the running game of a player, leaving the game it watched before.
+     */
+    private void watch(Spectator spectator, String username) {
+        Watching previous = spectators.put(spectator, new Watching(null));
+        if (previous != null && previous.session() != null) {
+            previous.session().removeSpectator(spectator);
+        }
+        GameSession session = username != null ? sessionsByPlayer.get(username.toLowerCase()) : null;
+        if (session == null || !session.addSpectator(spectator, username)) {
+            spectator.sendMessage(new SpectateResponse(username, false));
+            return;
+        }
+        spectators.replace(spectator, new Watching(null), new Watching(session));
+        logger.info(String.format(Constants.LOG_SPECTATOR_WATCHING, spectator.getClientInfo(), username));
+    }
+
+    /**
+     * Lets the matchmaking reconsider a waiting player whose round-trip time was just measured.
+     *
+     * @param player the player
+     */
+    public void roundTripMeasured(PlayerConnection player) {
+        waitingPlayers.roundTripMeasured(player);
+        formatQueues.values().forEach(queue -> queue.roundTripMeasured(player));
+        ClusterNode.getInstance().roundTripMeasured(player);
+    }
+
+    /**
+     * Takes back a local player after its game on another node of the cluster ended.
+     *
+     * @param player the player
+     */
+    public void returnFromRemoteGame(PlayerConnection player) {
+        gameExecutor.submit(() -> handleAfterGame(player, MatchFormat.STANDARD));
+    }
+
+    /**
+     * Continuously matches the waiting players of one format and creates game sessions.
+     * The thread sleeps until a pair can be formed, see {@link MatchmakingQueue#awaitPairs()}.
+     *
+     * @param queue  the queue of the format
+     * @param format the format
+     */
+    private void performMatchmaking(MatchmakingQueue queue, MatchFormat format) {
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                if (waitingPlayers.size() >= 2) {
-                    ClientHandler player1 = waitingPlayers.poll();
-
-                    // Check if player1 is still connected
-                    if (player1 != null && player1.isConnected()) {
-                        ClientHandler player2 = waitingPlayers.poll();
-
-                        // Check if player2 is still connected
-                        if (player2 != null && player2.isConnected()) {
-                            createGameSession(player1, player2);
-                        } else if (player1.isConnected()) {
-                            // Put player1 back in the queue if player2 disconnected
-                            waitingPlayers.add(player1);
-                        }
-                    }
+                for (PlayerConnection[] pair : queue.awaitPairs()) {
+                    startGame(pair[0], pair[1], format);
                 }
-
-                // Sleep to prevent CPU hogging
-                Thread.sleep(100);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 logger.warning(String.format(Constants.ERROR_MATCHMAKING_INTERRUPTED, e.getMessage()));
@@ -130,23 +479,88 @@ public class GameManager {
         }
     }
 
+    /**
+     * Takes every pair that can be formed now from the waiting players of the standard format.
+     *
+     * @return the matched pairs, empty if no pair could be formed
+     */
+    List<PlayerConnection[]> pollPairs() {
+        return waitingPlayers.pollPairs(System.currentTimeMillis());
+    }
+
+    /**
+     * Starts a game between two paired players. A player of another node is claimed from its node first;
+     * if the node refuses, the local player goes back to the queue.
+     *
+     * @param player1 The player that waited longer, always local
+     * @param player2 The opponent, local or remote
+     * @param format  The format of the match
+     */
+    private void startGame(PlayerConnection player1, PlayerConnection player2, MatchFormat format) {
+        ClusterNode cluster = ClusterNode.getInstance();
+        cluster.playerNotWaiting(player1);
+        if (!(player2 instanceof RemotePlayer remote)) {
+            cluster.playerNotWaiting(player2);
+            createGameSession(player1, player2, format);
+            return;
+        }
+        cluster.claim(remote, player1).thenAccept(claimed -> {
+            if (claimed) {
+                createGameSession(player1, remote, format);
+            } else if (player1.isConnected()) {
+                addWaitingPlayer(player1);
+            }
+        });
+    }
+
     /**
      * Creates a new game session between two players and submits it to the executor.
      *
      * @param player1 The first player
      * @param player2 The second player
+     * @param format  The format of the match
+     */
+    private void createGameSession(PlayerConnection player1, PlayerConnection player2, MatchFormat format) {
+        runSession(new GameSession(player1, player2, format));
+    }
+
+    /**
+     * Registers a game session for resuming and submits it to the executor.
+     *
+     * @param session the session
      */
-    private void createGameSession(ClientHandler player1, ClientHandler player2) {
-        GameSession session = new GameSession(player1, player2);
+    private void runSession(GameSession session) {
+        PlayerConnection player1 = session.getPlayer1();
+        PlayerConnection player2 = session.getPlayer2();
         activeSessions.add(session);
+        String username1 = player1.getUsername().toLowerCase();
+        String username2 = player2.getUsername().toLowerCase();
+        // Only a connection's main game can be resumed and watched by the player's name
+        if (player1.getGameId() == 0) {
+            sessionsByPlayer.put(username1, session);
+        }
+        if (player2.getGameId() == 0) {
+            sessionsByPlayer.put(username2, session);
+        }
 
-        // Submit the game session to the thread pool
         gameExecutor.submit(() -> {
             try {
-                session.play();
+                try {
+                    session.play();
+                } finally {
+                    sessionsByPlayer.remove(username1, session);
+                    sessionsByPlayer.remove(username2, session);
+                    // Spectators stay in spectator mode and may pick another game
+                    for (Spectator spectator : session.removeSpectators()) {
+                        spectators.replace(spectator, new Watching(session), new Watching(null));
+                    }
+                }
 
-                // After game ends, check if players want to play again
-                handlePlayAgainRequests(player1, player2);
+                // After game ends, each player may look at the history and then play again or leave
+                PlayerConnection finished1 = session.getPlayer1();
+                PlayerConnection finished2 = session.getPlayer2();
+                gameExecutor.submit(() -> handleAfterGame(finished1, session.getFormat()));
+                handleAfterGame(finished2, session.getFormat());
             } catch (Exception e) {
                 logger.severe(String.format(Constants.ERROR_GAME_SESSION_FAILURE,
                         player1.getClientInfo(), player2.getClientInfo(), e.getMessage()));
@@ -155,25 +569,37 @@ public class GameManager {
     }
 
     /**
-     * Handles requests from players to play again after a game ends.
+     * Handles the messages of a player after a game ends. History and stats requests are answered;
+     * a room request moves the player to a room, or from its room to the global queue, and lets it wait there;
+     * a {@link QueueRequest} means the player wants to play again, in the format it asks for or in the format
+     * of the game that ended; TerminateMessage means the player is leaving.
+     * A {@link SpectateRequest} makes the player a spectator, see {@link #handleSpectatorMessage}.
+     * Anything else, such as a {@link GameMove} that arrived after the match was decided, is dropped.
+     * Players are handled separately, so one player deciding slowly does not hold up the other.
+     * A player of another node is handed back to that node, and a {@link GameChannel} closes.
      *
-     * @param player1 The first player
-     * @param player2 The second player
+     * @param player     The player whose game ended
+     * @param lastFormat The format of the game that ended
      */
-    private void handlePlayAgainRequests(ClientHandler player1, ClientHandler player2) {
+    private void handleAfterGame(PlayerConnection player, MatchFormat lastFormat) {
+        if (player instanceof RemotePlayer remote) {
+            remote.release();
+            return;
+        }
+        if (player instanceof GameChannel channel) {
+            // A game besides the main one is played once; the client opens another with a new QueueRequest
+            channel.close();
+            return;
+        }
+        AfterGame state = new AfterGame(player, lastFormat);
         try {
-            // Add connected players who want to play again back to the waiting queue
-            if (player1.isConnected()) {
-                GameMessage response1 = player1.observeMessage();
-                if (response1 != null /* && response1.(Constants.RESP_YES)*/) {
-                    addWaitingPlayer(player1);
+            while (player.isConnected()) {
+                GameMessage response = player.observeMessage();
+                if (response == null || afterGame.dispatch(state, response)) {
+                    return;
                 }
-            }
-
-            if (player2.isConnected()) {
-                GameMessage response2 = player2.observeMessage();
-                if (response2 != null /* && response2.equalsIgnoreCase(Constants.RESP_YES)*/) {
-                    addWaitingPlayer(player2);
+                if (!queries.dispatch(player, response)) {
+                    logger.fine(String.format(Constants.LOG_MESSAGE_DROPPED, player.getClientInfo(), response));
                 }
             }
         } catch (Exception e) {
@@ -181,6 +607,70 @@ public class GameManager {
         }
     }
 
+    private boolean playAgain(AfterGame state, QueueRequest request) {
+        stopReplay(state.player());
+        addWaitingPlayer(state.player(), request.getFormat() != null ? request.getFormat() : state.lastFormat());
+        return true;
+    }
+
+    private boolean enterRoomAfterGame(AfterGame state, GameMessage request) {
+        stopReplay(state.player());
+        enterRoom(state.player(), request);
+        return true;
+    }
+
+    private boolean watchAfterGame(AfterGame state, SpectateRequest request) {
+        if (!(state.player() instanceof Spectator spectator)) {
+            return false;
+        }
+        stopReplay(spectator);
+        watch(spectator, request.getUsername());
+        return true;
+    }
+
+    /**
+     * Answers a history request.
+     *
+     * @throws IOException if the server state cannot be loaded
+     */
+    private boolean answerHistory(PlayerConnection player, HistoryRequest request) throws IOException {
+        player.sendMessage(ServerState.getInstance().getHistoryIndex().query(player.getUsername(), request));
+        return true;
+    }
+
+    /**
+     * Answers a stats request, about the player itself if it names nobody.
+     *
+     * @throws IOException if the server state cannot be loaded
+     */
+    private boolean answerStats(PlayerConnection player, StatsRequest request) throws IOException {
+        String username = request.getUsername() != null ? request.getUsername() : player.getUsername();
+        ServerState state = ServerState.getInstance();
+        player.sendMessage(state.getStats().query(username, state.getLeaderboard().snapshot()));
+        return true;
+    }
+
+    /**
+     * Starts a replay, see {@link ReplayService}.
+     *
+     * @throws IOException if the history cannot be opened
+     */
+    private boolean answerReplay(PlayerConnection player, ReplayRequest request) throws IOException {
+        ReplayService.getInstance().replay(player, request);
+        return true;
+    }
+
+    /**
+     * Stops the replay a player is watching, so it does not mix with the game the player goes on to.
+     */
+    private void stopReplay(PlayerConnection player) {
+        try {
+            ReplayService.getInstance().cancel(player);
+        } catch (IOException e) {
+            // Without a history there is no replay to stop
+        }
+    }
+
     /**
      * Periodically removes inactive game sessions from the list.
      */
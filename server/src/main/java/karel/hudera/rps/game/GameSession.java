@@ -1,36 +1,108 @@
 package karel.hudera.rps.game;
 
+import karel.hudera.rps.cluster.ClusterNode;
 import karel.hudera.rps.constants.Constants;
-import karel.hudera.rps.server.ClientHandler;
+import karel.hudera.rps.history.MatchHistoryStore;
+import karel.hudera.rps.history.MatchRecord;
+import karel.hudera.rps.state.ServerState;
 import karel.hudera.rps.utils.ServerLogger;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Represents a game session between two players in the Rock-Paper-Scissors game.
  * Manages the game state, player moves, and determines the winner.
+ * <p>
+ * The {@link MatchFormat} decides how many rounds are played: the game ends as soon as the format says it
+ * is decided, so a lopsided best-of match frees its thread early. In a blitz match a player that does not
+ * move in time loses the round.
+ * </p>
+ * <p>
+ * In a cluster, the state is replicated to the standby node after every move, so the standby can continue
+ * the game if this node dies, see {@link #GameSession(SessionSnapshot)}.
+ * </p>
+ * <p>
+ * Spectators can watch the game from either player's point of view. They get the same {@code GameStart},
+ * {@code RoundResult} and {@code GameResult} as that player, after the player, through a {@link SpectatorFeed}.
+ * </p>
  *
  * @author Karel Hudera
  */
 public class GameSession {
     private static final Logger logger = ServerLogger.INSTANCE;
 
-    private final ClientHandler player1;
-    private final ClientHandler player2;
+    private static final AtomicLong SESSION_IDS = new AtomicLong();
+
+    private final long id = SESSION_IDS.incrementAndGet();
+
+    // Players can be replaced while the game runs when they resume the session on a new connection
+    private volatile PlayerConnection player1;
+    private volatile PlayerConnection player2;
     private volatile boolean isActive;
+    private final MatchFormat format;
+
+    // A lock rather than a monitor, so a session waiting for a player does not pin its virtual thread's carrier
+    private final ReentrantLock reattachLock = new ReentrantLock();
+    private final Condition reattached = reattachLock.newCondition();
+    private volatile boolean player1Resumed;
+    private volatile boolean player2Resumed;
+
+    // Read by threads attaching spectators, which show the state of the game
+    private volatile int round;
+    private int player1Score;
+    private int player2Score;
+    // The first player's move while the second player has not moved yet
+    private Move pendingMove1;
+    // Set by readMove when a player of a blitz match ran out of time in the current round, by slot
+    private final boolean[] missedMove = new boolean[3];
+
+    // Set for a game taken over from a lost cluster node, which continues after the rounds already played
+    private final boolean takenOver;
+    private final int firstRound;
+    private final boolean replicated;
+
+    private final SpectatorFeed spectators = new SpectatorFeed();
+
+    // Recorded into the match history when the game ends
+    private long startedAt;
+    private final List<MatchRecord.Round> playedRounds = new ArrayList<>();
+
+    /**
+     * Creates a new game session between two players in the standard format.
+     *
+     * @param player1 The first player
+     * @param player2 The second player
+     */
+    public GameSession(PlayerConnection player1, PlayerConnection player2) {
+        this(player1, player2, MatchFormat.STANDARD);
+    }
 
     /**
      * Creates a new game session between two players.
      *
      * @param player1 The first player
      * @param player2 The second player
+     * @param format  The format of the match
      */
-    public GameSession(ClientHandler player1, ClientHandler player2) {
+    public GameSession(PlayerConnection player1, PlayerConnection player2, MatchFormat format) {
         this.player1 = player1;
         this.player2 = player2;
+        this.format = format;
         this.isActive = true;
+        this.takenOver = false;
+        this.firstRound = 1;
+        // A player of another node cannot resume on the standby, nor can one of several games on a connection,
+        // so games with such a player are not replicated
+        this.replicated = ClusterNode.getInstance().isEnabled() && !player1.isRemote() && !player2.isRemote()
+                && player1.getGameId() == 0 && player2.getGameId() == 0;
 
         logger.info("GameSession: Constructor entered.");
         try {
@@ -45,6 +117,31 @@ public class GameSession {
                 player1.getClientInfo(), player2.getClientInfo()));
     }
 
+    /**
+     * Continues a game of a lost cluster node from its replicated state. Both players are detached until they
+     * log in here and resume the game; a player that does not come back in time forfeits like any other
+     * disconnected player.
+     *
+     * @param snapshot the last replicated state of the game
+     */
+    GameSession(SessionSnapshot snapshot) {
+        this.player1 = new DetachedPlayer(snapshot.player1());
+        this.player2 = new DetachedPlayer(snapshot.player2());
+        this.format = snapshot.format();
+        this.isActive = true;
+        this.takenOver = true;
+        this.firstRound = snapshot.roundsPlayed() + 1;
+        this.replicated = ClusterNode.getInstance().isEnabled();
+        this.player1Score = snapshot.player1Score();
+        this.player2Score = snapshot.player2Score();
+        this.pendingMove1 = snapshot.pendingMove1();
+        this.startedAt = snapshot.startedAt();
+        this.playedRounds.addAll(snapshot.rounds());
+
+        logger.info(String.format(Constants.LOG_SESSION_TAKEN_OVER,
+                snapshot.player1(), snapshot.player2(), snapshot.roundsPlayed()));
+    }
+
     /**
      * Runs the game session between the two players.
      * This method handles the game flow, including:
@@ -55,38 +152,53 @@ public class GameSession {
      */
     public void play() {
         logger.info("GameSession: Starting play method.");
-        int player1Score = 0;
-        int player2Score = 0;
 
         try {
-            player1.sendMessage(new GameStart(player2.getUsername()));
-            player2.sendMessage(new GameStart(player1.getUsername()));
+            if (!takenOver) {
+                sendToBoth(new GameStart(player2.getUsername(), format), new GameStart(player1.getUsername(), format));
+                startedAt = System.currentTimeMillis();
+            }
+            replicate();
 
-            for (int round = 1; round <= 3; round++) {
+            for (round = firstRound; !format.isOver(round - 1, player1Score, player2Score); round++) {
                 logger.info("GameSession: Starting round " + round);
 
-                GameMessage message1 = player1.observeMessage();
-                GameMessage message2 = player2.observeMessage();
+                // Moves are read one after the other, but each decision time ends when the move arrived,
+                // so a quick second player is not charged for the wait for the first one
+                long roundStart = System.currentTimeMillis();
+                long deadline = format.getMoveMillis() > 0 ? roundStart + format.getMoveMillis() : 0;
+                missedMove[1] = missedMove[2] = false;
+                GameMove gameMove1 = pendingMove1 != null ? null : readMove(1, deadline);
+                Move move1 = pendingMove1 != null ? pendingMove1 : gameMove1 != null ? gameMove1.getMove() : null;
+                long decided1 = pendingMove1 != null ? roundStart : decidedAt(gameMove1);
+                if (move1 != null && pendingMove1 == null) {
+                    pendingMove1 = move1;
+                    replicate();
+                }
+                GameMove gameMove2 = move1 != null || missedMove[1] ? readMove(2, deadline) : null;
+                Move move2 = gameMove2 != null ? gameMove2.getMove() : null;
+                long decided2 = decidedAt(gameMove2);
 
-                if (!(message1 instanceof GameMove) || !(message2 instanceof GameMove)) {
+                if ((move1 == null && !missedMove[1]) || (move2 == null && !missedMove[2])) {
                     logger.warning("GameSession: Invalid or null GameMove received.");
                     handleDisconnection();
+                    recordGame(true);
                     return;
                 }
+                // Out of time in a blitz match: the late player has no move and loses the round, both late draw
+                // A player that resumed while the other one was moving learns the state before the result
+                announceResumed(1);
+                announceResumed(2);
+                playedRounds.add(new MatchRecord.Round(move1, move2,
+                        (int) Math.max(0, decided1 - roundStart), (int) Math.max(0, decided2 - roundStart)));
+                pendingMove1 = null;
 
-                Move move1 = ((GameMove) message1).getMove();
-                Move move2 = ((GameMove) message2).getMove();
-                Result result1, result2;
+                Result result1 = resolveRound(move1, move2);
+                Result result2 = opposite(result1);
 
-                if (move1 == move2) {
-                    result1 = result2 = Result.DRAW;
-                } else if (isWinner(move1, move2)) {
-                    result1 = Result.WIN;
-                    result2 = Result.LOSE;
+                if (result1 == Result.WIN) {
                     player1Score++;
-                } else {
-                    result1 = Result.LOSE;
-                    result2 = Result.WIN;
+                } else if (result1 == Result.LOSE) {
                     player2Score++;
                 }
 
@@ -96,21 +208,231 @@ public class GameSession {
                         player2.getUsername(), move2,
                         result1, result2));
 
+                replicate();
+
                 // Notify players about round results
-                player1.sendMessage(new RoundResult(move1, move2, result1, player1Score, player2Score));
-                player2.sendMessage(new RoundResult(move2, move1, result2, player2Score, player1Score));
+                sendToBoth(new RoundResult(move1, move2, result1, player1Score, player2Score),
+                        new RoundResult(move2, move1, result2, player2Score, player1Score));
             }
 
             // Determine and send final result
             sendFinalResults(player1Score, player2Score);
+            recordGame(false);
 
-        } catch (IOException e) {
-            logger.warning(String.format(Constants.ERROR_GAME_COMMUNICATION,
-                    player1.getClientInfo(), player2.getClientInfo(), e.getMessage()));
-            handleDisconnection();
         } finally {
             isActive = false;
+            if (replicated) {
+                ClusterNode.getInstance().sessionEnded(id);
+            }
+        }
+    }
+
+    /**
+     * Sends each player its message, then the spectators watching that player.
+     */
+    private void sendToBoth(GameMessage toPlayer1, GameMessage toPlayer2) {
+        player1.sendMessage(toPlayer1);
+        player2.sendMessage(toPlayer2);
+        spectators.broadcast(1, toPlayer1);
+        spectators.broadcast(2, toPlayer2);
+    }
+
+    /**
+     * Hands the current state to the cluster for replication to the standby node.
+     */
+    private void replicate() {
+        if (replicated) {
+            ClusterNode.getInstance().sessionUpdated(new SessionSnapshot(id, format,
+                    player1.getUsername(), player2.getUsername(), playedRounds.size(),
+                    player1Score, player2Score, pendingMove1, startedAt, List.copyOf(playedRounds)));
+        }
+    }
+
+    /**
+     * Reads the move of one player for the current round.
+     * If the player's connection drops, waits for the player to resume the session
+     * and reads the move from the new connection. Queries and other messages that are not a move are
+     * handled by {@link GameManager#handleInGameMessage} meanwhile.
+     *
+     * @param slot     1 for the first player, 2 for the second
+     * @param deadline when the player runs out of time in a blitz match, 0 for no limit
+     * @return the move, or null if the player left or ran out of time;
+     * in the last case {@link #missedMove} is set for the slot
+     */
+    private GameMove readMove(int slot, long deadline) {
+        while (true) {
+            PlayerConnection player = player(slot);
+            announceResumed(slot);
+
+            GameMessage message = deadline == 0 ? player.observeMessage()
+                    : player.observeMessage(Math.max(0, deadline - System.currentTimeMillis()));
+
+            if (message instanceof GameMove gameMove) {
+                if (gameMove.getRound() != 0 && gameMove.getRound() < round) {
+                    // Arrived after its round ended in a blitz match
+                    continue;
+                }
+                return gameMove;
+            }
+            if (message == null && deadline != 0 && player.isConnected() && System.currentTimeMillis() >= deadline) {
+                missedMove[slot] = true;
+                return null;
+            }
+            if (message != null && GameManager.getInstance().handleInGameMessage(player, message)) {
+                continue;
+            }
+            if (message != null || !awaitReattach(slot, player)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @param move the move read, null if none arrived
+     * @return when the move arrived at the server; now if it was not stamped or none arrived
+     */
+    private static long decidedAt(GameMove move) {
+        return move != null && move.getReceivedAt() != 0 ? move.getReceivedAt() : System.currentTimeMillis();
+    }
+
+    /**
+     * Waits until a disconnected player resumes the session on a new connection.
+     *
+     * @param slot the player slot
+     * @param lost the connection that dropped
+     * @return true if the player is back
+     */
+    private boolean awaitReattach(int slot, PlayerConnection lost) {
+        if (lost.isRemote() || lost.getGameId() != 0) {
+            // A player of another node resumes on that node, which cannot attach it to a game hosted here,
+            // and a game besides the main one ends with its connection
+            return false;
+        }
+        logger.info(String.format(Constants.LOG_WAITING_FOR_RESUME, lost.getUsername(), Constants.SESSION_RESUME_GRACE_MS));
+        long deadline = System.currentTimeMillis() + Constants.SESSION_RESUME_GRACE_MS;
+
+        reattachLock.lock();
+        try {
+            long remaining;
+            while (player(slot) == lost && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                reattached.await(remaining, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            reattachLock.unlock();
+        }
+        if (player(slot) != lost) {
+            return true;
+        }
+        logger.info(String.format(Constants.LOG_RESUME_TIMED_OUT, lost.getUsername()));
+        return false;
+    }
+
+    /**
+     * Attaches a new connection of one of the players to this running game.
+     * The old connection is closed so that a read blocked on it returns immediately.
+     *
+     * @param handler the new connection
+     * @return true if the handler belongs to a player of this game
+     */
+    public boolean reattach(PlayerConnection handler) {
+        if (!isActive || handler.getUsername() == null) {
+            return false;
+        }
+
+        PlayerConnection previous;
+        reattachLock.lock();
+        try {
+            if (handler.getUsername().equalsIgnoreCase(player1.getUsername())) {
+                previous = player1;
+                player1 = handler;
+                player1Resumed = true;
+            } else if (handler.getUsername().equalsIgnoreCase(player2.getUsername())) {
+                previous = player2;
+                player2 = handler;
+                player2Resumed = true;
+            } else {
+                return false;
+            }
+            reattached.signalAll();
+        } finally {
+            reattachLock.unlock();
+        }
+
+        if (previous != handler && previous.isConnected()) {
+            previous.disconnect();
+        }
+        logger.info(String.format(Constants.LOG_SESSION_RESUMED, handler.getUsername(), handler.getClientInfo()));
+        return true;
+    }
+
+    /**
+     * Tells a player that just resumed the session where the game stands.
+     *
+     * @param slot the player slot
+     */
+    private void announceResumed(int slot) {
+        if (consumeResumed(slot)) {
+            PlayerConnection opponent = player(3 - slot);
+            player(slot).sendMessage(new SessionResumed(opponent.getUsername(), round,
+                    slot == 1 ? player1Score : player2Score, slot == 1 ? player2Score : player1Score));
+        }
+    }
+
+    /**
+     * Lets a spectator watch this game from the point of view of one of its players. The spectator gets
+     * a {@link SpectateResponse} and, if the game already started, a {@link SessionResumed} with the score.
+     *
+     * @param spectator the spectator
+     * @param username  the player to watch
+     * @return false if the game is over or the player does not play it
+     */
+    public boolean addSpectator(Spectator spectator, String username) {
+        int slot = username.equalsIgnoreCase(player1.getUsername()) ? 1
+                : username.equalsIgnoreCase(player2.getUsername()) ? 2 : 0;
+        if (!isActive || slot == 0) {
+            return false;
+        }
+        spectator.sendMessage(new SpectateResponse(player(slot).getUsername(), true));
+        if (round > 0) {
+            spectator.sendMessage(new SessionResumed(player(3 - slot).getUsername(), round,
+                    slot == 1 ? player1Score : player2Score, slot == 1 ? player2Score : player1Score));
+        }
+        spectators.add(spectator, slot);
+        return true;
+    }
+
+    /**
+     * @param spectator a spectator that stops watching
+     */
+    public void removeSpectator(Spectator spectator) {
+        spectators.remove(spectator);
+    }
+
+    /**
+     * Removes every spectator once the game is over.
+     *
+     * @return the spectators that watched the game
+     */
+    public List<Spectator> removeSpectators() {
+        return spectators.clear();
+    }
+
+    private PlayerConnection player(int slot) {
+        return slot == 1 ? player1 : player2;
+    }
+
+    private boolean consumeResumed(int slot) {
+        if (slot == 1 && player1Resumed) {
+            player1Resumed = false;
+            return true;
+        }
+        if (slot == 2 && player2Resumed) {
+            player2Resumed = false;
+            return true;
         }
+        return false;
     }
 
     private void sendFinalResults(int player1Score, int player2Score) {
@@ -126,17 +448,38 @@ public class GameSession {
             resultP1 = resultP2 = Constants.MSG_GAME_TIE;
         }
 
-        player1.sendMessage(new GameResult(player1.getUsername(), String.valueOf(player1Score),
-                player2.getUsername(), String.valueOf(player2Score), resultP1));
-
-        player2.sendMessage(new GameResult(player2.getUsername(), String.valueOf(player2Score),
-                player1.getUsername(), String.valueOf(player1Score), resultP2));
+        sendToBoth(new GameResult(player1.getUsername(), String.valueOf(player1Score),
+                        player2.getUsername(), String.valueOf(player2Score), resultP1),
+                new GameResult(player2.getUsername(), String.valueOf(player2Score),
+                        player1.getUsername(), String.valueOf(player1Score), resultP2));
 
         logger.info(String.format("GameSession: Final result sent. [%s: %d] vs [%s: %d]",
                 player1.getUsername(), player1Score,
                 player2.getUsername(), player2Score));
     }
 
+    /**
+     * Appends the game to the match history. A failure is logged, it must not affect the players.
+     *
+     * @param abandoned whether the game ended because a player left
+     */
+    private void recordGame(boolean abandoned) {
+        if (player1 instanceof DetachedPlayer && player2 instanceof DetachedPlayer) {
+            // Nobody resumed a game taken over from a lost node; the node may still be running it itself
+            return;
+        }
+        MatchRecord record = new MatchRecord(0, startedAt, System.currentTimeMillis(),
+                player1.getUsername(), player2.getUsername(), player1Score, player2Score, abandoned,
+                format, playedRounds);
+        try {
+            MatchHistoryStore.getInstance().append(record);
+            ServerState.getInstance().catchUp();
+        } catch (IOException e) {
+            logger.warning(String.format(Constants.ERROR_HISTORY_APPEND,
+                    player1.getUsername(), player2.getUsername(), e.getMessage()));
+        }
+    }
+
     private void handleDisconnection() {
         if (!player1.isConnected() && player2.isConnected()) {
             handlePlayerDisconnection(player1, player2);
@@ -149,13 +492,57 @@ public class GameSession {
         isActive = false;
     }
 
-    private void handlePlayerDisconnection(ClientHandler disconnected, ClientHandler remaining) {
+    private void handlePlayerDisconnection(PlayerConnection disconnected, PlayerConnection remaining) {
         logger.info("Player disconnected: " + disconnected.getClientInfo());
 
+        OpponentDisconnected message = new OpponentDisconnected(disconnected.getUsername());
         if (remaining.isConnected()) {
-            remaining.sendMessage(new OpponentDisconnected(disconnected.getUsername()));
+            remaining.sendMessage(message);
             logger.info("📤 Sent OpponentDisconnected to " + remaining.getUsername());
         }
+        // Spectators of either player learn that the game is over
+        spectators.broadcast(1, message);
+        spectators.broadcast(2, message);
+    }
+
+    /**
+     * @return the format of the match
+     */
+    public MatchFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Resolves a single round from the first player's point of view.
+     *
+     * A player without a move ran out of time and loses, unless both did.
+     *
+     * @param move1 First player's move, or null
+     * @param move2 Second player's move, or null
+     * @return the round result for the first player
+     */
+    public static Result resolveRound(Move move1, Move move2) {
+        if (move1 == move2) {
+            return Result.DRAW;
+        }
+        if (move1 == null || move2 == null) {
+            return move1 == null ? Result.LOSE : Result.WIN;
+        }
+        return isWinner(move1, move2) ? Result.WIN : Result.LOSE;
+    }
+
+    /**
+     * Returns the result seen by the other player of the same round.
+     *
+     * @param result The result of one player
+     * @return the mirrored result
+     */
+    public static Result opposite(Result result) {
+        return switch (result) {
+            case WIN -> Result.LOSE;
+            case LOSE -> Result.WIN;
+            case DRAW -> Result.DRAW;
+        };
     }
 
     /**
@@ -165,12 +552,20 @@ public class GameSession {
      * @param move2 Second player's move
      * @return true if move1 beats move2, false otherwise
      */
-    private boolean isWinner(Move move1, Move move2) {
+    private static boolean isWinner(Move move1, Move move2) {
         return (move1 == Move.ROCK && move2 == Move.SCISSORS) ||
                 (move1 == Move.SCISSORS && move2 == Move.PAPER) ||
                 (move1 == Move.PAPER && move2 == Move.ROCK);
     }
 
+    public PlayerConnection getPlayer1() {
+        return player1;
+    }
+
+    public PlayerConnection getPlayer2() {
+        return player2;
+    }
+
     /**
      * Checks if the game session is still active.
      *
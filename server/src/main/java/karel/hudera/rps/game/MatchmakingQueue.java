@@ -0,0 +1,447 @@
+package karel.hudera.rps.game;
+
+import karel.hudera.rps.constants.Constants;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.ToLongFunction;
+
+/**
+ * Players waiting for an opponent, paired by similar round-trip time.
+ * <p>
+ * A game round waits for both moves, so pairing a fast player with a laggy one makes every round as
+ * slow as the laggier player. Waiting players are therefore grouped into latency bands that double in
+ * width: under {@link Constants#MATCHMAKING_BAND_BASE_MS}, under twice that, and so on up to
+ * {@link Constants#MATCHMAKING_BANDS} bands. Players of the same band are paired at once. For every
+ * {@link Constants#MATCHMAKING_RELAX_INTERVAL_MS} a player waits, it also accepts opponents one band
+ * further away, so nobody waits long just because nobody of its band is online.
+ * </p>
+ * <p>
+ * Players are considered oldest first and each takes the oldest opponent of the nearest acceptable band.
+ * A player whose round-trip time was not measured yet is held until it is, or until it waited one
+ * relaxation interval, after which it takes any opponent. A player's band is taken when it joins the queue
+ * and again when its round-trip time is first measured, see {@link #roundTripMeasured(PlayerConnection)}.
+ * </p>
+ * <p>
+ * The bands are kept between matching passes, each as the users waiting in it ordered by their longest
+ * waiting player, so a pass looks at a few players per band instead of the whole queue, and a player's own
+ * other games are skipped as a whole.
+ * </p>
+ * <p>
+ * Remote players, waiting on another node of the cluster, are only ever taken as opponents of a local
+ * player; two remote players are never paired here. A player waiting for several games at once, see
+ * {@link GameChannel}, is never paired with itself.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class MatchmakingQueue {
+
+    private static final int UNKNOWN_BAND = -1;
+
+    // The player that arrived first comes first
+    private static final Comparator<Entry> ARRIVAL =
+            Comparator.<Entry>comparingLong(entry -> entry.waitingSince).thenComparingLong(entry -> entry.order);
+
+    // Smoothed round-trip time of a player in microseconds, negative if not measured yet
+    private final ToLongFunction<PlayerConnection> roundTripMicros;
+
+    // All fields below are guarded by this
+    private final Map<PlayerConnection, Entry> waiting = new HashMap<>();
+    private final Lane[] bands = new Lane[Constants.MATCHMAKING_BANDS];
+    // Players whose round-trip time was not measured yet
+    private final Lane unmeasured = new Lane();
+    // The same players in the order they arrived, to find the next one that waited a relaxation interval
+    private final TreeSet<Entry> unmeasuredByArrival = new TreeSet<>(ARRIVAL);
+    private long arrivals;
+
+    /**
+     * Who a waiting player is, so that its games are never paired with each other. Players that did not log
+     * in are users of their own.
+     */
+    private record User(Object name, boolean remote) {
+
+        static User of(PlayerConnection player) {
+            String username = player.getUsername();
+            return new User(username != null ? username.toLowerCase() : player, player.isRemote());
+        }
+    }
+
+    /**
+     * One waiting player.
+     */
+    private static final class Entry {
+        final PlayerConnection player;
+        final User user;
+        final long waitingSince;
+        // Breaks ties between players that arrived in the same millisecond
+        final long order;
+        int band;
+
+        Entry(PlayerConnection player, User user, long waitingSince, long order, int band) {
+            this.player = player;
+            this.user = user;
+            this.waitingSince = waitingSince;
+            this.order = order;
+            this.band = band;
+        }
+    }
+
+    /**
+     * The players of one user in one lane.
+     */
+    private static final class Bucket {
+        final User user;
+        final TreeSet<Entry> entries = new TreeSet<>(ARRIVAL);
+
+        Bucket(User user) {
+            this.user = user;
+        }
+    }
+
+    /**
+     * The players of one latency band, grouped by user. Users are ordered by their longest waiting player,
+     * so the oldest player of any other user is at most the third bucket from the head: the searching user
+     * may wait both locally and on another node.
+     */
+    private static final class Lane {
+        private static final Comparator<Bucket> OLDEST_FIRST =
+                (a, b) -> ARRIVAL.compare(a.entries.first(), b.entries.first());
+
+        final Map<User, Bucket> buckets = new HashMap<>();
+        final TreeSet<Bucket> all = new TreeSet<>(OLDEST_FIRST);
+        // Only the local users, the ones that look for opponents
+        final TreeSet<Bucket> local = new TreeSet<>(OLDEST_FIRST);
+
+        void add(Entry entry) {
+            Bucket bucket = buckets.computeIfAbsent(entry.user, Bucket::new);
+            // A bucket must leave the ordered sets before its oldest player changes
+            unlink(bucket);
+            bucket.entries.add(entry);
+            link(bucket);
+        }
+
+        void remove(Entry entry) {
+            Bucket bucket = buckets.get(entry.user);
+            unlink(bucket);
+            bucket.entries.remove(entry);
+            if (bucket.entries.isEmpty()) {
+                buckets.remove(entry.user);
+            } else {
+                link(bucket);
+            }
+        }
+
+        private void unlink(Bucket bucket) {
+            if (!bucket.entries.isEmpty()) {
+                all.remove(bucket);
+                local.remove(bucket);
+            }
+        }
+
+        private void link(Bucket bucket) {
+            all.add(bucket);
+            if (!bucket.user.remote()) {
+                local.add(bucket);
+            }
+        }
+
+        /**
+         * @return the longest waiting player of another user than the given one, or null
+         */
+        Entry oldestExcept(User user) {
+            for (Bucket bucket : all) {
+                if (!bucket.user.name().equals(user.name())) {
+                    return bucket.entries.first();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param roundTripMicros gives the smoothed round-trip time of a player in microseconds, negative if unknown
+     */
+    MatchmakingQueue(ToLongFunction<PlayerConnection> roundTripMicros) {
+        this.roundTripMicros = roundTripMicros;
+        for (int band = 0; band < bands.length; band++) {
+            bands[band] = new Lane();
+        }
+    }
+
+    /**
+     * Adds a player and wakes up the matchmaking thread.
+     *
+     * @param player the player
+     * @param now    the current time in milliseconds
+     */
+    synchronized void add(PlayerConnection player, long now) {
+        if (!waiting.containsKey(player)) {
+            Entry entry = new Entry(player, User.of(player), now, arrivals++,
+                    bandOf(roundTripMicros.applyAsLong(player)));
+            waiting.put(player, entry);
+            insert(entry);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Removes a player that left before it was paired.
+     *
+     * @param player the player
+     * @return true if the player was waiting
+     */
+    synchronized boolean remove(PlayerConnection player) {
+        Entry entry = waiting.get(player);
+        if (entry == null) {
+            return false;
+        }
+        discard(entry);
+        return true;
+    }
+
+    /**
+     * Moves the waiting games of a player whose round-trip time was just measured to their latency band and
+     * wakes up the matchmaking thread.
+     *
+     * @param player the player, or one of its games
+     */
+    synchronized void roundTripMeasured(PlayerConnection player) {
+        User user = User.of(player);
+        List<Entry> games = new ArrayList<>();
+        for (Lane lane : bands) {
+            collect(lane, user, games);
+        }
+        collect(unmeasured, user, games);
+        for (Entry entry : games) {
+            int band = bandOf(roundTripMicros.applyAsLong(entry.player));
+            if (band != entry.band) {
+                laneOf(entry).remove(entry);
+                unmeasuredByArrival.remove(entry);
+                entry.band = band;
+                insert(entry);
+            }
+        }
+        notifyAll();
+    }
+
+    private static void collect(Lane lane, User user, List<Entry> games) {
+        Bucket bucket = lane.buckets.get(user);
+        if (bucket != null) {
+            games.addAll(bucket.entries);
+        }
+    }
+
+    /**
+     * @return the number of waiting players
+     */
+    synchronized int size() {
+        return waiting.size();
+    }
+
+    /**
+     * Waits until at least one pair can be formed and returns all pairs that can be formed now.
+     *
+     * @return the pairs, never empty
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    synchronized List<PlayerConnection[]> awaitPairs() throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            List<PlayerConnection[]> pairs = pollPairs(now);
+            if (!pairs.isEmpty()) {
+                return pairs;
+            }
+            // Sleep until a player arrives, a round-trip time is measured or a player's acceptable range widens
+            long wakeUpAt = nextRelaxation(now);
+            wait(wakeUpAt == Long.MAX_VALUE ? 0 : Math.max(1, wakeUpAt - now));
+        }
+    }
+
+    /**
+     * Removes and returns every pair that can be formed at the given time. Disconnected players met on the
+     * way are dropped.
+     *
+     * @param now the current time in milliseconds
+     * @return the pairs, the player waiting longer first
+     */
+    synchronized List<PlayerConnection[]> pollPairs(long now) {
+        List<PlayerConnection[]> pairs = new ArrayList<>();
+        Entry[] pair;
+        while ((pair = nextPair(now)) != null) {
+            discard(pair[0]);
+            discard(pair[1]);
+            pairs.add(new PlayerConnection[]{pair[0].player, pair[1].player});
+        }
+        return pairs;
+    }
+
+    /**
+     * Finds the longest waiting local player that has an acceptable opponent, and the opponent.
+     * <p>
+     * Only the two longest waiting local users of every lane are asked. A younger player of a lane accepts
+     * no band an older one does not, so it can only find an opponent the older ones cannot take if that
+     * opponent is a game of the oldest user itself, which the second oldest user may take.
+     * </p>
+     *
+     * @return the player and its opponent, or null if no pair can be formed
+     */
+    private Entry[] nextPair(long now) {
+        search:
+        while (waiting.size() >= 2) {
+            Entry[] best = null;
+            for (int index = 0; index <= bands.length; index++) {
+                Lane lane = index < bands.length ? bands[index] : unmeasured;
+                int asked = 0;
+                for (Bucket bucket : lane.local) {
+                    if (asked++ == 2) {
+                        break;
+                    }
+                    Entry player = bucket.entries.first();
+                    if (!player.player.isConnected()) {
+                        discard(player);
+                        continue search;
+                    }
+                    Entry opponent = opponentOf(player, now);
+                    if (opponent == null) {
+                        continue;
+                    }
+                    if (!opponent.player.isConnected()) {
+                        discard(opponent);
+                        continue search;
+                    }
+                    if (best == null || ARRIVAL.compare(player, best[0]) < 0) {
+                        best = new Entry[]{player, opponent};
+                    }
+                }
+            }
+            return best;
+        }
+        return null;
+    }
+
+    /**
+     * @return the opponent a local player takes now, or null
+     */
+    private Entry opponentOf(Entry player, long now) {
+        if (player.band == UNKNOWN_BAND) {
+            if (now - player.waitingSince < Constants.MATCHMAKING_RELAX_INTERVAL_MS) {
+                return null;
+            }
+            // Waited long enough without a measurement, the longest waiting opponent of any band will do
+            Entry opponent = unmeasuredOpponent(player, now);
+            for (Lane lane : bands) {
+                opponent = older(opponent, lane.oldestExcept(player.user));
+            }
+            return opponent;
+        }
+
+        long waited = now - player.waitingSince;
+        long allowed = Math.min(Constants.MATCHMAKING_BANDS - 1, waited / Constants.MATCHMAKING_RELAX_INTERVAL_MS);
+        for (int distance = 0; distance <= allowed; distance++) {
+            Entry lower = oldestIn(player.band - distance, player);
+            Entry upper = distance == 0 ? null : oldestIn(player.band + distance, player);
+            Entry nearest = older(lower, upper);
+            if (distance == 0) {
+                nearest = older(nearest, unmeasuredOpponent(player, now));
+            }
+            if (nearest != null) {
+                return nearest;
+            }
+        }
+        return null;
+    }
+
+    private Entry oldestIn(int band, Entry player) {
+        if (band < 0 || band >= bands.length) {
+            return null;
+        }
+        return bands[band].oldestExcept(player.user);
+    }
+
+    /**
+     * @return the longest waiting unmeasured player of another user, if it already waited long enough to
+     * take any opponent, or null
+     */
+    private Entry unmeasuredOpponent(Entry player, long now) {
+        Entry opponent = unmeasured.oldestExcept(player.user);
+        return opponent != null && now - opponent.waitingSince >= Constants.MATCHMAKING_RELAX_INTERVAL_MS
+                ? opponent : null;
+    }
+
+    private static Entry older(Entry a, Entry b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return ARRIVAL.compare(a, b) <= 0 ? a : b;
+    }
+
+    private Lane laneOf(Entry entry) {
+        return entry.band == UNKNOWN_BAND ? unmeasured : bands[entry.band];
+    }
+
+    private void insert(Entry entry) {
+        laneOf(entry).add(entry);
+        if (entry.band == UNKNOWN_BAND) {
+            unmeasuredByArrival.add(entry);
+        }
+    }
+
+    private void discard(Entry entry) {
+        waiting.remove(entry.player);
+        laneOf(entry).remove(entry);
+        unmeasuredByArrival.remove(entry);
+    }
+
+    /**
+     * @return when the next player that may find an opponent starts to accept another band or any opponent,
+     * Long.MAX_VALUE if never
+     */
+    private long nextRelaxation(long now) {
+        if (waiting.size() < 2) {
+            return Long.MAX_VALUE;
+        }
+        long next = Long.MAX_VALUE;
+        long interval = Constants.MATCHMAKING_RELAX_INTERVAL_MS;
+        for (Lane lane : bands) {
+            // The same players nextPair asks
+            int asked = 0;
+            for (Bucket bucket : lane.local) {
+                if (asked++ == 2) {
+                    break;
+                }
+                Entry player = bucket.entries.first();
+                long steps = (now - player.waitingSince) / interval;
+                if (steps < Constants.MATCHMAKING_BANDS - 1) {
+                    next = Math.min(next, player.waitingSince + (steps + 1) * interval);
+                }
+            }
+        }
+        // The oldest unmeasured player that did not wait a whole interval yet
+        Entry pending = unmeasuredByArrival.higher(new Entry(null, null, now - interval, Long.MAX_VALUE, UNKNOWN_BAND));
+        if (pending != null) {
+            next = Math.min(next, pending.waitingSince + interval);
+        }
+        return next;
+    }
+
+    /**
+     * @param micros a round-trip time in microseconds, negative if unknown
+     * @return the latency band, {@link #UNKNOWN_BAND} for an unknown round-trip time
+     */
+    static int bandOf(long micros) {
+        if (micros < 0) {
+            return UNKNOWN_BAND;
+        }
+        long units = micros / (Constants.MATCHMAKING_BAND_BASE_MS * 1_000L);
+        int band = 64 - Long.numberOfLeadingZeros(units);
+        return Math.min(band, Constants.MATCHMAKING_BANDS - 1);
+    }
+}
@@ -0,0 +1,78 @@
+package karel.hudera.rps.game;
+
+/**
+ * A logged-in player as seen by matchmaking and a {@link GameSession}.
+ * <p>
+ * Usually this is the player's own connection to this server. In a cluster it can also be a player
+ * connected to another node, whose messages are relayed by that node.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public interface PlayerConnection {
+
+    /**
+     * @return the name the player logged in with
+     */
+    String getUsername();
+
+    /**
+     * @return a description of where the player is connected from, for logging
+     */
+    String getClientInfo();
+
+    /**
+     * @return true while messages can be sent to and received from the player
+     */
+    boolean isConnected();
+
+    /**
+     * Sends a message to the player. A failure is logged and closes the connection.
+     *
+     * @param message the message
+     */
+    void sendMessage(GameMessage message);
+
+    /**
+     * Takes the next message the player sent, waiting until one arrives.
+     *
+     * @return the message, or null once the connection is closed
+     */
+    GameMessage observeMessage();
+
+    /**
+     * Takes the next message the player sent, waiting at most the given time. Connections that cannot
+     * wait for a limited time wait until a message arrives.
+     *
+     * @param timeoutMillis the longest time to wait, 0 to only take a message that already arrived
+     * @return the message, or null if none arrived in time or the connection is closed
+     */
+    default GameMessage observeMessage(long timeoutMillis) {
+        return observeMessage();
+    }
+
+    /**
+     * Closes the connection from the server side.
+     */
+    void disconnect();
+
+    /**
+     * @return the smoothed round-trip time to the player in microseconds, negative if not measured yet
+     */
+    long getRoundTripMicros();
+
+    /**
+     * @return true if the player is connected to another node of the cluster
+     */
+    default boolean isRemote() {
+        return false;
+    }
+
+    /**
+     * @return the id of the game this connection plays when the player's socket carries several games,
+     * 0 for the socket's main game, see {@link GameChannel}
+     */
+    default long getGameId() {
+        return 0;
+    }
+}
@@ -0,0 +1,281 @@
+package karel.hudera.rps.game;
+
+import karel.hudera.rps.constants.Constants;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Rooms players wait in to be paired only with each other, instead of the global {@link MatchmakingQueue}.
+ * <p>
+ * A public room is found by its name, which is unique ignoring case, and is listed; a private room is only
+ * found by its invite code. Both lookups are hash map gets, and the listing is a range of a skip list
+ * sorted by name, so creating, joining and paging through rooms never scans the rooms or the waiting players.
+ * Players in a room are paired in the order they arrived, whatever their round-trip times: they came to
+ * play each other. A player stays a member between games and leaves by joining another room, going back
+ * to the global queue or disconnecting; the room closes when its last member leaves. Every game in a room is
+ * played in the format chosen when the room was created.
+ * </p>
+ * <p>
+ * Every room guards its members and waiting players with its own monitor, so rooms never contend with each
+ * other or with the global queue.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class RoomDirectory {
+
+    // Invite code characters, without the ones easily mistaken for each other (0/O, 1/I/L)
+    private static final char[] CODE_ALPHABET = "ABCDEFGHJKMNPQRSTUVWXYZ23456789".toCharArray();
+
+    private final SecureRandom random = new SecureRandom();
+
+    // Public rooms by lower-case name, sorted for listing; private rooms by invite code
+    private final NavigableMap<String, Room> publicRooms = new ConcurrentSkipListMap<>();
+    private final Map<String, Room> privateRooms = new ConcurrentHashMap<>();
+
+    // Room of every member
+    private final Map<PlayerConnection, Room> roomOf = new ConcurrentHashMap<>();
+
+    /**
+     * One room. Members include players that are playing a game started in the room.
+     */
+    static final class Room {
+        private final String name;
+        private final String inviteCode;
+        private final MatchFormat format;
+        private final Set<PlayerConnection> members = new HashSet<>();
+        private final ArrayDeque<PlayerConnection> waiting = new ArrayDeque<>();
+        // Set once the last member left; a closed room is no longer in the directory
+        private boolean closed;
+
+        private Room(String name, String inviteCode, MatchFormat format) {
+            this.name = name;
+            this.inviteCode = inviteCode;
+            this.format = format;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        MatchFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * @return the invite code of a private room, null for a public one
+         */
+        String getInviteCode() {
+            return inviteCode;
+        }
+
+        /**
+         * Pairs a member with the member waiting longest, or lets it wait if nobody else waits.
+         *
+         * @param player the member
+         * @return the opponent, removed from the waiting players; null if the player waits now
+         */
+        synchronized PlayerConnection pairOrWait(PlayerConnection player) {
+            if (!members.contains(player)) {
+                return null;
+            }
+            Iterator<PlayerConnection> iterator = waiting.iterator();
+            while (iterator.hasNext()) {
+                PlayerConnection opponent = iterator.next();
+                if (opponent == player) {
+                    continue;
+                }
+                iterator.remove();
+                if (opponent.isConnected()) {
+                    return opponent;
+                }
+            }
+            if (!waiting.contains(player)) {
+                waiting.add(player);
+            }
+            return null;
+        }
+
+        private synchronized RoomSummary summary() {
+            return new RoomSummary(name, members.size(), waiting.size(), format);
+        }
+
+        @Override
+        public String toString() {
+            return inviteCode != null && !inviteCode.equals(name) ? name + " (" + inviteCode + ")" : name;
+        }
+    }
+
+    /**
+     * Creates a room with the player as its first member. On success the player leaves its previous room.
+     *
+     * @param player      the player
+     * @param name        the room name; a private room without a name is named by its invite code
+     * @param privateRoom true for a room only found by its invite code
+     * @param format      the format of the room's games
+     * @return the room, null if the name is invalid or a public room of that name exists
+     */
+    Room create(PlayerConnection player, String name, boolean privateRoom, MatchFormat format) {
+        String trimmed = name != null ? name.strip() : "";
+        if (trimmed.length() > Constants.ROOM_NAME_MAX_LENGTH || (trimmed.isEmpty() && !privateRoom)) {
+            return null;
+        }
+
+        Room room;
+        if (privateRoom) {
+            do {
+                String code = newInviteCode();
+                room = new Room(trimmed.isEmpty() ? code : trimmed, code, format);
+            } while (privateRooms.putIfAbsent(room.inviteCode, room) != null);
+        } else {
+            room = new Room(trimmed, null, format);
+            if (publicRooms.putIfAbsent(key(trimmed), room) != null) {
+                return null;
+            }
+        }
+        // Nobody else knows the room yet, so it cannot close before the player is in
+        return enter(player, room) ? room : null;
+    }
+
+    /**
+     * Adds the player to a room. On success the player leaves its previous room.
+     *
+     * @param player     the player
+     * @param nameOrCode the name of a public room or the invite code of a private one
+     * @return the room, null if there is no such room
+     */
+    Room join(PlayerConnection player, String nameOrCode) {
+        if (nameOrCode == null) {
+            return null;
+        }
+        String trimmed = nameOrCode.strip();
+        Room room = privateRooms.get(trimmed.toUpperCase(Locale.ROOT));
+        if (room == null) {
+            room = publicRooms.get(key(trimmed));
+        }
+        return room != null && enter(player, room) ? room : null;
+    }
+
+    /**
+     * Removes the player from its room, closing the room if it was the last member.
+     *
+     * @param player the player
+     * @return the room the player left, null if it was in none
+     */
+    Room leave(PlayerConnection player) {
+        Room room = roomOf.remove(player);
+        if (room == null) {
+            return null;
+        }
+        removeMember(room, player);
+        return room;
+    }
+
+    /**
+     * @param player the player
+     * @return the room the player is a member of, null if none
+     */
+    Room roomOf(PlayerConnection player) {
+        return roomOf.get(player);
+    }
+
+    /**
+     * Stops a member from waiting, e.g. because it disconnected or started to spectate.
+     * It stays a member.
+     *
+     * @param player the player
+     * @return true if the player was waiting in a room
+     */
+    boolean removeWaiting(PlayerConnection player) {
+        Room room = roomOf.get(player);
+        if (room == null) {
+            return false;
+        }
+        synchronized (room) {
+            return room.waiting.remove(player);
+        }
+    }
+
+    /**
+     * Lists public rooms in name order.
+     *
+     * @param after the name to start after, ignoring case; null to start at the first room
+     * @param limit the most rooms to return
+     * @return the rooms
+     */
+    List<RoomSummary> list(String after, int limit) {
+        NavigableMap<String, Room> rooms = after != null ? publicRooms.tailMap(key(after.strip()), false) : publicRooms;
+        List<RoomSummary> page = new ArrayList<>(Math.min(limit, 16));
+        for (Room room : rooms.values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(room.summary());
+        }
+        return page;
+    }
+
+    /**
+     * Makes the player a member of the room and removes it from its previous room.
+     *
+     * @return false if the room closed meanwhile
+     */
+    private boolean enter(PlayerConnection player, Room room) {
+        if (roomOf.get(player) == room) {
+            return true;
+        }
+        synchronized (room) {
+            if (room.closed) {
+                return false;
+            }
+            room.members.add(player);
+        }
+        Room previous = roomOf.put(player, room);
+        if (previous != null) {
+            removeMember(previous, player);
+        }
+        return true;
+    }
+
+    /**
+     * Removes a member, closing the room and taking it out of the directory if it was the last one.
+     */
+    private void removeMember(Room room, PlayerConnection player) {
+        synchronized (room) {
+            room.members.remove(player);
+            room.waiting.remove(player);
+            if (!room.members.isEmpty()) {
+                return;
+            }
+            room.closed = true;
+        }
+        if (room.inviteCode != null) {
+            privateRooms.remove(room.inviteCode, room);
+        } else {
+            publicRooms.remove(key(room.name), room);
+        }
+    }
+
+    private String newInviteCode() {
+        char[] code = new char[Constants.ROOM_INVITE_CODE_LENGTH];
+        for (int i = 0; i < code.length; i++) {
+            code[i] = CODE_ALPHABET[random.nextInt(CODE_ALPHABET.length)];
+        }
+        return new String(code);
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,26 @@
+package karel.hudera.rps.game;
+
+import karel.hudera.rps.history.MatchRecord;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * State of a running game, replicated to a standby node so that it can continue the game if this node dies.
+ *
+ * @param sessionId    id of the session on the node that runs it
+ * @param format       format of the match
+ * @param player1      username of the first player
+ * @param player2      username of the second player
+ * @param roundsPlayed number of finished rounds
+ * @param player1Score rounds won by the first player
+ * @param player2Score rounds won by the second player
+ * @param pendingMove1 move the first player already made in the current round, null if none
+ * @param startedAt    when the game started, in milliseconds since the epoch
+ * @param rounds       the finished rounds, for the match history
+ * @author Karel Hudera
+ */
+public record SessionSnapshot(long sessionId, MatchFormat format, String player1, String player2, int roundsPlayed,
+                              int player1Score, int player2Score, Move pendingMove1, long startedAt,
+                              List<MatchRecord.Round> rounds) implements Serializable {
+}
@@ -0,0 +1,17 @@
+package karel.hudera.rps.game;
+
+/**
+ * A connection that can watch games besides playing them.
+ *
+ * @author Karel Hudera
+ */
+public interface Spectator extends PlayerConnection {
+
+    /**
+     * Queues an event of the watched game for sending, without waiting for the connection.
+     *
+     * @param message the encoded event, shared with the other spectators
+     * @return false if the event was skipped because the spectator is behind
+     */
+    boolean offer(EncodedMessage message);
+}
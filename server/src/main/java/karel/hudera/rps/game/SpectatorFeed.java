@@ -0,0 +1,77 @@
+package karel.hudera.rps.game;
+
+import karel.hudera.rps.utils.ServerLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The spectators of one game, each watching it from the point of view of one of the players.
+ * <p>
+ * An event is encoded once per point of view into an {@link EncodedMessage} and that one buffer is offered
+ * to every spectator of it. Offering never blocks: a spectator whose queue is full skips the event, and one
+ * whose connection closed is dropped. The players got the event before, so spectators never delay them.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class SpectatorFeed {
+
+    private static final Logger logger = ServerLogger.INSTANCE;
+
+    // Spectators by player slot, index 0 for the first player
+    private final List<List<Spectator>> spectators = List.of(new CopyOnWriteArrayList<>(), new CopyOnWriteArrayList<>());
+
+    /**
+     * @param spectator the spectator
+     * @param slot      1 to watch from the first player's point of view, 2 for the second
+     */
+    void add(Spectator spectator, int slot) {
+        spectators.get(slot - 1).add(spectator);
+    }
+
+    /**
+     * @param spectator the spectator
+     * @return true if it watched this game
+     */
+    boolean remove(Spectator spectator) {
+        return spectators.get(0).remove(spectator) | spectators.get(1).remove(spectator);
+    }
+
+    /**
+     * Removes every spectator, when the game ends.
+     *
+     * @return the spectators that watched the game
+     */
+    List<Spectator> clear() {
+        List<Spectator> all = new ArrayList<>(spectators.get(0));
+        all.addAll(spectators.get(1));
+        spectators.get(0).clear();
+        spectators.get(1).clear();
+        return all;
+    }
+
+    /**
+     * Sends an event to the spectators watching one player. Does nothing, not even encode, if there are none.
+     *
+     * @param slot    the player the event was sent to
+     * @param message the event
+     */
+    void broadcast(int slot, GameMessage message) {
+        List<Spectator> watching = spectators.get(slot - 1);
+        if (watching.isEmpty()) {
+            return;
+        }
+        EncodedMessage encoded = EncodedMessage.encode(message);
+        for (Spectator spectator : watching) {
+            if (!spectator.isConnected()) {
+                watching.remove(spectator);
+            } else if (!spectator.offer(encoded)) {
+                logger.log(Level.FINE, "Spectator " + spectator.getClientInfo() + " is behind, skipped " + message);
+            }
+        }
+    }
+}
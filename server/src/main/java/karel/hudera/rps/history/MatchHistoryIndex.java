@@ -0,0 +1,297 @@
+package karel.hudera.rps.history;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.game.HistoryRequest;
+import karel.hudera.rps.game.HistoryResponse;
+import karel.hudera.rps.game.MatchSummary;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Secondary index over the {@link MatchHistoryStore} for per-player queries.
+ * <p>
+ * For every player the index keeps the sequences of its games in ascending order, and for every pair
+ * of players the sequences of their games against each other plus the head-to-head tally. A query
+ * reads only the records it returns, which is constant time per record, so showing the last games of
+ * a player never scans the history. The index lives on the heap; games are added as they are recorded,
+ * and on startup it is restored from the server state snapshot and the games recorded after it.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class MatchHistoryIndex {
+
+    private final MatchHistoryStore store;
+
+    // Game sequences by lower-case username
+    private final Map<String, SequenceList> gamesByPlayer = new ConcurrentHashMap<>();
+
+    // Games and tally by pair key, see pairKey
+    private final Map<String, PairHistory> gamesByPair = new ConcurrentHashMap<>();
+
+    /**
+     * Growable, sorted array of game sequences.
+     */
+    static final class SequenceList {
+        private long[] sequences = new long[4];
+        private int size;
+
+        /**
+         * Inserts a sequence. Games usually finish in sequence order, so this is an append.
+         *
+         * @return false if the sequence was already in the list
+         */
+        synchronized boolean insert(long sequence) {
+            int position = size;
+            while (position > 0 && sequences[position - 1] >= sequence) {
+                if (sequences[position - 1] == sequence) {
+                    return false;
+                }
+                position--;
+            }
+            if (size == sequences.length) {
+                sequences = Arrays.copyOf(sequences, size + (size >> 1) + 1);
+            }
+            System.arraycopy(sequences, position, sequences, position + 1, size - position);
+            sequences[position] = sequence;
+            size++;
+            return true;
+        }
+
+        /**
+         * @return up to {@code limit} sequences, newest first
+         */
+        synchronized long[] newest(int limit) {
+            long[] newest = new long[Math.min(limit, size)];
+            for (int i = 0; i < newest.length; i++) {
+                newest[i] = sequences[size - 1 - i];
+            }
+            return newest;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long[] copy() {
+            return Arrays.copyOf(sequences, size);
+        }
+
+        synchronized void read(DataInput in) throws IOException {
+            int count = in.readInt();
+            sequences = new long[Math.max(4, count)];
+            for (int i = 0; i < count; i++) {
+                sequences[i] = in.readLong();
+            }
+            size = count;
+        }
+    }
+
+    /**
+     * Games between two players. Wins are counted for the players in pair key order.
+     */
+    private static final class PairHistory {
+        final SequenceList games = new SequenceList();
+        // wins of the first player, wins of the second player, draws
+        final AtomicIntegerArray tally = new AtomicIntegerArray(3);
+    }
+
+    /**
+     * Creates an empty index.
+     *
+     * @param store the history the indexed games are read from
+     */
+    public MatchHistoryIndex(MatchHistoryStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Adds a game that was appended to the history. Adding a game twice has no effect.
+     *
+     * @param record the game, with the sequence assigned by the history
+     */
+    public void add(MatchRecord record) {
+        String player1 = record.player1().toLowerCase();
+        String player2 = record.player2().toLowerCase();
+        if (!gamesByPlayer.computeIfAbsent(player1, key -> new SequenceList()).insert(record.sequence())) {
+            return;
+        }
+        gamesByPlayer.computeIfAbsent(player2, key -> new SequenceList()).insert(record.sequence());
+
+        PairHistory pair = gamesByPair.computeIfAbsent(pairKey(player1, player2), key -> new PairHistory());
+        pair.games.insert(record.sequence());
+        if (record.abandoned()) {
+            return;
+        }
+        boolean player1First = player1.compareTo(player2) <= 0;
+        int player1Slot = player1First ? 0 : 1;
+        if (record.player1Score() > record.player2Score()) {
+            pair.tally.incrementAndGet(player1Slot);
+        } else if (record.player1Score() < record.player2Score()) {
+            pair.tally.incrementAndGet(1 - player1Slot);
+        } else {
+            pair.tally.incrementAndGet(2);
+        }
+    }
+
+    /**
+     * Answers a history request of a player.
+     *
+     * @param username the player asking
+     * @param request  the request
+     * @return the newest games, limited to {@link Constants#HISTORY_QUERY_MAX_GAMES}, and the head-to-head
+     * tally if the request named an opponent
+     */
+    public HistoryResponse query(String username, HistoryRequest request) {
+        String player = username.toLowerCase();
+        int limit = Math.max(0, Math.min(request.getLimit(), Constants.HISTORY_QUERY_MAX_GAMES));
+        String opponent = request.getOpponentUsername();
+
+        if (opponent == null) {
+            SequenceList games = gamesByPlayer.get(player);
+            long[] sequences = games == null ? new long[0] : games.newest(limit);
+            return new HistoryResponse(summaries(player, sequences), null, 0, 0, 0);
+        }
+
+        PairHistory pair = gamesByPair.get(pairKey(player, opponent.toLowerCase()));
+        if (pair == null) {
+            return new HistoryResponse(new ArrayList<>(), opponent, 0, 0, 0);
+        }
+        boolean playerFirst = player.compareTo(opponent.toLowerCase()) <= 0;
+        int wins = pair.tally.get(playerFirst ? 0 : 1);
+        int losses = pair.tally.get(playerFirst ? 1 : 0);
+        return new HistoryResponse(summaries(player, pair.games.newest(limit)), opponent, wins, losses, pair.tally.get(2));
+    }
+
+    /**
+     * @return the number of games the player has in the history
+     */
+    public int gameCount(String username) {
+        SequenceList games = gamesByPlayer.get(username.toLowerCase());
+        return games == null ? 0 : games.size();
+    }
+
+    /**
+     * Copies the whole index for a server state snapshot. Must not run concurrently with {@link #add}.
+     * Copying the sequence arrays is much cheaper than serializing them, which happens later, while
+     * games are added again.
+     *
+     * @return the copied index
+     */
+    public Frozen freeze() {
+        List<FrozenList> players = new ArrayList<>(gamesByPlayer.size());
+        for (Map.Entry<String, SequenceList> entry : gamesByPlayer.entrySet()) {
+            players.add(new FrozenList(entry.getKey(), entry.getValue().copy(), null));
+        }
+        List<FrozenList> pairs = new ArrayList<>(gamesByPair.size());
+        for (Map.Entry<String, PairHistory> entry : gamesByPair.entrySet()) {
+            AtomicIntegerArray tally = entry.getValue().tally;
+            pairs.add(new FrozenList(entry.getKey(), entry.getValue().games.copy(),
+                    new int[]{tally.get(0), tally.get(1), tally.get(2)}));
+        }
+        return new Frozen(players, pairs);
+    }
+
+    /**
+     * Games of one player, or of one pair with its tally.
+     */
+    private record FrozenList(String key, long[] sequences, int[] tally) {
+    }
+
+    /**
+     * Copy of the index, taken by {@link #freeze()}.
+     */
+    public static final class Frozen {
+        private final List<FrozenList> players;
+        private final List<FrozenList> pairs;
+
+        private Frozen(List<FrozenList> players, List<FrozenList> pairs) {
+            this.players = players;
+            this.pairs = pairs;
+        }
+
+        /**
+         * Writes the copied index for a server state snapshot.
+         *
+         * @param out the snapshot being written
+         * @throws IOException if writing fails
+         */
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(players.size());
+            for (FrozenList player : players) {
+                out.writeUTF(player.key());
+                writeSequences(out, player.sequences());
+            }
+            out.writeInt(pairs.size());
+            for (FrozenList pair : pairs) {
+                out.writeUTF(pair.key());
+                writeSequences(out, pair.sequences());
+                for (int count : pair.tally()) {
+                    out.writeInt(count);
+                }
+            }
+        }
+
+        private static void writeSequences(DataOutput out, long[] sequences) throws IOException {
+            out.writeInt(sequences.length);
+            for (long sequence : sequences) {
+                out.writeLong(sequence);
+            }
+        }
+    }
+
+    /**
+     * Restores the index written by {@link Frozen#write} into this empty index.
+     *
+     * @param in the snapshot being read
+     * @throws IOException if reading fails
+     */
+    public void readSnapshot(DataInput in) throws IOException {
+        int players = in.readInt();
+        for (int i = 0; i < players; i++) {
+            SequenceList games = new SequenceList();
+            String player = in.readUTF();
+            games.read(in);
+            gamesByPlayer.put(player, games);
+        }
+        int pairs = in.readInt();
+        for (int i = 0; i < pairs; i++) {
+            PairHistory pair = new PairHistory();
+            String key = in.readUTF();
+            pair.games.read(in);
+            for (int t = 0; t < 3; t++) {
+                pair.tally.set(t, in.readInt());
+            }
+            gamesByPair.put(key, pair);
+        }
+    }
+
+    private List<MatchSummary> summaries(String player, long[] sequences) {
+        List<MatchSummary> summaries = new ArrayList<>(sequences.length);
+        for (long sequence : sequences) {
+            MatchRecord record = store.read(sequence);
+            if (record == null) {
+                continue;
+            }
+            boolean first = record.player1().equalsIgnoreCase(player);
+            summaries.add(new MatchSummary(record.sequence(),
+                    first ? record.player2() : record.player1(),
+                    first ? record.player1Score() : record.player2Score(),
+                    first ? record.player2Score() : record.player1Score(),
+                    record.endedAt(), record.abandoned()));
+        }
+        return summaries;
+    }
+
+    private static String pairKey(String player1, String player2) {
+        return player1.compareTo(player2) <= 0 ? player1 + '\n' + player2 : player2 + '\n' + player1;
+    }
+}
@@ -0,0 +1,522 @@
+package karel.hudera.rps.history;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.game.MatchFormat;
+import karel.hudera.rps.game.Move;
+import karel.hudera.rps.utils.ServerLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only history of finished games, stored as fixed-size records in memory-mapped segment files.
+ * <p>
+ * Every game gets a sequence number starting at 1, and its record lives at a position computed from that
+ * number alone, so any game can be read in constant time. Segments are named after the sequence of their
+ * first record and hold {@link Constants#HISTORY_SEGMENT_RECORDS} records; a new segment is started when
+ * the current one is full. Appends only copy 256 bytes into the mapped file, a background thread forces
+ * the written range to disk every {@link Constants#HISTORY_FLUSH_INTERVAL_MS}, so one fsync covers all
+ * games finished in that interval.
+ * </p>
+ * <p>
+ * Each record carries a CRC32C and its own sequence number. On startup the last segment is scanned and
+ * appending resumes after the last record that is intact and in sequence; a record torn by a crash and
+ * anything after it are overwritten. Every read checks the record again, so a damaged record in any
+ * segment is reported and read as a missing game.
+ * </p>
+ * <pre>
+ * segment header (one record slot)
+ *   long magic, int version, int recordSize, int recordsPerSegment, long firstSequence, long createdAt
+ * record
+ *   0   int   CRC32C of bytes 4..255
+ *   4   short magic
+ *   6   byte  version
+ *   7   byte  number of rounds stored
+ *   8   long  sequence
+ *   16  long  startedAt
+ *   24  long  endedAt
+ *   32  byte  player1 score, byte player2 score, byte flags (1 = abandoned), byte reserved
+ *   36  48    player1 name: byte length + UTF-8, at most 47 bytes (Constants.USERNAME_MAX_BYTES)
+ *   84  48    player2 name
+ *   132 24 x (byte player1 move &lt;&lt; 4 | player2 move, ushort player1 decision ms, ushort player2 decision ms)
+ *   252 byte  format kind (0 = not stored, 1 + MatchFormat.Kind ordinal), byte target, byte seconds per move
+ *   255 1     reserved
+ * </pre>
+ *
+ * @author Karel Hudera
+ */
+public final class MatchHistoryStore implements Closeable {
+
+    private static final Logger logger = ServerLogger.INSTANCE;
+
+    public static final int RECORD_SIZE = 256;
+    public static final int MAX_ROUNDS = Constants.MATCH_ROUND_LIMIT;
+
+    static final long SEGMENT_MAGIC = 0x5250534849535431L; // "RPSHIST1"
+    static final int SEGMENT_VERSION = 1;
+    static final short RECORD_MAGIC = 0x4D48; // "MH"
+    static final byte RECORD_VERSION = 1;
+
+    private static final int HEADER_SIZE = RECORD_SIZE;
+    private static final int NAME_SIZE = Constants.USERNAME_MAX_BYTES + 1;
+    private static final int ROUND_SIZE = 5;
+    private static final int OFFSET_SEQUENCE = 8;
+    private static final int OFFSET_STARTED = 16;
+    private static final int OFFSET_ENDED = 24;
+    private static final int OFFSET_SCORES = 32;
+    private static final int OFFSET_PLAYER1 = 36;
+    private static final int OFFSET_PLAYER2 = OFFSET_PLAYER1 + NAME_SIZE;
+    private static final int OFFSET_ROUNDS = OFFSET_PLAYER2 + NAME_SIZE;
+    private static final int OFFSET_FORMAT = OFFSET_ROUNDS + MAX_ROUNDS * ROUND_SIZE;
+    private static final int FLAG_ABANDONED = 1;
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final Move[] MOVES = Move.values();
+    private static final MatchFormat.Kind[] KINDS = MatchFormat.Kind.values();
+
+    // Singleton instance
+    private static MatchHistoryStore instance;
+
+    private final Path directory;
+    private final int recordsPerSegment;
+
+    // Segments by the sequence of their first record
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private final Object appendLock = new Object();
+    private volatile Segment active;
+    private long nextSequence;
+    private final CRC32C crc = new CRC32C();
+
+    // Highest sequence whose record is completely written, readers never look past it
+    private volatile long lastSequence;
+    private volatile boolean closed;
+    private final Thread flusherThread;
+
+    /**
+     * One segment file. Records are only written by the appending thread, {@link #written} publishes them.
+     */
+    private static final class Segment {
+        final Path file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final long firstSequence;
+        final int capacity;
+        volatile int written;
+        // Only touched by the flushing thread and by the appender when the segment is full
+        int flushed;
+
+        Segment(Path file, FileChannel channel, MappedByteBuffer buffer, long firstSequence, int capacity) {
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.firstSequence = firstSequence;
+            this.capacity = capacity;
+        }
+
+        int offset(long sequence) {
+            return HEADER_SIZE + (int) (sequence - firstSequence) * RECORD_SIZE;
+        }
+
+        synchronized void flush() {
+            int upTo = written;
+            if (upTo > flushed) {
+                buffer.force(HEADER_SIZE + flushed * RECORD_SIZE, (upTo - flushed) * RECORD_SIZE);
+                flushed = upTo;
+            }
+        }
+    }
+
+    /**
+     * Opens the history in a directory, recovering it after a crash if necessary.
+     *
+     * @param directory         directory of the segment files, created if missing
+     * @param recordsPerSegment records per new segment; existing segments keep their own size
+     * @param startFlusher      whether to start the thread that forces appended records to disk;
+     *                          without it records only reach the disk on {@link #flush()} and {@link #close()}
+     * @throws IOException if the directory or a segment cannot be opened
+     */
+    public MatchHistoryStore(Path directory, int recordsPerSegment, boolean startFlusher) throws IOException {
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        Files.createDirectories(directory);
+        recover();
+
+        if (startFlusher) {
+            flusherThread = new Thread(this::flushPeriodically, "HistoryFlusherThread");
+            flusherThread.setDaemon(true);
+            flusherThread.start();
+        } else {
+            flusherThread = null;
+        }
+    }
+
+    /**
+     * Gets the singleton instance of the MatchHistoryStore, kept in the {@code history} subdirectory
+     * of the server data directory.
+     *
+     * @return The MatchHistoryStore instance
+     * @throws IOException if the history cannot be opened
+     */
+    public static synchronized MatchHistoryStore getInstance() throws IOException {
+        if (instance == null) {
+            Path directory = Path.of(System.getProperty(Constants.DATA_DIR_PROPERTY, Constants.DATA_DIR), "history");
+            instance = new MatchHistoryStore(directory, Constants.HISTORY_SEGMENT_RECORDS, true);
+        }
+        return instance;
+    }
+
+    /**
+     * Appends a finished game.
+     *
+     * @param record the game; its sequence is ignored
+     * @return the sequence assigned to the game
+     * @throws IOException if a new segment was needed and could not be created
+     */
+    public long append(MatchRecord record) throws IOException {
+        byte[] encoded = encode(record);
+        synchronized (appendLock) {
+            if (closed) {
+                throw new IOException("Match history is closed");
+            }
+            if (active == null || active.written == active.capacity) {
+                rollover();
+            }
+
+            long sequence = nextSequence;
+            ByteBuffer.wrap(encoded).putLong(OFFSET_SEQUENCE, sequence);
+            crc.reset();
+            crc.update(encoded, 4, RECORD_SIZE - 4);
+            ByteBuffer.wrap(encoded).putInt(0, (int) crc.getValue());
+
+            active.buffer.put(active.offset(sequence), encoded);
+            active.written++;
+            nextSequence++;
+            lastSequence = sequence;
+            return sequence;
+        }
+    }
+
+    /**
+     * Reads one game.
+     *
+     * @param sequence the sequence returned by {@link #append}
+     * @return the game, or null if there is no such game or its record is damaged
+     */
+    public MatchRecord read(long sequence) {
+        if (sequence < 1 || sequence > lastSequence) {
+            return null;
+        }
+        Map.Entry<Long, Segment> entry = segments.floorEntry(sequence);
+        // A gap between segments, e.g. after a segment was lost, must not be read from the segment before it
+        if (entry == null || sequence - entry.getValue().firstSequence >= entry.getValue().written) {
+            return null;
+        }
+        Segment segment = entry.getValue();
+        int offset = segment.offset(sequence);
+        MatchRecord record = isIntact(segment.buffer, offset, sequence, new CRC32C())
+                ? decode(segment.buffer, offset) : null;
+        if (record == null) {
+            logger.warning(String.format(Constants.ERROR_HISTORY_RECORD_INVALID, sequence, segment.file));
+        }
+        return record;
+    }
+
+    /**
+     * Reads the games from a sequence up to the last one appended so far, in order.
+     *
+     * @param fromSequence the first sequence to read
+     * @param consumer     receives every game
+     */
+    public void forEach(long fromSequence, Consumer<MatchRecord> consumer) {
+        long last = lastSequence;
+        for (long sequence = Math.max(1, fromSequence); sequence <= last; sequence++) {
+            MatchRecord record = read(sequence);
+            if (record != null) {
+                consumer.accept(record);
+            }
+        }
+    }
+
+    /**
+     * @return the sequence of the last appended game, 0 if the history is empty
+     */
+    public long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Forces all appended games to disk.
+     */
+    public void flush() {
+        for (Segment segment : segments.values()) {
+            segment.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            closed = true;
+        }
+        if (flusherThread != null) {
+            flusherThread.interrupt();
+        }
+        flush();
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    /**
+     * Maps the existing segments and finds where appending continues.
+     */
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        // Names hold the zero-padded first sequence, so name order is sequence order
+        files.sort(null);
+
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            boolean last = i == files.size() - 1;
+            Segment segment = openSegment(file);
+            if (segment == null) {
+                if (last) {
+                    // Crashed while the segment was being created, it holds no games yet
+                    logger.warning(String.format(Constants.LOG_HISTORY_SEGMENT_DISCARDED, file));
+                    Files.delete(file);
+                } else {
+                    logger.severe(String.format(Constants.ERROR_HISTORY_SEGMENT_INVALID, file));
+                }
+                continue;
+            }
+
+            segment.written = last ? countIntactRecords(segment) : segment.capacity;
+            segment.flushed = segment.written;
+            segments.put(segment.firstSequence, segment);
+            active = segment;
+        }
+
+        nextSequence = active == null ? 1 : active.firstSequence + active.written;
+        lastSequence = nextSequence - 1;
+        logger.info(String.format(Constants.LOG_HISTORY_OPENED, lastSequence, segments.size(), directory));
+    }
+
+    private int countIntactRecords(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        CRC32C check = new CRC32C();
+        for (int i = 0; i < segment.capacity; i++) {
+            int offset = HEADER_SIZE + i * RECORD_SIZE;
+            if (!isIntact(buffer, offset, segment.firstSequence + i, check)) {
+                if (buffer.getShort(offset + 4) == RECORD_MAGIC) {
+                    // Torn by a crash, it is overwritten by the next game
+                    logger.warning(String.format(Constants.LOG_HISTORY_RECOVERED, segment.file, i));
+                }
+                return i;
+            }
+        }
+        return segment.capacity;
+    }
+
+    /**
+     * Checks that a record is the one of the sequence and was written completely.
+     *
+     * @param check a checksum the caller does not use at the same time
+     */
+    private static boolean isIntact(ByteBuffer buffer, int offset, long sequence, CRC32C check) {
+        if (buffer.getShort(offset + 4) != RECORD_MAGIC || buffer.get(offset + 6) != RECORD_VERSION
+                || buffer.getLong(offset + OFFSET_SEQUENCE) != sequence) {
+            return false;
+        }
+        check.reset();
+        check.update(buffer.slice(offset + 4, RECORD_SIZE - 4));
+        return buffer.getInt(offset) == (int) check.getValue();
+    }
+
+    private Segment openSegment(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            channel.close();
+            return null;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        int capacity = buffer.getInt(16);
+        if (buffer.getLong(0) != SEGMENT_MAGIC || buffer.getInt(8) != SEGMENT_VERSION
+                || buffer.getInt(12) != RECORD_SIZE || capacity <= 0
+                || HEADER_SIZE + (long) capacity * RECORD_SIZE != size) {
+            channel.close();
+            return null;
+        }
+        return new Segment(file, channel, buffer, buffer.getLong(20), capacity);
+    }
+
+    /**
+     * Seals the full active segment and starts a new one. Called with the append lock held.
+     */
+    private void rollover() throws IOException {
+        if (active != null) {
+            active.flush();
+        }
+
+        Path file = directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, nextSequence, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.SPARSE);
+        long size = HEADER_SIZE + (long) recordsPerSegment * RECORD_SIZE;
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.putLong(0, SEGMENT_MAGIC)
+                .putInt(8, SEGMENT_VERSION)
+                .putInt(12, RECORD_SIZE)
+                .putInt(16, recordsPerSegment)
+                .putLong(20, nextSequence)
+                .putLong(28, System.currentTimeMillis());
+        buffer.force(0, HEADER_SIZE);
+
+        Segment segment = new Segment(file, channel, buffer, nextSequence, recordsPerSegment);
+        segments.put(segment.firstSequence, segment);
+        active = segment;
+        logger.info(String.format(Constants.LOG_HISTORY_SEGMENT_CREATED, file));
+    }
+
+    private void flushPeriodically() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(Constants.HISTORY_FLUSH_INTERVAL_MS);
+                Segment current = active;
+                if (current != null) {
+                    current.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.severe(String.format(Constants.ERROR_HISTORY_FLUSH, e.getMessage()));
+            }
+        }
+    }
+
+    static byte[] encode(MatchRecord record) {
+        byte[] encoded = new byte[RECORD_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        int rounds = Math.min(record.rounds().size(), MAX_ROUNDS);
+        buffer.putShort(4, RECORD_MAGIC)
+                .put(6, RECORD_VERSION)
+                .put(7, (byte) rounds)
+                .putLong(OFFSET_SEQUENCE, record.sequence())
+                .putLong(OFFSET_STARTED, record.startedAt())
+                .putLong(OFFSET_ENDED, record.endedAt())
+                .put(OFFSET_SCORES, (byte) record.player1Score())
+                .put(OFFSET_SCORES + 1, (byte) record.player2Score())
+                .put(OFFSET_SCORES + 2, (byte) (record.abandoned() ? FLAG_ABANDONED : 0));
+        putName(buffer, OFFSET_PLAYER1, record.player1());
+        putName(buffer, OFFSET_PLAYER2, record.player2());
+        if (record.format() != null) {
+            MatchFormat format = record.format();
+            buffer.put(OFFSET_FORMAT, (byte) (format.getKind().ordinal() + 1))
+                    .put(OFFSET_FORMAT + 1, (byte) format.getTarget())
+                    .put(OFFSET_FORMAT + 2, (byte) (format.getMoveMillis() / 1_000));
+        }
+
+        for (int i = 0; i < rounds; i++) {
+            MatchRecord.Round round = record.rounds().get(i);
+            int offset = OFFSET_ROUNDS + i * ROUND_SIZE;
+            buffer.put(offset, (byte) (moveCode(round.player1Move()) << 4 | moveCode(round.player2Move())))
+                    .putShort(offset + 1, (short) Math.min(round.player1DecisionMillis(), 0xFFFF))
+                    .putShort(offset + 3, (short) Math.min(round.player2DecisionMillis(), 0xFFFF));
+        }
+        return encoded;
+    }
+
+    /**
+     * Decodes an intact record.
+     *
+     * @return the game, or null if the record holds values no game is written with
+     */
+    static MatchRecord decode(ByteBuffer buffer, int offset) {
+        int rounds = Byte.toUnsignedInt(buffer.get(offset + 7));
+        int kind = Byte.toUnsignedInt(buffer.get(offset + OFFSET_FORMAT));
+        if (rounds > MAX_ROUNDS || kind > KINDS.length
+                || Byte.toUnsignedInt(buffer.get(offset + OFFSET_PLAYER1)) >= NAME_SIZE
+                || Byte.toUnsignedInt(buffer.get(offset + OFFSET_PLAYER2)) >= NAME_SIZE) {
+            return null;
+        }
+        List<MatchRecord.Round> roundList = new ArrayList<>(rounds);
+        for (int i = 0; i < rounds; i++) {
+            int position = offset + OFFSET_ROUNDS + i * ROUND_SIZE;
+            int moves = Byte.toUnsignedInt(buffer.get(position));
+            if ((moves >>> 4) > MOVES.length || (moves & 0xF) > MOVES.length) {
+                return null;
+            }
+            roundList.add(new MatchRecord.Round(move(moves >>> 4), move(moves & 0xF),
+                    Short.toUnsignedInt(buffer.getShort(position + 1)),
+                    Short.toUnsignedInt(buffer.getShort(position + 3))));
+        }
+        return new MatchRecord(buffer.getLong(offset + OFFSET_SEQUENCE),
+                buffer.getLong(offset + OFFSET_STARTED), buffer.getLong(offset + OFFSET_ENDED),
+                getName(buffer, offset + OFFSET_PLAYER1), getName(buffer, offset + OFFSET_PLAYER2),
+                Byte.toUnsignedInt(buffer.get(offset + OFFSET_SCORES)),
+                Byte.toUnsignedInt(buffer.get(offset + OFFSET_SCORES + 1)),
+                (buffer.get(offset + OFFSET_SCORES + 2) & FLAG_ABANDONED) != 0,
+                format(kind, Byte.toUnsignedInt(buffer.get(offset + OFFSET_FORMAT + 1)),
+                        Byte.toUnsignedInt(buffer.get(offset + OFFSET_FORMAT + 2))),
+                roundList);
+    }
+
+    private static void putName(ByteBuffer buffer, int offset, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        // Logins with longer names are rejected, this only guards the record layout
+        int length = Math.min(bytes.length, NAME_SIZE - 1);
+        // Never cut a multi-byte character in half
+        while (length < bytes.length && length > 0 && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        buffer.put(offset, (byte) length).put(offset + 1, bytes, 0, length);
+    }
+
+    private static String getName(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[Byte.toUnsignedInt(buffer.get(offset))];
+        buffer.get(offset + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param kind 1 + the ordinal of the kind, 0 for a record that does not store its format
+     */
+    private static MatchFormat format(int kind, int target, int moveSeconds) {
+        if (kind == 0) {
+            return null;
+        }
+        return switch (KINDS[kind - 1]) {
+            case BEST_OF -> MatchFormat.bestOf(target);
+            case FIRST_TO -> MatchFormat.firstTo(target);
+            case BLITZ -> MatchFormat.blitz(target, moveSeconds);
+        };
+    }
+
+    private static int moveCode(Move move) {
+        return move == null ? 0 : move.ordinal() + 1;
+    }
+
+    private static Move move(int code) {
+        return code == 0 ? null : MOVES[code - 1];
+    }
+}
@@ -0,0 +1,56 @@
+package karel.hudera.rps.history;
+
+import karel.hudera.rps.game.MatchFormat;
+import karel.hudera.rps.game.Move;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One finished game as stored by {@link MatchHistoryStore}.
+ *
+ * @param sequence      position in the history, assigned by {@link MatchHistoryStore#append}; 0 before that
+ * @param startedAt     epoch millis of GameStart
+ * @param endedAt       epoch millis of the last round
+ * @param player1       username of the first player
+ * @param player2       username of the second player
+ * @param player1Score  rounds won by the first player
+ * @param player2Score  rounds won by the second player
+ * @param abandoned     true if the game ended because a player left
+ * @param format        the format the game was played in, null if the history did not store it yet
+ * @param rounds        the rounds played, in order
+ * @author Karel Hudera
+ */
+public record MatchRecord(long sequence, long startedAt, long endedAt,
+                          String player1, String player2,
+                          int player1Score, int player2Score, boolean abandoned, MatchFormat format,
+                          List<Round> rounds) {
+
+    /**
+     * One round of a game.
+     *
+     * @param player1Move           move of the first player, null if the player ran out of time in a blitz game
+     * @param player2Move           move of the second player, null if the player ran out of time in a blitz game
+     * @param player1DecisionMillis time the first player took to send the move
+     * @param player2DecisionMillis time the second player took to send the move
+     */
+    public record Round(Move player1Move, Move player2Move, int player1DecisionMillis, int player2DecisionMillis)
+            implements Serializable {
+
+        /**
+         * @return true if a player ran out of time, so the round has no move to count or replay
+         */
+        public boolean timedOut() {
+            return player1Move == null || player2Move == null;
+        }
+    }
+
+    /**
+     * @param sequence the sequence assigned by the history
+     * @return a copy of this record with the sequence set
+     */
+    public MatchRecord withSequence(long sequence) {
+        return new MatchRecord(sequence, startedAt, endedAt, player1, player2,
+                player1Score, player2Score, abandoned, format, rounds);
+    }
+}
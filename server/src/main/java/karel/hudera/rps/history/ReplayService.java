@@ -0,0 +1,177 @@
+package karel.hudera.rps.history;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.game.*;
+import karel.hudera.rps.utils.ServerLogger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Streams games from the {@link MatchHistoryStore} to clients.
+ * <p>
+ * A replay sends the same messages a player got during the game, {@code GameStart} with the format of the
+ * game, one {@code RoundResult} per round and {@code GameResult}, each after the time the round took when it
+ * was played, divided by the requested speed. A blitz round lost on time is sent with the missing move as
+ * null, as during the game. The game is looked up by its sequence, which the store turns into a position in a mapped
+ * segment, so starting a replay costs the same however large the history is. Every replay runs on a virtual
+ * thread of its own that sleeps between the messages, so a viewer that is slow to take them only delays its
+ * own replay. A connection has at most one replay; a new request or joining the queue stops the running one.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class ReplayService {
+
+    private static final Logger logger = ServerLogger.INSTANCE;
+
+    // Singleton instance
+    private static ReplayService instance;
+
+    private final MatchHistoryStore store;
+
+    // Running replay of every connection
+    private final Map<PlayerConnection, Replay> replays = new ConcurrentHashMap<>();
+
+    /**
+     * @param store the history to replay from
+     */
+    ReplayService(MatchHistoryStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Gets the singleton instance of the ReplayService.
+     *
+     * @return The ReplayService instance
+     * @throws IOException if the history cannot be opened
+     */
+    public static synchronized ReplayService getInstance() throws IOException {
+        if (instance == null) {
+            instance = new ReplayService(MatchHistoryStore.getInstance());
+        }
+        return instance;
+    }
+
+    /**
+     * Starts replaying a game to a connection, replacing its running replay.
+     * Answers with a {@link ReplayResponse}; an unknown game is not replayed.
+     *
+     * @param viewer  the connection
+     * @param request the request
+     */
+    public void replay(PlayerConnection viewer, ReplayRequest request) {
+        cancel(viewer);
+        MatchRecord record = store.read(request.getGameId());
+        viewer.sendMessage(new ReplayResponse(request.getGameId(), record != null));
+        if (record == null) {
+            return;
+        }
+
+        int speed = Math.clamp(request.getSpeed(), 1, Constants.REPLAY_MAX_SPEED);
+        boolean asPlayer2 = record.player2().equalsIgnoreCase(viewer.getUsername())
+                && !record.player1().equalsIgnoreCase(viewer.getUsername());
+        Replay replay = new Replay(viewer, record, asPlayer2, speed);
+        replays.put(viewer, replay);
+        logger.info(String.format(Constants.LOG_REPLAY_STARTED, record.sequence(), viewer.getClientInfo(), speed));
+        Thread.ofVirtual().name("Replay").start(replay);
+    }
+
+    /**
+     * Stops the running replay of a connection, if any.
+     *
+     * @param viewer the connection
+     */
+    public void cancel(PlayerConnection viewer) {
+        Replay replay = replays.remove(viewer);
+        if (replay != null) {
+            replay.cancel();
+        }
+    }
+
+    /**
+     * One replay, sending its messages on its own thread.
+     */
+    private final class Replay implements Runnable {
+        private final PlayerConnection viewer;
+        private final MatchRecord record;
+        private final boolean asPlayer2;
+        private final int speed;
+        private volatile boolean cancelled;
+        private volatile Thread runner;
+
+        Replay(PlayerConnection viewer, MatchRecord record, boolean asPlayer2, int speed) {
+            this.viewer = viewer;
+            this.record = record;
+            this.asPlayer2 = asPlayer2;
+            this.speed = speed;
+        }
+
+        /**
+         * Stops the replay, waking it up if it waits for the next message.
+         */
+        void cancel() {
+            cancelled = true;
+            Thread thread = runner;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            runner = Thread.currentThread();
+            try {
+                String you = asPlayer2 ? record.player2() : record.player1();
+                String opponent = asPlayer2 ? record.player1() : record.player2();
+                if (stopped()) {
+                    return;
+                }
+                viewer.sendMessage(new GameStart(opponent, record.format()));
+
+                int yourScore = 0;
+                int opponentScore = 0;
+                for (MatchRecord.Round round : record.rounds()) {
+                    Move yourMove = asPlayer2 ? round.player2Move() : round.player1Move();
+                    Move opponentMove = asPlayer2 ? round.player1Move() : round.player2Move();
+                    Result result = GameSession.resolveRound(yourMove, opponentMove);
+                    if (result == Result.WIN) {
+                        yourScore++;
+                    } else if (result == Result.LOSE) {
+                        opponentScore++;
+                    }
+                    Thread.sleep(roundMillis(round) / speed);
+                    if (stopped()) {
+                        return;
+                    }
+                    viewer.sendMessage(new RoundResult(yourMove, opponentMove, result, yourScore, opponentScore));
+                }
+
+                if (stopped()) {
+                    return;
+                }
+                String outcome = yourScore > opponentScore ? Constants.MSG_GAME_WIN
+                        : yourScore < opponentScore ? Constants.MSG_GAME_LOSS : Constants.MSG_GAME_TIE;
+                viewer.sendMessage(new GameResult(you, String.valueOf(yourScore),
+                        opponent, String.valueOf(opponentScore), outcome));
+            } catch (InterruptedException e) {
+                // Cancelled while waiting for the next round
+            } finally {
+                replays.remove(viewer, this);
+            }
+        }
+
+        private boolean stopped() {
+            return cancelled || !viewer.isConnected();
+        }
+
+        /**
+         * Both decision times count from the start of the round, so the round lasted until the slower player moved.
+         */
+        private long roundMillis(MatchRecord.Round round) {
+            return Math.max(round.player1DecisionMillis(), round.player2DecisionMillis());
+        }
+    }
+}
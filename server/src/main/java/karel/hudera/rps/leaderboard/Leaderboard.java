@@ -0,0 +1,299 @@
+package karel.hudera.rps.leaderboard;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.history.MatchRecord;
+import karel.hudera.rps.utils.ServerLogger;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Elo ratings and win/loss/draw counts of all players, fed with the games recorded in the match history.
+ * <p>
+ * Every player gets a dense id on its first finished game, and its rating and results live in
+ * {@code int} columns at that id. Columns are split into fixed pages that never move, so registering
+ * a player never copies the others. Games are recorded by a single thread at a time, in history order,
+ * see {@code ServerState}.
+ * </p>
+ * <p>
+ * Reads never touch the live columns. A background thread copies them every
+ * {@link Constants#LEADERBOARD_PUBLISH_INTERVAL_MS} into an immutable {@link LeaderboardSnapshot},
+ * which answers rank and top-N queries without blocking the games. Abandoned games do not count,
+ * as in the head-to-head tally.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class Leaderboard {
+
+    private static final Logger logger = ServerLogger.INSTANCE;
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // Player ids by lower-case username
+    private final Map<String, Integer> idsByUser = new ConcurrentHashMap<>();
+
+    // Column pages, replaced by a longer array when full; the pages themselves are never copied
+    private volatile Page[] pages = new Page[16];
+
+    // Number of registered players
+    private volatile int size;
+
+    // Bumped after every recorded game, publishes the column writes to the snapshot thread
+    private final AtomicLong version = new AtomicLong();
+
+    private volatile LeaderboardSnapshot snapshot;
+
+    /**
+     * Columns of {@link #PAGE_SIZE} players.
+     */
+    private static final class Page {
+        final String[] names = new String[PAGE_SIZE];
+        final int[] ratings = new int[PAGE_SIZE];
+        final int[] wins = new int[PAGE_SIZE];
+        final int[] losses = new int[PAGE_SIZE];
+        final int[] draws = new int[PAGE_SIZE];
+    }
+
+    /**
+     * Creates an empty leaderboard, optionally without its publisher thread.
+     * The benchmarks create instances with {@code startPublisher == false} and call {@link #publish()} themselves.
+     *
+     * @param startPublisher whether to start the thread that republishes the snapshot
+     */
+    public Leaderboard(boolean startPublisher) {
+        publish();
+
+        if (startPublisher) {
+            startPublisher();
+        }
+    }
+
+    /**
+     * Starts the thread that republishes the snapshot, for a leaderboard created without it.
+     */
+    public void startPublisher() {
+        Thread publisherThread = new Thread(this::publishPeriodically, "LeaderboardPublisherThread");
+        publisherThread.setDaemon(true);
+        publisherThread.start();
+    }
+
+    /**
+     * Counts a game that was appended to the history. Not thread-safe, games are recorded one at a time.
+     *
+     * @param record the finished game
+     */
+    public void record(MatchRecord record) {
+        if (record.abandoned()) {
+            return;
+        }
+        int id1 = idOf(record.player1());
+        int id2 = idOf(record.player2());
+        if (id1 == id2) {
+            return;
+        }
+        Page page1 = pages[id1 >>> PAGE_BITS];
+        Page page2 = pages[id2 >>> PAGE_BITS];
+        int slot1 = id1 & PAGE_MASK;
+        int slot2 = id2 & PAGE_MASK;
+
+        double score1;
+        if (record.player1Score() > record.player2Score()) {
+            score1 = 1;
+            page1.wins[slot1]++;
+            page2.losses[slot2]++;
+        } else if (record.player1Score() < record.player2Score()) {
+            score1 = 0;
+            page1.losses[slot1]++;
+            page2.wins[slot2]++;
+        } else {
+            score1 = 0.5;
+            page1.draws[slot1]++;
+            page2.draws[slot2]++;
+        }
+
+        int rating1 = page1.ratings[slot1];
+        int rating2 = page2.ratings[slot2];
+        int change = ratingChange(rating1, rating2, score1);
+        page1.ratings[slot1] = clampRating(rating1 + change);
+        page2.ratings[slot2] = clampRating(rating2 - change);
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return the latest published state
+     */
+    public LeaderboardSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Elo rating change of the first player.
+     *
+     * @param rating1 rating of the first player
+     * @param rating2 rating of the second player
+     * @param score1  1 if the first player won, 0.5 for a draw, 0 if it lost
+     * @return the points the first player gains, which the second player loses
+     */
+    static int ratingChange(int rating1, int rating2, double score1) {
+        double expected1 = 1 / (1 + Math.pow(10, (rating2 - rating1) / 400.0));
+        return (int) Math.round(Constants.LEADERBOARD_K_FACTOR * (score1 - expected1));
+    }
+
+    private static int clampRating(int rating) {
+        return Math.max(0, Math.min(Constants.LEADERBOARD_MAX_RATING, rating));
+    }
+
+    private int idOf(String username) {
+        Integer id = idsByUser.get(username.toLowerCase());
+        return id != null ? id : register(username);
+    }
+
+    private synchronized int register(String username) {
+        String key = username.toLowerCase();
+        Integer existing = idsByUser.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        int id = size;
+        int pageIndex = id >>> PAGE_BITS;
+        Page[] current = pages;
+        if (pageIndex == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        if (current[pageIndex] == null) {
+            current[pageIndex] = new Page();
+        }
+        Page page = current[pageIndex];
+        page.names[id & PAGE_MASK] = username;
+        page.ratings[id & PAGE_MASK] = Constants.LEADERBOARD_INITIAL_RATING;
+        pages = current;
+        size = id + 1;
+        idsByUser.put(key, id);
+        return id;
+    }
+
+    /**
+     * Copies the columns of all players. The copy is only consistent if no game is recorded meanwhile,
+     * which the server state ensures for its snapshots; it is written later, while games are recorded again.
+     *
+     * @return the copied columns
+     */
+    public Frozen freeze() {
+        // Reading the version first makes every column write of the games counted so far visible
+        version.get();
+        // Size before pages: register() writes a grown page array before the size, so an array read after
+        // the size always covers it
+        int count = size;
+        Page[] current = pages;
+
+        Frozen frozen = new Frozen(count);
+        for (int offset = 0; offset < count; offset += PAGE_SIZE) {
+            Page page = current[offset >>> PAGE_BITS];
+            int length = Math.min(PAGE_SIZE, count - offset);
+            System.arraycopy(page.names, 0, frozen.names, offset, length);
+            System.arraycopy(page.ratings, 0, frozen.ratings, offset, length);
+            System.arraycopy(page.wins, 0, frozen.wins, offset, length);
+            System.arraycopy(page.losses, 0, frozen.losses, offset, length);
+            System.arraycopy(page.draws, 0, frozen.draws, offset, length);
+        }
+        return frozen;
+    }
+
+    /**
+     * Copy of the columns of all players, taken by {@link #freeze()}.
+     */
+    public static final class Frozen {
+        private final String[] names;
+        private final int[] ratings;
+        private final int[] wins;
+        private final int[] losses;
+        private final int[] draws;
+
+        private Frozen(int count) {
+            names = new String[count];
+            ratings = new int[count];
+            wins = new int[count];
+            losses = new int[count];
+            draws = new int[count];
+        }
+
+        /**
+         * Writes the copied players for a server state snapshot.
+         *
+         * @param out the snapshot being written
+         * @throws IOException if writing fails
+         */
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(names.length);
+            for (int id = 0; id < names.length; id++) {
+                out.writeUTF(names[id]);
+                out.writeInt(ratings[id]);
+                out.writeInt(wins[id]);
+                out.writeInt(losses[id]);
+                out.writeInt(draws[id]);
+            }
+        }
+    }
+
+    /**
+     * Restores the players written by {@link Frozen#write} into this empty leaderboard and publishes them.
+     *
+     * @param in the snapshot being read
+     * @throws IOException if reading fails
+     */
+    public void readSnapshot(DataInput in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int id = register(in.readUTF());
+            Page page = pages[id >>> PAGE_BITS];
+            int slot = id & PAGE_MASK;
+            page.ratings[slot] = clampRating(in.readInt());
+            page.wins[slot] = in.readInt();
+            page.losses[slot] = in.readInt();
+            page.draws[slot] = in.readInt();
+        }
+        version.incrementAndGet();
+        publish();
+    }
+
+    /**
+     * Copies the columns into a new snapshot and makes it visible to readers.
+     */
+    public void publish() {
+        Frozen columns = freeze();
+        snapshot = new LeaderboardSnapshot(idsByUser, columns.names.length, columns.names, columns.ratings,
+                columns.wins, columns.losses, columns.draws, Constants.LEADERBOARD_MAX_RATING, System.currentTimeMillis());
+    }
+
+    /**
+     * Republishes the snapshot whenever games were recorded since the last one.
+     */
+    private void publishPeriodically() {
+        long published = version.get();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(Constants.LEADERBOARD_PUBLISH_INTERVAL_MS);
+                long current = version.get();
+                if (current != published) {
+                    publish();
+                    published = current;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warning(String.format(Constants.ERROR_LEADERBOARD_PUBLISH, e.getMessage()));
+            } catch (Exception e) {
+                logger.severe(String.format(Constants.ERROR_LEADERBOARD_PUBLISH, e.getMessage()));
+            }
+        }
+    }
+}
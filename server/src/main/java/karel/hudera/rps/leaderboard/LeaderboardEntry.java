@@ -0,0 +1,15 @@
+package karel.hudera.rps.leaderboard;
+
+/**
+ * One player's line on the leaderboard.
+ *
+ * @param username the player
+ * @param rank     1 for the best rated player; players with the same rating share a rank
+ * @param rating   Elo rating
+ * @param wins     games won
+ * @param losses   games lost
+ * @param draws    games drawn
+ * @author Karel Hudera
+ */
+public record LeaderboardEntry(String username, int rank, int rating, int wins, int losses, int draws) {
+}
@@ -0,0 +1,128 @@
+package karel.hudera.rps.leaderboard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable state of the leaderboard at one point in time.
+ * <p>
+ * Players are identified by dense ids; the snapshot holds copies of the rating and result columns for
+ * the ids it covers, and builds from them the players ordered by rating and a {@link RatingTree}, both in
+ * O(n + R). Looking up the rank of a player is then O(log R) in the number of rating values, and reading
+ * the first N players is O(N).
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class LeaderboardSnapshot {
+
+    // Shared with the live leaderboard; ids are never reassigned, ids at or above size are ignored
+    private final Map<String, Integer> idsByUser;
+    private final int size;
+    private final String[] names;
+    private final int[] ratings;
+    private final int[] wins;
+    private final int[] losses;
+    private final int[] draws;
+    // Player ids, best rated first
+    private final int[] order;
+    private final RatingTree tree;
+    private final long publishedAt;
+
+    /**
+     * Takes over the given columns, which must not be changed afterwards.
+     * Ratings must lie in {@code [0, maxRating]}.
+     */
+    LeaderboardSnapshot(Map<String, Integer> idsByUser, int size, String[] names, int[] ratings,
+                        int[] wins, int[] losses, int[] draws, int maxRating, long publishedAt) {
+        this.idsByUser = idsByUser;
+        this.size = size;
+        this.names = names;
+        this.ratings = ratings;
+        this.wins = wins;
+        this.losses = losses;
+        this.draws = draws;
+        int[] histogram = new int[maxRating + 1];
+        for (int id = 0; id < size; id++) {
+            histogram[ratings[id]]++;
+        }
+        this.tree = new RatingTree(histogram);
+        this.order = orderByRating(histogram, ratings, size);
+        this.publishedAt = publishedAt;
+    }
+
+    /**
+     * @return a snapshot without players
+     */
+    static LeaderboardSnapshot empty(Map<String, Integer> idsByUser, int maxRating) {
+        return new LeaderboardSnapshot(idsByUser, 0, new String[0], new int[0], new int[0], new int[0], new int[0],
+                maxRating, System.currentTimeMillis());
+    }
+
+    /**
+     * Sorts the players by rating, best first, with a counting sort over the rating values.
+     * Players with the same rating keep their id order.
+     */
+    private static int[] orderByRating(int[] histogram, int[] ratings, int size) {
+        // next[r] is the position of the next player rated r
+        int[] next = new int[histogram.length];
+        int position = 0;
+        for (int rating = histogram.length - 1; rating >= 0; rating--) {
+            next[rating] = position;
+            position += histogram[rating];
+        }
+        int[] order = new int[size];
+        for (int id = 0; id < size; id++) {
+            order[next[ratings[id]]++] = id;
+        }
+        return order;
+    }
+
+    /**
+     * Looks up one player.
+     *
+     * @param username the username, in any case
+     * @return the player's entry, or null if the player had not finished a game when the snapshot was taken
+     */
+    public LeaderboardEntry entry(String username) {
+        Integer id = idsByUser.get(username.toLowerCase());
+        return id == null || id >= size ? null : entry(id);
+    }
+
+    /**
+     * @param limit the most entries to return
+     * @return the best rated players, best first
+     */
+    public List<LeaderboardEntry> top(int limit) {
+        int count = Math.max(0, Math.min(limit, size));
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<LeaderboardEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(entry(order[i]));
+        }
+        return entries;
+    }
+
+    private LeaderboardEntry entry(int id) {
+        int rank = size - tree.countAtMost(ratings[id]) + 1;
+        return new LeaderboardEntry(names[id], rank, ratings[id], wins[id], losses[id], draws[id]);
+    }
+
+    /**
+     * @return the number of ranked players
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return when the snapshot was taken, in epoch milliseconds
+     */
+    public long getPublishedAt() {
+        return publishedAt;
+    }
+}
@@ -0,0 +1,45 @@
+package karel.hudera.rps.leaderboard;
+
+/**
+ * Order-statistic structure over ratings: a Fenwick tree counting players per rating value.
+ * <p>
+ * Counting the players at or below a rating is O(log R), where R is the number of distinct rating values,
+ * so the rank of a player does not depend on how many players there are. The tree is built once from a
+ * histogram and never changes afterwards, so any number of threads read it without locks.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class RatingTree {
+
+    private final int[] tree;
+    private final int maxRating;
+
+    /**
+     * Builds the tree in O(R).
+     *
+     * @param histogram number of players per rating value, {@code maxRating + 1} entries
+     */
+    RatingTree(int[] histogram) {
+        this.maxRating = histogram.length - 1;
+        this.tree = new int[histogram.length + 1];
+        for (int i = 1; i < tree.length; i++) {
+            tree[i] += histogram[i - 1];
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    /**
+     * @return the number of players rated at most {@code rating}
+     */
+    int countAtMost(int rating) {
+        int count = 0;
+        for (int i = Math.max(-1, Math.min(maxRating, rating)) + 1; i > 0; i -= i & -i) {
+            count += tree[i];
+        }
+        return count;
+    }
+}
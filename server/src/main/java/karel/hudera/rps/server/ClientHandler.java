@@ -1,6 +1,9 @@
 package karel.hudera.rps.server;
 
+import karel.hudera.rps.auth.AuthenticatedSession;
 import karel.hudera.rps.auth.LoginService;
+import karel.hudera.rps.auth.PresenceRegistry;
+import karel.hudera.rps.cluster.ClusterNode;
 import karel.hudera.rps.constants.Constants;
 import karel.hudera.rps.game.*;
 import karel.hudera.rps.utils.ServerLogger;
@@ -8,7 +11,21 @@ import karel.hudera.rps.utils.ServerLogger;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,17 +41,88 @@ import java.util.logging.Logger;
  *   <li>Properly closing resources when the connection terminates</li>
  *   <li>Registering the client with the GameManager for matchmaking</li>
  * </ul>
+ * After login the handler's thread keeps reading from the socket and hands every message to the handler
+ * of its type in {@link #READER}. Pings and pongs are answered and measured right there; requests the
+ * {@link GameManager} handles for waiting players and spectators go to it; the rest is put into an inbox that
+ * the game reads with {@link #observeMessage()}. A message of a type clients do not send is dropped.
+ * A connection that sends nothing, not even a pong, for {@link Constants#PEER_TIMEOUT_MS} is closed.
+ * <p>
+ * Messages to the client, pings included, are put into an outbox that a virtual thread of the connection
+ * writes to the socket, so neither a game nor the {@link Heartbeat} waits for a slow client. A client that
+ * lets {@link Constants#CLIENT_OUTBOX_MESSAGES} messages pile up is disconnected.
+ * </p>
+ * <p>
+ * Besides its main game a connection can play up to {@link Constants#MAX_GAMES_PER_CONNECTION} more at once.
+ * Each is a {@link GameChannel} opened by a {@link QueueRequest} with the client's id for the game; the
+ * reader hands every {@link GameEvent} carrying that id to the channel instead of the inbox.
+ * </p>
+ * <p>
+ * As a spectator the handler gets the events of the watched game already encoded. They go into the outbox
+ * and the writer thread copies them straight to the socket, so the game never waits for a spectator;
+ * one that falls behind by {@link Constants#SPECTATOR_QUEUE_EVENTS} events skips the following ones.
+ * </p>
  *
  * @author Karel Hudera
  */
-public class ClientHandler implements Runnable {
+public class ClientHandler implements Runnable, Spectator {
 
     private static final Logger logger = ServerLogger.INSTANCE;
+    // Put into the inbox when the connection ends
+    private static final GameMessage CLOSED = new TerminateMessage();
+    // Put into the outbox by the heartbeat; the writer stamps the ping when it writes it
+    private static final Object PING = new Object();
+    // Value of outstandingPing while no ping waits for its pong
+    private static final long NO_PING = Long.MIN_VALUE;
+
+    // Messages a logged-in client may send, see readMessages()
+    private static final MessageDispatcher<ClientHandler> READER = new MessageDispatcher<ClientHandler>()
+            .on(MessageType.PONG, ClientHandler::onPong)
+            .on(MessageType.PING, ClientHandler::onPing)
+            .on(MessageType.TERMINATE, ClientHandler::onTerminate)
+            .on(MessageType.QUEUE_REQUEST, ClientHandler::onQueueRequest)
+            .on(MessageType.GAME_MOVE, ClientHandler::onGameMove)
+            .on(MessageType.CREATE_ROOM_REQUEST, ClientHandler::onRoomRequest)
+            .on(MessageType.JOIN_ROOM_REQUEST, ClientHandler::onRoomRequest)
+            .on(MessageType.ROOM_LIST_REQUEST, ClientHandler::onRoomRequest)
+            .on(MessageType.SPECTATE_REQUEST, ClientHandler::onRequest)
+            .on(MessageType.HISTORY_REQUEST, ClientHandler::onRequest)
+            .on(MessageType.STATS_REQUEST, ClientHandler::onRequest)
+            .on(MessageType.REPLAY_REQUEST, ClientHandler::onRequest);
+
     private final Socket clientSocket;
+    // The client's address from the PROXY header of a trusted router, null for a direct connection
+    private volatile InetSocketAddress proxiedAddress;
+    private OutputStream socketOut;
     private ObjectOutputStream objectOut;
     private ObjectInputStream objectIn;
     private volatile boolean connected;
-    private String username;
+    // Set when the client said goodbye with TerminateMessage, its session cannot be resumed
+    private volatile boolean terminated;
+    private volatile String username;
+    private LoginService loginService;
+    private AuthenticatedSession session;
+    // Messages read from the socket that the game did not take yet
+    private final BlockingQueue<GameMessage> inbox = new LinkedBlockingQueue<>();
+    // Takes the messages instead of the inbox while the player's game runs on another cluster node
+    private volatile Consumer<GameMessage> forward;
+    // The games played besides the main one, by the id the client gave them
+    private final Map<Long, GameChannel> channels = new ConcurrentHashMap<>();
+    // Messages to the client, written by the writer thread, see writeOutbox()
+    private final BlockingQueue<Object> outbox = new LinkedBlockingQueue<>(Constants.CLIENT_OUTBOX_MESSAGES);
+    // Set while a ping waits in the outbox, so a slow client does not collect them
+    private final AtomicBoolean pingQueued = new AtomicBoolean();
+    // Stamp of the last ping written and not answered yet, NO_PING if there is none. Only a pong echoing it
+    // is measured, so a client cannot make up its round-trip time or answer one ping twice
+    private final AtomicLong outstandingPing = new AtomicLong(NO_PING);
+    // Events of watched games in the outbox
+    private final AtomicInteger queuedEvents = new AtomicInteger();
+    // Set after writing an encoded event, whose reset marker the object stream does not know about;
+    // only touched by the writer thread, like the count below
+    private boolean eventWritten;
+    // Messages written since the stream was last reset
+    private int writtenSinceReset;
+    private final RoundTripEstimator roundTrip = new RoundTripEstimator();
+
     /**
      * Constructs a new ClientHandler to manage communication with a connected client.
      *
@@ -57,37 +145,65 @@ public class ClientHandler implements Runnable {
         logger.info(String.format(Constants.LOG_CLIENT_CONNECTED, clientAddress, clientPort));
 
         try {
+            // Behind a router, the client's own address comes first
+            PushbackInputStream input = ProxyHeader.wrap(clientSocket.getInputStream());
+            if (ProxyHeader.isTrusted(clientSocket.getInetAddress())) {
+                try {
+                    proxiedAddress = ProxyHeader.read(input);
+                } catch (IOException e) {
+                    logger.warning(String.format(Constants.ERROR_PROXY_HEADER, clientAddress, e.getMessage()));
+                    return;
+                }
+            }
+
             // Initialize object streams for serialized communication
-            objectOut = new ObjectOutputStream(clientSocket.getOutputStream());
-            objectIn = new ObjectInputStream(clientSocket.getInputStream());
+            socketOut = clientSocket.getOutputStream();
+            objectOut = new ObjectOutputStream(socketOut);
+            objectIn = new ObjectInputStream(input);
 
-            LoginService loginService = new LoginService();
-            String authenticatedUsername = loginService.authenticate(objectIn, objectOut, getClientInfo());
+            loginService = LoginService.getInstance();
+            session = loginService.authenticate(this, objectIn, objectOut);
 
-            if (authenticatedUsername == null) {
+            if (session == null) {
                 logger.warning("Authentication failed for client: " + getClientInfo());
                 return;
             }
+            username = session.username();
+            clientSocket.setSoTimeout(Constants.PEER_TIMEOUT_MS);
+            Thread.ofVirtual().name("ClientWriter").start(this::writeOutbox);
+            Heartbeat.getInstance().register(this);
 
-            // Add player to waiting queue
-            GameManager.getInstance().addWaitingPlayer(this);
-
-            // Keep connection alive until client disconnects
-            while (connected && !clientSocket.isClosed()) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    logger.warning("Client handler thread interrupted: " + e.getMessage());
-                    break;
-                }
+            // Continue an interrupted game, here or on the cluster node that took it over, otherwise add player to waiting queue
+            if (!GameManager.getInstance().resumeSession(this) && !ClusterNode.getInstance().resumeRemote(this)) {
+                GameManager.getInstance().addWaitingPlayer(this);
             }
+
+            // Read until the client disconnects
+            readMessages();
+        } catch (SocketTimeoutException e) {
+            logger.info(String.format(Constants.LOG_PEER_TIMEOUT, getClientInfo(), Constants.PEER_TIMEOUT_MS));
         } catch (IOException e) {
             logger.warning(String.format(Constants.ERROR_CLIENT_COMMUNICATION, clientAddress, clientPort, e.getMessage()));
         } finally {
+            connected = false;
+            inbox.add(CLOSED);
+            Consumer<GameMessage> target = forward;
+            if (target != null) {
+                target.accept(null);
+            }
+            Heartbeat.getInstance().unregister(this);
             // Remove from waiting queue if still there
             GameManager.getInstance().removeWaitingPlayer(this);
+            GameManager.getInstance().stopWatching(this);
+            GameManager.getInstance().leaveRoom(this);
+            for (GameChannel channel : channels.values()) {
+                GameManager.getInstance().removeWaitingPlayer(channel);
+                channel.close();
+            }
             closeConnection(clientAddress, clientPort);
+            if (session != null) {
+                loginService.logout(session, this, terminated);
+            }
         }
     }
 
@@ -101,9 +217,8 @@ public class ClientHandler implements Runnable {
         try {
             connected = false;
 
-            // Close resources
+            // Close resources; the output stream belongs to the writer thread, closing the socket ends it
             if (objectIn != null) objectIn.close();
-            if (objectOut != null) objectOut.close();
             if (clientSocket != null) clientSocket.close();
 
             logger.info(String.format(Constants.LOG_CLIENT_DISCONNECTED, clientAddress, clientPort));
@@ -113,22 +228,177 @@ public class ClientHandler implements Runnable {
     }
 
     /**
-     * Sends a GameMessage object to the client.
+     * Closes the connection from the server side, e.g. when the player resumed the session
+     * on a new connection. The handler thread notices the closed socket and cleans up.
+     */
+    @Override
+    public void disconnect() {
+        connected = false;
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            logger.warning(String.format(Constants.ERROR_CLOSING_CONNECTION,
+                    clientSocket.getInetAddress(), clientSocket.getPort(), e.getMessage()));
+        }
+    }
+
+    /**
+     * Reads messages from the client until it leaves or the connection fails.
      *
-     * @param message The GameMessage object to send to the client.
+     * @throws SocketTimeoutException if the client sent nothing for {@link Constants#PEER_TIMEOUT_MS}
+     * @throws IOException            if reading fails
      */
-    public void sendMessage(GameMessage message) {
-        if (objectOut != null && isConnected()) {
+    private void readMessages() throws IOException {
+        while (connected) {
+            Object received;
             try {
-                objectOut.writeObject(message);
-                objectOut.flush();
-                logger.info(String.format(Constants.LOG_SENT_TO_CLIENT,
-                        clientSocket.getInetAddress(), clientSocket.getPort(), message.toString()));
-            } catch (IOException e) {
-                logger.warning(String.format("Failed to send message to client %s:%d - %s",
+                received = objectIn.readObject();
+            } catch (ClassNotFoundException e) {
+                logger.warning(String.format("Failed to deserialize object from client %s:%d - %s",
                         clientSocket.getInetAddress(), clientSocket.getPort(), e.getMessage()));
-                connected = false;
+                return;
+            }
+
+            if (!(received instanceof GameMessage message)) {
+                logger.warning(String.format("Ignoring unexpected object from client %s:%d - %s",
+                        clientSocket.getInetAddress(), clientSocket.getPort(), received));
+                continue;
+            }
+            if (!READER.dispatch(this, message)) {
+                logger.warning(String.format(Constants.LOG_MESSAGE_DROPPED, getClientInfo(), message));
+            }
+        }
+    }
+
+    private boolean onPong(Pong pong) {
+        long sentAt = pong.getSentAtNanos();
+        if (sentAt == NO_PING || !outstandingPing.compareAndSet(sentAt, NO_PING)) {
+            logger.fine(String.format(Constants.LOG_MESSAGE_DROPPED, getClientInfo(), pong));
+            return true;
+        }
+        // Never 0 or less, the estimator takes a negative first sample for no measurement
+        long micros = Math.max(1, (System.nanoTime() - sentAt) / 1_000);
+        boolean first = roundTrip.getSmoothedMicros() < 0;
+        roundTrip.record(micros);
+        RoundTripHistogram.getInstance().record(micros);
+        if (first) {
+            // A waiting player is only put into a latency band once it was measured
+            GameManager.getInstance().roundTripMeasured(this);
+        }
+        return true;
+    }
+
+    private boolean onPing(Ping ping) {
+        enqueue(new Pong(ping.getSentAtNanos()));
+        return true;
+    }
+
+    private boolean onTerminate(TerminateMessage message) {
+        received(message);
+        // The client is leaving, let run() close the connection and release the login
+        terminated = true;
+        connected = false;
+        return toGame(message);
+    }
+
+    private boolean onQueueRequest(QueueRequest request) {
+        received(request);
+        if (request.getGameId() != 0) {
+            openChannel(request);
+            return true;
+        }
+        return GameManager.getInstance().requeue(this, request)
+                || GameManager.getInstance().handleSpectatorMessage(this, request)
+                || toGame(request);
+    }
+
+    private boolean onGameMove(GameMove move) {
+        received(move);
+        // The game may read the move much later, while it waits for the other player
+        move.markReceived(System.currentTimeMillis());
+        if (move.getGameId() != 0) {
+            // A move of a game besides the main one goes to its channel
+            GameChannel channel = channels.get(move.getGameId());
+            if (channel != null) {
+                channel.deliver(move);
             }
+            return true;
+        }
+        return GameManager.getInstance().handleSpectatorMessage(this, move) || toGame(move);
+    }
+
+    private boolean onRoomRequest(GameMessage request) {
+        received(request);
+        return GameManager.getInstance().handleRoomMessage(this, request)
+                || GameManager.getInstance().handleSpectatorMessage(this, request)
+                || toGame(request);
+    }
+
+    private boolean onRequest(GameMessage request) {
+        received(request);
+        return GameManager.getInstance().handleSpectatorMessage(this, request) || toGame(request);
+    }
+
+    /**
+     * Notes a message other than a ping or pong: the player is active.
+     */
+    private void received(GameMessage message) {
+        PresenceRegistry.getInstance().touch(username);
+        logger.info(String.format(Constants.LOG_RECEIVED_FROM_CLIENT,
+                clientSocket.getInetAddress(), clientSocket.getPort(), message));
+    }
+
+    /**
+     * Passes a message to the player's game, or to whatever waits for the player's next message.
+     */
+    private boolean toGame(GameMessage message) {
+        Consumer<GameMessage> target = forward;
+        if (target != null) {
+            target.accept(message);
+        } else {
+            inbox.add(message);
+        }
+        return true;
+    }
+
+    /**
+     * Opens a game besides the main one and puts it into the waiting queue.
+     * Ignored if a game with the id still runs or the connection plays as many games as allowed.
+     *
+     * @param request the request, carrying the id the client chose and the format it wants
+     */
+    private void openChannel(QueueRequest request) {
+        long gameId = request.getGameId();
+        if (channels.size() >= Constants.MAX_GAMES_PER_CONNECTION) {
+            logger.warning(String.format(Constants.ERROR_TOO_MANY_GAMES, getClientInfo(), Constants.MAX_GAMES_PER_CONNECTION));
+            return;
+        }
+        GameChannel channel = new GameChannel(this, gameId, closed -> channels.remove(gameId, closed));
+        if (channels.putIfAbsent(gameId, channel) == null) {
+            GameManager.getInstance().addWaitingPlayer(channel, request.getFormat());
+        }
+    }
+
+    /**
+     * Hands the messages read from now on to the given consumer instead of the inbox, while the player's
+     * game is hosted by another cluster node. The consumer gets null when the connection closes.
+     *
+     * @param target the consumer, or null to put messages into the inbox again
+     */
+    public void forwardMessages(Consumer<GameMessage> target) {
+        this.forward = target;
+    }
+
+    /**
+     * Sends a GameMessage object to the client. The message is queued and written by the connection's
+     * writer thread, the caller does not wait for the client.
+     *
+     * @param message The GameMessage object to send to the client.
+     */
+    @Override
+    public void sendMessage(GameMessage message) {
+        if (objectOut != null && isConnected()) {
+            enqueue(message);
         } else {
             logger.warning(String.format(Constants.LOG_FAILED_SEND,
                     clientSocket.getInetAddress(), clientSocket.getPort()));
@@ -136,40 +406,147 @@ public class ClientHandler implements Runnable {
     }
 
     /**
-     * Observes and receives a message from the client.
-     * Can handle both GameMessage objects and String messages.
-     *
-     * @return The message received from the client or null if reading failed
-     * @throws IOException If an I/O error occurs when reading
+     * Sends a ping carrying the current round-trip estimate. Called by the {@link Heartbeat}, which never
+     * waits: a ping still queued for a slow client is not followed by another one.
      */
-    public GameMessage observeMessage() throws IOException {
-        if (objectIn != null && isConnected()) {
-            try {
-                // Try to read as an object first (for GameMessage instances)
-                GameMessage message = (GameMessage) objectIn.readObject();
-
-                if (message != null) {
-                    logger.info(String.format(Constants.LOG_RECEIVED_FROM_CLIENT,
-                            clientSocket.getInetAddress(), clientSocket.getPort(),
-                            message));
-                    return message;
-                } else {
-                    connected = false;
-                    return null;
+    void ping() {
+        if (isConnected() && pingQueued.compareAndSet(false, true)) {
+            enqueue(PING);
+        }
+    }
+
+    /**
+     * Queues a message for the writer thread. A client that does not read what it was sent is disconnected.
+     */
+    private void enqueue(Object message) {
+        if (!outbox.offer(message)) {
+            logger.warning(String.format(Constants.ERROR_CLIENT_STUCK, getClientInfo(), Constants.CLIENT_OUTBOX_MESSAGES));
+            // Wakes up the reader, which cleans up the connection
+            disconnect();
+        }
+    }
+
+    /**
+     * Writes the queued messages until the connection closes. Messages queued together are flushed together.
+     */
+    private void writeOutbox() {
+        try {
+            while (isConnected()) {
+                Object message = outbox.poll(Constants.PING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (message == null) {
+                    continue;
                 }
-            } catch (ClassNotFoundException e) {
-                logger.warning(String.format("Failed to deserialize object from client %s:%d - %s",
-                        clientSocket.getInetAddress(), clientSocket.getPort(), e.getMessage()));
-                connected = false;
-                return null;
-            } catch (IOException e) {
-                logger.warning(String.format("I/O error reading from client %s:%d - %s",
+                do {
+                    write(message);
+                } while ((message = outbox.poll()) != null);
+                objectOut.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (isConnected()) {
+                logger.warning(String.format("Failed to send message to client %s:%d - %s",
                         clientSocket.getInetAddress(), clientSocket.getPort(), e.getMessage()));
-                connected = false;
-                throw e;
+                // Wakes up the reader, which cleans up the connection
+                disconnect();
             }
         }
-        return null;
+    }
+
+    /**
+     * Writes one queued message without flushing. Pings and pongs are written unshared, so this stream
+     * keeps no reference to them; the client's stream still holds a handle to every object it read until
+     * the stream is reset, which happens every {@link Constants#STREAM_RESET_MESSAGES} messages.
+     */
+    private void write(Object queued) throws IOException {
+        if (queued instanceof EncodedMessage event) {
+            queuedEvents.decrementAndGet();
+            // The objects written before may still sit in the object stream's buffer
+            objectOut.flush();
+            event.writeTo(socketOut);
+            eventWritten = true;
+            return;
+        }
+        if (eventWritten || writtenSinceReset == Constants.STREAM_RESET_MESSAGES) {
+            // After an event the client's stream forgot the objects written before, this one must forget them too
+            objectOut.reset();
+            eventWritten = false;
+            writtenSinceReset = 0;
+        }
+        writtenSinceReset++;
+        if (queued == PING) {
+            pingQueued.set(false);
+            long sentAt = System.nanoTime();
+            // A ping still unanswered is forgotten, its pong would arrive too late to tell anything
+            outstandingPing.set(sentAt);
+            objectOut.writeUnshared(new Ping(sentAt, roundTrip.getSmoothedMicros(), roundTrip.getJitterMicros()));
+        } else if (queued instanceof Pong pong) {
+            objectOut.writeUnshared(pong);
+        } else {
+            GameMessage message = (GameMessage) queued;
+            objectOut.writeObject(message);
+            logger.info(String.format(Constants.LOG_SENT_TO_CLIENT,
+                    clientSocket.getInetAddress(), clientSocket.getPort(), message.toString()));
+        }
+    }
+
+    @Override
+    public boolean offer(EncodedMessage message) {
+        if (queuedEvents.incrementAndGet() > Constants.SPECTATOR_QUEUE_EVENTS || !outbox.offer(message)) {
+            queuedEvents.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes the next message the client sent, waiting until one arrives.
+     *
+     * @return The message received from the client, or null once the connection is closed
+     */
+    @Override
+    public GameMessage observeMessage() {
+        GameMessage message;
+        try {
+            message = inbox.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (message == CLOSED) {
+            // Leave it for the next caller, the connection stays closed
+            inbox.add(CLOSED);
+            return null;
+        }
+        return message;
+    }
+
+    @Override
+    public GameMessage observeMessage(long timeoutMillis) {
+        GameMessage message;
+        try {
+            message = inbox.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (message == CLOSED) {
+            inbox.add(CLOSED);
+            return null;
+        }
+        return message;
+    }
+
+    /**
+     * @return the smoothed round-trip time and jitter of this connection
+     */
+    public RoundTripEstimator getRoundTrip() {
+        return roundTrip;
+    }
+
+    @Override
+    public long getRoundTripMicros() {
+        return roundTrip.getSmoothedMicros();
     }
 
     /**
@@ -177,7 +554,12 @@ public class ClientHandler implements Runnable {
      *
      * @return A string in the format "address:port"
      */
+    @Override
     public String getClientInfo() {
+        InetSocketAddress proxied = proxiedAddress;
+        if (proxied != null) {
+            return proxied.getAddress().getHostAddress() + ":" + proxied.getPort();
+        }
         if (clientSocket != null) {
             try {
                 return clientSocket.getInetAddress().getHostAddress() + ":" + clientSocket.getPort();
@@ -192,15 +574,27 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    /**
+     * Gets the address the client connects from.
+     *
+     * @return the address from the router's PROXY header, otherwise the remote address of the socket
+     */
+    public InetAddress getRemoteAddress() {
+        InetSocketAddress proxied = proxiedAddress;
+        return proxied != null ? proxied.getAddress() : clientSocket.getInetAddress();
+    }
+
     /**
      * Checks if the client is still connected.
      *
      * @return true if connected, false otherwise
      */
+    @Override
     public boolean isConnected() {
         return connected && !clientSocket.isClosed();
     }
 
+    @Override
     public String getUsername() {
         return this.username;
     }
@@ -0,0 +1,97 @@
+package karel.hudera.rps.server;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.utils.ServerLogger;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Pings every logged-in connection each {@link Constants#PING_INTERVAL_MS}.
+ * <p>
+ * The pongs feed the round-trip estimate of each connection and the server-wide
+ * {@link RoundTripHistogram}, which is logged every {@link Constants#RTT_REPORT_INTERVAL_MS}.
+ * Because a live client answers every ping, a connection that stays silent for
+ * {@link Constants#PEER_TIMEOUT_MS} is dead; its {@link ClientHandler} closes it long before TCP would notice.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class Heartbeat {
+
+    private static final Logger logger = ServerLogger.INSTANCE;
+
+    // Singleton instance
+    private static Heartbeat instance;
+
+    private final Set<ClientHandler> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Private constructor for a singleton pattern.
+     */
+    private Heartbeat() {
+        Thread heartbeatThread = new Thread(this::pingPeriodically, "HeartbeatThread");
+        heartbeatThread.setDaemon(true);
+        heartbeatThread.start();
+    }
+
+    /**
+     * Gets the singleton instance of the Heartbeat.
+     *
+     * @return The Heartbeat instance
+     */
+    public static synchronized Heartbeat getInstance() {
+        if (instance == null) {
+            instance = new Heartbeat();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts pinging a connection that logged in. The first ping goes out at once, so the round-trip
+     * time is known by the time the player is matched.
+     *
+     * @param connection the connection
+     */
+    void register(ClientHandler connection) {
+        connections.add(connection);
+        connection.ping();
+    }
+
+    /**
+     * Stops pinging a closed connection.
+     *
+     * @param connection the connection
+     */
+    void unregister(ClientHandler connection) {
+        connections.remove(connection);
+    }
+
+    private void pingPeriodically() {
+        long nextReport = System.currentTimeMillis() + Constants.RTT_REPORT_INTERVAL_MS;
+        long reportedCount = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(Constants.PING_INTERVAL_MS);
+                for (ClientHandler connection : connections) {
+                    connection.ping();
+                }
+
+                RoundTripHistogram histogram = RoundTripHistogram.getInstance();
+                if (System.currentTimeMillis() >= nextReport && histogram.getCount() > reportedCount) {
+                    reportedCount = histogram.getCount();
+                    logger.info(String.format(Constants.LOG_RTT_HISTOGRAM, reportedCount,
+                            histogram.getPercentileMicros(50) / 1000.0, histogram.getPercentileMicros(99) / 1000.0,
+                            histogram.getPercentileMicros(99.9) / 1000.0, histogram.getMaxMicros() / 1000.0));
+                    nextReport = System.currentTimeMillis() + Constants.RTT_REPORT_INTERVAL_MS;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warning(String.format(Constants.ERROR_HEARTBEAT, e.getMessage()));
+            } catch (Exception e) {
+                logger.severe(String.format(Constants.ERROR_HEARTBEAT, e.getMessage()));
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package karel.hudera.rps.server;
+
+import karel.hudera.rps.constants.Constants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Reads the PROXY protocol v1 header a router puts in front of a client's stream.
+ * <p>
+ * Behind a router every connection comes from the router's address, so the header tells the real client
+ * address, which the login limits need. It is only accepted from the addresses in
+ * {@link Constants#TRUSTED_PROXIES_PROPERTY}; anyone else could claim any address with it.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+final class ProxyHeader {
+
+    // The longest v1 header, "PROXY TCP6" with two full IPv6 addresses and ports, including CRLF
+    private static final int MAX_LENGTH = 107;
+    private static final byte[] SIGNATURE = "PROXY ".getBytes(StandardCharsets.US_ASCII);
+
+    private static final Set<String> TRUSTED = Arrays.stream(System.getProperty(Constants.TRUSTED_PROXIES_PROPERTY, "").split(","))
+            .map(String::strip)
+            .filter(address -> !address.isEmpty())
+            .collect(Collectors.toUnmodifiableSet());
+
+    private ProxyHeader() {
+    }
+
+    /**
+     * @param address the address a connection comes from
+     * @return true if the address may send a PROXY header
+     */
+    static boolean isTrusted(InetAddress address) {
+        return !TRUSTED.isEmpty() && TRUSTED.contains(address.getHostAddress());
+    }
+
+    /**
+     * Reads the header if the stream starts with one. Java serialization streams never start with 'P',
+     * so a trusted address may also connect directly without a header.
+     *
+     * @param in the connection's stream, able to push back one byte
+     * @return the client address from the header, or null if there is none or it is "UNKNOWN"
+     * @throws IOException if the header is malformed or the connection fails
+     */
+    static InetSocketAddress read(PushbackInputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        if (first != SIGNATURE[0]) {
+            in.unread(first);
+            return null;
+        }
+
+        byte[] line = new byte[MAX_LENGTH];
+        line[0] = (byte) first;
+        int length = 1;
+        while (length < 2 || line[length - 2] != '\r' || line[length - 1] != '\n') {
+            if (length == MAX_LENGTH) {
+                throw new IOException("Header too long");
+            }
+            int next = in.read();
+            if (next < 0) {
+                throw new IOException("Connection closed in the header");
+            }
+            line[length++] = (byte) next;
+        }
+        if (!Arrays.equals(line, 0, SIGNATURE.length, SIGNATURE, 0, SIGNATURE.length)) {
+            throw new IOException("Not a PROXY header");
+        }
+
+        // PROXY TCP4|TCP6 source destination sourcePort destinationPort
+        String[] fields = new String(line, 0, length - 2, StandardCharsets.US_ASCII).split(" ");
+        if (fields.length >= 2 && fields[1].equals("UNKNOWN")) {
+            return null;
+        }
+        if (fields.length != 6 || !isAddressLiteral(fields[2])) {
+            throw new IOException("Malformed header");
+        }
+        try {
+            return new InetSocketAddress(InetAddress.getByName(fields[2]), Integer.parseInt(fields[4]));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed header", e);
+        }
+    }
+
+    /**
+     * Only IP literals are accepted, so reading the header never triggers a name lookup.
+     */
+    private static boolean isAddressLiteral(String address) {
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (Character.digit(c, 16) < 0 && c != '.' && c != ':') {
+                return false;
+            }
+        }
+        return !address.isEmpty();
+    }
+
+    /**
+     * Wraps a connection's stream so that {@link #read(PushbackInputStream)} can look at its first byte.
+     *
+     * @param in the stream
+     * @return the wrapped stream
+     */
+    static PushbackInputStream wrap(InputStream in) {
+        return new PushbackInputStream(in, 1);
+    }
+}
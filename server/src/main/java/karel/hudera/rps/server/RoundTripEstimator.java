@@ -0,0 +1,49 @@
+package karel.hudera.rps.server;
+
+/**
+ * Smoothed round-trip time and jitter of one connection, measured with {@code Ping}/{@code Pong}.
+ * <p>
+ * The estimate follows the TCP retransmission timer (RFC 6298): every sample moves the smoothed
+ * round-trip time by 1/8 of its difference and the jitter, the mean deviation, by 1/4, so a single
+ * slow pong does not swing the estimate. Samples are recorded by the connection's reader thread only,
+ * any thread may read the estimate.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class RoundTripEstimator {
+
+    // Both -1 until the first sample
+    private volatile long smoothedMicros = -1;
+    private volatile long jitterMicros = -1;
+
+    /**
+     * Adds one measured round trip. Called by a single thread.
+     *
+     * @param sampleMicros the measured round-trip time in microseconds
+     */
+    void record(long sampleMicros) {
+        long smoothed = smoothedMicros;
+        if (smoothed < 0) {
+            jitterMicros = sampleMicros / 2;
+            smoothedMicros = sampleMicros;
+            return;
+        }
+        jitterMicros += (Math.abs(sampleMicros - smoothed) - jitterMicros) / 4;
+        smoothedMicros = smoothed + (sampleMicros - smoothed) / 8;
+    }
+
+    /**
+     * @return the smoothed round-trip time in microseconds, or -1 if nothing was measured yet
+     */
+    public long getSmoothedMicros() {
+        return smoothedMicros;
+    }
+
+    /**
+     * @return the mean deviation of the round-trip time in microseconds, or -1 if nothing was measured yet
+     */
+    public long getJitterMicros() {
+        return jitterMicros;
+    }
+}
@@ -0,0 +1,139 @@
+package karel.hudera.rps.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of the round-trip times measured on all connections since the server started.
+ * <p>
+ * Buckets are log-linear: every power of two microseconds is split into {@value #SUB_BUCKETS} equal
+ * buckets, so a reported value is at most 12.5 % above the measured one, from single microseconds up to
+ * hours, in a few hundred counters. Recording is one atomic increment and never allocates.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class RoundTripHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Values up to 2^36 µs, about 19 hours, longer ones are counted in the last bucket
+    private static final int MAX_EXPONENT = 36;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+    // Singleton instance
+    private static RoundTripHistogram instance;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Private constructor for a singleton pattern.
+     */
+    private RoundTripHistogram() {
+    }
+
+    /**
+     * Gets the singleton instance of the RoundTripHistogram.
+     *
+     * @return The RoundTripHistogram instance
+     */
+    public static synchronized RoundTripHistogram getInstance() {
+        if (instance == null) {
+            instance = new RoundTripHistogram();
+        }
+        return instance;
+    }
+
+    /**
+     * Counts one round trip.
+     *
+     * @param micros the round-trip time in microseconds
+     */
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(MAX_VALUE, micros));
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * @return the number of recorded round trips
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the longest recorded round trip in microseconds
+     */
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    /**
+     * Round-trip time that the given share of the recorded round trips did not exceed.
+     *
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile in microseconds, 0 if nothing was recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] snapshot = getCounts();
+        long total = 0;
+        for (long bucketCount : snapshot) {
+            total += bucketCount;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < snapshot.length; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    /**
+     * Copies the bucket counts, e.g. to export the whole distribution.
+     * The upper bound of bucket {@code i} is {@link #upperBoundOf(int)}.
+     *
+     * @return the count of every bucket
+     */
+    public long[] getCounts() {
+        long[] snapshot = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            snapshot[bucket] = counts.get(bucket);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @param bucket index of a bucket
+     * @return the largest value in microseconds that falls into the bucket
+     */
+    public static long upperBoundOf(int bucket) {
+        return bucket == BUCKETS - 1 ? MAX_VALUE : lowerBoundOf(bucket + 1) - 1;
+    }
+
+    private static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+}
@@ -1,7 +1,10 @@
 package karel.hudera.rps.server;
 
+import karel.hudera.rps.auth.PresenceRegistry;
+import karel.hudera.rps.cluster.ClusterNode;
 import karel.hudera.rps.constants.Constants;
 import karel.hudera.rps.game.GameManager;
+import karel.hudera.rps.state.ServerState;
 import karel.hudera.rps.utils.ServerLogger;
 
 import java.io.IOException;
@@ -30,7 +33,7 @@ public class Server implements Runnable {
 
     private static final Logger logger = ServerLogger.INSTANCE;
 
-    private ServerSocket serverSocket;
+    private volatile ServerSocket serverSocket;
     private int portNumber;
     private List<Thread> connections;
     private volatile boolean isRunning;
@@ -55,14 +58,40 @@ public class Server implements Runnable {
      * to accept and handle client connections. For each new connection, a {@link ClientHandler}
      * is created and started in a new thread.
      * </p>
+     *
+     * @return false if the server refused to start, true once a started server stops
      */
-    public void initialize() {
+    public boolean initialize() {
+        try {
+            // A server that was asked to share presence with the other processes must not run without it
+            PresenceRegistry.open();
+        } catch (IOException e) {
+            logger.severe(String.format(Constants.ERROR_SERVER_NOT_STARTED, e.getMessage()));
+            shutdown();
+            return false;
+        }
+
+        try {
+            // Restore the leaderboard, statistics and history index before the first game ends
+            ServerState.getInstance();
+        } catch (IOException e) {
+            logger.severe(String.format(Constants.ERROR_STATE_RECOVERY, e.getMessage()));
+        }
+
+        try {
+            // Join the other nodes if the server runs in a cluster
+            ClusterNode.getInstance().start();
+        } catch (IOException e) {
+            logger.severe(String.format(Constants.ERROR_CLUSTER_START, e.getMessage()));
+        }
+
         try {
             serverSocket = new ServerSocket(portNumber);
             logger.info(Constants.LOG_SERVER_RUNNING);
 
             while (isRunning) {
                 Socket clientSocket = serverSocket.accept();
+                clientSocket.setTcpNoDelay(true);
                 ClientHandler clientHandler = new ClientHandler(clientSocket);
                 Thread thread = new Thread(clientHandler);
                 connections.add(thread);
@@ -74,6 +103,25 @@ public class Server implements Runnable {
             logger.info(Constants.LOG_SERVER_STOPPED);
             shutdown();
         }
+        return true;
+    }
+
+    /**
+     * Returns the port the server socket is bound to.
+     * Useful when the server was created with port {@code 0} and the system picked an ephemeral port.
+     *
+     * @return the local port, or -1 if the server socket is not bound yet
+     */
+    public int getLocalPort() {
+        ServerSocket socket = serverSocket;
+        return socket != null && socket.isBound() ? socket.getLocalPort() : -1;
+    }
+
+    /**
+     * Stops accepting new connections and closes the server socket.
+     */
+    public void stop() {
+        shutdown();
     }
 
     /**
@@ -0,0 +1,318 @@
+package karel.hudera.rps.state;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.history.MatchHistoryIndex;
+import karel.hudera.rps.history.MatchHistoryStore;
+import karel.hudera.rps.history.MatchRecord;
+import karel.hudera.rps.leaderboard.Leaderboard;
+import karel.hudera.rps.stats.PlayerStatsAggregator;
+import karel.hudera.rps.utils.ServerLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * Server state derived from the match history: the leaderboard, player statistics and the history index.
+ * <p>
+ * The history is the log of everything that happened; the derived structures consume it strictly in
+ * sequence order, one game at a time under the state lock, so together they always reflect exactly
+ * the games up to {@link #getAppliedThrough()}. Every {@link Constants#SNAPSHOT_INTERVAL_MS} a compact
+ * snapshot of them is written next to the history. On startup the snapshot is loaded and only the games
+ * recorded after it are replayed, so restarting does not read the whole history.
+ * </p>
+ * <p>
+ * A snapshot is only written after the games it covers were forced to disk, so it never claims games
+ * the history lost in a crash. A snapshot that is damaged, from another version or ahead of the history
+ * is ignored and everything is rebuilt from the history. So is one that passes its checksum but cannot be
+ * restored, or after which the newer games cannot be applied: the structures are thrown away and rebuilt
+ * from empty. The background threads only start once the state is recovered.
+ * </p>
+ * <pre>
+ * long magic, int version, long last applied sequence, long createdAt,
+ * leaderboard, player statistics, history index, int CRC32C of everything before it
+ * </pre>
+ *
+ * @author Karel Hudera
+ */
+public final class ServerState {
+
+    private static final Logger logger = ServerLogger.INSTANCE;
+
+    static final long SNAPSHOT_MAGIC = 0x5250535354415445L; // "RPSSTATE"
+    static final int SNAPSHOT_VERSION = 1;
+    private static final int HEADER_SIZE = 8 + 4 + 8 + 8;
+
+    // Singleton instance
+    private static ServerState instance;
+
+    private final MatchHistoryStore store;
+    private final Path snapshotFile;
+    // Only replaced while the constructor recovers the state
+    private Leaderboard leaderboard;
+    private PlayerStatsAggregator stats;
+    private MatchHistoryIndex historyIndex;
+
+    // Orders applying games and copying the structures for a snapshot. Not a monitor, so the
+    // virtual threads recording games do not pin their carriers while they wait for it.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Sequence of the last game applied to the derived structures, only written under the lock
+    private volatile long appliedThrough;
+
+    // Sequence covered by the last snapshot written or loaded
+    private volatile long snapshotThrough;
+
+    /**
+     * Restores the state from the snapshot file and the history recorded after it.
+     * The benchmarks create instances with {@code startBackgroundThreads == false}.
+     *
+     * @param store                  the match history
+     * @param snapshotFile           where snapshots are written; need not exist
+     * @param startBackgroundThreads whether to start the snapshot, leaderboard and statistics threads
+     * @throws IOException if not even the whole history can be applied
+     */
+    public ServerState(MatchHistoryStore store, Path snapshotFile, boolean startBackgroundThreads) throws IOException {
+        this.store = store;
+        this.snapshotFile = snapshotFile;
+
+        long started = System.nanoTime();
+        long restored;
+        long through;
+        try {
+            reset();
+            restored = loadSnapshot();
+            through = catchUp();
+        } catch (IOException | RuntimeException e) {
+            logger.warning(String.format(Constants.ERROR_STATE_SNAPSHOT_RESTORE, snapshotFile, e));
+            reset();
+            restored = 0;
+            try {
+                through = catchUp();
+            } catch (RuntimeException historyFailure) {
+                throw new IOException("The match history cannot be applied: " + historyFailure.getMessage(), historyFailure);
+            }
+        }
+        leaderboard.publish();
+        stats.fold();
+        logger.info(String.format(Constants.LOG_STATE_RECOVERED,
+                restored, through - restored, (System.nanoTime() - started) / 1_000_000));
+
+        if (startBackgroundThreads) {
+            leaderboard.startPublisher();
+            stats.startFolder();
+            Thread snapshotThread = new Thread(this::snapshotPeriodically, "StateSnapshotThread");
+            snapshotThread.setDaemon(true);
+            snapshotThread.start();
+        }
+    }
+
+    /**
+     * Gets the singleton instance of the ServerState over {@link MatchHistoryStore#getInstance()},
+     * with the snapshot in the server data directory.
+     *
+     * @return The ServerState instance
+     * @throws IOException if the history cannot be opened or the snapshot cannot be restored
+     */
+    public static synchronized ServerState getInstance() throws IOException {
+        if (instance == null) {
+            Path directory = Path.of(System.getProperty(Constants.DATA_DIR_PROPERTY, Constants.DATA_DIR));
+            instance = new ServerState(MatchHistoryStore.getInstance(), directory.resolve(Constants.SNAPSHOT_FILE), true);
+        }
+        return instance;
+    }
+
+    public Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    public PlayerStatsAggregator getStats() {
+        return stats;
+    }
+
+    public MatchHistoryIndex getHistoryIndex() {
+        return historyIndex;
+    }
+
+    /**
+     * @return the sequence of the last game the derived structures include
+     */
+    public long getAppliedThrough() {
+        return appliedThrough;
+    }
+
+    /**
+     * Applies the games appended to the history since the last call, in sequence order.
+     * Called after every recorded game, so a player's next query already sees it.
+     *
+     * @return the sequence of the last applied game
+     */
+    public long catchUp() {
+        lock.lock();
+        try {
+            store.forEach(appliedThrough + 1, this::apply);
+            return appliedThrough;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void apply(MatchRecord record) {
+        historyIndex.add(record);
+        leaderboard.record(record);
+        stats.recordGame(record);
+        appliedThrough = record.sequence();
+    }
+
+    /**
+     * Writes a snapshot of the derived structures and replaces the previous one.
+     * Games are only held up while the structures are copied, not while the copies are serialized or written.
+     *
+     * @throws IOException if the snapshot cannot be written; the previous snapshot stays in place
+     */
+    public void writeSnapshot() throws IOException {
+        long started = System.nanoTime();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        long through;
+        Leaderboard.Frozen frozenLeaderboard;
+        PlayerStatsAggregator.Frozen frozenStats;
+        MatchHistoryIndex.Frozen frozenIndex;
+        lock.lock();
+        try {
+            through = catchUp();
+            frozenLeaderboard = leaderboard.freeze();
+            frozenStats = stats.freeze();
+            frozenIndex = historyIndex.freeze();
+        } finally {
+            lock.unlock();
+        }
+        out.writeLong(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeLong(through);
+        out.writeLong(System.currentTimeMillis());
+        frozenLeaderboard.write(out);
+        frozenStats.write(out);
+        frozenIndex.write(out);
+        CRC32C crc = new CRC32C();
+        byte[] content = bytes.toByteArray();
+        crc.update(content);
+
+        // Every game the snapshot covers has to be on disk before the snapshot is
+        store.flush();
+        Path directory = snapshotFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(content.length + 4).put(content).putInt((int) crc.getValue()).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshotThrough = through;
+        logger.info(String.format(Constants.LOG_STATE_SNAPSHOT_WRITTEN,
+                through, content.length + 4, (System.nanoTime() - started) / 1_000_000));
+    }
+
+    /**
+     * Replaces the derived structures with empty ones that include no games.
+     */
+    private void reset() {
+        leaderboard = new Leaderboard(false);
+        stats = new PlayerStatsAggregator(false);
+        historyIndex = new MatchHistoryIndex(store);
+        appliedThrough = 0;
+        snapshotThrough = 0;
+    }
+
+    /**
+     * Loads the snapshot file into the empty structures.
+     *
+     * @return the sequence of the last game the snapshot covers, 0 if there was no usable snapshot
+     * @throws IOException if the snapshot passed its checksum but could not be restored
+     */
+    private long loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return 0;
+        }
+
+        byte[] content;
+        long through;
+        try {
+            content = Files.readAllBytes(snapshotFile);
+            through = validate(content);
+        } catch (IOException e) {
+            logger.warning(String.format(Constants.ERROR_STATE_SNAPSHOT_INVALID, snapshotFile, e.getMessage()));
+            return 0;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, HEADER_SIZE, content.length - HEADER_SIZE - 4));
+        leaderboard.readSnapshot(in);
+        stats.readSnapshot(in);
+        historyIndex.readSnapshot(in);
+        appliedThrough = through;
+        snapshotThrough = through;
+        return through;
+    }
+
+    /**
+     * Checks the checksum and header of a snapshot.
+     *
+     * @return the sequence of the last game the snapshot covers
+     * @throws IOException if the snapshot cannot be used
+     */
+    private long validate(byte[] content) throws IOException {
+        if (content.length < HEADER_SIZE + 4) {
+            throw new IOException("File is too short");
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(content, 0, content.length - 4);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        if ((int) crc.getValue() != buffer.getInt(content.length - 4)) {
+            throw new IOException("Checksum mismatch");
+        }
+        if (buffer.getLong(0) != SNAPSHOT_MAGIC || buffer.getInt(8) != SNAPSHOT_VERSION) {
+            throw new IOException("Unknown format");
+        }
+        long through = buffer.getLong(12);
+        if (through > store.lastSequence()) {
+            throw new IOException(String.format("Covers game %d, the history ends at %d", through, store.lastSequence()));
+        }
+        return through;
+    }
+
+    /**
+     * Writes a snapshot every {@link Constants#SNAPSHOT_INTERVAL_MS} if games were recorded since the last one.
+     */
+    private void snapshotPeriodically() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(Constants.SNAPSHOT_INTERVAL_MS);
+                if (store.lastSequence() > snapshotThrough) {
+                    writeSnapshot();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warning(String.format(Constants.ERROR_STATE_SNAPSHOT_WRITE, e.getMessage()));
+            } catch (Exception e) {
+                logger.severe(String.format(Constants.ERROR_STATE_SNAPSHOT_WRITE, e.getMessage()));
+            }
+        }
+    }
+}
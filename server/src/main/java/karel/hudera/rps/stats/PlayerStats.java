@@ -0,0 +1,71 @@
+package karel.hudera.rps.stats;
+
+import karel.hudera.rps.game.Move;
+
+import java.util.Arrays;
+
+/**
+ * Folded statistics of one player. Instances are immutable; folding new rounds creates a new instance.
+ *
+ * @author Karel Hudera
+ */
+public final class PlayerStats {
+
+    // Counter layout shared with the round buffers of the aggregator
+    static final int PLAYS = 0;
+    static final int WINS = PLAYS + 3;
+    static final int DECISION_MILLIS = WINS + 3;
+    static final int COUNTERS = DECISION_MILLIS + 1;
+
+    private final String username;
+    private final long[] counters;
+
+    PlayerStats(String username, long[] counters) {
+        this.username = username;
+        this.counters = counters;
+    }
+
+    /**
+     * @return statistics of this player with the given counters added
+     */
+    PlayerStats plus(long[] delta) {
+        long[] sum = Arrays.copyOf(counters, COUNTERS);
+        for (int i = 0; i < COUNTERS; i++) {
+            sum[i] += delta[i];
+        }
+        return new PlayerStats(username, sum);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public long getPlays(Move move) {
+        return counters[PLAYS + move.ordinal()];
+    }
+
+    public long getWins(Move move) {
+        return counters[WINS + move.ordinal()];
+    }
+
+    public long getRounds() {
+        return counters[PLAYS] + counters[PLAYS + 1] + counters[PLAYS + 2];
+    }
+
+    public long getAverageDecisionMillis() {
+        long rounds = getRounds();
+        return rounds == 0 ? 0 : counters[DECISION_MILLIS] / rounds;
+    }
+
+    long[] counters() {
+        return counters.clone();
+    }
+
+    long[] plays() {
+        return Arrays.copyOfRange(counters, PLAYS, PLAYS + 3);
+    }
+
+    long[] wins() {
+        return Arrays.copyOfRange(counters, WINS, WINS + 3);
+    }
+}
@@ -0,0 +1,250 @@
+package karel.hudera.rps.stats;
+
+import karel.hudera.rps.constants.Constants;
+import karel.hudera.rps.game.GameSession;
+import karel.hudera.rps.game.Move;
+import karel.hudera.rps.game.Result;
+import karel.hudera.rps.game.StatsResponse;
+import karel.hudera.rps.history.MatchRecord;
+import karel.hudera.rps.leaderboard.LeaderboardEntry;
+import karel.hudera.rps.leaderboard.LeaderboardSnapshot;
+import karel.hudera.rps.utils.ServerLogger;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Collects per-player move frequencies, wins by move and decision times from every played round.
+ * The rounds of a game are counted when the game is recorded in the match history, so the statistics
+ * always cover exactly the recorded games and can be restored from a server state snapshot.
+ * <p>
+ * Games are recorded one at a time by the server state, which applies them in sequence order. Their rounds
+ * are counted into a small map of pending counters. Every {@link Constants#STATS_FOLD_INTERVAL_MS} a
+ * background thread swaps that map for an empty one and folds it into the per-user table of immutable
+ * {@link PlayerStats}, which queries read without locking. Recording only waits for the swap, never for
+ * the fold.
+ * </p>
+ *
+ * @author Karel Hudera
+ */
+public final class PlayerStatsAggregator {
+
+    private static final Logger logger = ServerLogger.INSTANCE;
+
+    // Counters of the rounds recorded since the last fold, by lower-case username, guarded by pendingLock.
+    // Not a monitor: games are recorded on virtual threads, which must not pin their carrier while the fold swaps
+    private final ReentrantLock pendingLock = new ReentrantLock();
+    private Map<String, Pending> pending = new HashMap<>();
+
+    // Folded statistics by lower-case username, only written by the folding thread
+    private final Map<String, PlayerStats> statsByUser = new ConcurrentHashMap<>();
+
+    private static final class Pending {
+        final String username;
+        final long[] counters = new long[PlayerStats.COUNTERS];
+
+        Pending(String username) {
+            this.username = username;
+        }
+    }
+
+    /**
+     * Creates an empty aggregator, optionally without its folding thread.
+     * The benchmarks create instances with {@code startFolder == false} and call {@link #fold()} themselves.
+     *
+     * @param startFolder whether to start the thread that folds the recorded rounds
+     */
+    public PlayerStatsAggregator(boolean startFolder) {
+        if (startFolder) {
+            startFolder();
+        }
+    }
+
+    /**
+     * Starts the thread that folds the recorded rounds, for an aggregator created without it.
+     */
+    public void startFolder() {
+        Thread folderThread = new Thread(this::foldPeriodically, "StatsFolderThread");
+        folderThread.setDaemon(true);
+        folderThread.start();
+    }
+
+    /**
+     * Counts the rounds of a game that was appended to the history. Only the server state calls this,
+     * one game at a time under its lock, which keeps the pending counters in sequence order.
+     *
+     * @param record the game, finished or abandoned
+     */
+    public void recordGame(MatchRecord record) {
+        if (record.rounds().isEmpty()) {
+            return;
+        }
+        String key1 = record.player1().toLowerCase();
+        String key2 = record.player2().toLowerCase();
+        pendingLock.lock();
+        try {
+            long[] counters1 = pending.computeIfAbsent(key1, k -> new Pending(record.player1())).counters;
+            long[] counters2 = pending.computeIfAbsent(key2, k -> new Pending(record.player2())).counters;
+            for (MatchRecord.Round round : record.rounds()) {
+                // A blitz round lost on time says nothing about the moves
+                if (round.timedOut()) {
+                    continue;
+                }
+                Result result1 = GameSession.resolveRound(round.player1Move(), round.player2Move());
+                count(counters1, round.player1Move(), result1, round.player1DecisionMillis());
+                count(counters2, round.player2Move(), GameSession.opposite(result1), round.player2DecisionMillis());
+            }
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Counts one round of one player.
+     *
+     * @param counters       the player's pending counters
+     * @param move           the player's move
+     * @param result         the round result from the player's point of view
+     * @param decisionMillis how long the player took to send the move
+     */
+    private static void count(long[] counters, Move move, Result result, long decisionMillis) {
+        counters[PlayerStats.PLAYS + move.ordinal()]++;
+        if (result == Result.WIN) {
+            counters[PlayerStats.WINS + move.ordinal()]++;
+        }
+        counters[PlayerStats.DECISION_MILLIS] += decisionMillis;
+    }
+
+    /**
+     * @param username the username, in any case
+     * @return the folded statistics of the player, or null if the player has not played yet
+     */
+    public PlayerStats get(String username) {
+        return statsByUser.get(username.toLowerCase());
+    }
+
+    /**
+     * Answers a stats request with the folded statistics and the player's place on the leaderboard.
+     *
+     * @param username    the player whose statistics are requested
+     * @param leaderboard the current leaderboard
+     * @return the response, with zero counts if the player has not played yet
+     */
+    public StatsResponse query(String username, LeaderboardSnapshot leaderboard) {
+        PlayerStats stats = get(username);
+        long[] plays = stats == null ? new long[3] : stats.plays();
+        long[] wins = stats == null ? new long[3] : stats.wins();
+        long averageDecisionMillis = stats == null ? 0 : stats.getAverageDecisionMillis();
+
+        LeaderboardEntry entry = leaderboard.entry(username);
+        int rating = entry == null ? Constants.LEADERBOARD_INITIAL_RATING : entry.rating();
+        int rank = entry == null ? 0 : entry.rank();
+        return new StatsResponse(stats == null ? username : stats.getUsername(), plays, wins,
+                averageDecisionMillis, rating, rank);
+    }
+
+    /**
+     * Folds the rounds recorded since the last fold into the per-user table.
+     */
+    public synchronized void fold() {
+        Map<String, Pending> folding;
+        pendingLock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            folding = pending;
+            pending = new HashMap<>();
+        } finally {
+            pendingLock.unlock();
+        }
+        for (Map.Entry<String, Pending> entry : folding.entrySet()) {
+            Pending counters = entry.getValue();
+            PlayerStats current = statsByUser.get(entry.getKey());
+            statsByUser.put(entry.getKey(), current == null
+                    ? new PlayerStats(counters.username, counters.counters)
+                    : current.plus(counters.counters));
+        }
+    }
+
+    /**
+     * Folds pending rounds and takes the statistics of all players for a server state snapshot.
+     * Must not run concurrently with {@link #recordGame}. The statistics are immutable, so the result
+     * is written later, while games are recorded again.
+     *
+     * @return the statistics to write
+     */
+    public synchronized Frozen freeze() {
+        fold();
+        return new Frozen(List.copyOf(statsByUser.values()));
+    }
+
+    /**
+     * Statistics of all players, taken by {@link #freeze()}.
+     */
+    public static final class Frozen {
+        private final List<PlayerStats> players;
+
+        private Frozen(List<PlayerStats> players) {
+            this.players = players;
+        }
+
+        /**
+         * Writes the statistics for a server state snapshot.
+         *
+         * @param out the snapshot being written
+         * @throws IOException if writing fails
+         */
+        public void write(DataOutput out) throws IOException {
+            out.writeInt(players.size());
+            for (PlayerStats stats : players) {
+                out.writeUTF(stats.getUsername());
+                for (long counter : stats.counters()) {
+                    out.writeLong(counter);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores the statistics written by {@link Frozen#write} into this empty aggregator.
+     *
+     * @param in the snapshot being read
+     * @throws IOException if reading fails
+     */
+    public synchronized void readSnapshot(DataInput in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String username = in.readUTF();
+            long[] counters = new long[PlayerStats.COUNTERS];
+            for (int c = 0; c < counters.length; c++) {
+                counters[c] = in.readLong();
+            }
+            statsByUser.put(username.toLowerCase(), new PlayerStats(username, counters));
+        }
+    }
+
+    /**
+     * Periodically folds the recorded rounds.
+     */
+    private void foldPeriodically() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(Constants.STATS_FOLD_INTERVAL_MS);
+                fold();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warning(String.format(Constants.ERROR_STATS_FOLD, e.getMessage()));
+            } catch (Exception e) {
+                logger.severe(String.format(Constants.ERROR_STATS_FOLD, e.getMessage()));
+            }
+        }
+    }
+}
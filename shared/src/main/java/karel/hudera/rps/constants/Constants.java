@@ -10,12 +10,126 @@ package karel.hudera.rps.constants;
 public final class Constants {
     // Server configuration
     public static final int PORT = 9090;
+    // System property overriding the port clients connect to, e.g. for several nodes on one host
+    public static final String PORT_PROPERTY = "rps.port";
     public static final String SERVER_ADDRESS = "localhost";
     public static final int MAX_THREADS = 9;
+    // System property with a path to a users file that replaces the bundled users.properties
+    public static final String USERS_FILE_PROPERTY = "rps.users";
+    // PBKDF2 iterations used by CredentialStoreWriter unless given on the command line
+    public static final int CREDENTIAL_HASH_ITERATIONS = 100_000;
+    // Slots of the verified-login cache in front of the credential store
+    public static final int CREDENTIAL_CACHE_SIZE = 4096;
+    // Longest username in UTF-8 bytes, the match history stores names in fixed-size fields
+    public static final int USERNAME_MAX_BYTES = 47;
+    // Delay between a change of the users file and its reload
+    public static final long USERS_FILE_RELOAD_DELAY_MS = 200;
+    // Login attempts allowed per client address and per username: a burst, then a sustained rate
+    public static final int LOGIN_ADDRESS_BURST = 30;
+    public static final int LOGIN_ADDRESS_ATTEMPTS_PER_MINUTE = 120;
+    public static final int LOGIN_USERNAME_BURST = 5;
+    public static final int LOGIN_USERNAME_ATTEMPTS_PER_MINUTE = 10;
+    public static final int LOGIN_RATE_LIMIT_STRIPES = 4096;
+    // System properties overriding the per-address limit, e.g. for load tests from a single host
+    public static final String LOGIN_ADDRESS_BURST_PROPERTY = "rps.login.addressBurst";
+    public static final String LOGIN_ADDRESS_RATE_PROPERTY = "rps.login.addressAttemptsPerMinute";
+    // System properties overriding the per-username limit, e.g. for load tests cycling through many accounts
+    public static final String LOGIN_USERNAME_BURST_PROPERTY = "rps.login.usernameBurst";
+    public static final String LOGIN_USERNAME_RATE_PROPERTY = "rps.login.usernameAttemptsPerMinute";
+    // How long a game waits for a disconnected player to resume the session
+    public static final long SESSION_RESUME_GRACE_MS = 30_000;
+    // Events of a watched game a spectator may fall behind by; further events are skipped for it
+    public static final int SPECTATOR_QUEUE_EVENTS = 16;
+    // Object streams are reset after this many messages, so neither side keeps a handle to every message it saw
+    public static final int STREAM_RESET_MESSAGES = 256;
+    // Messages waiting to be written to a client; a client that lets more pile up is stuck and gets disconnected
+    public static final int CLIENT_OUTBOX_MESSAGES = 4_096;
+    // Games a connection may play besides its main game, each opened with a QueueRequest
+    public static final int MAX_GAMES_PER_CONNECTION = 512;
+    // Fastest speed-up a replay of a recorded game may be streamed at
+    public static final int REPLAY_MAX_SPEED = 64;
+    // Connections that send nothing for this long are closed, checked every PRESENCE_SWEEP_INTERVAL_MS
+    public static final long PRESENCE_IDLE_TIMEOUT_MS = 15 * 60_000;
+    public static final long PRESENCE_SWEEP_INTERVAL_MS = 5_000;
+    // File of the presence table shared by the server processes on one host, e.g. /dev/shm/rps-presence,
+    // and its number of entries; without the property every process only knows its own users
+    public static final String PRESENCE_TABLE_PROPERTY = "rps.presence.table";
+    public static final int PRESENCE_TABLE_SLOTS = 1 << 16;
+    // Logged-in connections are pinged at this interval; a peer that sends nothing for PEER_TIMEOUT_MS is considered dead
+    public static final long PING_INTERVAL_MS = 2_000;
+    public static final int PEER_TIMEOUT_MS = 6_000;
+    // Matchmaking latency bands: under 25 ms, under 50 ms, ... doubling, the last band takes everything slower.
+    // Every interval a player waits it accepts opponents one band further away.
+    public static final int MATCHMAKING_BAND_BASE_MS = 25;
+    public static final int MATCHMAKING_BANDS = 7;
+    public static final long MATCHMAKING_RELAX_INTERVAL_MS = 1_000;
+    // Match formats: most rounds of a best-of match, most wins of a first-to match, longest blitz move time,
+    // and the rounds after which any match ends, which is what a match history record holds
+    public static final int MATCH_MAX_BEST_OF = 9;
+    public static final int MATCH_MAX_FIRST_TO = 5;
+    public static final int MATCH_MAX_BLITZ_SECONDS = 10;
+    public static final int MATCH_ROUND_LIMIT = 24;
+    // Rooms: longest room name, length of a private room's invite code and public rooms per RoomListResponse
+    public static final int ROOM_NAME_MAX_LENGTH = 32;
+    public static final int ROOM_INVITE_CODE_LENGTH = 6;
+    public static final int ROOM_LIST_PAGE = 50;
+    // Cluster mode: the port other nodes connect to, the addresses of nodes to join (host:port, comma separated),
+    // the host other nodes reach this one at, which is also the address the port is bound to, its id and the
+    // secret every node of the cluster shares. Without the port the server runs on its own.
+    public static final String CLUSTER_PORT_PROPERTY = "rps.cluster.port";
+    public static final String CLUSTER_PEERS_PROPERTY = "rps.cluster.peers";
+    public static final String CLUSTER_HOST_PROPERTY = "rps.cluster.host";
+    public static final String CLUSTER_NODE_ID_PROPERTY = "rps.cluster.nodeId";
+    public static final String CLUSTER_SECRET_PROPERTY = "rps.cluster.secret";
+    // Nodes gossip the cluster members and redial lost peers at this interval
+    public static final long CLUSTER_GOSSIP_INTERVAL_MS = 1_000;
+    public static final int CLUSTER_CONNECT_TIMEOUT_MS = 1_000;
+    // A node that does not answer a claim for its waiting player in time keeps the player
+    public static final long CLUSTER_CLAIM_TIMEOUT_MS = 2_000;
+    // Running games are replicated to the standby node in batches at this interval
+    public static final long CLUSTER_REPLICATION_INTERVAL_MS = 50;
+    // Router: the backend servers (host:port, comma separated), ring positions per backend, how often a backend
+    // that is down is probed, how long a backend may take to accept a connection and to answer with its stream
+    // header, and how long and how many bytes a client may take to send its LoginRequest
+    public static final String ROUTER_BACKENDS_PROPERTY = "rps.router.backends";
+    public static final int ROUTER_VIRTUAL_NODES = 160;
+    public static final long ROUTER_PROBE_INTERVAL_MS = 1_000;
+    public static final int ROUTER_CONNECT_TIMEOUT_MS = 1_000;
+    public static final int ROUTER_BACKEND_HANDSHAKE_TIMEOUT_MS = 2_000;
+    public static final int ROUTER_LOGIN_TIMEOUT_MS = 10_000;
+    public static final int ROUTER_LOGIN_MAX_BYTES = 4_096;
+    // Each direction of a routed connection copies through a direct buffer of this size
+    public static final int ROUTER_BUFFER_BYTES = 8_192;
+    // Addresses (comma separated) allowed to pass on the client address with a PROXY protocol header, e.g. the router
+    public static final String TRUSTED_PROXIES_PROPERTY = "rps.trustedProxies";
+    // The round-trip time histogram of all connections is logged at this interval
+    public static final long RTT_REPORT_INTERVAL_MS = 60_000;
+
+    // Directory for server data such as the match history, overridable with the system property
+    public static final String DATA_DIR = "data";
+    public static final String DATA_DIR_PROPERTY = "rps.data";
+    // 256-byte records per match history segment, 64 MiB each
+    public static final int HISTORY_SEGMENT_RECORDS = 1 << 18;
+    // Appended games are forced to disk in batches at this interval
+    public static final long HISTORY_FLUSH_INTERVAL_MS = 200;
+    // Most games returned for one HistoryRequest
+    public static final int HISTORY_QUERY_MAX_GAMES = 50;
+    // Elo rating of a new player, the most a single game can move it, and the highest rating stored
+    public static final int LEADERBOARD_INITIAL_RATING = 1200;
+    public static final int LEADERBOARD_K_FACTOR = 32;
+    public static final int LEADERBOARD_MAX_RATING = 4000;
+    // Leaderboard reads see the state of at most this long ago
+    public static final long LEADERBOARD_PUBLISH_INTERVAL_MS = 1_000;
+    // Rounds counted by the stats aggregator are folded into the per-player table at this interval
+    public static final long STATS_FOLD_INTERVAL_MS = 500;
+    // Snapshot of the leaderboard, statistics and history index in the data directory, rewritten at this interval
+    public static final String SNAPSHOT_FILE = "state.snap";
+    public static final long SNAPSHOT_INTERVAL_MS = 60_000;
 
     // Log files
     public static final String LOG_FILE_S = "server.log";
     public static final String LOG_FILE_C = "client.log";
+    public static final String LOG_FILE_R = "router.log";
 
     // Game moves
     public static final String ROCK = "ROCK";
@@ -111,7 +225,13 @@ public final class Constants {
     public static final String LOG_GAME_MANAGER_STARTED = "Game Manager started successfully";
     public static final String LOG_GAME_MANAGER_SHUTDOWN = "Game Manager is shutting down";
     public static final String LOG_PLAYER_WAITING = "Player %s added to waiting queue";
+    public static final String LOG_PLAYER_WAITING_FOR_FORMAT = "Player %s added to waiting queue of %s";
     public static final String LOG_PLAYER_LEFT_QUEUE = "Player %s removed from waiting queue";
+    public static final String LOG_MESSAGE_DROPPED = "Dropped message %2$s from %1$s, who cannot send it now";
+    public static final String LOG_PLAYER_WAITING_IN_ROOM = "Player %s waiting in room %s";
+    public static final String ERROR_TOO_MANY_GAMES = "Client %s already plays %d games besides its main game";
+    public static final String ERROR_CLIENT_STUCK = "Client %s did not read %d queued messages, closing the connection";
+    public static final String LOG_ROOM_CREATED = "Room %s created by %s";
     public static final String LOG_GAME_STARTED = "Game session started between %s and %s";
     public static final String LOG_GAME_TIE = "Game between %s and %s ended in a tie with move: %s";
     public static final String LOG_GAME_WINNER = "Player %s won against %s with move %s vs %s";
@@ -120,8 +240,69 @@ public final class Constants {
     public static final String ERROR_MATCHMAKING_INTERRUPTED = "Matchmaking thread was interrupted: %s";
     public static final String ERROR_MATCHMAKING_FAILURE = "Error in matchmaking process: %s";
     public static final String ERROR_GAME_SESSION_FAILURE = "Error in game session between %s and %s: %s";
-    public static final String ERROR_GAME_COMMUNICATION = "Error communicating in game between %s and %s: %s";
     public static final String ERROR_PLAY_AGAIN_HANDLING = "Error handling play again requests: %s";
     public static final String ERROR_CLEANUP_INTERRUPTED = "Session cleanup thread was interrupted: %s";
     public static final String ERROR_CLEANUP_FAILURE = "Error in session cleanup process: %s";
+
+    // Session resumption
+    public static final String MSG_SESSION_RESUMED = "Session resumed";
+    public static final String MSG_LOGIN_RATE_LIMITED = "Too many login attempts, please try again later";
+    public static final String MSG_USERNAME_TOO_LONG = "Username is longer than " + USERNAME_MAX_BYTES + " bytes";
+    public static final String MSG_SESSION_EXPIRED = "Session expired, please log in again";
+    public static final String LOG_WAITING_FOR_RESUME = "GameSession: %s lost connection, waiting up to %d ms for the session to resume";
+    public static final String LOG_SESSION_RESUMED = "GameSession: %s resumed the session from %s";
+    public static final String LOG_CREDENTIALS_LOADED = "Loaded %d users from %s";
+    public static final String ERROR_CREDENTIALS_LOAD = "Error loading users from %s: %s";
+    public static final String ERROR_CREDENTIALS_WATCH = "Stopped watching %s for user changes: %s";
+    public static final String LOG_HISTORY_OPENED = "Match history opened: %d games in %d segments at %s";
+    public static final String LOG_HISTORY_SEGMENT_CREATED = "Match history segment created: %s";
+    public static final String LOG_HISTORY_SEGMENT_DISCARDED = "Discarding incomplete match history segment %s";
+    public static final String LOG_HISTORY_RECOVERED = "Match history segment %s was cut off after %d games, continuing from there";
+    public static final String ERROR_HISTORY_SEGMENT_INVALID = "Skipping unreadable match history segment %s";
+    public static final String ERROR_HISTORY_RECORD_INVALID = "Match history record %d in %s is damaged, reading it as a missing game";
+    public static final String ERROR_HISTORY_FLUSH = "Error flushing match history: %s";
+    public static final String ERROR_HISTORY_APPEND = "Failed to record game between %s and %s: %s";
+    public static final String LOG_STATE_RECOVERED = "Server state restored from a snapshot of %d games and %d newer games in %d ms";
+    public static final String LOG_STATE_SNAPSHOT_WRITTEN = "Server state snapshot written through game %d, %d bytes in %d ms";
+    public static final String ERROR_STATE_SNAPSHOT_INVALID = "Ignoring server state snapshot %s, rebuilding from the match history: %s";
+    public static final String ERROR_STATE_SNAPSHOT_RESTORE = "Could not restore server state from snapshot %s, rebuilding from the match history: %s";
+    public static final String ERROR_STATE_SNAPSHOT_WRITE = "Error writing server state snapshot: %s";
+    public static final String ERROR_STATE_RECOVERY = "Could not restore server state: %s";
+    public static final String ERROR_SERVER_NOT_STARTED = "Server not started: %s";
+    public static final String ERROR_LEADERBOARD_PUBLISH = "Error publishing the leaderboard: %s";
+    public static final String ERROR_STATS_FOLD = "Error folding player statistics: %s";
+    public static final String LOG_PRESENCE_IDLE = "PresenceRegistry: %s was idle for too long, closing the connection";
+    public static final String ERROR_PRESENCE_SWEEP = "Error expiring presence entries: %s";
+    public static final String LOG_PRESENCE_TABLE = "PresenceRegistry: sharing presence with the servers on this host through %s";
+    public static final String ERROR_PRESENCE_TABLE = "Could not map the shared presence table %s: %s";
+    public static final String ERROR_PRESENCE_TABLE_FULL = "Shared presence table is full, rejecting the login of %s: all %d slots belong to users online at running servers";
+    public static final String LOG_PEER_TIMEOUT = "No message from %s for %d ms, closing the connection";
+    public static final String LOG_RTT_HISTOGRAM = "Round-trip time over %d pings: p50 %.1f ms, p99 %.1f ms, p999 %.1f ms, max %.1f ms";
+    public static final String ERROR_HEARTBEAT = "Error pinging connections: %s";
+    public static final String LOG_CLUSTER_LISTENING = "Cluster node %s listening for peers on port %d";
+    public static final String LOG_CLUSTER_PEER_CONNECTED = "Cluster peer %s connected from %s";
+    public static final String LOG_CLUSTER_PEER_LOST = "Cluster peer %s lost: %s";
+    public static final String LOG_CLUSTER_REMOTE_MATCH = "Matched %s with %s of cluster node %s";
+    public static final String ERROR_CLUSTER_START = "Could not start the cluster node: %s";
+    public static final String ERROR_CLUSTER_NO_SECRET = "Cluster nodes authenticate each other with a shared secret, set " + CLUSTER_SECRET_PROPERTY;
+    public static final String ERROR_CLUSTER_CONNECT = "Could not connect to cluster peer %s: %s";
+    public static final String ERROR_CLUSTER_HANDSHAKE = "Rejected cluster connection with %s: %s";
+    public static final String ERROR_CLUSTER_GOSSIP = "Error gossiping with cluster peers: %s";
+    public static final String LOG_CLUSTER_STANDBY = "Replicating running games to standby node %s";
+    public static final String LOG_CLUSTER_TAKEOVER = "Taking over %d running games of lost cluster peer %s";
+    public static final String LOG_CLUSTER_REMOTE_RESUME = "Resumed %s in its game taken over by cluster node %s";
+    public static final String LOG_SPECTATOR_WATCHING = "Spectator %s watches the game of %s";
+    public static final String ERROR_SPECTATOR_QUERY = "Failed to answer spectator %s: %s";
+    public static final String ERROR_IN_GAME_QUERY = "Failed to answer %s during a game: %s";
+    public static final String LOG_REPLAY_STARTED = "Replaying game %d to %s at %dx speed";
+    public static final String LOG_SESSION_TAKEN_OVER = "Took over game of %s and %s after round %d, waiting for the players to resume";
+    public static final String ERROR_CLUSTER_REPLICATION = "Error replicating games to the standby node: %s";
+    public static final String LOG_ROUTER_LISTENING = "Router listening on port %d for %d backends";
+    public static final String LOG_ROUTER_BACKEND_DOWN = "Backend %s is down: %s";
+    public static final String LOG_ROUTER_BACKEND_UP = "Backend %s is up again";
+    public static final String ERROR_ROUTER_LOGIN = "Closing client %s before routing it: %s";
+    public static final String ERROR_ROUTER_NO_BACKEND = "No backend available for client %s";
+    public static final String ERROR_ROUTER_START = "Could not start the router: %s";
+    public static final String ERROR_PROXY_HEADER = "Invalid PROXY header from %s: %s";
+    public static final String LOG_RESUME_TIMED_OUT = "GameSession: %s did not resume the session in time";
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package karel.hudera.rps.game;
+
+/**
+ * Klient zakládá místnost a vstupuje do ní. Hráči v místnosti se párují jen mezi sebou, v pořadí,
+ * v jakém přišli. Veřejná místnost je vidět v 'RoomListResponse' a připojit se do ní jde jménem;
+ * do soukromé jen přes kód pozvánky, který server pošle v 'RoomResponse'.
+ * **/
+public class CreateRoomRequest extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private boolean privateRoom;
+    private MatchFormat format;
+
+    /**
+     * @param name        jméno místnosti, u veřejné musí být volné
+     * @param privateRoom true pro soukromou místnost s kódem pozvánky
+     * **/
+    public CreateRoomRequest(String name, boolean privateRoom) {
+        this(name, privateRoom, null);
+    }
+
+    /**
+     * @param name        jméno místnosti, u veřejné musí být volné
+     * @param privateRoom true pro soukromou místnost s kódem pozvánky
+     * @param format      formát všech zápasů v místnosti, null pro 'MatchFormat.STANDARD'
+     * **/
+    public CreateRoomRequest(String name, boolean privateRoom, MatchFormat format) {
+        this.name = name;
+        this.privateRoom = privateRoom;
+        this.format = format;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isPrivateRoom() {
+        return privateRoom;
+    }
+
+    public MatchFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.CREATE_ROOM_REQUEST.id();
+    }
+
+    @Override
+    public String toString() {
+        return "CreateRoomRequest{" +
+                "name='" + name + '\'' +
+                ", privateRoom=" + privateRoom +
+                ", format=" + format +
+                '}';
+    }
+}
@@ -22,6 +22,11 @@ public class GameAction extends GameMessage {
         return choice;
     }
 
+    @Override
+    public int getTypeId() {
+        return MessageType.GAME_ACTION.id();
+    }
+
     @Override
     public String toString() {
         return "GameAction{" +
@@ -0,0 +1,39 @@
+package karel.hudera.rps.game;
+
+/**
+ * Zpráva, která patří ke konkrétní hře. Jedno spojení může hrát víc her najednou: hlavní hru s id 0
+ * a další hry, o které si klient řekl zprávou 'QueueRequest' s vlastním id. Server posílá zprávy
+ * každé hry s jejím id a klient tak posílá i své tahy.
+ * **/
+public abstract class GameEvent extends GameMessage implements Cloneable {
+    private static final long serialVersionUID = 1L;
+
+    private long gameId;
+
+    protected GameEvent() {
+    }
+
+    /**
+     * @param gameId id hry, 0 pro hlavní hru spojení
+     * **/
+    protected GameEvent(long gameId) {
+        this.gameId = gameId;
+    }
+
+    public long getGameId() {
+        return gameId;
+    }
+
+    /**
+     * Kopie zprávy pro hru s daným id. Původní zpráva se nemění, takže ji lze poslat i dalším příjemcům.
+     * **/
+    public GameEvent forGame(long gameId) {
+        try {
+            GameEvent copy = (GameEvent) clone();
+            copy.gameId = gameId;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -6,5 +6,10 @@ import java.io.Serializable;
  * **/
 public abstract class GameMessage implements Serializable {
     private static final long serialVersionUID = 1L;
+
+    /**
+     * @return id typu zprávy z 'MessageType', podle kterého 'MessageDispatcher' vybere obsluhu
+     * **/
+    public abstract int getTypeId();
 }
 
@@ -1,18 +1,67 @@
 package karel.hudera.rps.game;
 
-public class GameMove extends GameMessage{
+public class GameMove extends GameEvent {
     private static final long serialVersionUID = 1L;
 
     private Move move;
+    private int round;
+    // Kdy tah přijal server, podle jeho hodin; klient ho neposílá
+    private transient long receivedAt;
 
     public GameMove(Move move) {
         this.move = move;
     }
 
+    /**
+     * Tah v jedné z více her spojení, viz 'QueueRequest'.
+     * **/
+    public GameMove(long gameId, Move move) {
+        super(gameId);
+        this.move = move;
+    }
+
+    /**
+     * Tah do konkrétního kola. V bleskovém zápase server zahodí tah, který dorazil až po konci svého kola;
+     * tah bez čísla kola by se započítal do kola dalšího.
+     *
+     * @param round číslo kola od 1, 0 pro právě hrané kolo
+     * **/
+    public GameMove(long gameId, int round, Move move) {
+        super(gameId);
+        this.round = round;
+        this.move = move;
+    }
+
     public Move getMove() {
         return move;
     }
 
+    public int getRound() {
+        return round;
+    }
+
+    /**
+     * Poznamená, kdy tah dorazil. Server ho volá hned při přečtení ze spojení, takže doba rozhodování
+     * nezahrnuje čekání tahu na hru.
+     *
+     * @param receivedAt čas přijetí v milisekundách
+     * **/
+    public void markReceived(long receivedAt) {
+        this.receivedAt = receivedAt;
+    }
+
+    /**
+     * @return čas přijetí v milisekundách, 0 pokud ho server nepoznamenal
+     * **/
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.GAME_MOVE.id();
+    }
+
     @Override
     public String toString() {
         return "GameMove{move=" + move + "}";
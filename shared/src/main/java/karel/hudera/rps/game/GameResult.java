@@ -2,7 +2,7 @@ package karel.hudera.rps.game;
 
 import java.io.Serializable;
 
-public class GameResult extends GameMessage {
+public class GameResult extends GameEvent {
     private static final long serialVersionUID = 9L;
     private String player1;
     private String move1;
@@ -58,4 +58,8 @@ public class GameResult extends GameMessage {
         this.result = result;
     }
 
+    @Override
+    public int getTypeId() {
+        return MessageType.GAME_RESULT.id();
+    }
 }
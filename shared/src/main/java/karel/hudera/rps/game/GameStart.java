@@ -1,21 +1,42 @@
 package karel.hudera.rps.game;
 
-public class GameStart extends GameMessage{
+public class GameStart extends GameEvent {
     private static final long serialVersionUID = 7L; // Vždy dobré přidat
 
     private String opponentUsername;
+    private MatchFormat format;
 
+    /**
+     * Začátek přehrávané hry, jejíž formát historie nezná.
+     * **/
     public GameStart(String opponentUsername) {
         this.opponentUsername = opponentUsername;
     }
 
+    public GameStart(String opponentUsername, MatchFormat format) {
+        this.opponentUsername = opponentUsername;
+        this.format = format;
+    }
+
     public String getOpponentUsername() {
         return opponentUsername;
     }
 
+    /**
+     * @return formát zápasu, null u přehrávané hry, jejíž formát historie neuložila; ta skončí zprávou 'GameResult'
+     * **/
+    public MatchFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.GAME_START.id();
+    }
+
     @Override
     public String toString() {
-        return "GameStart{opponentUsername='" + opponentUsername + "'}";
+        return "GameStart{opponentUsername='" + opponentUsername + "', format=" + format + "}";
     }
 
 }
@@ -0,0 +1,42 @@
+package karel.hudera.rps.game;
+
+/**
+ * Klient žádá o historii svých her, volitelně jen proti jednomu soupeři.
+ * Server odpoví zprávou 'HistoryResponse'.
+ * **/
+public class HistoryRequest extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private String opponentUsername;
+    private int limit;
+
+    /**
+     * @param opponentUsername soupeř pro vzájemnou bilanci, nebo null pro všechny hry
+     * @param limit            maximální počet vrácených her
+     * **/
+    public HistoryRequest(String opponentUsername, int limit) {
+        this.opponentUsername = opponentUsername;
+        this.limit = limit;
+    }
+
+    public String getOpponentUsername() {
+        return opponentUsername;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.HISTORY_REQUEST.id();
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryRequest{" +
+                "opponentUsername='" + opponentUsername + '\'' +
+                ", limit=" + limit +
+                '}';
+    }
+}
@@ -0,0 +1,63 @@
+package karel.hudera.rps.game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Odpověď serveru na 'HistoryRequest': poslední hry hráče od nejnovější
+ * a, pokud byl v žádosti soupeř, vzájemná bilance s ním.
+ * **/
+public class HistoryResponse extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    // Konkrétní serializovatelný typ, seznam od volajícího se zkopíruje
+    private ArrayList<MatchSummary> games;
+    private String opponentUsername;
+    private int wins;
+    private int losses;
+    private int draws;
+
+    public HistoryResponse(List<MatchSummary> games, String opponentUsername, int wins, int losses, int draws) {
+        this.games = new ArrayList<>(games);
+        this.opponentUsername = opponentUsername;
+        this.wins = wins;
+        this.losses = losses;
+        this.draws = draws;
+    }
+
+    public List<MatchSummary> getGames() {
+        return games;
+    }
+
+    public String getOpponentUsername() {
+        return opponentUsername;
+    }
+
+    public int getWins() {
+        return wins;
+    }
+
+    public int getLosses() {
+        return losses;
+    }
+
+    public int getDraws() {
+        return draws;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.HISTORY_RESPONSE.id();
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryResponse{" +
+                "games=" + games.size() +
+                ", opponentUsername='" + opponentUsername + '\'' +
+                ", wins=" + wins +
+                ", losses=" + losses +
+                ", draws=" + draws +
+                '}';
+    }
+}
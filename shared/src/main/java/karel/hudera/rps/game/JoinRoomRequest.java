@@ -0,0 +1,35 @@
+package karel.hudera.rps.game;
+
+/**
+ * Klient vstupuje do místnosti podle jména nebo kódu pozvánky, případně místnost opouští
+ * a vrací se do společné fronty. Server odpoví zprávou 'RoomResponse'. Hráč zůstává v místnosti
+ * i po skončení hry, dokud ji neopustí nebo se neodpojí.
+ * **/
+public class JoinRoomRequest extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private String room;
+
+    /**
+     * @param room jméno veřejné místnosti nebo kód pozvánky, null pro opuštění místnosti
+     * **/
+    public JoinRoomRequest(String room) {
+        this.room = room;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.JOIN_ROOM_REQUEST.id();
+    }
+
+    @Override
+    public String toString() {
+        return "JoinRoomRequest{" +
+                "room='" + room + '\'' +
+                '}';
+    }
+}
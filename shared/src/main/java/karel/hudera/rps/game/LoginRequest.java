@@ -8,10 +8,17 @@ public class LoginRequest extends GameMessage{
 
     private String username;
     private String password;
+    // Token z předchozího LoginResponse, pokud se klient po výpadku připojuje zpět do rozehrané hry
+    private String resumeToken;
 
     public LoginRequest(String username, String password) {
+        this(username, password, null);
+    }
+
+    public LoginRequest(String username, String password, String resumeToken) {
         this.username = username;
         this.password = password;
+        this.resumeToken = resumeToken;
     }
 
     public String getUsername() {
@@ -22,10 +29,20 @@ public class LoginRequest extends GameMessage{
         return password;
     }
 
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.LOGIN_REQUEST.id();
+    }
+
     @Override
     public String toString() {
         return "LoginRequest{" +
                 "username='" + username + '\'' +
+                ", resume=" + (resumeToken != null) +
                 '}';
     }
 }
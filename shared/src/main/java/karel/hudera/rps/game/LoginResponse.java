@@ -8,10 +8,17 @@ public class LoginResponse extends GameMessage {
 
     private boolean success;
     private String message;
+    // Token, kterým se klient může po výpadku spojení vrátit do rozehrané hry
+    private String resumeToken;
 
     public LoginResponse(boolean success, String message) {
+        this(success, message, null);
+    }
+
+    public LoginResponse(boolean success, String message, String resumeToken) {
         this.success = success;
         this.message = message;
+        this.resumeToken = resumeToken;
     }
 
     public boolean isSuccess() {
@@ -22,6 +29,15 @@ public class LoginResponse extends GameMessage {
         return message;
     }
 
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.LOGIN_RESPONSE.id();
+    }
+
     @Override
     public String toString() {
         return "LoginResponse{" +
@@ -0,0 +1,125 @@
+package karel.hudera.rps.game;
+
+import karel.hudera.rps.constants.Constants;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Formát zápasu, který si hráč volí ve 'QueueRequest' nebo zakladatel v 'CreateRoomRequest'
+ * a který oba hráči dostanou v 'GameStart'.
+ * <ul>
+ *   <li>'bestOf(n)' - nejvýše n kol včetně remíz; zápas končí dřív, jakmile má jeden hráč náskok větší
+ *   než počet zbývajících kol.</li>
+ *   <li>'firstTo(k)' - hraje se, dokud jeden hráč nevyhraje k kol.</li>
+ *   <li>'blitz(n, s)' - jako 'bestOf(n)', ale na tah je s sekund od začátku kola. Kdo nestihne táhnout,
+ *   kolo prohrává a v 'RoundResult' i v historii má místo tahu null, klient ukáže "TIME OUT"; když
+ *   nestihnou oba, je kolo remíza.</li>
+ * </ul>
+ * Žádný zápas nemá víc než 'MATCH_ROUND_LIMIT' kol; pak rozhodne skóre.
+ * **/
+public final class MatchFormat implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        BEST_OF,
+        FIRST_TO,
+        BLITZ
+    }
+
+    // Dosavadní formát: tři kola
+    public static final MatchFormat STANDARD = bestOf(3);
+
+    private final Kind kind;
+    private final int target;
+    private final int moveSeconds;
+
+    private MatchFormat(Kind kind, int target, int moveSeconds) {
+        this.kind = kind;
+        this.target = target;
+        this.moveSeconds = moveSeconds;
+    }
+
+    public static MatchFormat bestOf(int rounds) {
+        return new MatchFormat(Kind.BEST_OF, rounds, 0);
+    }
+
+    public static MatchFormat firstTo(int wins) {
+        return new MatchFormat(Kind.FIRST_TO, wins, 0);
+    }
+
+    public static MatchFormat blitz(int rounds, int moveSeconds) {
+        return new MatchFormat(Kind.BLITZ, rounds, moveSeconds);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return počet kol u 'bestOf' a 'blitz', počet vítězství u 'firstTo'
+     * **/
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * @return čas na tah v milisekundách, 0 bez omezení
+     * **/
+    public long getMoveMillis() {
+        return moveSeconds * 1_000L;
+    }
+
+    /**
+     * @return true, pokud server formát nabízí: lichý počet kol do 'MATCH_MAX_BEST_OF',
+     * nejvýše 'MATCH_MAX_FIRST_TO' vítězství a nejvýše 'MATCH_MAX_BLITZ_SECONDS' sekund na tah
+     * **/
+    public boolean isSupported() {
+        if (kind == null) {
+            return false;
+        }
+        return switch (kind) {
+            case BEST_OF -> target >= 1 && target <= Constants.MATCH_MAX_BEST_OF && target % 2 == 1;
+            case FIRST_TO -> target >= 1 && target <= Constants.MATCH_MAX_FIRST_TO;
+            case BLITZ -> target >= 1 && target <= Constants.MATCH_MAX_BEST_OF && target % 2 == 1
+                    && moveSeconds >= 1 && moveSeconds <= Constants.MATCH_MAX_BLITZ_SECONDS;
+        };
+    }
+
+    /**
+     * Rozhodne, zda zápas skončil. Klient tak pozná poslední 'RoundResult' ještě před 'GameResult'.
+     *
+     * @param roundsPlayed  odehraná kola
+     * @param score         vyhraná kola jednoho hráče
+     * @param opponentScore vyhraná kola druhého hráče
+     * **/
+    public boolean isOver(int roundsPlayed, int score, int opponentScore) {
+        if (roundsPlayed >= Constants.MATCH_ROUND_LIMIT) {
+            return true;
+        }
+        if (kind == Kind.FIRST_TO) {
+            return Math.max(score, opponentScore) >= target;
+        }
+        return roundsPlayed >= target || Math.abs(score - opponentScore) > target - roundsPlayed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MatchFormat other
+                && kind == other.kind && target == other.target && moveSeconds == other.moveSeconds;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, target, moveSeconds);
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case BEST_OF -> "best of " + target;
+            case FIRST_TO -> "first to " + target;
+            case BLITZ -> "blitz best of " + target + ", " + moveSeconds + " s per move";
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package karel.hudera.rps.game;
+
+import java.io.Serializable;
+
+/**
+ * Jedna odehraná hra v 'HistoryResponse', z pohledu hráče, který o historii žádal.
+ * **/
+public class MatchSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long gameId;
+    private String opponentUsername;
+    private int yourScore;
+    private int opponentScore;
+    private long endedAt;
+    private boolean abandoned;
+
+    public MatchSummary(long gameId, String opponentUsername, int yourScore, int opponentScore,
+                        long endedAt, boolean abandoned) {
+        this.gameId = gameId;
+        this.opponentUsername = opponentUsername;
+        this.yourScore = yourScore;
+        this.opponentScore = opponentScore;
+        this.endedAt = endedAt;
+        this.abandoned = abandoned;
+    }
+
+    public long getGameId() {
+        return gameId;
+    }
+
+    public String getOpponentUsername() {
+        return opponentUsername;
+    }
+
+    public int getYourScore() {
+        return yourScore;
+    }
+
+    public int getOpponentScore() {
+        return opponentScore;
+    }
+
+    public long getEndedAt() {
+        return endedAt;
+    }
+
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    @Override
+    public String toString() {
+        return "MatchSummary{" +
+                "gameId=" + gameId +
+                ", opponentUsername='" + opponentUsername + '\'' +
+                ", score=" + yourScore + ":" + opponentScore +
+                ", abandoned=" + abandoned +
+                '}';
+    }
+}
@@ -0,0 +1,74 @@
+package karel.hudera.rps.game;
+
+import java.io.IOException;
+
+/**
+ * Tabulka obsluh zpráv indexovaná id typu zprávy z 'MessageType'. Rozeslání zprávy je jedno čtení z pole
+ * a jedno volání; zprávu typu, pro který tabulka nemá obsluhu, odmítne bez dalšího zkoumání.
+ * Každý stav příjemce (přihlášení, čekání ve frontě, konec hry, ...) má vlastní tabulku s typy zpráv,
+ * které v tom stavu přijímá. Tabulka se naplní při vytvoření a pak se už nemění, takže ji může sdílet
+ * víc vláken.
+ *
+ * @param <C> kontext, který obsluha dostane spolu se zprávou, např. spojení, od kterého zpráva přišla
+ * **/
+public final class MessageDispatcher<C> {
+
+    /**
+     * Obsluha jednoho typu zprávy.
+     *
+     * @param <C> kontext obsluhy
+     * @param <M> třída zprávy
+     * **/
+    @FunctionalInterface
+    public interface Handler<C, M extends GameMessage> {
+        /**
+         * @return false, pokud obsluha zprávu v této situaci odmítla
+         * **/
+        boolean handle(C context, M message) throws IOException;
+    }
+
+    private final Handler<C, GameMessage>[] handlers;
+
+    @SuppressWarnings("unchecked")
+    public MessageDispatcher() {
+        handlers = (Handler<C, GameMessage>[]) new Handler<?, ?>[MessageType.COUNT];
+    }
+
+    /**
+     * Zaregistruje obsluhu typu zprávy. Typ určuje třídu zprávy, kterou obsluha dostane, takže obsluhu
+     * jiné zprávy pod ním zaregistrovat nejde.
+     *
+     * @param type    typ z 'MessageType'
+     * @param handler obsluha
+     * @return tato tabulka, aby šlo registrace řetězit
+     * **/
+    @SuppressWarnings("unchecked")
+    public <M extends GameMessage> MessageDispatcher<C> on(MessageType<M> type, Handler<C, ? super M> handler) {
+        // Zpráva s id tohoto typu je vždy třídy M, viz 'GameMessage.getTypeId()'
+        handlers[type.id()] = (Handler<C, GameMessage>) handler;
+        return this;
+    }
+
+    /**
+     * Předá zprávu obsluze jejího typu.
+     *
+     * @param context kontext pro obsluhu
+     * @param message zpráva, může být null
+     * @return false, pokud zpráva je null, tabulka pro její typ nemá obsluhu nebo ji obsluha odmítla
+     * **/
+    public boolean dispatch(C context, GameMessage message) throws IOException {
+        if (message == null) {
+            return false;
+        }
+        int typeId = message.getTypeId();
+        Handler<C, GameMessage> handler = typeId >= 0 && typeId < handlers.length ? handlers[typeId] : null;
+        return handler != null && handler.handle(context, message);
+    }
+
+    /**
+     * @return true, pokud tabulka má obsluhu pro zprávy daného typu
+     * **/
+    public boolean accepts(MessageType<?> type) {
+        return handlers[type.id()] != null;
+    }
+}
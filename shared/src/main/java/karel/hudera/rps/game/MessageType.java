@@ -0,0 +1,74 @@
+package karel.hudera.rps.game;
+
+/**
+ * Typy zpráv s jejich číselnými id. Každá zpráva vrací id svého typu z 'GameMessage.getTypeId()', takže příjemce
+ * najde obsluhu indexem do pole, viz 'MessageDispatcher', a nemusí zprávu zkoušet proti řetězu instanceof.
+ * Typ nese třídu zprávy jako typový parametr, takže obsluhu nejde zaregistrovat pod id jiné zprávy.
+ * Id jsou hustá od 0 do 'COUNT' - 1; nový typ zprávy dostane další číslo a 'COUNT' se zvýší.
+ * Id se po síti neposílají, serializace zprávy nese její třídu.
+ *
+ * @param <M> třída zprávy tohoto typu
+ * **/
+public final class MessageType<M extends GameMessage> {
+
+    // Přihlášení nebo obnovení relace
+    public static final MessageType<LoginRequest> LOGIN_REQUEST = new MessageType<>(0, "LOGIN_REQUEST");
+    public static final MessageType<LoginResponse> LOGIN_RESPONSE = new MessageType<>(1, "LOGIN_RESPONSE");
+
+    // Kontrola spojení
+    public static final MessageType<Ping> PING = new MessageType<>(2, "PING");
+    public static final MessageType<Pong> PONG = new MessageType<>(3, "PONG");
+    public static final MessageType<TerminateMessage> TERMINATE = new MessageType<>(4, "TERMINATE");
+
+    // Fronta a hra
+    public static final MessageType<QueueRequest> QUEUE_REQUEST = new MessageType<>(5, "QUEUE_REQUEST");
+    public static final MessageType<GameStart> GAME_START = new MessageType<>(6, "GAME_START");
+    public static final MessageType<GameMove> GAME_MOVE = new MessageType<>(7, "GAME_MOVE");
+    public static final MessageType<GameAction> GAME_ACTION = new MessageType<>(8, "GAME_ACTION");
+    public static final MessageType<RoundResult> ROUND_RESULT = new MessageType<>(9, "ROUND_RESULT");
+    public static final MessageType<GameResult> GAME_RESULT = new MessageType<>(10, "GAME_RESULT");
+    public static final MessageType<OpponentDisconnected> OPPONENT_DISCONNECTED = new MessageType<>(11, "OPPONENT_DISCONNECTED");
+    public static final MessageType<SessionResumed> SESSION_RESUMED = new MessageType<>(12, "SESSION_RESUMED");
+
+    // Historie, statistiky a záznamy her
+    public static final MessageType<HistoryRequest> HISTORY_REQUEST = new MessageType<>(13, "HISTORY_REQUEST");
+    public static final MessageType<HistoryResponse> HISTORY_RESPONSE = new MessageType<>(14, "HISTORY_RESPONSE");
+    public static final MessageType<StatsRequest> STATS_REQUEST = new MessageType<>(15, "STATS_REQUEST");
+    public static final MessageType<StatsResponse> STATS_RESPONSE = new MessageType<>(16, "STATS_RESPONSE");
+    public static final MessageType<ReplayRequest> REPLAY_REQUEST = new MessageType<>(17, "REPLAY_REQUEST");
+    public static final MessageType<ReplayResponse> REPLAY_RESPONSE = new MessageType<>(18, "REPLAY_RESPONSE");
+
+    // Diváci
+    public static final MessageType<SpectateRequest> SPECTATE_REQUEST = new MessageType<>(19, "SPECTATE_REQUEST");
+    public static final MessageType<SpectateResponse> SPECTATE_RESPONSE = new MessageType<>(20, "SPECTATE_RESPONSE");
+
+    // Místnosti
+    public static final MessageType<CreateRoomRequest> CREATE_ROOM_REQUEST = new MessageType<>(21, "CREATE_ROOM_REQUEST");
+    public static final MessageType<JoinRoomRequest> JOIN_ROOM_REQUEST = new MessageType<>(22, "JOIN_ROOM_REQUEST");
+    public static final MessageType<RoomResponse> ROOM_RESPONSE = new MessageType<>(23, "ROOM_RESPONSE");
+    public static final MessageType<RoomListRequest> ROOM_LIST_REQUEST = new MessageType<>(24, "ROOM_LIST_REQUEST");
+    public static final MessageType<RoomListResponse> ROOM_LIST_RESPONSE = new MessageType<>(25, "ROOM_LIST_RESPONSE");
+
+    // Počet typů, velikost tabulky obsluh
+    public static final int COUNT = 26;
+
+    private final int id;
+    private final String name;
+
+    private MessageType(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * @return id typu, index do tabulky obsluh
+     * **/
+    public int id() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
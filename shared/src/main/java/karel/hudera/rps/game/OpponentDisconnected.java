@@ -1,6 +1,6 @@
 package karel.hudera.rps.game;
 
-public class OpponentDisconnected extends GameMessage {
+public class OpponentDisconnected extends GameEvent {
     private static final long serialVersionUID = 1L;
 
     private String disconnectedPlayerName;
@@ -13,6 +13,11 @@ public class OpponentDisconnected extends GameMessage {
         return disconnectedPlayerName;
     }
 
+    @Override
+    public int getTypeId() {
+        return MessageType.OPPONENT_DISCONNECTED.id();
+    }
+
     @Override
     public String toString() {
         return "OpponentDisconnected{" +
@@ -0,0 +1,50 @@
+package karel.hudera.rps.game;
+
+/**
+ * Kontrola spojení, posílá ji server každých 'Constants.PING_INTERVAL_MS' ms.
+ * Příjemce hned odpoví zprávou 'Pong' se stejným časem odeslání, odesílatel z něj spočítá dobu odezvy.
+ * Server k ní přikládá svůj odhad doby odezvy spojení, aby ji klient mohl zobrazit.
+ * **/
+public class Ping extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private long sentAtNanos;
+    private long roundTripMicros;
+    private long jitterMicros;
+
+    /**
+     * @param sentAtNanos     'System.nanoTime()' odesílatele při odeslání
+     * @param roundTripMicros vyhlazená doba odezvy spojení v mikrosekundách, nebo -1, pokud ještě není změřená
+     * @param jitterMicros    kolísání doby odezvy v mikrosekundách, nebo -1
+     * **/
+    public Ping(long sentAtNanos, long roundTripMicros, long jitterMicros) {
+        this.sentAtNanos = sentAtNanos;
+        this.roundTripMicros = roundTripMicros;
+        this.jitterMicros = jitterMicros;
+    }
+
+    public long getSentAtNanos() {
+        return sentAtNanos;
+    }
+
+    public long getRoundTripMicros() {
+        return roundTripMicros;
+    }
+
+    public long getJitterMicros() {
+        return jitterMicros;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.PING.id();
+    }
+
+    @Override
+    public String toString() {
+        return "Ping{" +
+                "roundTripMicros=" + roundTripMicros +
+                ", jitterMicros=" + jitterMicros +
+                '}';
+    }
+}
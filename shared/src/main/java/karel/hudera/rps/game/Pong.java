@@ -0,0 +1,31 @@
+package karel.hudera.rps.game;
+
+/**
+ * Odpověď na 'Ping', vrací odesílateli jeho čas odeslání.
+ * **/
+public class Pong extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private long sentAtNanos;
+
+    /**
+     * @param sentAtNanos čas odeslání z přijatého 'Ping'
+     * **/
+    public Pong(long sentAtNanos) {
+        this.sentAtNanos = sentAtNanos;
+    }
+
+    public long getSentAtNanos() {
+        return sentAtNanos;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.PONG.id();
+    }
+
+    @Override
+    public String toString() {
+        return "Pong{}";
+    }
+}
@@ -0,0 +1,51 @@
+package karel.hudera.rps.game;
+
+/**
+ * Klient se řadí do fronty na další hru. S id 0 jde o hlavní hru spojení, tedy "hrát znovu" po skončení hry.
+ * S jiným id si klient otevírá další hru vedle těch, které už hraje; všechny její zprávy pak nesou toto id
+ * a hra skončí nejpozději s koncem spojení. Id volí klient a nesmí patřit hře, která ještě běží.
+ * Hráč čeká jen na soupeře, který chce hrát stejný formát zápasu.
+ * **/
+public class QueueRequest extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private long gameId;
+    private MatchFormat format;
+
+    /**
+     * @param gameId id hry, 0 pro hlavní hru
+     * **/
+    public QueueRequest(long gameId) {
+        this.gameId = gameId;
+    }
+
+    /**
+     * @param gameId id hry, 0 pro hlavní hru
+     * @param format formát zápasu; null znamená formát poslední hry, případně 'MatchFormat.STANDARD'
+     * **/
+    public QueueRequest(long gameId, MatchFormat format) {
+        this.gameId = gameId;
+        this.format = format;
+    }
+
+    public long getGameId() {
+        return gameId;
+    }
+
+    public MatchFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.QUEUE_REQUEST.id();
+    }
+
+    @Override
+    public String toString() {
+        return "QueueRequest{" +
+                "gameId=" + gameId +
+                ", format=" + format +
+                '}';
+    }
+}
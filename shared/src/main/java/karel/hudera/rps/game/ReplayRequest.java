@@ -0,0 +1,43 @@
+package karel.hudera.rps.game;
+
+/**
+ * Klient chce přehrát odehranou hru z historie. Server odpoví zprávou 'ReplayResponse' a pak posílá
+ * 'GameStart', 'RoundResult' za každé kolo a 'GameResult' ve stejných odstupech, v jakých se hra hrála,
+ * zrychlených podle 'speed'. Hráč hry ji vidí ze svého pohledu, ostatní z pohledu prvního hráče.
+ * **/
+public class ReplayRequest extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private long gameId;
+    private int speed;
+
+    /**
+     * @param gameId id hry z 'MatchSummary'
+     * @param speed  zrychlení, 1 pro skutečnou rychlost
+     * **/
+    public ReplayRequest(long gameId, int speed) {
+        this.gameId = gameId;
+        this.speed = speed;
+    }
+
+    public long getGameId() {
+        return gameId;
+    }
+
+    public int getSpeed() {
+        return speed;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.REPLAY_REQUEST.id();
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayRequest{" +
+                "gameId=" + gameId +
+                ", speed=" + speed +
+                '}';
+    }
+}
@@ -0,0 +1,41 @@
+package karel.hudera.rps.game;
+
+/**
+ * Odpověď na 'ReplayRequest'. Pokud hra v historii je, následují její zprávy.
+ * **/
+public class ReplayResponse extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private long gameId;
+    private boolean available;
+
+    /**
+     * @param gameId    id hry z 'ReplayRequest'
+     * @param available true, pokud se hra přehraje
+     * **/
+    public ReplayResponse(long gameId, boolean available) {
+        this.gameId = gameId;
+        this.available = available;
+    }
+
+    public long getGameId() {
+        return gameId;
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.REPLAY_RESPONSE.id();
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayResponse{" +
+                "gameId=" + gameId +
+                ", available=" + available +
+                '}';
+    }
+}
@@ -0,0 +1,35 @@
+package karel.hudera.rps.game;
+
+/**
+ * Klient žádá o seznam veřejných místností, seřazený podle jména. Server odpoví zprávou
+ * 'RoomListResponse' s nejvýše stránkou místností; další stránku klient dostane s 'after'
+ * nastaveným na poslední jméno předchozí stránky.
+ * **/
+public class RoomListRequest extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private String after;
+
+    /**
+     * @param after jméno, za kterým seznam začíná, null od začátku
+     * **/
+    public RoomListRequest(String after) {
+        this.after = after;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.ROOM_LIST_REQUEST.id();
+    }
+
+    @Override
+    public String toString() {
+        return "RoomListRequest{" +
+                "after='" + after + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,34 @@
+package karel.hudera.rps.game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Odpověď serveru na 'RoomListRequest': veřejné místnosti seřazené podle jména.
+ * **/
+public class RoomListResponse extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    // Konkrétní serializovatelný typ, seznam od volajícího se zkopíruje
+    private ArrayList<RoomSummary> rooms;
+
+    public RoomListResponse(List<RoomSummary> rooms) {
+        this.rooms = new ArrayList<>(rooms);
+    }
+
+    public List<RoomSummary> getRooms() {
+        return rooms;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.ROOM_LIST_RESPONSE.id();
+    }
+
+    @Override
+    public String toString() {
+        return "RoomListResponse{" +
+                "rooms=" + rooms +
+                '}';
+    }
+}
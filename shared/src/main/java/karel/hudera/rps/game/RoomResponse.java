@@ -0,0 +1,50 @@
+package karel.hudera.rps.game;
+
+/**
+ * Odpověď na 'CreateRoomRequest' a 'JoinRoomRequest'. Pokud se vstup nepovedl, hráč zůstává tam,
+ * kde čekal předtím.
+ * **/
+public class RoomResponse extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private String inviteCode;
+    private boolean joined;
+
+    /**
+     * @param name       jméno místnosti, null ve společné frontě
+     * @param inviteCode kód pozvánky soukromé místnosti, jinak null
+     * @param joined     true, pokud hráč teď čeká v této místnosti
+     * **/
+    public RoomResponse(String name, String inviteCode, boolean joined) {
+        this.name = name;
+        this.inviteCode = inviteCode;
+        this.joined = joined;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getInviteCode() {
+        return inviteCode;
+    }
+
+    public boolean isJoined() {
+        return joined;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.ROOM_RESPONSE.id();
+    }
+
+    @Override
+    public String toString() {
+        return "RoomResponse{" +
+                "name='" + name + '\'' +
+                ", inviteCode='" + inviteCode + '\'' +
+                ", joined=" + joined +
+                '}';
+    }
+}
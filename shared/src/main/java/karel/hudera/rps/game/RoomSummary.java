@@ -0,0 +1,54 @@
+package karel.hudera.rps.game;
+
+import java.io.Serializable;
+
+/**
+ * Jedna veřejná místnost v 'RoomListResponse'.
+ * **/
+public class RoomSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private int members;
+    private int waiting;
+    private MatchFormat format;
+
+    /**
+     * @param name    jméno místnosti
+     * @param members počet hráčů v místnosti, včetně těch, kteří právě hrají
+     * @param waiting počet hráčů, kteří v místnosti čekají na soupeře
+     * @param format  formát zápasů v místnosti
+     * **/
+    public RoomSummary(String name, int members, int waiting, MatchFormat format) {
+        this.name = name;
+        this.members = members;
+        this.waiting = waiting;
+        this.format = format;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMembers() {
+        return members;
+    }
+
+    public int getWaiting() {
+        return waiting;
+    }
+
+    public MatchFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public String toString() {
+        return "RoomSummary{" +
+                "name='" + name + '\'' +
+                ", members=" + members +
+                ", waiting=" + waiting +
+                ", format=" + format +
+                '}';
+    }
+}
@@ -1,6 +1,6 @@
 package karel.hudera.rps.game;
 
-public class RoundResult extends GameMessage {
+public class RoundResult extends GameEvent {
     private static final long serialVersionUID = 1L;
 
     private Move yourMove;
@@ -19,7 +19,7 @@ public class RoundResult extends GameMessage {
         this.player2Score = player2Score;
     }
 
-    // Gettery
+    // Gettery, tah je null, pokud hráči v bleskové hře došel čas
     public Move getYourMove() {
         return yourMove;
     }
@@ -40,6 +40,11 @@ public class RoundResult extends GameMessage {
         return player2Score;
     }
 
+    @Override
+    public int getTypeId() {
+        return MessageType.ROUND_RESULT.id();
+    }
+
     @Override
     public String toString() {
         return "RoundResult{" +
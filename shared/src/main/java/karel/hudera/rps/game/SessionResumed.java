@@ -0,0 +1,52 @@
+package karel.hudera.rps.game;
+
+/**
+ * Posílá server klientovi, který se po výpadku spojení vrátil do rozehrané hry.
+ * Obsahuje stav hry, aby klient mohl pokračovat aktuálním kolem.
+ * **/
+public class SessionResumed extends GameEvent {
+    private static final long serialVersionUID = 1L;
+
+    private String opponentUsername;
+    private int round;
+    private int yourScore;
+    private int opponentScore;
+
+    public SessionResumed(String opponentUsername, int round, int yourScore, int opponentScore) {
+        this.opponentUsername = opponentUsername;
+        this.round = round;
+        this.yourScore = yourScore;
+        this.opponentScore = opponentScore;
+    }
+
+    public String getOpponentUsername() {
+        return opponentUsername;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    public int getYourScore() {
+        return yourScore;
+    }
+
+    public int getOpponentScore() {
+        return opponentScore;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.SESSION_RESUMED.id();
+    }
+
+    @Override
+    public String toString() {
+        return "SessionResumed{" +
+                "opponentUsername='" + opponentUsername + '\'' +
+                ", round=" + round +
+                ", yourScore=" + yourScore +
+                ", opponentScore=" + opponentScore +
+                '}';
+    }
+}
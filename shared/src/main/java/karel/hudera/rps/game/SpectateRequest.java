@@ -0,0 +1,36 @@
+package karel.hudera.rps.game;
+
+/**
+ * Klient chce sledovat probíhající hru hráče jako divák. Hru vidí z pohledu tohoto hráče:
+ * dostává jeho zprávy 'GameStart', 'RoundResult' a 'GameResult'. Server odpoví zprávou 'SpectateResponse'.
+ * Jiná zpráva než 'SpectateRequest', 'StatsRequest' nebo 'HistoryRequest' sledování ukončí
+ * a klient se zařadí do fronty hráčů.
+ * **/
+public class SpectateRequest extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private String username;
+
+    /**
+     * @param username hráč, jehož hru klient chce sledovat
+     * **/
+    public SpectateRequest(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.SPECTATE_REQUEST.id();
+    }
+
+    @Override
+    public String toString() {
+        return "SpectateRequest{" +
+                "username='" + username + '\'' +
+                '}';
+    }
+}
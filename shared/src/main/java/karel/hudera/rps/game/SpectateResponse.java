@@ -0,0 +1,43 @@
+package karel.hudera.rps.game;
+
+/**
+ * Odpověď na 'SpectateRequest'. Pokud hráč právě hraje, klient sleduje jeho hru; hned potom dostane
+ * zprávu 'SessionResumed' se stavem hry, pokud už začala. Jinak klient zůstane divákem bez hry
+ * a může požádat o jinou.
+ * **/
+public class SpectateResponse extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private String username;
+    private boolean watching;
+
+    /**
+     * @param username hráč z 'SpectateRequest'
+     * @param watching true, pokud klient jeho hru sleduje
+     * **/
+    public SpectateResponse(String username, boolean watching) {
+        this.username = username;
+        this.watching = watching;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isWatching() {
+        return watching;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.SPECTATE_RESPONSE.id();
+    }
+
+    @Override
+    public String toString() {
+        return "SpectateResponse{" +
+                "username='" + username + '\'' +
+                ", watching=" + watching +
+                '}';
+    }
+}
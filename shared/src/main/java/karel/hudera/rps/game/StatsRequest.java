@@ -0,0 +1,34 @@
+package karel.hudera.rps.game;
+
+/**
+ * Klient žádá o herní statistiky hráče: četnost tahů, úspěšnost jednotlivých tahů
+ * a průměrnou dobu rozhodování. Server odpoví zprávou 'StatsResponse'.
+ * **/
+public class StatsRequest extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private String username;
+
+    /**
+     * @param username hráč, jehož statistiky klient chce, nebo null pro přihlášeného hráče
+     * **/
+    public StatsRequest(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.STATS_REQUEST.id();
+    }
+
+    @Override
+    public String toString() {
+        return "StatsRequest{" +
+                "username='" + username + '\'' +
+                '}';
+    }
+}
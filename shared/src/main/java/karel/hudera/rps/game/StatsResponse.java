@@ -0,0 +1,88 @@
+package karel.hudera.rps.game;
+
+/**
+ * Odpověď serveru na 'StatsRequest'. Počty jsou indexované podle pořadí v 'Move'.
+ * Statistiky se na serveru průběžně sčítají, mohou tedy o chvíli zaostávat za posledním kolem.
+ * **/
+public class StatsResponse extends GameMessage {
+    private static final long serialVersionUID = 1L;
+
+    private String username;
+    private long[] plays;
+    private long[] wins;
+    private long averageDecisionMillis;
+    private int rating;
+    private int rank;
+
+    /**
+     * @param plays                 kolikrát hráč zahrál jednotlivé tahy
+     * @param wins                  kolik kol hráč jednotlivými tahy vyhrál
+     * @param averageDecisionMillis průměrná doba rozhodování v milisekundách
+     * @param rating                Elo hodnocení hráče
+     * @param rank                  pořadí v žebříčku, 0 pokud hráč ještě nedohrál žádnou hru
+     * **/
+    public StatsResponse(String username, long[] plays, long[] wins, long averageDecisionMillis, int rating, int rank) {
+        this.username = username;
+        this.plays = plays;
+        this.wins = wins;
+        this.averageDecisionMillis = averageDecisionMillis;
+        this.rating = rating;
+        this.rank = rank;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public long getPlays(Move move) {
+        return plays[move.ordinal()];
+    }
+
+    public long getWins(Move move) {
+        return wins[move.ordinal()];
+    }
+
+    /**
+     * @return podíl vyhraných kol daným tahem, 0 pokud ho hráč nikdy nezahrál
+     * **/
+    public double getWinRate(Move move) {
+        long played = getPlays(move);
+        return played == 0 ? 0 : (double) getWins(move) / played;
+    }
+
+    public long getRounds() {
+        long rounds = 0;
+        for (long played : plays) {
+            rounds += played;
+        }
+        return rounds;
+    }
+
+    public long getAverageDecisionMillis() {
+        return averageDecisionMillis;
+    }
+
+    public int getRating() {
+        return rating;
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    @Override
+    public int getTypeId() {
+        return MessageType.STATS_RESPONSE.id();
+    }
+
+    @Override
+    public String toString() {
+        return "StatsResponse{" +
+                "username='" + username + '\'' +
+                ", rounds=" + getRounds() +
+                ", averageDecisionMillis=" + averageDecisionMillis +
+                ", rating=" + rating +
+                ", rank=" + rank +
+                '}';
+    }
+}
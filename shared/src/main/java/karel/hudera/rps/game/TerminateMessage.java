@@ -6,6 +6,11 @@ public class TerminateMessage  extends GameMessage{
     // TERMINATE Client notifies server it is disconnecting voluntarily.
     // Tato zpráva nepotřebuje žádná další data.
 
+    @Override
+    public int getTypeId() {
+        return MessageType.TERMINATE.id();
+    }
+
     @Override
     public String toString() {
         return "TerminateMessage{}";